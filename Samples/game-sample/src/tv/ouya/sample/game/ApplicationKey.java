@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import android.content.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * The application's public key, parsed once per process.
+ * <p/>
+ * Activities are recreated on every rotation and after the process is restored,
+ * but the key never changes, so the first Activity to ask loads and parses it and
+ * everyone after that shares the result, along with a PurchaseEncryptor whose
+ * per-thread ciphers stay warm across Activity instances.
+ */
+public class ApplicationKey {
+    /**
+     * Where the DER-encoded key downloaded from the developer portal lives.
+     */
+    public interface Source {
+        byte[] read() throws IOException;
+    }
+
+    private static final Object sLock = new Object();
+    private static volatile ApplicationKey sLoaded;
+
+    private final PublicKey mPublicKey;
+    private final PurchaseEncryptor mPurchaseEncryptor;
+
+    private ApplicationKey(PublicKey publicKey) {
+        mPublicKey = publicKey;
+        mPurchaseEncryptor = new PurchaseEncryptor(publicKey);
+    }
+
+    /**
+     * @param source Only read the first time this is called in the process.
+     */
+    public static ApplicationKey get(Source source) throws IOException, GeneralSecurityException {
+        ApplicationKey key = sLoaded;
+        if (key == null) {
+            synchronized (sLock) {
+                key = sLoaded;
+                if (key == null) {
+                    key = load(source);
+                    sLoaded = key;
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Reads and parses the key without looking at, or filling, the cache.
+     */
+    static ApplicationKey load(Source source) throws IOException, GeneralSecurityException {
+        X509EncodedKeySpec keySpec = new X509EncodedKeySpec(source.read());
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        return new ApplicationKey(keyFactory.generatePublic(keySpec));
+    }
+
+    /**
+     * Forget the loaded key so the next get() reads it again. For tests.
+     */
+    static void clear() {
+        synchronized (sLock) {
+            sLoaded = null;
+        }
+    }
+
+    public PublicKey getPublicKey() {
+        return mPublicKey;
+    }
+
+    public PurchaseEncryptor getPurchaseEncryptor() {
+        return mPurchaseEncryptor;
+    }
+
+    public static Source fromBytes(final byte[] key) {
+        return new Source() {
+            @Override
+            public byte[] read() {
+                return key;
+            }
+        };
+    }
+
+    public static Source fromRawResource(Context context, final int resourceId) {
+        // Don't hold on to the Activity
+        final Context appContext = context.getApplicationContext();
+        return new Source() {
+            @Override
+            public byte[] read() throws IOException {
+                return readFully(appContext.getResources().openRawResource(resourceId));
+            }
+        };
+    }
+
+    /**
+     * Read the whole stream. InputStream.available() is only an estimate, and a
+     * single read() may stop short of it, so neither can size the key.
+     */
+    static byte[] readFully(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
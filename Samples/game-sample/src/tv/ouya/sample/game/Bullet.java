@@ -18,29 +18,33 @@ package tv.ouya.sample.game;
 
 import android.graphics.Color;
 import android.graphics.PointF;
-import android.os.Handler;
-import android.os.Looper;
 
 import javax.microedition.khronos.opengles.GL10;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 public class Bullet extends RenderObject {
     static private final float c_bulletRadius = 0.25f;
-    static private final float c_bulletSpeed = 0.20f;
+    static private final float c_bulletSpeed = 0.20f;   // per tick
     static private final int c_bulletColor = Color.YELLOW;
 
     static private final float c_bulletLifetime = 1.0f;
-    private long startTime;
-    private Player shooter;
+    static private final int c_bulletLifetimeTicks = (int) (c_bulletLifetime * SimulationClock.TICKS_PER_SECOND);
 
-    public Bullet(Player shooter, float translationX, float translationY, float rotation) {
-        super(c_bulletRadius);
-        this.translation.set(translationX, translationY);
-        this.rotation = rotation;
+    static private final float[] c_coords = {
+             0.1f,   0.0f,    0.0f, // 0
+            -0.05f, -0.0866f, 0.0f, // 1
+            -0.05f,  0.0866f, 0.0f, // 2
+    };
+    static private final short[] c_indices = {0, 1, 2};
 
-        this.shooter = shooter;
-        startTime = System.currentTimeMillis();
+    private Player shooter;
+    private final PointF velocity = new PointF();
+    private boolean destroyed = true;
+
+    /**
+     * Bullets are only created by the BulletPool; use BulletPool.acquire() to fire one.
+     */
+    Bullet() {
+        super(c_bulletRadius, false);
 
         setCollisionListener(new CollisionListener() {
             @Override
@@ -56,59 +60,52 @@ public class Bullet extends RenderObject {
         });
     }
 
-    @Override
-    protected void initModel() {
-        final short[] _indicesArray = {0, 1, 2};
+    void fire(Player shooter, float translationX, float translationY, float rotation) {
+        setTranslation(translationX, translationY);
+        setRotate(rotation);
+        savePreviousState();
 
-        // float has 4 bytes
-        ByteBuffer vbb = ByteBuffer.allocateDirect(_indicesArray.length * 3 * 4);
-        vbb.order(ByteOrder.nativeOrder());
-        vertexBuffer = vbb.asFloatBuffer();
+        // The EntityStore moves the bullet and counts down its lifetime from here on
+        getForwardVector(velocity);
+        setVelocity(velocity.x * c_bulletSpeed, velocity.y * c_bulletSpeed);
+        setLifetime(c_bulletLifetimeTicks);
 
-        // short has 2 bytes
-        ByteBuffer ibb = ByteBuffer.allocateDirect(_indicesArray.length * 2);
-        ibb.order(ByteOrder.nativeOrder());
-        indexBuffer = ibb.asShortBuffer();
+        this.shooter = shooter;
+        destroyed = false;
+    }
 
-        final float[] coords = {
-                0.1f,   0.0f, 0.0f, // 0
-               -0.05f, -0.0866f, 0.0f, // 1
-               -0.05f,  0.0866f, 0.0f, // 2
-        };
+    @Override
+    protected void initModel() {
+        mesh = MeshRegistry.acquire("bullet", GL10.GL_TRIANGLES, c_coords, c_indices);
+    }
 
-        vertexBuffer.put(coords);
-        indexBuffer.put(_indicesArray);
+    protected void destroy() {
+        // A bullet can hit something and expire in the same frame; only hand it back once
+        if (destroyed) {
+            return;
+        }
+        destroyed = true;
+        GameRenderer.s_instance.removeRenderObject(this);
+    }
 
-        vertexBuffer.position(0);
-        indexBuffer.position(0);
+    @Override
+    protected void onRemoved() {
+        shooter = null;
+        GameRenderer.s_instance.getBulletPool().release(this);
     }
 
-    protected void destroy() {
-        // Make sure this happens from the main thread
-        final RenderObject me = this;
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
-            @Override
-            public void run() {
-                GameRenderer.s_instance.removeRenderObject(me);
-            }
-        });
+    @Override
+    protected void onExpired() {
+        destroy();
     }
 
     @Override
-    protected void update() {
-        super.update();
-        goForward(c_bulletSpeed);
-
-        long currentTime = System.currentTimeMillis();
-        float elapsedTime = (currentTime - startTime) / 1000.0f;
-        if (elapsedTime >= c_bulletLifetime) {
-            destroy();
-        }
+    protected int getEntityType() {
+        return EntityStore.TYPE_BULLET;
     }
 
     @Override
-    protected void doRender(GL10 gl) {
-        setColor(gl, c_bulletColor);
-        super.doRender(gl);
+    protected int getColor() {
+        return c_bulletColor;
     }
 }
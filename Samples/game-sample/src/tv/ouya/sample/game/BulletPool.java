@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+/**
+ * Fixed-size pool of bullets. Every Bullet is created up front; firing takes one
+ * out of the pool and Bullet.destroy() hands it back once the renderer has dropped
+ * it, so sustained fire doesn't allocate.
+ */
+public class BulletPool {
+    /**
+     * Four players firing every 100ms with a one second bullet lifetime need 40.
+     */
+    static public final int DEFAULT_CAPACITY = 64;
+
+    private final Bullet[] free;
+    private int freeCount;
+
+    private int allocatedCount = 0;
+    private int acquiredCount = 0;
+    private int exhaustedCount = 0;
+
+    public BulletPool(int capacity) {
+        free = new Bullet[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            free[i] = new Bullet();
+            ++allocatedCount;
+        }
+        freeCount = capacity;
+    }
+
+    /**
+     * Fire a bullet.
+     *
+     * @return The bullet, or null if every bullet in the pool is already in flight.
+     */
+    public synchronized Bullet acquire(Player shooter, float translationX, float translationY, float rotation) {
+        if (freeCount == 0) {
+            ++exhaustedCount;
+            return null;
+        }
+
+        Bullet b = free[--freeCount];
+        free[freeCount] = null;
+        ++acquiredCount;
+
+        b.fire(shooter, translationX, translationY, rotation);
+        GameRenderer.s_instance.addRenderObject(b);
+        return b;
+    }
+
+    synchronized void release(Bullet b) {
+        if (freeCount == free.length) {
+            throw new IllegalStateException("Bullet released to a full pool");
+        }
+        free[freeCount++] = b;
+    }
+
+    /**
+     * Release the meshes of the bullets that aren't in flight.
+     */
+    synchronized void releaseModels() {
+        for (int i = 0; i < freeCount; ++i) {
+            free[i].releaseModel();
+        }
+    }
+
+    public int getCapacity() {
+        return free.length;
+    }
+
+    public synchronized int getFreeCount() {
+        return freeCount;
+    }
+
+    /**
+     * @return The number of Bullet objects this pool has ever created.
+     */
+    public int getAllocatedCount() {
+        return allocatedCount;
+    }
+
+    public synchronized int getAcquiredCount() {
+        return acquiredCount;
+    }
+
+    /**
+     * @return The number of shots dropped because the pool was empty.
+     */
+    public synchronized int getExhaustedCount() {
+        return exhaustedCount;
+    }
+}
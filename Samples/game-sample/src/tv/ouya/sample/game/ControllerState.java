@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+/**
+ * One player's controller as the simulation sees it: buttons and axes built up from
+ * the InputQueue, with the same "this frame" queries as OuyaController but counted
+ * in ticks. Only touched by the simulation thread.
+ */
+public class ControllerState {
+    static private final int c_keyCodeCount = 256;
+
+    private final boolean[] buttons = new boolean[c_keyCodeCount];
+    private final boolean[] previousButtons = new boolean[c_keyCodeCount];
+    private final float[] axes = new float[InputQueue.AXES.length];
+
+    public boolean getButton(int keyCode) {
+        return isKnownKey(keyCode) && buttons[keyCode];
+    }
+
+    public boolean buttonPressedThisTick(int keyCode) {
+        return isKnownKey(keyCode) && buttons[keyCode] && !previousButtons[keyCode];
+    }
+
+    public boolean buttonChangedThisTick(int keyCode) {
+        return isKnownKey(keyCode) && buttons[keyCode] != previousButtons[keyCode];
+    }
+
+    /**
+     * @param axis One of the axes in InputQueue.AXES, e.g. OuyaController.AXIS_LS_X
+     */
+    public float getAxisValue(int axis) {
+        for (int i = 0; i < InputQueue.AXES.length; ++i) {
+            if (InputQueue.AXES[i] == axis) {
+                return axes[i];
+            }
+        }
+        return 0.0f;
+    }
+
+    void setButton(int keyCode, boolean down) {
+        if (isKnownKey(keyCode)) {
+            buttons[keyCode] = down;
+        }
+    }
+
+    void setAxes(float[] values) {
+        System.arraycopy(values, 0, axes, 0, axes.length);
+    }
+
+    /**
+     * Called at the end of every tick, like OuyaController.startOfFrame().
+     */
+    void endOfTick() {
+        System.arraycopy(buttons, 0, previousButtons, 0, c_keyCodeCount);
+    }
+
+    static private boolean isKnownKey(int keyCode) {
+        return keyCode >= 0 && keyCode < c_keyCodeCount;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays storage for every object in the game. Positions, velocities,
+ * rotations, radii, lifetimes and type tags live in parallel primitive arrays,
+ * indexed by RenderObject.entity, so the per-tick passes over them (saving the
+ * previous state, moving, counting down lifetimes) are tight loops over
+ * contiguous memory instead of walks through the object graph.
+ * <p/>
+ * RenderObject is a thin facade over one slot. Slots are never reused: the game
+ * creates its players and walls up front and pools its bullets, so the store only
+ * grows while a level is being set up. Only the simulation thread may touch it
+ * once the game is running.
+ */
+public class EntityStore {
+    static public final int TYPE_OTHER = 0;
+    static public final int TYPE_PLAYER = 1;
+    static public final int TYPE_BULLET = 2;
+    static public final int TYPE_WALL = 3;
+
+    // flags
+    static final int IN_SCENE = 1;  // added to the renderer and not yet removed
+    static final int COLLIDES = 2;  // has a collision listener
+
+    int count = 0;
+
+    RenderObject[] owners;
+    int[] type;
+    int[] flags;
+    int[] ticksLeft;                // 0 means the entity lives until it's removed
+    float[] x;
+    float[] y;
+    float[] prevX;
+    float[] prevY;
+    float[] vx;                     // per tick
+    float[] vy;
+    float[] rotation;               // about the Z-axis, in degrees
+    float[] prevRotation;
+    float[] radius;
+
+    public EntityStore(int capacity) {
+        owners = new RenderObject[capacity];
+        type = new int[capacity];
+        flags = new int[capacity];
+        ticksLeft = new int[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        rotation = new float[capacity];
+        prevRotation = new float[capacity];
+        radius = new float[capacity];
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return owners.length;
+    }
+
+    /**
+     * @return The new entity's index.
+     */
+    int add(RenderObject owner, int entityType, float entityRadius) {
+        if (count == owners.length) {
+            grow();
+        }
+        owners[count] = owner;
+        type[count] = entityType;
+        radius[count] = entityRadius;
+        return count++;
+    }
+
+    /**
+     * Remember where everything is at the start of a tick.
+     */
+    void savePreviousState() {
+        System.arraycopy(x, 0, prevX, 0, count);
+        System.arraycopy(y, 0, prevY, 0, count);
+        System.arraycopy(rotation, 0, prevRotation, 0, count);
+    }
+
+    void savePreviousState(int i) {
+        prevX[i] = x[i];
+        prevY[i] = y[i];
+        prevRotation[i] = rotation[i];
+    }
+
+    /**
+     * Move everything in the scene by its velocity, wrapping around the board.
+     *
+     * @return The number of entities that moved.
+     */
+    int integrate(float boardWidth, float boardHeight) {
+        int moved = 0;
+        for (int i = 0; i < count; ++i) {
+            if ((flags[i] & IN_SCENE) == 0 || (vx[i] == 0.0f && vy[i] == 0.0f)) {
+                continue;
+            }
+
+            x[i] = wrap(x[i] + vx[i], boardWidth);
+            y[i] = wrap(y[i] + vy[i], boardHeight);
+            ++moved;
+        }
+        return moved;
+    }
+
+    /**
+     * Count down lifetimes, calling onExpired() on whatever runs out.
+     *
+     * @return The number of entities that expired.
+     */
+    int expire() {
+        int expired = 0;
+        for (int i = 0; i < count; ++i) {
+            if (ticksLeft[i] > 0 && (flags[i] & IN_SCENE) != 0 && --ticksLeft[i] == 0) {
+                owners[i].onExpired();
+                ++expired;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Bring a coordinate that has just left the board back in on the other side.
+     */
+    static float wrap(float value, float size) {
+        if (value < 0.0f) value += size;
+        if (value > size) value %= size;
+        return value;
+    }
+
+    /**
+     * @return true if the two entities' circles overlap.
+     */
+    boolean overlaps(int a, int b) {
+        float deltaX = x[a] - x[b];
+        float deltaY = y[a] - y[b];
+        float radii = radius[a] + radius[b];
+        return deltaX * deltaX + deltaY * deltaY <= radii * radii;
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, owners.length * 2);
+        owners = Arrays.copyOf(owners, capacity);
+        type = Arrays.copyOf(type, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        ticksLeft = Arrays.copyOf(ticksLeft, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        prevX = Arrays.copyOf(prevX, capacity);
+        prevY = Arrays.copyOf(prevY, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        rotation = Arrays.copyOf(rotation, capacity);
+        prevRotation = Arrays.copyOf(prevRotation, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * RenderBackend on top of OpenGL ES 1.x. Buffer objects need GL11; without it the
+ * client-side array path is used whatever the render mode says.
+ */
+public class GLRenderBackend implements RenderBackend {
+    private GL10 gl;
+    private GL11 gl11;
+    private boolean bufferObjectsRequested = false;
+
+    private final int[] bufferName = new int[1];
+    private int drawCallCount = 0;
+
+    public void setGL(GL10 gl) {
+        this.gl = gl;
+        gl11 = (gl instanceof GL11) ? (GL11) gl : null;
+    }
+
+    public void setBufferObjectsRequested(boolean requested) {
+        bufferObjectsRequested = requested;
+    }
+
+    public int getDrawCallCount() {
+        return drawCallCount;
+    }
+
+    public void resetDrawCallCount() {
+        drawCallCount = 0;
+    }
+
+    @Override
+    public boolean useBufferObjects() {
+        return bufferObjectsRequested && gl11 != null;
+    }
+
+    @Override
+    public void pushMatrix() {
+        gl.glPushMatrix();
+    }
+
+    @Override
+    public void popMatrix() {
+        gl.glPopMatrix();
+    }
+
+    @Override
+    public void translate(float x, float y, float z) {
+        gl.glTranslatef(x, y, z);
+    }
+
+    @Override
+    public void rotate(float degrees) {
+        gl.glRotatef(degrees, 0.0f, 0.0f, 1.0f);
+    }
+
+    @Override
+    public void setColor(float red, float green, float blue, float alpha) {
+        gl.glColor4f(red, green, blue, alpha);
+    }
+
+    @Override
+    public void setLineWidth(float width) {
+        gl.glLineWidth(width);
+    }
+
+    @Override
+    public int uploadVertices(FloatBuffer vertices) {
+        // float has 4 bytes
+        return upload(GL11.GL_ARRAY_BUFFER, vertices, vertices.limit() * 4);
+    }
+
+    @Override
+    public int uploadIndices(ShortBuffer indices) {
+        // short has 2 bytes
+        return upload(GL11.GL_ELEMENT_ARRAY_BUFFER, indices, indices.limit() * 2);
+    }
+
+    private int upload(int target, Buffer data, int bytes) {
+        gl11.glGenBuffers(1, bufferName, 0);
+        gl11.glBindBuffer(target, bufferName[0]);
+        gl11.glBufferData(target, bytes, data, GL11.GL_STATIC_DRAW);
+        gl11.glBindBuffer(target, 0);
+        return bufferName[0];
+    }
+
+    @Override
+    public void drawArrays(int mode, FloatBuffer vertices, int count) {
+        gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertices);
+        gl.glDrawArrays(mode, 0, count);
+        ++drawCallCount;
+    }
+
+    @Override
+    public void drawElements(int mode, FloatBuffer vertices, ShortBuffer indices, int count) {
+        gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertices);
+        gl.glDrawElements(mode, count, GL10.GL_UNSIGNED_SHORT, indices);
+        ++drawCallCount;
+    }
+
+    @Override
+    public void drawBuffers(int mode, int vertexBuffer, int indexBuffer, int count) {
+        gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, vertexBuffer);
+        gl11.glVertexPointer(3, GL10.GL_FLOAT, 0, 0);
+        if (indexBuffer != 0) {
+            gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+            gl11.glDrawElements(mode, count, GL10.GL_UNSIGNED_SHORT, 0);
+            gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 0);
+        } else {
+            gl11.glDrawArrays(mode, 0, count);
+        }
+        // Leave the client-array path usable for whatever draws next
+        gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+        ++drawCallCount;
+    }
+}
@@ -18,25 +18,53 @@ package tv.ouya.sample.game;
 
 import android.app.Activity;
 import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
 import tv.ouya.console.api.OuyaController;
 
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
 import static tv.ouya.sample.game.R.id;
 import static tv.ouya.sample.game.R.layout;
 
-public class GameActivity extends Activity {
-    private Player[] players;
+public class GameActivity extends Activity implements InputReplayer.Target {
+    /**
+     * Intent extras for reproducible runs: record the controller input to a trace
+     * file, or play one back (optionally faster) instead of using a controller.
+     */
+    static public final String EXTRA_RECORD_INPUT = "recordInput";
+    static public final String EXTRA_REPLAY_INPUT = "replayInput";
+    static public final String EXTRA_REPLAY_SPEED = "replaySpeed";
+
+    /**
+     * Intent extra choosing how the game draws: client_arrays (the default),
+     * buffer_objects or batched. See Options.RenderMode.
+     */
+    static public final String EXTRA_RENDER_MODE = "renderMode";
 
-    static public Boolean pauseInput = new Boolean(false);
+    static private final String c_logTag = "GameActivity";
+
+    private Player[] players;
+    private GameView gameView;
+    private InputTrace.Writer inputRecorder;
+    private InputReplayer inputReplayer;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // Before the GameView creates its renderer, which reads the mode
+        applyRenderMode();
+
         setContentView(layout.game);
+        gameView = (GameView) findViewById(id.game_view);
         Button quitGame = (Button) findViewById(id.quit_button);
         quitGame.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -87,11 +115,99 @@ public class GameActivity extends Activity {
                 }
                 break;
         }
+
+        startInputTrace();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        if (inputReplayer != null) {
+            inputReplayer.cancel();
+        }
+        if (inputRecorder != null) {
+            try {
+                inputRecorder.close();
+                Log.i(c_logTag, "Recorded " + inputRecorder.getCount() + " input events");
+            } catch (IOException e) {
+                Log.e(c_logTag, "Problem closing input trace", e);
+            }
+        }
+    }
+
+    private void applyRenderMode() {
+        String renderMode = getIntent().getStringExtra(EXTRA_RENDER_MODE);
+        if (renderMode == null) {
+            return;
+        }
+        try {
+            Options.getInstance().setRenderMode(Options.RenderMode.valueOf(renderMode.toUpperCase(Locale.US)));
+            Log.i(c_logTag, "Render mode " + Options.getInstance().getRenderMode());
+        } catch (IllegalArgumentException e) {
+            Log.e(c_logTag, "Unknown render mode " + renderMode);
+        }
+    }
+
+    private void startInputTrace() {
+        String recordPath = getIntent().getStringExtra(EXTRA_RECORD_INPUT);
+        if (recordPath != null) {
+            try {
+                inputRecorder = new InputTrace.Writer(new FileOutputStream(recordPath));
+            } catch (IOException e) {
+                Log.e(c_logTag, "Can't record input to " + recordPath, e);
+            }
+        }
+
+        final String replayPath = getIntent().getStringExtra(EXTRA_REPLAY_INPUT);
+        if (replayPath != null) {
+            final InputReplayer replayer = new InputReplayer(getIntent().getFloatExtra(EXTRA_REPLAY_SPEED, 1.0f));
+            final InputReplayer.Dispatcher dispatcher = new InputReplayer.Dispatcher(this, new Handler());
+            inputReplayer = replayer;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        InputTrace.Reader reader = new InputTrace.Reader(new FileInputStream(replayPath));
+                        try {
+                            Log.i(c_logTag, "Replayed " + replayer.replay(reader, dispatcher) + " input events");
+                        } finally {
+                            reader.close();
+                        }
+                    } catch (IOException e) {
+                        Log.e(c_logTag, "Can't replay input from " + replayPath, e);
+                    }
+                }
+            }, "InputReplayer").start();
+        }
+    }
+
+    private void recordInput(KeyEvent event) {
+        if (inputRecorder != null) {
+            try {
+                inputRecorder.record(event);
+            } catch (IOException e) {
+                Log.e(c_logTag, "Stopped recording input", e);
+                inputRecorder = null;
+            }
+        }
+    }
+
+    private void recordInput(MotionEvent event) {
+        if (inputRecorder != null) {
+            try {
+                inputRecorder.record(event);
+            } catch (IOException e) {
+                Log.e(c_logTag, "Stopped recording input", e);
+                inputRecorder = null;
+            }
+        }
     }
 
     @Override
     protected void onResume() {
         super.onResume();
+        gameView.onResume();
 
         // hide the mouse cursor
         OuyaController.showCursor(false);
@@ -100,6 +216,7 @@ public class GameActivity extends Activity {
     @Override
     protected void onPause() {
         super.onPause();
+        gameView.onPause();
 
         // show the mouse cursor
         OuyaController.showCursor(true);
@@ -107,11 +224,13 @@ public class GameActivity extends Activity {
 
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
-        boolean handled = false;
-        synchronized (pauseInput) {
-            handled = OuyaController.onKeyDown(keyCode, event);
-            findOrCreatePlayer(event.getDeviceId());
+        recordInput(event);
+        boolean handled = OuyaController.onKeyDown(keyCode, event);
+        int playerNum = OuyaController.getPlayerNumByDeviceId(event.getDeviceId());
+        if (playerNum >= 0) {
+            GameRenderer.s_instance.getInputQueue().publishKey(playerNum, keyCode, true);
         }
+        findOrCreatePlayer(event.getDeviceId());
 
         if (keyCode == OuyaController.BUTTON_A) {
             finish();
@@ -122,27 +241,30 @@ public class GameActivity extends Activity {
 
     @Override
     public boolean onKeyUp(int keyCode, KeyEvent event) {
-        boolean handled = false;
-        synchronized (pauseInput) {
-            handled = OuyaController.onKeyUp(keyCode, event);
+        recordInput(event);
+        boolean handled = OuyaController.onKeyUp(keyCode, event);
+        int playerNum = OuyaController.getPlayerNumByDeviceId(event.getDeviceId());
+        if (playerNum >= 0) {
+            GameRenderer.s_instance.getInputQueue().publishKey(playerNum, keyCode, false);
         }
         return handled || super.onKeyUp(keyCode, event);
     }
 
     @Override
     public boolean onGenericMotionEvent(MotionEvent event) {
-        boolean handled = false;
-        synchronized (pauseInput) {
-            handled = OuyaController.onGenericMotionEvent(event);
-        }
+        recordInput(event);
+        boolean handled = OuyaController.onGenericMotionEvent(event);
+        int playerNum = OuyaController.getPlayerNumByDeviceId(event.getDeviceId());
+        if (playerNum >= 0) {
+            // Only the latest axes matter to the simulation; the queue coalesces them
+            GameRenderer.s_instance.getInputQueue().publishMotion(playerNum, event);
 
-        OuyaController c = OuyaController.getControllerByDeviceId(event.getDeviceId());
-        if (c != null) {
-            if (Player.isStickNotCentered(
-                    c.getAxisValue(OuyaController.AXIS_LS_X),
-                    c.getAxisValue(OuyaController.AXIS_LS_Y))) {
-                // Create the player if necessary
-                Player p = findOrCreatePlayer(event.getDeviceId());
+            // Moving the stick brings a new player in. Once they're in, skip the check
+            if (playerNum < players.length && !players[playerNum].isJoinRequested()
+                    && Player.isStickNotCentered(
+                            event.getAxisValue(OuyaController.AXIS_LS_X),
+                            event.getAxisValue(OuyaController.AXIS_LS_Y))) {
+                players[playerNum].requestJoin();
             }
         }
 
@@ -155,11 +277,8 @@ public class GameActivity extends Activity {
             return null;
         }
 
-        if (players[playerNum].isValid()) {
-            return players[playerNum];
-        }
-
-        players[playerNum].init();
+        // The simulation thread owns the players; it calls init() on its next tick
+        players[playerNum].requestJoin();
         return players[playerNum];
     }
 
@@ -16,13 +16,14 @@
 
 package tv.ouya.sample.game;
 
+import android.graphics.Color;
 import android.opengl.GLSurfaceView;
+import android.util.Log;
 import tv.ouya.console.api.OuyaController;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 public class GameRenderer implements GLSurfaceView.Renderer {
@@ -31,9 +32,27 @@ public class GameRenderer implements GLSurfaceView.Renderer {
     static public final float BOARD_WIDTH = 40.0f;
     static public final float BOARD_HEIGHT = 40.0f;
 
+    static private final String c_logTag = "GameRenderer";
+    static private final long c_drawCallLogInterval = 1000000000L;
+
     private final List<RenderObject> objects;
     private final List<RenderObject> toBeAdded;
     private final List<RenderObject> toBeDeleted;
+    private final EntityStore entities;
+    private final SpatialGrid grid;
+    private final BulletPool bulletPool;
+    private final GLRenderBackend backend;
+    private final RenderBatcher batcher;
+    private final SimulationClock clock;
+    private final SnapshotExchange snapshots;
+    private final ThreadStats simulationStats;
+    private final ThreadStats renderStats;
+    private final InputQueue input;
+    private final ControllerState[] controllers;
+    private Options.RenderMode renderMode;
+    private int drawCallCount = 0;
+    private int maxDrawCallCount = 0;
+    private long lastDrawCallLog = -1;
 
     private float _red = 0.9f;
     private float _green = 0.2f;
@@ -43,9 +62,84 @@ public class GameRenderer implements GLSurfaceView.Renderer {
 
     public GameRenderer() {
         s_instance = this;
-        objects = new LinkedList<RenderObject>();
-        toBeAdded = new ArrayList<RenderObject>();
-        toBeDeleted = new ArrayList<RenderObject>();
+        // ArrayList rather than LinkedList so adding an object doesn't allocate a node
+        objects = new ArrayList<RenderObject>();
+        // Room for a whole pool of bullets coming or going in one tick without growing
+        toBeAdded = new ArrayList<RenderObject>(BulletPool.DEFAULT_CAPACITY);
+        toBeDeleted = new ArrayList<RenderObject>(BulletPool.DEFAULT_CAPACITY);
+        // Before anything that creates RenderObjects, e.g. the BulletPool
+        entities = new EntityStore(BulletPool.DEFAULT_CAPACITY * 2);
+        grid = new SpatialGrid(entities, BOARD_WIDTH, BOARD_HEIGHT);
+        bulletPool = new BulletPool(BulletPool.DEFAULT_CAPACITY);
+        backend = new GLRenderBackend();
+        batcher = new RenderBatcher();
+        clock = new SimulationClock();
+        snapshots = new SnapshotExchange(BulletPool.DEFAULT_CAPACITY * 2);
+        simulationStats = new ThreadStats("simulation");
+        renderStats = new ThreadStats("render");
+        input = new InputQueue(InputQueue.DEFAULT_CAPACITY);
+        controllers = new ControllerState[OuyaController.MAX_CONTROLLERS];
+        for (int i = 0; i < controllers.length; ++i) {
+            controllers[i] = new ControllerState();
+        }
+        renderMode = Options.getInstance().getRenderMode();
+    }
+
+    /**
+     * @return Where every RenderObject keeps its position, velocity and lifetime.
+     */
+    public EntityStore getEntities() {
+        return entities;
+    }
+
+    public BulletPool getBulletPool() {
+        return bulletPool;
+    }
+
+    /**
+     * @return The number of draw calls the last frame made.
+     */
+    public int getDrawCallCount() {
+        return drawCallCount;
+    }
+
+    /**
+     * @return Tick rate and what a tick costs.
+     */
+    public SimulationClock getClock() {
+        return clock;
+    }
+
+    /**
+     * @return The queue the UI thread publishes controller input into.
+     */
+    public InputQueue getInputQueue() {
+        return input;
+    }
+
+    /**
+     * @return The given player's controller as of the current tick. Simulation thread only.
+     */
+    public ControllerState getControllerState(int playerNum) {
+        return controllers[playerNum];
+    }
+
+    /**
+     * @return Timing for the SimulationThread's loop.
+     */
+    public ThreadStats getSimulationStats() {
+        return simulationStats;
+    }
+
+    /**
+     * @return Timing for onDrawFrame on the GL thread.
+     */
+    public ThreadStats getRenderStats() {
+        return renderStats;
+    }
+
+    void setRenderMode(Options.RenderMode renderMode) {
+        this.renderMode = renderMode;
     }
 
     @Override
@@ -65,6 +159,12 @@ public class GameRenderer implements GLSurfaceView.Renderer {
 
         gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
         gl.glClearColor(_red, _green, _blue, 1.0f);
+
+        // This is also how we find out the previous context was lost
+        backend.setGL(gl);
+        renderMode = Options.getInstance().getRenderMode();
+        backend.setBufferObjectsRequested(renderMode == Options.RenderMode.BUFFER_OBJECTS);
+        MeshRegistry.onContextCreated(backend);
     }
 
     @Override
@@ -76,36 +176,202 @@ public class GameRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        long start = System.nanoTime();
         gl.glClear(GL10.GL_COLOR_BUFFER_BIT);
         gl.glLoadIdentity();
 
+        // The SimulationThread does the updating; this thread only draws its snapshots
+        backend.setGL(gl);
+        backend.resetDrawCallCount();
+        drawObjects(backend, start);
+        drawCallCount = backend.getDrawCallCount();
+        long end = System.nanoTime();
+        renderStats.record(start, end);
+        logDrawCalls(end);
+    }
+
+    /**
+     * Log the draw calls per frame once a second, so the render modes can be
+     * compared on a device. GL thread only.
+     */
+    private void logDrawCalls(long now) {
+        maxDrawCallCount = Math.max(maxDrawCallCount, drawCallCount);
+        if (lastDrawCallLog < 0) {
+            lastDrawCallLog = now;
+        } else if (now - lastDrawCallLog >= c_drawCallLogInterval) {
+            Log.d(c_logTag, String.format("%s: %d draw calls last frame, %d max, %s",
+                    renderMode, drawCallCount, maxDrawCallCount, renderStats));
+            lastDrawCallLog = now;
+            maxDrawCallCount = 0;
+        }
+    }
+
+    /**
+     * Run however many fixed ticks have come due by now. Simulation thread only.
+     */
+    void simulate(long now) {
+        int ticks = clock.beginFrame(now);
+        for (int i = 0; i < ticks; ++i) {
+            long tickStart = System.nanoTime();
+            tick();
+            clock.recordTick(System.nanoTime() - tickStart);
+        }
+    }
+
+    /**
+     * Advance the game by one SimulationClock.NANOS_PER_TICK and publish the result
+     * for the renderer. Simulation thread only.
+     */
+    void tick() {
+        applyPendingChanges();
+        input.drain(controllers);
+
+        entities.savePreviousState();
+
+        // Indexed loops so the per-tick path doesn't allocate an Iterator
+        for(int i = 0; i < objects.size(); ++i) {
+            RenderObject o = objects.get(i);
+            o.update();
+            // Picks up objects that were placed directly, e.g. Player.init()
+            grid.update(o);
+        }
+
+        entities.integrate(BOARD_WIDTH, BOARD_HEIGHT);
+        resolveCollisions();
+        entities.expire();
+
+        for (int i = 0; i < controllers.length; ++i) {
+            controllers[i].endOfTick();
+        }
+
+        publishSnapshot();
+    }
+
+    /**
+     * Re-bucket everything integrate() moved and let it react to what it ran into.
+     * Everything is re-bucketed before anything is checked, so whether two movers
+     * meet doesn't depend on which has the lower slot.
+     */
+    private void resolveCollisions() {
+        final int count = entities.count;
+        for (int i = 0; i < count; ++i) {
+            if (moved(i)) {
+                grid.update(i);
+            }
+        }
+        for (int i = 0; i < count; ++i) {
+            if (moved(i) && (entities.flags[i] & EntityStore.COLLIDES) != 0) {
+                entities.owners[i].resolveCollision(entities.prevX[i], entities.prevY[i]);
+            }
+        }
+    }
+
+    private boolean moved(int i) {
+        return (entities.flags[i] & EntityStore.IN_SCENE) != 0
+                && (entities.vx[i] != 0.0f || entities.vy[i] != 0.0f);
+    }
+
+    /**
+     * Copy the scene into the next snapshot and hand it to the renderer.
+     */
+    void publishSnapshot() {
+        SceneSnapshot snapshot = snapshots.getBack();
+        snapshot.clear();
+        for(int i = 0; i < objects.size(); ++i) {
+            snapshot.add(objects.get(i));
+        }
+        snapshot.tick = clock.getTickCount();
+        snapshot.publishTime = System.nanoTime();
+        snapshots.publish();
+    }
+
+    void drawObjects(RenderBackend backend) {
+        drawObjects(backend, System.nanoTime());
+    }
+
+    /**
+     * Draw the latest snapshot. Reads nothing but the snapshot, so no lock is held
+     * while the simulation thread carries on.
+     */
+    void drawObjects(RenderBackend backend, long now) {
+        final SceneSnapshot s = snapshots.acquireLatest();
+        final float alpha = s.alphaAt(now);
+        final boolean batched = renderMode == Options.RenderMode.BATCHED;
+
+        if (batched) {
+            batcher.begin();
+        }
+        for(int i = 0; i < s.count; ++i) {
+            final Mesh mesh = s.meshes[i];
+            final float x = s.interpolateX(i, alpha);
+            final float y = s.interpolateY(i, alpha);
+            final float rotation = s.interpolateRotation(i, alpha);
+
+            if (batched && RenderBatcher.canBatch(mesh)) {
+                batcher.add(backend, mesh, s.colors[i], s.lineWidths[i], x, y, rotation);
+                continue;
+            }
+
+            setColor(backend, s.colors[i]);
+            if (mesh.getMode() != GL10.GL_TRIANGLES) {
+                backend.setLineWidth(s.lineWidths[i]);
+            }
+            backend.pushMatrix();
+            backend.translate(x, y, 5.0f);
+            backend.rotate(rotation);
+            mesh.draw(backend);
+            backend.popMatrix();
+        }
+        if (batched) {
+            batcher.flush(backend);
+        }
+    }
+
+    static void setColor(RenderBackend backend, int color) {
+        backend.setColor(
+                Color.red(color) / 255.0f,
+                Color.green(color) / 255.0f,
+                Color.blue(color) / 255.0f,
+                0.75f);
+    }
+
+    /**
+     * Apply the adds and removes queued since the last frame.
+     */
+    void applyPendingChanges() {
         synchronized (toBeDeleted) {
-            for(RenderObject o : toBeDeleted) {
-                objects.remove(o);
+            for(int i = 0; i < toBeDeleted.size(); ++i) {
+                RenderObject o = toBeDeleted.get(i);
+                if (objects.remove(o)) {
+                    grid.remove(o);
+                    entities.flags[o.entity] &= ~EntityStore.IN_SCENE;
+                    o.onRemoved();
+                }
             }
             toBeDeleted.clear();
         }
         synchronized (toBeAdded) {
-            for(RenderObject o : toBeAdded) {
+            for(int i = 0; i < toBeAdded.size(); ++i) {
+                RenderObject o = toBeAdded.get(i);
                 objects.add(o);
+                grid.add(o);
+                entities.flags[o.entity] |= EntityStore.IN_SCENE;
+                o.savePreviousState();
             }
             toBeAdded.clear();
         }
+    }
 
-        // Since render is on a different thread than the input
-        // key dispatching, briefly pause input dispatching while
-        // we query & reset the controller info.
-        synchronized (GameActivity.pauseInput) {
-            for(RenderObject o : objects) {
-                o.update();
-            }
-            OuyaController.startOfFrame();
-        }
-
-        for(RenderObject o : objects) {
-            o.update();
-            o.doRender(gl);
+    /**
+     * Hand every mesh back to the MeshRegistry. Only call this once the GL thread has
+     * stopped drawing.
+     */
+    void releaseModels() {
+        applyPendingChanges();
+        for(int i = 0; i < objects.size(); ++i) {
+            objects.get(i).releaseModel();
         }
+        bulletPool.releaseModels();
     }
 
     public void addRenderObject(RenderObject obj) {
@@ -120,21 +386,11 @@ public class GameRenderer implements GLSurfaceView.Renderer {
         }
     }
 
+    public void objectMoved(RenderObject obj) {
+        grid.update(obj);
+    }
+
     public RenderObject getCollidingObject(RenderObject obj) {
-        for(RenderObject o : objects) {
-            if (o != obj && o instanceof Wall) {
-                if (o.doesCollide(obj)) {
-                    return o;
-                }
-            }
-        }
-        for(RenderObject o : objects) {
-            if (o != obj && !(o instanceof Wall)) {
-                if (o.doesCollide(obj)) {
-                    return o;
-                }
-            }
-        }
-        return null;
+        return grid.getCollidingObject(obj);
     }
 }
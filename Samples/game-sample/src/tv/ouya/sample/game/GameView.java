@@ -22,6 +22,7 @@ import android.util.AttributeSet;
 
 public class GameView extends GLSurfaceView {
     private GameRenderer _renderer;
+    private SimulationThread _simulation;
 
     public GameView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -37,4 +38,34 @@ public class GameView extends GLSurfaceView {
         _renderer = new GameRenderer();
         setRenderer(_renderer);
     }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (_simulation == null) {
+            _simulation = new SimulationThread(_renderer);
+            _simulation.start();
+        }
+    }
+
+    @Override
+    public void onPause() {
+        stopSimulation();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        stopSimulation();
+        // This stops the GL thread, so it's now safe to let go of the meshes
+        super.onDetachedFromWindow();
+        _renderer.releaseModels();
+    }
+
+    private void stopSimulation() {
+        if (_simulation != null) {
+            _simulation.shutdown();
+            _simulation = null;
+        }
+    }
 }
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import android.view.MotionEvent;
+import tv.ouya.console.api.OuyaController;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Carries controller input from the UI thread to the simulation thread.
+ * <p/>
+ * Button edges go through a single-producer, single-consumer ring buffer: records
+ * are preallocated and reused, and the two sides only share the volatile head and
+ * tail counters, so every press and release arrives, in order.
+ * <p/>
+ * Sticks and triggers can report hundreds of times a second, but the simulation
+ * only looks at them once a tick, so motion is coalesced instead of queued: each
+ * player has one slot holding their latest axis values, overwritten by every
+ * event and guarded by a sequence counter so the simulation never sees half of
+ * one event and half of the next. The queue counts how many motion events were
+ * folded into each tick.
+ * <p/>
+ * Neither side allocates, takes a lock or waits on the other. Only the UI thread
+ * may publish, and only the simulation thread may drain.
+ */
+public class InputQueue {
+    static public final int DEFAULT_CAPACITY = 256;
+
+    static public final int KEY_DOWN = 0;
+    static public final int KEY_UP = 1;
+
+    /**
+     * The axes copied out of each motion event, in the order they're stored.
+     */
+    static final int[] AXES = {
+            OuyaController.AXIS_LS_X,
+            OuyaController.AXIS_LS_Y,
+            OuyaController.AXIS_RS_X,
+            OuyaController.AXIS_RS_Y,
+            OuyaController.AXIS_L2,
+            OuyaController.AXIS_R2,
+    };
+
+    static private final long c_statsWindow = 1000000000L;
+
+    static private final int c_players = OuyaController.MAX_CONTROLLERS;
+
+    static class Record {
+        int type;
+        int player;
+        int keyCode;
+        long publishTime;
+    }
+
+    private final Record[] records;
+    private final int mask;
+
+    private volatile long head = 0;     // next record to drain; written by the consumer
+    private volatile long tail = 0;     // next record to publish; written by the producer
+    private volatile int droppedCount = 0;
+
+    // The latest motion for each player. The sequence is odd while the producer is
+    // writing a slot and goes up by two for every event. Its increments are full
+    // barriers, so the values in between can use cheaper ordered lazySet() writes.
+    private final AtomicIntegerArray motionSequence = new AtomicIntegerArray(c_players);
+    private final AtomicIntegerArray motionAxisBits = new AtomicIntegerArray(c_players * AXES.length);
+    private final AtomicLongArray motionPublishTime = new AtomicLongArray(c_players);
+
+    // Consumer side: the sequence last applied for each player, and a scratch copy
+    private final int[] appliedSequence = new int[c_players];
+    private final float[] axisScratch = new float[AXES.length];
+
+    // Consumer-side statistics
+    private long windowStart = -1;
+    private int windowRecords = 0;
+    private long windowLatencyNanos = 0;
+    private long windowMaxLatencyNanos = 0;
+    private int windowMaxDepth = 0;
+    private int windowMaxMotionEvents = 0;
+
+    private volatile float averageLatencyMillis = 0.0f;
+    private volatile float maxLatencyMillis = 0.0f;
+    private volatile int maxDepth = 0;
+    private volatile int lastMotionEvents = 0;
+    private volatile int maxMotionEvents = 0;
+
+    /**
+     * @param capacity Rounded up to a power of two.
+     */
+    public InputQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        records = new Record[size];
+        for (int i = 0; i < size; ++i) {
+            records[i] = new Record();
+        }
+        mask = size - 1;
+    }
+
+    public int getCapacity() {
+        return records.length;
+    }
+
+    /**
+     * @return Button records published but not yet drained.
+     */
+    public int getDepth() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * @return Records thrown away because the simulation fell a whole queue behind.
+     */
+    public int getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return The deepest the queue was when drained, over the last full second.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return Motion events folded into the latest tick, across all players.
+     */
+    public int getMotionEventsLastTick() {
+        return lastMotionEvents;
+    }
+
+    /**
+     * @return The most motion events folded into one tick, over the last full second.
+     */
+    public int getMaxMotionEventsPerTick() {
+        return maxMotionEvents;
+    }
+
+    /**
+     * @return Average time from publishing input to a tick picking it up, over the last full second.
+     *         For motion, only the event a tick actually applies counts.
+     */
+    public float getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    public float getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("input: depth %d max %d, latency avg %.2fms max %.2fms, %d dropped, "
+                + "motion %d/tick max %d",
+                getDepth(), maxDepth, averageLatencyMillis, maxLatencyMillis, droppedCount,
+                lastMotionEvents, maxMotionEvents);
+    }
+
+    /**
+     * @return false if the queue was full and the input was dropped. UI thread only.
+     */
+    public boolean publishKey(int player, int keyCode, boolean down) {
+        Record r = claim();
+        if (r == null) {
+            return false;
+        }
+        r.type = down ? KEY_DOWN : KEY_UP;
+        r.player = player;
+        r.keyCode = keyCode;
+        commit();
+        return true;
+    }
+
+    /**
+     * Copy the stick and trigger axes out of the event; it may be recycled as soon as this returns.
+     * Replaces any motion for the player that the simulation hasn't picked up yet. UI thread only.
+     *
+     * @return false if player is out of range.
+     */
+    public boolean publishMotion(int player, MotionEvent event) {
+        if (!beginMotion(player)) {
+            return false;
+        }
+        for (int i = 0; i < AXES.length; ++i) {
+            motionAxisBits.lazySet(player * AXES.length + i, Float.floatToRawIntBits(event.getAxisValue(AXES[i])));
+        }
+        endMotion(player);
+        return true;
+    }
+
+    /**
+     * Same as publishMotion(), with the axis values given in AXES order.
+     */
+    boolean publishAxes(int player, float[] values) {
+        if (!beginMotion(player)) {
+            return false;
+        }
+        for (int i = 0; i < AXES.length; ++i) {
+            motionAxisBits.lazySet(player * AXES.length + i, Float.floatToRawIntBits(values[i]));
+        }
+        endMotion(player);
+        return true;
+    }
+
+    /**
+     * Apply everything published so far to the controller states: every button
+     * record in order, then each player's latest axes. Simulation thread only.
+     *
+     * @return The number of input events drained, counting each motion event that was folded in.
+     */
+    public int drain(ControllerState[] states) {
+        final long end = tail;
+        final long start = head;
+        final long now = System.nanoTime();
+
+        for (long i = start; i < end; ++i) {
+            Record r = records[(int) i & mask];
+            if (r.player >= 0 && r.player < states.length) {
+                states[r.player].setButton(r.keyCode, r.type == KEY_DOWN);
+            }
+            recordLatency(now - r.publishTime);
+        }
+        // Hand the slots back to the producer
+        head = end;
+
+        int motionEvents = 0;
+        final int players = Math.min(c_players, states.length);
+        for (int p = 0; p < players; ++p) {
+            motionEvents += drainMotion(p, states[p], now);
+        }
+        lastMotionEvents = motionEvents;
+
+        int drained = (int) (end - start);
+        windowMaxDepth = Math.max(windowMaxDepth, drained);
+        windowMaxMotionEvents = Math.max(windowMaxMotionEvents, motionEvents);
+        updateWindow(now);
+        return drained + motionEvents;
+    }
+
+    /**
+     * @return How many motion events were folded into the state
+     */
+    private int drainMotion(int player, ControllerState state, long now) {
+        final int sequence = motionSequence.get(player);
+        if (sequence == appliedSequence[player] || (sequence & 1) != 0) {
+            // Nothing new, or the UI thread is part way through writing the slot; rather
+            // than wait, leave it for the next tick
+            return 0;
+        }
+
+        for (int i = 0; i < AXES.length; ++i) {
+            axisScratch[i] = Float.intBitsToFloat(motionAxisBits.get(player * AXES.length + i));
+        }
+        final long publishTime = motionPublishTime.get(player);
+        if (motionSequence.get(player) != sequence) {
+            // Overwritten while we read it
+            return 0;
+        }
+
+        state.setAxes(axisScratch);
+        recordLatency(now - publishTime);
+        int folded = (sequence - appliedSequence[player]) >>> 1;
+        appliedSequence[player] = sequence;
+        return folded;
+    }
+
+    private boolean beginMotion(int player) {
+        if (player < 0 || player >= c_players) {
+            return false;
+        }
+        motionSequence.incrementAndGet(player);
+        return true;
+    }
+
+    private void endMotion(int player) {
+        motionPublishTime.lazySet(player, System.nanoTime());
+        motionSequence.incrementAndGet(player);
+    }
+
+    private void recordLatency(long latency) {
+        ++windowRecords;
+        windowLatencyNanos += latency;
+        windowMaxLatencyNanos = Math.max(windowMaxLatencyNanos, latency);
+    }
+
+    private Record claim() {
+        if (tail - head == records.length) {
+            ++droppedCount;
+            return null;
+        }
+        return records[(int) tail & mask];
+    }
+
+    private void commit() {
+        records[(int) tail & mask].publishTime = System.nanoTime();
+        // The volatile write makes the record visible to the consumer
+        tail = tail + 1;
+    }
+
+    private void updateWindow(long now) {
+        if (windowStart < 0) {
+            windowStart = now;
+            return;
+        }
+        if (now - windowStart < c_statsWindow) {
+            return;
+        }
+
+        averageLatencyMillis = windowRecords > 0 ? windowLatencyNanos / 1000000.0f / windowRecords : 0.0f;
+        maxLatencyMillis = windowMaxLatencyNanos / 1000000.0f;
+        maxDepth = windowMaxDepth;
+        maxMotionEvents = windowMaxMotionEvents;
+
+        windowStart = now;
+        windowRecords = 0;
+        windowLatencyNanos = 0;
+        windowMaxLatencyNanos = 0;
+        windowMaxDepth = 0;
+        windowMaxMotionEvents = 0;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.InputDevice;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays an InputTrace back at its original pace, faster, or as fast as the
+ * listener can take it.
+ * <p/>
+ * Headless tests implement Listener and feed the decoded values straight to the
+ * code under test. On a console, a Dispatcher rebuilds real KeyEvents and
+ * MotionEvents and sends them through the activity's own handlers, so they take
+ * the same OuyaController path as live input. Device ids are replayed as
+ * recorded, so replay with the same controllers paired.
+ */
+public class InputReplayer {
+    public interface Listener {
+        void onKey(InputTrace.Event event);
+
+        void onMotion(InputTrace.Event event);
+    }
+
+    /**
+     * The input handlers of an Activity or View.
+     */
+    public interface Target {
+        boolean onKeyDown(int keyCode, KeyEvent event);
+
+        boolean onKeyUp(int keyCode, KeyEvent event);
+
+        boolean onGenericMotionEvent(MotionEvent event);
+    }
+
+    private final float speed;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param speed 1 for the original pace, 2 for twice as fast and so on, or 0 to
+     *              send each event as soon as the last one has been handled
+     */
+    public InputReplayer(float speed) {
+        this.speed = speed;
+    }
+
+    /**
+     * Stop a replay in progress, from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Replay the rest of the trace on the calling thread.
+     *
+     * @return The number of events replayed
+     */
+    public int replay(InputTrace.Reader reader, Listener listener) throws IOException {
+        InputTrace.Event event = new InputTrace.Event();
+        long startNanos = System.nanoTime();
+        long firstTime = Long.MIN_VALUE;
+        int count = 0;
+
+        while (!cancelled && reader.next(event)) {
+            if (firstTime == Long.MIN_VALUE) {
+                firstTime = event.getTime();
+            }
+            if (speed > 0.0f) {
+                long due = startNanos + (long) ((event.getTime() - firstTime) * 1000000.0 / speed);
+                for (long wait = due - System.nanoTime(); wait > 0 && !cancelled; wait = due - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+                if (cancelled) {
+                    break;
+                }
+            }
+
+            if (event.getType() == InputTrace.MOTION) {
+                listener.onMotion(event);
+            } else {
+                listener.onKey(event);
+            }
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Turns replayed events back into KeyEvents and MotionEvents, stamped with the
+     * current time, and hands them to a Target on the handler's thread.
+     */
+    static public class Dispatcher implements Listener {
+        private final Target target;
+        private final Handler handler;
+        private final MotionEvent.PointerProperties[] properties = {new MotionEvent.PointerProperties()};
+        private final MotionEvent.PointerCoords[] coords = {new MotionEvent.PointerCoords()};
+
+        /**
+         * @param handler where to deliver events, or null to deliver them on the replaying thread
+         */
+        public Dispatcher(Target target, Handler handler) {
+            this.target = target;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onKey(InputTrace.Event event) {
+            final boolean down = event.getType() == InputTrace.KEY_DOWN;
+            final int keyCode = event.getKeyCode();
+            long now = SystemClock.uptimeMillis();
+            final KeyEvent key = new KeyEvent(now, now, down ? KeyEvent.ACTION_DOWN : KeyEvent.ACTION_UP,
+                    keyCode, 0, 0, event.getDeviceId(), 0, 0, InputDevice.SOURCE_GAMEPAD);
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    if (down) {
+                        target.onKeyDown(keyCode, key);
+                    } else {
+                        target.onKeyUp(keyCode, key);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onMotion(InputTrace.Event event) {
+            coords[0].clear();
+            float[] axes = event.getAxes();
+            for (int i = 0; i < axes.length; ++i) {
+                coords[0].setAxisValue(InputTrace.AXES[i], axes[i]);
+            }
+            long now = SystemClock.uptimeMillis();
+            final MotionEvent motion = MotionEvent.obtain(now, now, MotionEvent.ACTION_MOVE, 1, properties, coords,
+                    0, 0, 1.0f, 1.0f, event.getDeviceId(), 0, event.getSource(), 0);
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    target.onGenericMotionEvent(motion);
+                    motion.recycle();
+                }
+            });
+        }
+
+        private void deliver(Runnable r) {
+            if (handler != null) {
+                handler.post(r);
+            } else {
+                r.run();
+            }
+        }
+    }
+}
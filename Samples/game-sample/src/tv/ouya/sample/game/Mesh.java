@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Geometry shared by every RenderObject that looks the same. Meshes are built and
+ * handed out by the MeshRegistry; the buffers are only readable from outside.
+ */
+public class Mesh {
+    private final String key;
+    private final int mode;
+    private final int vertexCount;
+
+    private final FloatBuffer vertexBuffer;
+    private final ShortBuffer indexBuffer;     // null for non-indexed meshes
+
+    private final FloatBuffer vertexView;
+    private final ShortBuffer indexView;
+
+    // Heap copies for code that transforms the mesh on the CPU, e.g. RenderBatcher
+    final float[] coords;
+    final short[] indices;     // null for non-indexed meshes
+
+    int refCount = 0;
+
+    // GL buffer objects, valid while uploadedGeneration matches MeshRegistry's context generation
+    private int vertexBufferId = 0;
+    private int indexBufferId = 0;
+    private int uploadedGeneration = -1;
+
+    Mesh(String key, int mode, float[] coords, short[] indices, FloatBuffer vertexBuffer, ShortBuffer indexBuffer) {
+        this.key = key;
+        this.mode = mode;
+        this.coords = coords;
+        this.indices = indices;
+        this.vertexBuffer = vertexBuffer;
+        this.indexBuffer = indexBuffer;
+        this.vertexCount = vertexBuffer.limit() / 3;
+
+        vertexView = vertexBuffer.asReadOnlyBuffer();
+        indexView = indexBuffer != null ? indexBuffer.asReadOnlyBuffer() : null;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return The GL primitive type, e.g. GL10.GL_TRIANGLES
+     */
+    public int getMode() {
+        return mode;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * @return A read-only view of the x,y,z vertex data
+     */
+    public FloatBuffer getVertices() {
+        return vertexView;
+    }
+
+    /**
+     * @return A read-only view of the indices, or null if the mesh isn't indexed
+     */
+    public ShortBuffer getIndices() {
+        return indexView;
+    }
+
+    /**
+     * Copy the mesh into GL buffer objects for the current context.
+     */
+    void upload(RenderBackend backend, int generation) {
+        vertexBufferId = backend.uploadVertices(vertexBuffer);
+        indexBufferId = indexBuffer != null ? backend.uploadIndices(indexBuffer) : 0;
+        uploadedGeneration = generation;
+    }
+
+    void draw(RenderBackend backend) {
+        if (backend.useBufferObjects()) {
+            int generation = MeshRegistry.getContextGeneration();
+            if (uploadedGeneration != generation) {
+                // Built after the surface was created
+                MeshRegistry.upload(this, backend);
+            }
+            backend.drawBuffers(mode, vertexBufferId, indexBufferId,
+                    indexBuffer != null ? indexBuffer.limit() : vertexCount);
+        } else if (indexBuffer != null) {
+            backend.drawElements(mode, vertexBuffer, indexBuffer, indexBuffer.limit());
+        } else {
+            backend.drawArrays(mode, vertexBuffer, vertexCount);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds each mesh once and shares it between every object that asks for the same key.
+ * Meshes are reference counted; when the last user releases one it is dropped and will
+ * be rebuilt on the next acquire.
+ */
+public class MeshRegistry {
+    static private final Map<String, Mesh> s_meshes = new HashMap<String, Mesh>();
+
+    static private int s_directAllocations = 0;
+    static private long s_directBytes = 0;
+
+    // Bumped each time a GL context is created; buffer objects from older contexts are gone
+    static private volatile int s_contextGeneration = 0;
+    static private int s_uploadCount = 0;
+
+    /**
+     * Get the mesh for a key, building it from coords/indices the first time.
+     *
+     * @param key     Identifies the geometry; objects that look the same should use the same key.
+     * @param mode    The GL primitive type, e.g. GL10.GL_TRIANGLES
+     * @param coords  x,y,z triples. Only read if the mesh has to be built.
+     * @param indices Triangle indices, or null to draw the vertices in order.
+     */
+    static public synchronized Mesh acquire(String key, int mode, float[] coords, short[] indices) {
+        Mesh mesh = s_meshes.get(key);
+        if (mesh == null) {
+            mesh = new Mesh(key, mode, coords.clone(), indices != null ? indices.clone() : null,
+                    makeFloatBuffer(coords), indices != null ? makeShortBuffer(indices) : null);
+            s_meshes.put(key, mesh);
+        }
+        ++mesh.refCount;
+        return mesh;
+    }
+
+    static public synchronized void release(Mesh mesh) {
+        if (mesh.refCount <= 0) {
+            throw new IllegalStateException("Mesh " + mesh.getKey() + " released too many times");
+        }
+        if (--mesh.refCount == 0) {
+            s_meshes.remove(mesh.getKey());
+        }
+    }
+
+    /**
+     * Called from onSurfaceCreated. Any buffer objects belong to a lost context, so every
+     * live mesh is uploaded again.
+     */
+    static public synchronized void onContextCreated(RenderBackend backend) {
+        ++s_contextGeneration;
+        if (backend.useBufferObjects()) {
+            for (Mesh mesh : s_meshes.values()) {
+                upload(mesh, backend);
+            }
+        }
+    }
+
+    static synchronized void upload(Mesh mesh, RenderBackend backend) {
+        mesh.upload(backend, s_contextGeneration);
+        ++s_uploadCount;
+    }
+
+    static int getContextGeneration() {
+        return s_contextGeneration;
+    }
+
+    /**
+     * @return The number of meshes copied into GL buffer objects since the process started.
+     */
+    static public synchronized int getUploadCount() {
+        return s_uploadCount;
+    }
+
+    static public synchronized int getMeshCount() {
+        return s_meshes.size();
+    }
+
+    /**
+     * @return The number of direct buffers created since the process started.
+     */
+    static public synchronized int getDirectAllocationCount() {
+        return s_directAllocations;
+    }
+
+    static public synchronized long getDirectBytes() {
+        return s_directBytes;
+    }
+
+    static private FloatBuffer makeFloatBuffer(float[] values) {
+        // float has 4 bytes
+        FloatBuffer fb = allocateDirect(values.length * 4).asFloatBuffer();
+        fb.put(values);
+        fb.position(0);
+        return fb;
+    }
+
+    static private ShortBuffer makeShortBuffer(short[] values) {
+        // short has 2 bytes
+        ShortBuffer sb = allocateDirect(values.length * 2).asShortBuffer();
+        sb.put(values);
+        sb.position(0);
+        return sb;
+    }
+
+    static private ByteBuffer allocateDirect(int bytes) {
+        ++s_directAllocations;
+        s_directBytes += bytes;
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(bytes);
+        bb.order(ByteOrder.nativeOrder());
+        return bb;
+    }
+}
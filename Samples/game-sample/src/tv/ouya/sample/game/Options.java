@@ -30,6 +30,13 @@ public class Options {
     }
     private Level level = Level.FREEDOM;
 
+    enum RenderMode {
+        CLIENT_ARRAYS,      // pass the vertex data to GL on every draw
+        BUFFER_OBJECTS,     // upload each mesh to the GPU once (needs GL11)
+        BATCHED,            // transform on the CPU and draw each mesh/colour group in one call
+    }
+    private RenderMode renderMode = RenderMode.CLIENT_ARRAYS;
+
     public Level getLevel() {
         return level;
     }
@@ -38,6 +45,14 @@ public class Options {
         this.level = level;
     }
 
+    public RenderMode getRenderMode() {
+        return renderMode;
+    }
+
+    public void setRenderMode(RenderMode renderMode) {
+        this.renderMode = renderMode;
+    }
+
     private Options() {
     }
 }
@@ -18,7 +18,6 @@ package tv.ouya.sample.game;
 
 import android.app.Activity;
 import android.os.Bundle;
-import android.util.Base64;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -28,22 +27,16 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import tv.ouya.console.api.*;
 
-import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
-import java.security.KeyFactory;
 import java.security.PublicKey;
-import java.security.SecureRandom;
-import java.security.spec.X509EncodedKeySpec;
 import java.text.ParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static tv.ouya.sample.game.Options.Level.*;
 import static tv.ouya.sample.game.Options.getInstance;
@@ -55,14 +48,6 @@ public class OptionsActivity extends Activity {
 
     private static final String LOG_TAG = "OptionsActivity";
 
-    /**
-     * The application key. This is used to decrypt encrypted receipt responses. This should be replaced with the
-     * application key obtained from the OUYA developers website.
-     */
-
-    private static byte[] applicationKey;
-
-
     private Map<Options.Level, RadioButton> levelToRadioButton;
     private Map<RadioButton, Options.Level> radioButtonToLevel;
 
@@ -78,6 +63,34 @@ public class OptionsActivity extends Activity {
 
     private PublicKey mPublicKey;
 
+    /**
+     * Seals purchase requests with mPublicKey
+     */
+
+    private PurchaseEncryptor mPurchaseEncryptor;
+
+    /**
+     * The receipts from the last successful check, so purchased levels show up before the server answers.
+     * The cache is only read and written on mCacheExecutor.
+     */
+
+    private ReceiptCache mReceiptCache;
+    private ExecutorService mCacheExecutor;
+
+    /**
+     * The signed-in gamer, once the facade has said who that is. Cached receipts are only shown for them.
+     */
+
+    private String mGamerUuid;
+    private List<Receipt> mCachedReceipts;
+
+    /**
+     * The receipts from this resume's check, or null until it succeeds
+     */
+
+    private List<Receipt> mServerReceipts;
+    private boolean mDestroyed;
+
     /**
      * The outstanding purchase request UUIDs mapped to the purchasable the request relates to.
      */
@@ -97,15 +110,6 @@ public class OptionsActivity extends Activity {
         levelToRadioButton.put(ALLEYWAY, ((RadioButton) findViewById(R.id.radio_alleyway)));
         levelToRadioButton.put(BOXY, ((RadioButton) findViewById(R.id.radio_boxy)));
 
-        try {
-            InputStream inputStream = getResources().openRawResource(R.raw.key);
-            applicationKey = new byte[inputStream.available()];
-            inputStream.read(applicationKey);
-            inputStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
         // Create a reverse map
         radioButtonToLevel = new HashMap<RadioButton, Options.Level>();
         for(Options.Level level : levelToRadioButton.keySet()) {
@@ -135,27 +139,114 @@ public class OptionsActivity extends Activity {
             }
         });
 
-        X509EncodedKeySpec keySpec = new X509EncodedKeySpec(applicationKey);
+        // The application key is used to decrypt encrypted receipt responses. res/raw/key.der should be replaced
+        // with the application key obtained from the OUYA developers website. It is read once per process.
         try {
-            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-            mPublicKey = keyFactory.generatePublic(keySpec);
+            ApplicationKey applicationKey = ApplicationKey.get(ApplicationKey.fromRawResource(this, R.raw.key));
+            mPublicKey = applicationKey.getPublicKey();
+            mPurchaseEncryptor = applicationKey.getPurchaseEncryptor();
         } catch (Exception e) {
             Log.e(LOG_TAG, "Unable to create encryption key", e);
         }
+
+        mReceiptCache = ReceiptCache.forContext(this);
+        mCacheExecutor = Executors.newSingleThreadExecutor();
     }
 
     @Override
     public void onResume() {
         super.onResume();
+
+        // Whoever is signed in may have changed while we were paused
+        mGamerUuid = null;
+        mCachedReceipts = null;
+        mServerReceipts = null;
+        requestGamerInfo();
         requestReceipts();
     }
 
     @Override
     protected void onDestroy() {
+        mDestroyed = true;
+        mCacheExecutor.shutdown();
         mOuyaFacade.shutdown();
         super.onDestroy();
     }
 
+    /**
+     * The cache remembers every gamer who has used this console, so it's only consulted once
+     * we know who is signed in now.
+     */
+    private void requestGamerInfo() {
+        mOuyaFacade.requestGamerInfo(new CancelIgnoringOuyaResponseListener<GamerInfo>() {
+            @Override
+            public void onSuccess(GamerInfo result) {
+                mGamerUuid = result.getUuid();
+                loadCachedReceipts(mGamerUuid);
+            }
+
+            @Override
+            public void onFailure(int errorCode, String errorMessage, Bundle optionalData) {
+                Log.w(LOG_TAG, "Unable to identify the gamer, so cached receipts aren't shown (" + errorCode + ": " + errorMessage + ")");
+            }
+        });
+    }
+
+    private void loadCachedReceipts(final String gamerUuid) {
+        if (mDestroyed || gamerUuid == null) {
+            return;
+        }
+        mCacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ReceiptCache.Snapshot cached = mReceiptCache.load(gamerUuid);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mDestroyed || cached == null || !gamerUuid.equals(mGamerUuid)) {
+                            return;
+                        }
+                        mCachedReceipts = cached.getReceipts();
+                        if (mServerReceipts == null) {
+                            // The server hasn't answered yet, or couldn't
+                            processReceipts(mCachedReceipts);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void cacheReceipts(final List<Receipt> receipts) {
+        if (mDestroyed) {
+            return;
+        }
+        final boolean showingCached = mCachedReceipts != null;
+        mCacheExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ReceiptCache.Snapshot snapshot = null;
+                try {
+                    snapshot = mReceiptCache.update(receipts, System.currentTimeMillis());
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Unable to cache receipts", e);
+                }
+                final boolean redraw = !showingCached || snapshot == null || snapshot.isChanged();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mDestroyed || receipts != mServerReceipts) {
+                            return;
+                        }
+                        if (redraw) {
+                            processReceipts(receipts);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
     private void requestReceipts() {
         mOuyaFacade.requestReceipts(new OuyaResponseListener<String>() {
             @Override
@@ -174,18 +265,22 @@ public class OptionsActivity extends Activity {
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
-                processReceipts(receipts);
+
+                // Drawn once the cache has said whether they differ from what's already shown
+                mServerReceipts = receipts;
+                cacheReceipts(receipts);
             }
 
             @Override
             public void onFailure(int errorCode, String errorMessage, Bundle optionalData) {
-                processReceipts(null);
+                // Only ever holds the signed-in gamer's receipts, otherwise null and everything stays locked
+                processReceipts(mCachedReceipts);
                 Toast.makeText(OptionsActivity.this, "Error checking purchases!\nAdditional levels not available...\n\nError " + errorCode + ": " + errorMessage + ")", Toast.LENGTH_LONG).show();
             }
 
             @Override
             public void onCancel() {
-                processReceipts(null);
+                processReceipts(mCachedReceipts);
                 Toast.makeText(OptionsActivity.this, "You cancelled checking purchases!\nAdditional levels not available...", Toast.LENGTH_LONG).show();
             }
         });
@@ -251,42 +346,13 @@ public class OptionsActivity extends Activity {
         throws GeneralSecurityException, JSONException, UnsupportedEncodingException {
         final String productId = getProductIdForLevel(level);
 
-        SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
-
         // This is an ID that allows you to associate a successful purchase with
         // it's original request. The server does nothing with this string except
         // pass it back to you, so it only needs to be unique within this instance
         // of your app to allow you to pair responses with requests.
-        String uniqueId = Long.toHexString(sr.nextLong());
-
-        JSONObject purchaseRequest = new JSONObject();
-        purchaseRequest.put("uuid", uniqueId);
-        purchaseRequest.put("identifier", productId);
-        purchaseRequest.put("testing", "true"); // This value is only needed for testing, not setting it results in a live purchase
-        String purchaseRequestJson = purchaseRequest.toString();
-
-        byte[] keyBytes = new byte[16];
-        sr.nextBytes(keyBytes);
-        SecretKey key = new SecretKeySpec(keyBytes, "AES");
-
-        byte[] ivBytes = new byte[16];
-        sr.nextBytes(ivBytes);
-        IvParameterSpec iv = new IvParameterSpec(ivBytes);
-
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding", "BC");
-        cipher.init(Cipher.ENCRYPT_MODE, key, iv);
-        byte[] payload = cipher.doFinal(purchaseRequestJson.getBytes("UTF-8"));
-
-        cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding", "BC");
-        cipher.init(Cipher.ENCRYPT_MODE, mPublicKey);
-        byte[] encryptedKey = cipher.doFinal(keyBytes);
-
-        Purchasable purchasable =
-                new Purchasable(
-                        productId,
-                        Base64.encodeToString(encryptedKey, Base64.NO_WRAP),
-                        Base64.encodeToString(ivBytes, Base64.NO_WRAP),
-                        Base64.encodeToString(payload, Base64.NO_WRAP) );
+        String uniqueId = mPurchaseEncryptor.newUniqueId();
+
+        Purchasable purchasable = mPurchaseEncryptor.encryptPurchase(productId, uniqueId);
 
         synchronized (mOutstandingPurchaseRequests) {
             mOutstandingPurchaseRequests.put(uniqueId, productId);
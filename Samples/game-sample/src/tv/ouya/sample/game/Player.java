@@ -24,17 +24,18 @@ import android.util.Log;
 import tv.ouya.console.api.OuyaController;
 
 import javax.microedition.khronos.opengles.GL10;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 public class Player extends RenderObject {
     private int playerNum = -1;
     private boolean isVisible = false;
     private boolean isDead = false;
-    private long lastShotTime = 0;
+    private volatile boolean joinRequested = false;
+    private int ticksSinceLastShot = Integer.MAX_VALUE;
 
     private PointF shootDir;
     private float forwardAmount;
+    private final PointF forward = new PointF();
+    private final PointF slid = new PointF();
 
     static final private int[] c_playerColors = {
             Color.WHITE,
@@ -45,6 +46,15 @@ public class Player extends RenderObject {
     static final private int c_deadColor = Color.DKGRAY;
     static final private float c_playerRadius = 0.5f;
     static final private float c_timeBetweenShots = 0.1f;
+    static final private int c_ticksBetweenShots = (int) (c_timeBetweenShots * SimulationClock.TICKS_PER_SECOND);
+
+    static final private float[] c_coords = {
+            -0.5f, -0.5f, 0.0f, // 0
+             0.0f, -0.2f, 0.0f, // 1
+             0.0f,  0.1f, 0.0f, // 2
+             0.5f, -0.5f, 0.0f, // 3
+    };
+    static final private short[] c_indices = {0, 1, 2, 1, 3, 2};
 
     static MediaPlayer s_sfx[] = null;
 
@@ -70,7 +80,9 @@ public class Player extends RenderObject {
                 if (other instanceof Wall) {
                     Wall wall = (Wall) other;
 
-                    translation = wall.slideAgainst(prev, translation, getRadius());
+                    getTranslation(slid);
+                    wall.slideAgainst(prev, slid, getRadius(), slid);
+                    setTranslation(slid.x, slid.y);
                 }
             }
         });
@@ -80,9 +92,21 @@ public class Player extends RenderObject {
         isVisible = true;
 
         // Pick a random starting location
-        translation.x = (float) (Math.random() * (GameRenderer.BOARD_WIDTH - 1.0f) + 1.0f);
-        translation.y = (float) (Math.random() * (GameRenderer.BOARD_HEIGHT - 1.0f) + 1.0f);
-        rotation = (float) (Math.random() * 360.0f);
+        setTranslation((float) (Math.random() * (GameRenderer.BOARD_WIDTH - 1.0f) + 1.0f),
+                       (float) (Math.random() * (GameRenderer.BOARD_HEIGHT - 1.0f) + 1.0f));
+        setRotate((float) (Math.random() * 360.0f));
+        savePreviousState();
+    }
+
+    /**
+     * Bring the player into the game on the next tick. Safe to call from any thread.
+     */
+    public void requestJoin() {
+        joinRequested = true;
+    }
+
+    public boolean isJoinRequested() {
+        return joinRequested;
     }
 
     public boolean isValid() {
@@ -99,33 +123,10 @@ public class Player extends RenderObject {
 
     @Override
     protected void initModel() {
-        final short[] _indicesArray = {0, 1, 2, 1, 3, 2};
-
-        // float has 4 bytes
-        ByteBuffer vbb = ByteBuffer.allocateDirect(_indicesArray.length * 3 * 4);
-        vbb.order(ByteOrder.nativeOrder());
-        vertexBuffer = vbb.asFloatBuffer();
-
-        // short has 2 bytes
-        ByteBuffer ibb = ByteBuffer.allocateDirect(_indicesArray.length * 2);
-        ibb.order(ByteOrder.nativeOrder());
-        indexBuffer = ibb.asShortBuffer();
-
-        final float[] coords = {
-                -0.5f, -0.5f, 0.0f, // 0
-                 0.0f, -0.2f, 0.0f, // 1
-                 0.0f,  0.1f, 0.0f, // 2
-                 0.5f, -0.5f, 0.0f, // 3
-        };
-
-        vertexBuffer.put(coords);
-        indexBuffer.put(_indicesArray);
-
-        vertexBuffer.position(0);
-        indexBuffer.position(0);
+        mesh = MeshRegistry.acquire("player", GL10.GL_TRIANGLES, c_coords, c_indices);
     }
 
-    final float c_forwardSpeed = 0.1f;
+    final float c_forwardSpeed = 0.1f;     // per tick
 
     static private float stickMag(float axisX, float axisY) {
         float stickMag = (float) Math.sqrt(axisX * axisX + axisY * axisY);
@@ -137,11 +138,11 @@ public class Player extends RenderObject {
         return (stickMag >= OuyaController.STICK_DEADZONE);
     }
 
-    private void checkPlaySound(OuyaController c) {
-        if (c.buttonChangedThisFrame(OuyaController.BUTTON_Y)) {
+    private void checkPlaySound(ControllerState c) {
+        if (c.buttonChangedThisTick(OuyaController.BUTTON_Y)) {
             Log.d("BUTTON", "State changed");
         }
-        if (c.buttonPressedThisFrame(OuyaController.BUTTON_Y)) {
+        if (c.buttonPressedThisTick(OuyaController.BUTTON_Y)) {
             int sfxIdx = 0;
             int rnd = (int)(Math.random() * 10);
             if (rnd > 5) {
@@ -155,7 +156,7 @@ public class Player extends RenderObject {
         }
     }
 
-    private void getForwardAmountFromController(OuyaController c) {
+    private void getForwardAmountFromController(ControllerState c) {
         float axisX = c.getAxisValue(OuyaController.AXIS_LS_X);
         axisX = Math.min(axisX, 1.0f);
         float axisY = c.getAxisValue(OuyaController.AXIS_LS_Y);
@@ -170,7 +171,7 @@ public class Player extends RenderObject {
         }
     }
 
-    private void getShootDirFromController(OuyaController c) {
+    private void getShootDirFromController(ControllerState c) {
         float axisX = c.getAxisValue(OuyaController.AXIS_RS_X);
         axisX = Math.min(axisX, 1.0f);
         float axisY = c.getAxisValue(OuyaController.AXIS_RS_Y);
@@ -186,8 +187,7 @@ public class Player extends RenderObject {
             // Stick isn't pressed, check the buttons
             if (c.getButton(OuyaController.BUTTON_O)
                    || c.getButton(OuyaController.BUTTON_U)) {
-                PointF fwdVec = getForwardVector();
-                shootDir = fwdVec;
+                getForwardVector(shootDir);
             }
         }
     }
@@ -195,13 +195,13 @@ public class Player extends RenderObject {
     @Override
     protected void update() {
         if (!isValid()) {
-            return;
+            if (!joinRequested) {
+                return;
+            }
+            init();
         }
 
-        OuyaController c = OuyaController.getControllerByPlayer(playerNum);
-        if (c == null) {
-            return;
-        }
+        ControllerState c = GameRenderer.s_instance.getControllerState(playerNum);
 
         super.update();
 
@@ -209,37 +209,46 @@ public class Player extends RenderObject {
         getForwardAmountFromController(c);
         getShootDirFromController(c);
 
+        // The EntityStore does the moving; walls are resolved in the collision pass after it
         if (!isDead && forwardAmount != 0.0f) {
-            goForward(forwardAmount);
+            getForwardVector(forward);
+            setVelocity(forward.x * forwardAmount, forward.y * forwardAmount);
+        } else {
+            setVelocity(0.0f, 0.0f);
         }
 
+        if (ticksSinceLastShot < Integer.MAX_VALUE) {
+            ++ticksSinceLastShot;
+        }
         if (shootDir.x != 0.0f || shootDir.y != 0.0f) {
-            long currentTime = System.currentTimeMillis();
-            float timeSinceLastShot = (currentTime - lastShotTime) / 1000.0f;
-            if (timeSinceLastShot > c_timeBetweenShots) {
-                lastShotTime = currentTime;
+            if (ticksSinceLastShot > c_ticksBetweenShots) {
+                ticksSinceLastShot = 0;
                 float desiredDir = (float) Math.toDegrees( Math.atan2(-shootDir.x, shootDir.y) );
 
                 final float c_bulletDistance = 0.0f;
-                Bullet b = new Bullet(this, translation.x + shootDir.x * c_bulletDistance, translation.y + shootDir.y * c_bulletDistance, desiredDir);
+                GameRenderer.s_instance.getBulletPool().acquire(this, getX() + shootDir.x * c_bulletDistance, getY() + shootDir.y * c_bulletDistance, desiredDir);
             }
         }
     }
 
     @Override
-    protected void doRender(GL10 gl) {
-        if (!isValid()) {
-            return;
-        }
+    protected int getEntityType() {
+        return EntityStore.TYPE_PLAYER;
+    }
 
-        int color = isDead ? c_deadColor : c_playerColors[playerNum];
-        setColor(gl, color);
-        super.doRender(gl);
+    @Override
+    protected boolean isVisible() {
+        return isValid();
+    }
+
+    @Override
+    protected int getColor() {
+        return isDead ? c_deadColor : c_playerColors[playerNum];
     }
 
     @Override
     public boolean doesCollide(RenderObject other) {
-        if (other instanceof Player) {
+        if (other.entities.type[other.entity] == EntityStore.TYPE_PLAYER) {
             return false;
         }
         return super.doesCollide(other);
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * The GL calls the render loop makes. GLRenderBackend forwards them to OpenGL ES;
+ * tests can substitute a recording implementation and run without a GL context.
+ */
+public interface RenderBackend {
+    public void pushMatrix();
+    public void popMatrix();
+    public void translate(float x, float y, float z);
+
+    /**
+     * Rotate about the Z axis.
+     */
+    public void rotate(float degrees);
+
+    public void setColor(float red, float green, float blue, float alpha);
+    public void setLineWidth(float width);
+
+    /**
+     * @return true if meshes should be drawn from GL buffer objects rather than client-side arrays
+     */
+    public boolean useBufferObjects();
+
+    /**
+     * Copy data into a new GL buffer object.
+     *
+     * @return The buffer name
+     */
+    public int uploadVertices(FloatBuffer vertices);
+    public int uploadIndices(ShortBuffer indices);
+
+    public void drawArrays(int mode, FloatBuffer vertices, int count);
+    public void drawElements(int mode, FloatBuffer vertices, ShortBuffer indices, int count);
+
+    /**
+     * Draw from buffer objects returned by uploadVertices/uploadIndices.
+     *
+     * @param indexBuffer 0 to draw the vertices in order
+     */
+    public void drawBuffers(int mode, int vertexBuffer, int indexBuffer, int count);
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import javax.microedition.khronos.opengles.GL10;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Draws many objects with a handful of draw calls. Objects are grouped by primitive
+ * type and colour, their vertices are transformed on the CPU into one streaming
+ * buffer, and each group is submitted with a single glDrawElements.
+ * <p/>
+ * OpenGL ES 1.x has no instancing, so the CPU transform is the only option here.
+ * Buffers only grow; once the scene reaches its usual size a frame allocates nothing.
+ */
+public class RenderBatcher {
+    // Indices are unsigned shorts
+    static private final int MAX_VERTICES_PER_DRAW = 65536;
+
+    static private final float c_depth = 5.0f;
+
+    private static class Batch {
+        int mode;               // GL_TRIANGLES or GL_LINES
+        int color;
+        float lineWidth;
+
+        float[] vertices = new float[3 * 64];
+        short[] indices = new short[64];
+        int vertexCount;
+        int indexCount;
+    }
+
+    private Batch[] batches = new Batch[4];
+    private int batchCount = 0;
+
+    private FloatBuffer vertexStream;
+    private ShortBuffer indexStream;
+
+    private int drawCalls = 0;
+
+    public RenderBatcher() {
+        for (int i = 0; i < batches.length; ++i) {
+            batches[i] = new Batch();
+        }
+        allocateStreams(1024);
+    }
+
+    /**
+     * @return true if the batcher can draw this mesh; otherwise draw the object directly
+     */
+    static public boolean canBatch(Mesh mesh) {
+        int mode = mesh.getMode();
+        return mode == GL10.GL_TRIANGLES || mode == GL10.GL_LINES || mode == GL10.GL_LINE_STRIP;
+    }
+
+    public void begin() {
+        for (int i = 0; i < batchCount; ++i) {
+            batches[i].vertexCount = 0;
+            batches[i].indexCount = 0;
+        }
+        batchCount = 0;
+        drawCalls = 0;
+    }
+
+    /**
+     * @return The number of draw calls made by the last flush.
+     */
+    public int getDrawCallCount() {
+        return drawCalls;
+    }
+
+    /**
+     * Queue a mesh drawn at (x, y) rotated about Z by rotation degrees.
+     */
+    public void add(RenderBackend backend, Mesh mesh, int color, float lineWidth, float x, float y, float rotation) {
+        final boolean lines = mesh.getMode() != GL10.GL_TRIANGLES;
+        final int mode = lines ? GL10.GL_LINES : GL10.GL_TRIANGLES;
+        final int meshVertices = mesh.getVertexCount();
+
+        Batch batch = findBatch(mode, color, lines ? lineWidth : 1.0f);
+        if (batch.vertexCount + meshVertices > MAX_VERTICES_PER_DRAW) {
+            draw(backend, batch);
+            batch.vertexCount = 0;
+            batch.indexCount = 0;
+        }
+
+        // Vertices
+        final double radians = Math.toRadians(rotation);
+        final float cos = (float) Math.cos(radians);
+        final float sin = (float) Math.sin(radians);
+        final float[] src = mesh.coords;
+
+        ensureVertexCapacity(batch, batch.vertexCount + meshVertices);
+        final int base = batch.vertexCount;
+        int out = base * 3;
+        for (int v = 0; v < meshVertices; ++v) {
+            float vx = src[v * 3];
+            float vy = src[v * 3 + 1];
+            batch.vertices[out++] = vx * cos - vy * sin + x;
+            batch.vertices[out++] = vx * sin + vy * cos + y;
+            batch.vertices[out++] = src[v * 3 + 2] + c_depth;
+        }
+        batch.vertexCount += meshVertices;
+
+        // Indices, rebased onto where this mesh landed in the batch
+        final short[] meshIndices = mesh.indices;
+        if (mesh.getMode() == GL10.GL_LINE_STRIP) {
+            ensureIndexCapacity(batch, batch.indexCount + (meshVertices - 1) * 2);
+            for (int v = 0; v < meshVertices - 1; ++v) {
+                batch.indices[batch.indexCount++] = (short) (base + v);
+                batch.indices[batch.indexCount++] = (short) (base + v + 1);
+            }
+        } else if (meshIndices != null) {
+            ensureIndexCapacity(batch, batch.indexCount + meshIndices.length);
+            for (int i = 0; i < meshIndices.length; ++i) {
+                batch.indices[batch.indexCount++] = (short) (base + meshIndices[i]);
+            }
+        } else {
+            ensureIndexCapacity(batch, batch.indexCount + meshVertices);
+            for (int v = 0; v < meshVertices; ++v) {
+                batch.indices[batch.indexCount++] = (short) (base + v);
+            }
+        }
+    }
+
+    /**
+     * Draw every batch queued since begin(), in the order the batches were first used.
+     */
+    public void flush(RenderBackend backend) {
+        for (int i = 0; i < batchCount; ++i) {
+            draw(backend, batches[i]);
+        }
+    }
+
+    private void draw(RenderBackend backend, Batch batch) {
+        if (batch.indexCount == 0) {
+            return;
+        }
+
+        if (vertexStream.capacity() < batch.vertexCount * 3 || indexStream.capacity() < batch.indexCount) {
+            allocateStreams(Math.max(batch.vertexCount * 3, batch.indexCount) * 2);
+        }
+        vertexStream.clear();
+        vertexStream.put(batch.vertices, 0, batch.vertexCount * 3);
+        vertexStream.flip();
+        indexStream.clear();
+        indexStream.put(batch.indices, 0, batch.indexCount);
+        indexStream.flip();
+
+        GameRenderer.setColor(backend, batch.color);
+        if (batch.mode == GL10.GL_LINES) {
+            backend.setLineWidth(batch.lineWidth);
+        }
+        backend.drawElements(batch.mode, vertexStream, indexStream, batch.indexCount);
+        ++drawCalls;
+    }
+
+    private Batch findBatch(int mode, int color, float lineWidth) {
+        for (int i = 0; i < batchCount; ++i) {
+            Batch b = batches[i];
+            if (b.mode == mode && b.color == color && b.lineWidth == lineWidth) {
+                return b;
+            }
+        }
+
+        if (batchCount == batches.length) {
+            Batch[] grown = new Batch[batches.length * 2];
+            System.arraycopy(batches, 0, grown, 0, batches.length);
+            for (int i = batches.length; i < grown.length; ++i) {
+                grown[i] = new Batch();
+            }
+            batches = grown;
+        }
+        Batch b = batches[batchCount++];
+        b.mode = mode;
+        b.color = color;
+        b.lineWidth = lineWidth;
+        return b;
+    }
+
+    private void ensureVertexCapacity(Batch batch, int vertexCount) {
+        if (batch.vertices.length < vertexCount * 3) {
+            float[] grown = new float[Math.max(vertexCount * 3, batch.vertices.length * 2)];
+            System.arraycopy(batch.vertices, 0, grown, 0, batch.vertexCount * 3);
+            batch.vertices = grown;
+        }
+    }
+
+    private void ensureIndexCapacity(Batch batch, int indexCount) {
+        if (batch.indices.length < indexCount) {
+            short[] grown = new short[Math.max(indexCount, batch.indices.length * 2)];
+            System.arraycopy(batch.indices, 0, grown, 0, batch.indexCount);
+            batch.indices = grown;
+        }
+    }
+
+    private void allocateStreams(int elements) {
+        // float has 4 bytes
+        ByteBuffer vbb = ByteBuffer.allocateDirect(elements * 4);
+        vbb.order(ByteOrder.nativeOrder());
+        vertexStream = vbb.asFloatBuffer();
+
+        // short has 2 bytes
+        ByteBuffer ibb = ByteBuffer.allocateDirect(elements * 2);
+        ibb.order(ByteOrder.nativeOrder());
+        indexStream = ibb.asShortBuffer();
+    }
+}
@@ -14,117 +14,230 @@
  * limitations under the License.
  */
 
+
 package tv.ouya.sample.game;
 
 import android.graphics.Color;
 import android.graphics.PointF;
 
-import javax.microedition.khronos.opengles.GL10;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-
+/**
+ * A thing in the game. Its position, rotation, velocity, radius and lifetime live in
+ * the renderer's EntityStore; this class is a facade over one slot of it plus the
+ * per-type behaviour.
+ */
 public abstract class RenderObject {
-    protected ShortBuffer indexBuffer;
-    protected FloatBuffer vertexBuffer;
+    protected Mesh mesh;
 
-    protected float rotation = 0.0f;    // rotation about the Z-axis
-    protected PointF translation;
-
-    protected float radius = 1.0f;
+    protected final EntityStore entities;
+    final int entity;
 
     protected CollisionListener collisionListener;
 
+    // sin and cos of the rotation, only recomputed when the rotation changes
+    private float trigRotation = Float.NaN;
+    private float sinRotation;
+    private float cosRotation;
+
+    // Scratch for collision callbacks, so moving doesn't allocate
+    private final PointF prevPosition = new PointF();
+
     public interface CollisionListener {
-        // Return false if the move should fail
+        // Return false if the move should fail. prev is only valid during the call.
         public void onCollide(PointF prev, RenderObject me, RenderObject other);
     }
 
     public RenderObject(float radius) {
-        this.radius = radius;
-        translation = new PointF();
+        this(radius, true);
+    }
+
+    /**
+     * @param addToRenderer false for objects that are added to the renderer later,
+     *                      e.g. pooled bullets
+     */
+    protected RenderObject(float radius, boolean addToRenderer) {
+        entities = GameRenderer.s_instance.getEntities();
+        entity = entities.add(this, getEntityType(), radius);
         initModel();
-        GameRenderer.s_instance.addRenderObject(this);
+        if (addToRenderer) {
+            GameRenderer.s_instance.addRenderObject(this);
+        }
+    }
+
+    /**
+     * @return One of the EntityStore.TYPE_ constants. Called from the constructor.
+     */
+    protected int getEntityType() {
+        return EntityStore.TYPE_OTHER;
     }
 
     public void setCollisionListener(CollisionListener collisionListener) {
         this.collisionListener = collisionListener;
+        if (collisionListener != null) {
+            entities.flags[entity] |= EntityStore.COLLIDES;
+        } else {
+            entities.flags[entity] &= ~EntityStore.COLLIDES;
+        }
+    }
+
+    public float getX() {
+        return entities.x[entity];
+    }
+
+    public float getY() {
+        return entities.y[entity];
+    }
+
+    public void setTranslation(float x, float y) {
+        entities.x[entity] = x;
+        entities.y[entity] = y;
+    }
+
+    /**
+     * @param out receives the current position
+     */
+    public void getTranslation(PointF out) {
+        out.set(entities.x[entity], entities.y[entity]);
+    }
+
+    public float getRotation() {
+        return entities.rotation[entity];
     }
 
     public void setRotate(float degrees) {
-        float delta =  degrees - rotation;
+        float delta =  degrees - entities.rotation[entity];
         rotate(delta);
     }
 
     public void rotate(float degreeDelta) {
-        rotation += degreeDelta;
-        rotation %= 360.0f;
+        entities.rotation[entity] = (entities.rotation[entity] + degreeDelta) % 360.0f;
     }
 
-    public PointF getForwardVector() {
-        float fwdX = (float) Math.sin(Math.toRadians(-rotation));
-        float fwdY = (float) Math.cos(Math.toRadians(-rotation));
-        return new PointF(fwdX, fwdY);
+    /**
+     * Keep moving by this much every tick; the EntityStore does the moving.
+     */
+    public void setVelocity(float vx, float vy) {
+        entities.vx[entity] = vx;
+        entities.vy[entity] = vy;
     }
 
-    public void goForward(float amount) {
-        final PointF prev = new PointF(translation.x, translation.y);
+    /**
+     * Call onExpired() after this many ticks in the scene; 0 to live forever.
+     */
+    public void setLifetime(int ticks) {
+        entities.ticksLeft[entity] = ticks;
+    }
 
-        PointF newPos = getForwardVector();
+    /**
+     * @param out receives the unit vector this object is facing
+     */
+    public void getForwardVector(PointF out) {
+        updateTrig();
+        // sin(-rotation), cos(-rotation)
+        out.set(-sinRotation, cosRotation);
+    }
 
-        translation.x += newPos.x * amount;
-        translation.y += newPos.y * amount;
+    private void updateTrig() {
+        float rotation = entities.rotation[entity];
+        if (rotation != trigRotation) {
+            double radians = Math.toRadians(rotation);
+            sinRotation = (float) Math.sin(radians);
+            cosRotation = (float) Math.cos(radians);
+            trigRotation = rotation;
+        }
+    }
 
-        if (translation.x < 0.0f) translation.x += GameRenderer.BOARD_WIDTH;
-        if (translation.x > 10.0f) translation.x %= GameRenderer.BOARD_WIDTH;
-        if (translation.y < 0.0f) translation.y += GameRenderer.BOARD_HEIGHT;
-        if (translation.y > 10.0f) translation.y %= GameRenderer.BOARD_HEIGHT;
+    /**
+     * Move straight away, rather than at the next EntityStore.integrate(), and resolve
+     * any collision.
+     */
+    public void goForward(float amount) {
+        final float prevX = entities.x[entity];
+        final float prevY = entities.y[entity];
+
+        updateTrig();
+        entities.x[entity] = EntityStore.wrap(prevX - sinRotation * amount, GameRenderer.BOARD_WIDTH);
+        entities.y[entity] = EntityStore.wrap(prevY + cosRotation * amount, GameRenderer.BOARD_HEIGHT);
 
+        GameRenderer.s_instance.objectMoved(this);
+        resolveCollision(prevX, prevY);
+    }
+
+    /**
+     * Tell the collision listener about whatever this object now overlaps.
+     *
+     * @param prevX where the object was before its latest move
+     */
+    void resolveCollision(float prevX, float prevY) {
         if (collisionListener != null) {
             final RenderObject collidingObject = GameRenderer.s_instance.getCollidingObject(this);
             if (collidingObject != null) {
-                collisionListener.onCollide(prev, this, collidingObject);
+                prevPosition.set(prevX, prevY);
+                collisionListener.onCollide(prevPosition, this, collidingObject);
+                GameRenderer.s_instance.objectMoved(this);
             }
         }
     }
 
+    /**
+     * Set up mesh, normally through MeshRegistry.acquire() so identical objects share it.
+     */
     protected abstract void initModel();
 
-    protected void update() {
+    /**
+     * Give the mesh back to the MeshRegistry once this object will not be drawn again.
+     */
+    public void releaseModel() {
+        if (mesh != null) {
+            MeshRegistry.release(mesh);
+            mesh = null;
+        }
+    }
+
+    /**
+     * Called on the simulation thread once the object has been taken out of the scene.
+     */
+    protected void onRemoved() {
+    }
+
+    /**
+     * Called when the lifetime set with setLifetime() runs out.
+     */
+    protected void onExpired() {
     }
 
-    protected void setColor(GL10 gl, int color) {
-        gl.glColor4f(
-                Color.red(color) / 255.0f,
-                Color.green(color) / 255.0f,
-                Color.blue(color) / 255.0f,
-                0.75f);
+    /**
+     * Called once per tick, before the EntityStore moves everything.
+     */
+    protected void update() {
     }
 
-    protected void doRender(GL10 gl) {
-        gl.glPushMatrix();
+    void savePreviousState() {
+        entities.savePreviousState(entity);
+    }
 
-        gl.glTranslatef(translation.x, translation.y, 5.0f);
-        gl.glRotatef(rotation, 0.0f, 0.0f, 1.0f);
+    /**
+     * @return false to skip drawing this object this frame
+     */
+    protected boolean isVisible() {
+        return true;
+    }
 
-        gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertexBuffer);
-        gl.glDrawElements(GL10.GL_TRIANGLES, indexBuffer.limit(), GL10.GL_UNSIGNED_SHORT, indexBuffer);
+    protected int getColor() {
+        return Color.WHITE;
+    }
 
-        gl.glPopMatrix();
+    /**
+     * Only used when the mesh is drawn as lines.
+     */
+    protected float getLineWidth() {
+        return 1.0f;
     }
 
     public float getRadius() {
-        return radius;
+        return entities.radius[entity];
     }
 
     public boolean doesCollide(RenderObject other) {
-        float deltaX = translation.x - other.translation.x;
-        float deltaY = translation.y - other.translation.y;
-        float distSq = deltaX * deltaX + deltaY * deltaY;
-        float radiiSq = getRadius() + other.getRadius();
-        radiiSq *= radiiSq;
-        if (distSq <= radiiSq) {
-            return true;
-        }
-        return false;
+        return entities.overlaps(entity, other.entity);
     }
 }
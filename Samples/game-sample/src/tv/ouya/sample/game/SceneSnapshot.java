@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import java.util.Arrays;
+
+/**
+ * Everything the renderer needs to draw one tick, copied out of the scene by the
+ * simulation thread. Entries are stored as parallel arrays that only grow, so
+ * writing a snapshot every tick doesn't allocate once the scene has reached its size.
+ * <p/>
+ * Each entry holds its state from both the start and the end of the tick, so the
+ * renderer can interpolate between them.
+ */
+public class SceneSnapshot {
+    long tick = -1;
+    long publishTime;
+    int count = 0;
+
+    Mesh[] meshes;
+    int[] colors;
+    float[] lineWidths;
+    float[] x;
+    float[] y;
+    float[] rotation;
+    float[] prevX;
+    float[] prevY;
+    float[] prevRotation;
+
+    public SceneSnapshot(int capacity) {
+        allocate(capacity);
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    void clear() {
+        // Drop the mesh references so released meshes aren't kept alive
+        for (int i = 0; i < count; ++i) {
+            meshes[i] = null;
+        }
+        count = 0;
+    }
+
+    /**
+     * Copy one object's drawable state. Objects that are hidden or have no mesh are skipped.
+     */
+    void add(RenderObject o) {
+        if (!o.isVisible() || o.mesh == null) {
+            return;
+        }
+        if (count == meshes.length) {
+            grow();
+        }
+
+        meshes[count] = o.mesh;
+        colors[count] = o.getColor();
+        lineWidths[count] = o.getLineWidth();
+        final EntityStore entities = o.entities;
+        final int e = o.entity;
+        x[count] = entities.x[e];
+        y[count] = entities.y[e];
+        rotation[count] = entities.rotation[e];
+        prevX[count] = entities.prevX[e];
+        prevY[count] = entities.prevY[e];
+        prevRotation[count] = entities.prevRotation[e];
+        ++count;
+    }
+
+    /**
+     * @return How far (0 to 1) the render thread should draw between the start and
+     *         end of this snapshot's tick at the given time.
+     */
+    float alphaAt(long now) {
+        float alpha = (float) (now - publishTime) / SimulationClock.NANOS_PER_TICK;
+        return alpha < 0.0f ? 0.0f : (alpha > 1.0f ? 1.0f : alpha);
+    }
+
+    float interpolateX(int i, float alpha) {
+        return interpolatePosition(prevX[i], x[i], GameRenderer.BOARD_WIDTH, alpha);
+    }
+
+    float interpolateY(int i, float alpha) {
+        return interpolatePosition(prevY[i], y[i], GameRenderer.BOARD_HEIGHT, alpha);
+    }
+
+    float interpolateRotation(int i, float alpha) {
+        // Turn the short way round
+        float delta = ((rotation[i] - prevRotation[i]) % 360.0f + 540.0f) % 360.0f - 180.0f;
+        return prevRotation[i] + delta * alpha;
+    }
+
+    static private float interpolatePosition(float from, float to, float boardSize, float alpha) {
+        float delta = to - from;
+        if (Math.abs(delta) > boardSize * 0.5f) {
+            // Wrapped around the board or was placed somewhere new; don't draw it sliding across
+            return to;
+        }
+        return from + delta * alpha;
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, meshes.length * 2);
+        meshes = Arrays.copyOf(meshes, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+        lineWidths = Arrays.copyOf(lineWidths, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        rotation = Arrays.copyOf(rotation, capacity);
+        prevX = Arrays.copyOf(prevX, capacity);
+        prevY = Arrays.copyOf(prevY, capacity);
+        prevRotation = Arrays.copyOf(prevRotation, capacity);
+    }
+
+    private void allocate(int capacity) {
+        meshes = new Mesh[capacity];
+        colors = new int[capacity];
+        lineWidths = new float[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        rotation = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        prevRotation = new float[capacity];
+    }
+}
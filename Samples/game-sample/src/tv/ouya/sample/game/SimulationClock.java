@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+/**
+ * Fixed-timestep scheduler for the game simulation. Each frame reports the current
+ * time and gets back how many ticks to run; whatever time is left over carries into
+ * the next frame and is exposed as an interpolation factor for drawing.
+ * <p/>
+ * Also keeps per-second tick and frame rates and the average cost of a tick. A
+ * "frame" here is one pass of the SimulationThread's loop, not a rendered frame;
+ * drawing is timed separately, by the render thread's ThreadStats. The rates are
+ * written by the simulation thread and readable from any thread.
+ */
+public class SimulationClock {
+    static public final int TICKS_PER_SECOND = 60;
+    static public final long NANOS_PER_TICK = 1000000000L / TICKS_PER_SECOND;
+
+    // After a long stall (debugger, app switch) drop the backlog rather than
+    // running hundreds of ticks in one frame
+    static private final int c_maxTicksPerFrame = 5;
+
+    static private final long c_statsWindow = 1000000000L;
+
+    private long lastFrameTime = -1;
+    private long accumulator = 0;
+    private long tickCount = 0;
+    private long droppedTicks = 0;
+
+    private long windowStart = -1;
+    private int windowTicks = 0;
+    private int windowFrames = 0;
+    private long windowTickNanos = 0;
+
+    private volatile float tickRate = 0.0f;
+    private volatile float frameRate = 0.0f;
+    private volatile float averageTickMillis = 0.0f;
+
+    /**
+     * Start a frame.
+     *
+     * @param now System.nanoTime(), or a fake clock in tests
+     * @return The number of ticks to run before drawing this frame.
+     */
+    public int beginFrame(long now) {
+        updateWindow(now);
+        ++windowFrames;
+
+        if (lastFrameTime < 0) {
+            lastFrameTime = now;
+            return 0;
+        }
+        accumulator += now - lastFrameTime;
+        lastFrameTime = now;
+
+        int ticks = (int) (accumulator / NANOS_PER_TICK);
+        if (ticks > c_maxTicksPerFrame) {
+            droppedTicks += ticks - c_maxTicksPerFrame;
+            ticks = c_maxTicksPerFrame;
+            accumulator = 0;
+        } else {
+            accumulator -= ticks * NANOS_PER_TICK;
+        }
+        return ticks;
+    }
+
+    /**
+     * Forget the time since the last frame, e.g. after the game was paused.
+     */
+    public void resync() {
+        lastFrameTime = -1;
+        accumulator = 0;
+    }
+
+    /**
+     * @return How long after the last frame the next tick comes due.
+     */
+    public long getNanosUntilNextTick() {
+        return NANOS_PER_TICK - accumulator;
+    }
+
+    /**
+     * @return How far (0 to 1) the frame is between the last tick and the next one.
+     */
+    public float getAlpha() {
+        return (float) accumulator / NANOS_PER_TICK;
+    }
+
+    public void recordTick(long elapsedNanos) {
+        ++tickCount;
+        ++windowTicks;
+        windowTickNanos += elapsedNanos;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * @return The number of ticks skipped because a frame fell too far behind.
+     */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    /**
+     * @return Ticks run over the last full second.
+     */
+    public float getTickRate() {
+        return tickRate;
+    }
+
+    /**
+     * @return Calls to beginFrame(), i.e. SimulationThread passes, over the last
+     *         full second. Not the number of frames drawn.
+     */
+    public float getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * @return The average time one tick took over the last full second.
+     */
+    public float getAverageTickMillis() {
+        return averageTickMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f ticks/s in %.1f passes/s, avg tick %.2fms, %d dropped",
+                tickRate, frameRate, averageTickMillis, droppedTicks);
+    }
+
+    private void updateWindow(long now) {
+        if (windowStart < 0) {
+            windowStart = now;
+            return;
+        }
+
+        long elapsed = now - windowStart;
+        if (elapsed < c_statsWindow) {
+            return;
+        }
+
+        float seconds = elapsed / 1000000000.0f;
+        tickRate = windowTicks / seconds;
+        frameRate = windowFrames / seconds;
+        averageTickMillis = windowTicks > 0 ? windowTickNanos / 1000000.0f / windowTicks : 0.0f;
+
+        windowStart = now;
+        windowTicks = 0;
+        windowFrames = 0;
+        windowTickNanos = 0;
+    }
+}
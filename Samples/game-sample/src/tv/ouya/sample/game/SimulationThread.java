@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import android.util.Log;
+
+/**
+ * Runs the game simulation on its own thread so physics and collision time no
+ * longer come out of the GL thread's frame budget. Each pass runs whatever ticks
+ * are due, which publish their snapshots for the renderer, then sleeps until the
+ * next tick. Logs the clock's rates, the loop's timing and the input queue's
+ * depth, latency and motion events per tick once a second.
+ */
+public class SimulationThread extends Thread {
+    static private final String c_logTag = "SimulationThread";
+    static private final long c_statsLogInterval = 1000000000L;
+
+    private final GameRenderer renderer;
+    private volatile boolean running = true;
+
+    public SimulationThread(GameRenderer renderer) {
+        super("Simulation");
+        this.renderer = renderer;
+    }
+
+    @Override
+    public void run() {
+        final SimulationClock clock = renderer.getClock();
+        final ThreadStats stats = renderer.getSimulationStats();
+        final InputQueue input = renderer.getInputQueue();
+
+        // Don't try to catch up on the time spent paused
+        clock.resync();
+        long lastStatsLog = System.nanoTime();
+
+        while (running) {
+            long start = System.nanoTime();
+            renderer.simulate(start);
+            long end = System.nanoTime();
+            stats.record(start, end);
+
+            if (end - lastStatsLog >= c_statsLogInterval) {
+                Log.d(c_logTag, clock + ", " + stats + ", " + input);
+                lastStatsLog = end;
+            }
+
+            long wait = clock.getNanosUntilNextTick() - (end - start);
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                } catch (InterruptedException e) {
+                    // shutdown() interrupts us; the loop condition decides
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the thread and wait for it to finish its current tick.
+     */
+    public void shutdown() {
+        running = false;
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Log.w(c_logTag, "Interrupted waiting for the simulation to stop");
+            Thread.currentThread().interrupt();
+        }
+    }
+}
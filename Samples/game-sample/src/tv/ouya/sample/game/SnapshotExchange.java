@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffer handing SceneSnapshots from the simulation thread to the render
+ * thread without locks. The writer always has a back buffer to fill and the reader
+ * always has a front buffer to draw; publishing and picking up the latest snapshot
+ * are each a single atomic swap of the middle buffer.
+ */
+public class SnapshotExchange {
+    // Low bits hold the index of the middle buffer; set when it holds a snapshot the reader hasn't seen
+    static private final int FRESH = 4;
+    static private final int INDEX_MASK = 3;
+
+    private final SceneSnapshot[] buffers;
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;   // only touched by the writer
+    private int front = 2;  // only touched by the reader
+
+    public SnapshotExchange(int capacity) {
+        buffers = new SceneSnapshot[3];
+        for (int i = 0; i < buffers.length; ++i) {
+            buffers[i] = new SceneSnapshot(capacity);
+        }
+    }
+
+    /**
+     * @return The snapshot the writer should fill next. Writer thread only.
+     */
+    public SceneSnapshot getBack() {
+        return buffers[back];
+    }
+
+    /**
+     * Make the back snapshot the latest one. Writer thread only.
+     */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * @return The latest published snapshot; it stays valid until the next call. Reader thread only.
+     */
+    public SceneSnapshot acquireLatest() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return buffers[front];
+    }
+}
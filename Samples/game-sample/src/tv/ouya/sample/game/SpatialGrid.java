@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the game board used to answer collision queries without
+ * walking every object.
+ * <p/>
+ * Moving objects live in exactly one cell (the one holding their centre) and are
+ * chained through int links indexed by their EntityStore slot, so moving between
+ * cells never allocates. Walls never move, so each one is rasterised once into
+ * every cell its segment crosses.
+ */
+public class SpatialGrid {
+    static public final float CELL_SIZE = 2.0f;
+
+    static private final int c_none = -1;
+
+    private final EntityStore entities;
+    private final int columns;
+    private final int rows;
+
+    /**
+     * Entity at the head of the object list for each cell, or c_none.
+     */
+    private final int[] cellHeads;
+
+    /**
+     * The walls touching each cell, in the order they were added.
+     */
+    private final ArrayList<ArrayList<Wall>> cellWalls;
+
+    // Per entity, indexed like the EntityStore and grown to match it
+    private int[] cellOf = new int[0];
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+    private int[] sequence = new int[0];
+
+    private float maxObjectRadius = 0.0f;
+    private float maxWallRadius = 0.0f;
+    private int nextSequence = 0;
+    private int objectCount = 0;
+
+    public SpatialGrid(EntityStore entities, float width, float height) {
+        this.entities = entities;
+        columns = (int) Math.ceil(width / CELL_SIZE);
+        rows = (int) Math.ceil(height / CELL_SIZE);
+
+        cellHeads = new int[columns * rows];
+        Arrays.fill(cellHeads, c_none);
+        cellWalls = new ArrayList<ArrayList<Wall>>(columns * rows);
+        for (int i = 0; i < columns * rows; ++i) {
+            cellWalls.add(new ArrayList<Wall>());
+        }
+    }
+
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    public void add(RenderObject obj) {
+        final int e = obj.entity;
+        ensureCapacity(e);
+        sequence[e] = nextSequence++;
+        if (entities.type[e] == EntityStore.TYPE_WALL) {
+            addWall((Wall) obj);
+        } else {
+            maxObjectRadius = Math.max(maxObjectRadius, entities.radius[e]);
+            link(e, cellFor(entities.x[e], entities.y[e]));
+            ++objectCount;
+        }
+    }
+
+    public void remove(RenderObject obj) {
+        final int e = obj.entity;
+        if (e >= cellOf.length) {
+            return;
+        }
+        if (entities.type[e] == EntityStore.TYPE_WALL) {
+            for (ArrayList<Wall> walls : cellWalls) {
+                walls.remove(obj);
+            }
+        } else if (cellOf[e] != c_none) {
+            unlink(e);
+            --objectCount;
+        }
+    }
+
+    /**
+     * Moves the object into the cell matching its current position. Cheap enough
+     * to call after every position change.
+     */
+    public void update(RenderObject obj) {
+        update(obj.entity);
+    }
+
+    void update(int e) {
+        if (e >= cellOf.length || cellOf[e] == c_none) {
+            return;
+        }
+        int cell = cellFor(entities.x[e], entities.y[e]);
+        if (cell != cellOf[e]) {
+            unlink(e);
+            link(e, cell);
+        }
+    }
+
+    /**
+     * Find the object colliding with obj, with the same priority the flat list used:
+     * walls first, then everything else, each in the order they were added.
+     */
+    public RenderObject getCollidingObject(RenderObject obj) {
+        final int self = obj.entity;
+        final float x = entities.x[self];
+        final float y = entities.y[self];
+
+        RenderObject found = null;
+        int foundSequence = Integer.MAX_VALUE;
+        float reach = entities.radius[self] + maxWallRadius;
+        int minCol = column(x - reach), maxCol = column(x + reach);
+        int minRow = row(y - reach), maxRow = row(y + reach);
+        for (int r = minRow; r <= maxRow; ++r) {
+            for (int c = minCol; c <= maxCol; ++c) {
+                ArrayList<Wall> walls = cellWalls.get(r * columns + c);
+                for (int i = 0; i < walls.size(); ++i) {
+                    Wall w = walls.get(i);
+                    if (w != obj && sequence[w.entity] < foundSequence && w.doesCollide(obj)) {
+                        found = w;
+                        foundSequence = sequence[w.entity];
+                    }
+                }
+            }
+        }
+        if (found != null) {
+            return found;
+        }
+
+        reach = entities.radius[self] + maxObjectRadius;
+        minCol = column(x - reach);
+        maxCol = column(x + reach);
+        minRow = row(y - reach);
+        maxRow = row(y + reach);
+        for (int r = minRow; r <= maxRow; ++r) {
+            for (int c = minCol; c <= maxCol; ++c) {
+                for (int o = cellHeads[r * columns + c]; o != c_none; o = next[o]) {
+                    // Cheap circle test on the store first, then the owner's own rules
+                    if (o != self && sequence[o] < foundSequence && entities.overlaps(o, self)
+                            && entities.owners[o].doesCollide(obj)) {
+                        found = entities.owners[o];
+                        foundSequence = sequence[o];
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private void addWall(Wall wall) {
+        maxWallRadius = Math.max(maxWallRadius, wall.getRadius());
+
+        final float x1 = wall.vertices[0], y1 = wall.vertices[1];
+        final float x2 = wall.vertices[3], y2 = wall.vertices[4];
+        int minCol = column(Math.min(x1, x2)), maxCol = column(Math.max(x1, x2));
+        int minRow = row(Math.min(y1, y2)), maxRow = row(Math.max(y1, y2));
+        for (int r = minRow; r <= maxRow; ++r) {
+            for (int c = minCol; c <= maxCol; ++c) {
+                if (segmentCrossesCell(x1, y1, x2, y2, c, r)) {
+                    cellWalls.get(r * columns + c).add(wall);
+                }
+            }
+        }
+    }
+
+    /**
+     * Liang-Barsky clip of the segment against the (closed) cell rectangle.
+     */
+    private boolean segmentCrossesCell(float x1, float y1, float x2, float y2, int col, int row) {
+        final float left = col * CELL_SIZE, right = left + CELL_SIZE;
+        final float top = row * CELL_SIZE, bottom = top + CELL_SIZE;
+        final float dx = x2 - x1, dy = y2 - y1;
+
+        final float[] p = {-dx, dx, -dy, dy};
+        final float[] q = {x1 - left, right - x1, y1 - top, bottom - y1};
+        float t0 = 0.0f, t1 = 1.0f;
+        for (int i = 0; i < 4; ++i) {
+            if (p[i] == 0.0f) {
+                if (q[i] < 0.0f) {
+                    return false;
+                }
+            } else {
+                float t = q[i] / p[i];
+                if (p[i] < 0.0f) {
+                    t0 = Math.max(t0, t);
+                } else {
+                    t1 = Math.min(t1, t);
+                }
+                if (t0 > t1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void link(int e, int cell) {
+        cellOf[e] = cell;
+        prev[e] = c_none;
+        next[e] = cellHeads[cell];
+        if (next[e] != c_none) {
+            prev[next[e]] = e;
+        }
+        cellHeads[cell] = e;
+    }
+
+    private void unlink(int e) {
+        if (prev[e] != c_none) {
+            next[prev[e]] = next[e];
+        } else {
+            cellHeads[cellOf[e]] = next[e];
+        }
+        if (next[e] != c_none) {
+            prev[next[e]] = prev[e];
+        }
+        prev[e] = c_none;
+        next[e] = c_none;
+        cellOf[e] = c_none;
+    }
+
+    private void ensureCapacity(int e) {
+        if (e < cellOf.length) {
+            return;
+        }
+        int oldLength = cellOf.length;
+        int capacity = Math.max(e + 1, entities.getCapacity());
+        cellOf = Arrays.copyOf(cellOf, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        sequence = Arrays.copyOf(sequence, capacity);
+        Arrays.fill(cellOf, oldLength, capacity, c_none);
+    }
+
+    private int cellFor(float x, float y) {
+        return row(y) * columns + column(x);
+    }
+
+    private int column(float x) {
+        int c = (int) Math.floor(x / CELL_SIZE);
+        return c < 0 ? 0 : (c >= columns ? columns - 1 : c);
+    }
+
+    private int row(float y) {
+        int r = (int) Math.floor(y / CELL_SIZE);
+        return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+    }
+}
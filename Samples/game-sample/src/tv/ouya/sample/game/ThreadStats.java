@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+/**
+ * Timing for one thread's loop: how often it runs, how long each pass takes and how
+ * much of the thread's time that adds up to. Written by the owning thread only and
+ * readable from any thread; the figures cover the last full second.
+ */
+public class ThreadStats {
+    static private final long c_window = 1000000000L;
+
+    private final String name;
+
+    private long windowStart = -1;
+    private int windowCount = 0;
+    private long windowBusyNanos = 0;
+    private long windowMaxNanos = 0;
+
+    private volatile float rate = 0.0f;
+    private volatile float averageMillis = 0.0f;
+    private volatile float maxMillis = 0.0f;
+    private volatile float busyFraction = 0.0f;
+
+    public ThreadStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record one pass of the loop.
+     *
+     * @param start System.nanoTime() when the pass began
+     * @param end   System.nanoTime() when it finished
+     */
+    public void record(long start, long end) {
+        if (windowStart < 0) {
+            windowStart = start;
+        }
+
+        long elapsed = end - start;
+        ++windowCount;
+        windowBusyNanos += elapsed;
+        windowMaxNanos = Math.max(windowMaxNanos, elapsed);
+
+        long windowLength = end - windowStart;
+        if (windowLength >= c_window) {
+            rate = windowCount * 1000000000.0f / windowLength;
+            averageMillis = windowBusyNanos / 1000000.0f / windowCount;
+            maxMillis = windowMaxNanos / 1000000.0f;
+            busyFraction = (float) windowBusyNanos / windowLength;
+
+            windowStart = end;
+            windowCount = 0;
+            windowBusyNanos = 0;
+            windowMaxNanos = 0;
+        }
+    }
+
+    /**
+     * @return Passes per second.
+     */
+    public float getRate() {
+        return rate;
+    }
+
+    public float getAverageMillis() {
+        return averageMillis;
+    }
+
+    public float getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * @return The share of the thread's time (0 to 1) spent inside the loop body.
+     */
+    public float getBusyFraction() {
+        return busyFraction;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %.1f/s avg %.2fms max %.2fms busy %.0f%%",
+                name, rate, averageMillis, maxMillis, busyFraction * 100.0f);
+    }
+}
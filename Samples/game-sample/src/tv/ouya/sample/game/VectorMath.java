@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import android.graphics.PointF;
+
+/**
+ * 2D vector helpers that work on plain floats and write results into caller-owned
+ * PointFs, so per-tick code never has to allocate a temporary.
+ */
+public final class VectorMath {
+    private VectorMath() {
+    }
+
+    static public float dot(float ax, float ay, float bx, float by) {
+        return ax * bx + ay * by;
+    }
+
+    static public float lengthSq(float x, float y) {
+        return x * x + y * y;
+    }
+
+    static public float length(float x, float y) {
+        return (float) Math.sqrt(x * x + y * y);
+    }
+
+    /**
+     * Project a point onto the line through (x1, y1) and (x2, y2).
+     *
+     * @param clampToSegment keep the result between the two end points
+     * @param out            receives the projected point; may be the same object the point came from
+     */
+    static public void projectOntoLine(float px, float py, float x1, float y1, float x2, float y2,
+                                       boolean clampToSegment, PointF out) {
+        final float dirX = x2 - x1;
+        final float dirY = y2 - y1;
+        float t = dot(px - x1, py - y1, dirX, dirY) / lengthSq(dirX, dirY);
+        if (clampToSegment) {
+            if (t < 0.0f) {
+                t = 0.0f;
+            } else if (t > 1.0f) {
+                t = 1.0f;
+            }
+        }
+        out.set(x1 + dirX * t, y1 + dirY * t);
+    }
+}
@@ -20,16 +20,18 @@ import android.graphics.Color;
 import android.graphics.PointF;
 
 import javax.microedition.khronos.opengles.GL10;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 public class Wall extends RenderObject {
 
     static private final int c_wallColor = Color.YELLOW;
+    static private final float c_wallWidth = 5.0f;
 
     float[] vertices;
     PointF normal;
 
+    // Scratch for the collision queries, which only run on the simulation thread
+    private final PointF projected = new PointF();
+
     public Wall(float x1, float y1, float x2, float y2) {
         super(0.1f);
 
@@ -57,30 +59,33 @@ public class Wall extends RenderObject {
             return;
         }
 
-        // float has 4 bytes
-        ByteBuffer vbb = ByteBuffer.allocateDirect(vertices.length * 4);
-        vbb.order(ByteOrder.nativeOrder());
-        vertexBuffer = vbb.asFloatBuffer();
-        vertexBuffer.put(vertices);
-        vertexBuffer.position(0);
+        String key = "wall:" + vertices[0] + "," + vertices[1] + ":" + vertices[3] + "," + vertices[4];
+        mesh = MeshRegistry.acquire(key, GL10.GL_LINE_STRIP, vertices, null);
     }
 
     @Override
-    protected void doRender(GL10 gl) {
-        setColor(gl, c_wallColor);
-        // NOT calling super.doRender here
+    protected int getEntityType() {
+        return EntityStore.TYPE_WALL;
+    }
 
-        gl.glLineWidth(5.0f);
-        gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertexBuffer);
-        gl.glDrawArrays(GL10.GL_LINE_STRIP, 0, 2);
+    @Override
+    protected int getColor() {
+        return c_wallColor;
+    }
+
+    @Override
+    protected float getLineWidth() {
+        return c_wallWidth;
     }
 
     @Override
     public boolean doesCollide(RenderObject other) {
-        PointF proj = projectOntoWall(other.translation, true);
-        float deltaX = proj.x - other.translation.x;
-        float deltaY = proj.y - other.translation.y;
-        float distanceSq = (deltaX * deltaX + deltaY * deltaY);
+        final float otherX = other.getX();
+        final float otherY = other.getY();
+        VectorMath.projectOntoLine(otherX, otherY, vertices[0], vertices[1], vertices[3], vertices[4], true, projected);
+        float deltaX = projected.x - otherX;
+        float deltaY = projected.y - otherY;
+        float distanceSq = VectorMath.lengthSq(deltaX, deltaY);
 
         float radiiSq = getRadius() + other.getRadius();
         radiiSq *= radiiSq;
@@ -91,52 +96,31 @@ public class Wall extends RenderObject {
         return false;
     }
 
-    public PointF slideAgainst(PointF prevPoint, PointF newPoint, float radius) {
-        PointF prevProjectedPoint = projectOntoWall(prevPoint, false);
-        float prevDistanceToWallX = prevPoint.x - prevProjectedPoint.x;
-        float prevDistanceToWallY = prevPoint.y - prevProjectedPoint.y;
-        float prevDistanceToWall = (float) Math.sqrt(prevDistanceToWallX * prevDistanceToWallX + prevDistanceToWallY * prevDistanceToWallY);
+    /**
+     * Work out where something moving from prevPoint to newPoint ends up if it slides along the wall.
+     *
+     * @param out receives the result; may be newPoint itself
+     */
+    public void slideAgainst(PointF prevPoint, PointF newPoint, float radius, PointF out) {
+        projectOntoWall(prevPoint, false, projected);
+        float prevDistanceToWall = VectorMath.length(prevPoint.x - projected.x, prevPoint.y - projected.y);
         if (prevDistanceToWall < radius + getRadius()) {
             prevDistanceToWall = radius + getRadius();
         }
 
-        PointF newProjectedPoint = projectOntoWall(newPoint, false);
-
         float toPrevX = prevPoint.x - vertices[0];
         float toPrevY = prevPoint.y - vertices[1];
-        float dotPrev = (normal.x * toPrevX + normal.y * toPrevY);
+        float dotPrev = VectorMath.dot(normal.x, normal.y, toPrevX, toPrevY);
         if (dotPrev < 0.0f) {
             normal.negate();
         }
 
-        float slideX = newProjectedPoint.x + normal.x * prevDistanceToWall;
-        float slideY = newProjectedPoint.y + normal.y * prevDistanceToWall;
-
-        return new PointF(slideX, slideY);
+        projectOntoWall(newPoint, false, projected);
+        out.set(projected.x + normal.x * prevDistanceToWall,
+                projected.y + normal.y * prevDistanceToWall);
     }
 
-    private PointF projectOntoWall(PointF pos, boolean clampToSegment) {
-        PointF other = new PointF(pos.x - vertices[0], pos.y - vertices[1]);
-        PointF me = new PointF(vertices[3] - vertices[0], vertices[4] - vertices[1]);
-
-        float otherLen = other.length();
-        float myLen = me.length();
-
-        float dotP = (me.x * other.x + me.y * other.y);
-        dotP /= (myLen * otherLen);
-
-        float newLen = dotP * otherLen;
-        if (clampToSegment) {
-            if (newLen < 0.0f) {
-                newLen = 0.0f;
-            } else if (newLen > myLen) {
-                newLen = myLen;
-            }
-        }
-
-        float projX = me.x / myLen * newLen + vertices[0];
-        float projY = me.y / myLen * newLen + vertices[1];
-
-        return new PointF(projX, projY);
+    private void projectOntoWall(PointF pos, boolean clampToSegment, PointF out) {
+        VectorMath.projectOntoLine(pos.x, pos.y, vertices[0], vertices[1], vertices[3], vertices[4], clampToSegment, out);
     }
 }
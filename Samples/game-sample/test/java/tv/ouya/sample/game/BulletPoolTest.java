@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class BulletPoolTest {
+    private GameRenderer renderer;
+    private BulletPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        renderer = new GameRenderer();
+        pool = renderer.getBulletPool();
+    }
+
+    @Test
+    public void allBulletsAreCreatedUpFront() throws Exception {
+        assertEquals(BulletPool.DEFAULT_CAPACITY, pool.getAllocatedCount());
+        assertEquals(BulletPool.DEFAULT_CAPACITY, pool.getFreeCount());
+    }
+
+    @Test
+    public void dropsShotsWhenEmpty() throws Exception {
+        for (int i = 0; i < pool.getCapacity(); ++i) {
+            assertNotNull(pool.acquire(null, 1.0f, 1.0f, 0.0f));
+        }
+        assertNull(pool.acquire(null, 1.0f, 1.0f, 0.0f));
+        assertEquals(1, pool.getExhaustedCount());
+    }
+
+    @Test
+    public void destroyedBulletsGoBackToThePool() throws Exception {
+        Bullet b = pool.acquire(null, 1.0f, 1.0f, 0.0f);
+        renderer.applyPendingChanges();
+
+        b.destroy();
+        b.destroy();
+        assertEquals(pool.getCapacity() - 1, pool.getFreeCount());
+
+        renderer.applyPendingChanges();
+        assertEquals(pool.getCapacity(), pool.getFreeCount());
+        assertSame(b, pool.acquire(null, 2.0f, 2.0f, 0.0f));
+    }
+
+    @Test
+    public void steadyStateFiringAllocatesNoBullets() throws Exception {
+        final int framesInFlight = 30;
+        List<Bullet> inFlight = new ArrayList<Bullet>();
+
+        for (int frame = 0; frame < 10000; ++frame) {
+            if (inFlight.size() == framesInFlight) {
+                inFlight.remove(0).destroy();
+            }
+            inFlight.add(pool.acquire(null, 20.0f, 20.0f, frame % 360));
+            renderer.applyPendingChanges();
+        }
+
+        assertEquals(BulletPool.DEFAULT_CAPACITY, pool.getAllocatedCount());
+        assertEquals(10000, pool.getAcquiredCount());
+        assertEquals(0, pool.getExhaustedCount());
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import android.graphics.PointF;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class EntityStoreTest {
+    private static final float EPSILON = 0.0001f;
+
+    private GameRenderer renderer;
+    private EntityStore entities;
+
+    @Before
+    public void setUp() throws Exception {
+        renderer = new GameRenderer();
+        entities = renderer.getEntities();
+    }
+
+    @Test
+    public void integrateMovesAndWrapsAroundTheBoard() throws Exception {
+        Dot dot = new Dot(39.9f, 0.1f);
+        dot.setVelocity(0.2f, -0.2f);
+        renderer.applyPendingChanges();
+
+        assertEquals(1, entities.integrate(GameRenderer.BOARD_WIDTH, GameRenderer.BOARD_HEIGHT));
+        assertEquals(0.1f, dot.getX(), EPSILON);
+        assertEquals(39.9f, dot.getY(), EPSILON);
+    }
+
+    @Test
+    public void onlyEntitiesInTheSceneMove() throws Exception {
+        Dot dot = new Dot(5.0f, 5.0f);
+        dot.setVelocity(1.0f, 0.0f);
+
+        // Not applied yet, so not in the scene
+        entities.integrate(GameRenderer.BOARD_WIDTH, GameRenderer.BOARD_HEIGHT);
+        assertEquals(5.0f, dot.getX(), EPSILON);
+
+        renderer.applyPendingChanges();
+        entities.integrate(GameRenderer.BOARD_WIDTH, GameRenderer.BOARD_HEIGHT);
+        assertEquals(6.0f, dot.getX(), EPSILON);
+
+        renderer.removeRenderObject(dot);
+        renderer.applyPendingChanges();
+        entities.integrate(GameRenderer.BOARD_WIDTH, GameRenderer.BOARD_HEIGHT);
+        assertEquals(6.0f, dot.getX(), EPSILON);
+    }
+
+    @Test
+    public void expiryCallsOnExpiredOnce() throws Exception {
+        Dot dot = new Dot(5.0f, 5.0f);
+        dot.setLifetime(3);
+        renderer.applyPendingChanges();
+
+        assertEquals(0, entities.expire());
+        assertEquals(0, entities.expire());
+        assertEquals(1, entities.expire());
+        assertEquals(0, entities.expire());
+        assertEquals(1, dot.expiredCount);
+    }
+
+    @Test
+    public void bulletsGoBackToThePoolWhenTheirLifetimeRunsOut() throws Exception {
+        BulletPool pool = renderer.getBulletPool();
+        Bullet bullet = pool.acquire(null, 5.0f, 5.0f, 0.0f);
+
+        // Bullets live for a second
+        for (int i = 0; i < SimulationClock.TICKS_PER_SECOND; ++i) {
+            renderer.tick();
+        }
+        assertEquals(pool.getCapacity() - 1, pool.getFreeCount());
+        assertEquals(5.0f + SimulationClock.TICKS_PER_SECOND * 0.2f, bullet.getY(), 0.01f);
+
+        renderer.tick();
+        assertEquals(pool.getCapacity(), pool.getFreeCount());
+    }
+
+    @Test
+    public void collisionsDontDependOnSlotOrder() throws Exception {
+        final List<RenderObject> hits = new ArrayList<RenderObject>();
+        Dot first = new Dot(5.0f, 5.0f);
+        first.setVelocity(0.01f, 0.0f);
+        first.setCollisionListener(new RenderObject.CollisionListener() {
+            @Override
+            public void onCollide(PointF prev, RenderObject me, RenderObject other) {
+                hits.add(other);
+            }
+        });
+        // In a later slot, and starts a cell away
+        Dot second = new Dot(7.5f, 5.0f);
+        second.setVelocity(-2.3f, 0.0f);
+        renderer.applyPendingChanges();
+
+        renderer.tick();
+
+        assertEquals(1, hits.size());
+        assertSame(second, hits.get(0));
+    }
+
+    /**
+     * Not a pass/fail test: prints the per-tick cost of moving entities and counting
+     * down their lifetimes through the store against the same work done by walking
+     * objects that each hold their own state.
+     */
+    @Test
+    public void benchmarkTickCost() throws Exception {
+        for (int count : new int[] {1000, 10000, 100000}) {
+            Random random = new Random(42);
+            EntityStore store = new EntityStore(count);
+            List<GraphEntity> graph = new ArrayList<GraphEntity>(count);
+            for (int i = 0; i < count; ++i) {
+                float x = random.nextFloat() * GameRenderer.BOARD_WIDTH;
+                float y = random.nextFloat() * GameRenderer.BOARD_HEIGHT;
+                float vx = random.nextFloat() - 0.5f;
+                float vy = random.nextFloat() - 0.5f;
+
+                int e = store.add(null, EntityStore.TYPE_BULLET, 0.25f);
+                store.flags[e] = EntityStore.IN_SCENE;
+                store.x[e] = x;
+                store.y[e] = y;
+                store.vx[e] = vx;
+                store.vy[e] = vy;
+                // Long enough that nothing expires while we measure
+                store.ticksLeft[e] = Integer.MAX_VALUE;
+
+                graph.add(new GraphEntity(x, y, vx, vy));
+            }
+
+            int ticks = Math.max(10, 2000000 / count);
+            long graphNanos = timeTicks(ticks, graph, null);
+            long storeNanos = timeTicks(ticks, null, store);
+
+            System.out.println(String.format("EntityStore: %6d entities  objects %8.2f ns/entity  store %6.2f ns/entity",
+                    count, (double) graphNanos / ticks / count, (double) storeNanos / ticks / count));
+        }
+    }
+
+    private long timeTicks(int ticks, List<GraphEntity> graph, EntityStore store) {
+        // warm up, then measure
+        for (int pass = 0; pass < 2; ++pass) {
+            long start = System.nanoTime();
+            for (int t = 0; t < ticks; ++t) {
+                if (store != null) {
+                    store.savePreviousState();
+                    store.integrate(GameRenderer.BOARD_WIDTH, GameRenderer.BOARD_HEIGHT);
+                    store.expire();
+                } else {
+                    for (int i = 0; i < graph.size(); ++i) {
+                        graph.get(i).update();
+                    }
+                }
+            }
+            if (pass == 1) {
+                return System.nanoTime() - start;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * How RenderObject held its state before the EntityStore: each object owns its
+     * own PointFs and is updated through a virtual call.
+     */
+    private static class GraphEntity {
+        final PointF translation = new PointF();
+        final PointF prevTranslation = new PointF();
+        final PointF velocity = new PointF();
+        float rotation;
+        float prevRotation;
+        int ticksLeft = Integer.MAX_VALUE;
+
+        GraphEntity(float x, float y, float vx, float vy) {
+            translation.set(x, y);
+            velocity.set(vx, vy);
+        }
+
+        void update() {
+            prevTranslation.set(translation.x, translation.y);
+            prevRotation = rotation;
+            translation.x = EntityStore.wrap(translation.x + velocity.x, GameRenderer.BOARD_WIDTH);
+            translation.y = EntityStore.wrap(translation.y + velocity.y, GameRenderer.BOARD_HEIGHT);
+            if (--ticksLeft == 0) {
+                ticksLeft = -1;
+            }
+        }
+    }
+
+    private static class Dot extends RenderObject {
+        int expiredCount = 0;
+
+        Dot(float x, float y) {
+            super(0.25f);
+            setTranslation(x, y);
+        }
+
+        @Override
+        protected void initModel() {
+        }
+
+        @Override
+        protected void onExpired() {
+            ++expiredCount;
+        }
+    }
+}
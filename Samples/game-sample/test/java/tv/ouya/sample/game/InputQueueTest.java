@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tv.ouya.console.api.OuyaController;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class InputQueueTest {
+    private InputQueue queue;
+    private ControllerState[] states;
+
+    @Before
+    public void setUp() throws Exception {
+        queue = new InputQueue(8);
+        states = new ControllerState[OuyaController.MAX_CONTROLLERS];
+        for (int i = 0; i < states.length; ++i) {
+            states[i] = new ControllerState();
+        }
+    }
+
+    @Test
+    public void buttonsAreSeenOnTheNextTick() throws Exception {
+        queue.publishKey(1, OuyaController.BUTTON_O, true);
+        assertFalse(states[1].getButton(OuyaController.BUTTON_O));
+
+        assertEquals(1, queue.drain(states));
+        assertTrue(states[1].getButton(OuyaController.BUTTON_O));
+        assertTrue(states[1].buttonPressedThisTick(OuyaController.BUTTON_O));
+        assertFalse(states[0].getButton(OuyaController.BUTTON_O));
+
+        states[1].endOfTick();
+        assertEquals(0, queue.drain(states));
+        assertTrue(states[1].getButton(OuyaController.BUTTON_O));
+        assertFalse(states[1].buttonPressedThisTick(OuyaController.BUTTON_O));
+
+        queue.publishKey(1, OuyaController.BUTTON_O, false);
+        queue.drain(states);
+        assertTrue(states[1].buttonChangedThisTick(OuyaController.BUTTON_O));
+        assertFalse(states[1].getButton(OuyaController.BUTTON_O));
+    }
+
+    @Test
+    public void motionCarriesEveryAxis() throws Exception {
+        queue.publishAxes(2, new float[]{0.1f, 0.2f, 0.3f, 0.4f, 0.5f, 0.6f});
+        queue.drain(states);
+
+        assertEquals(0.1f, states[2].getAxisValue(OuyaController.AXIS_LS_X));
+        assertEquals(0.2f, states[2].getAxisValue(OuyaController.AXIS_LS_Y));
+        assertEquals(0.3f, states[2].getAxisValue(OuyaController.AXIS_RS_X));
+        assertEquals(0.4f, states[2].getAxisValue(OuyaController.AXIS_RS_Y));
+        assertEquals(0.5f, states[2].getAxisValue(OuyaController.AXIS_L2));
+        assertEquals(0.6f, states[2].getAxisValue(OuyaController.AXIS_R2));
+    }
+
+    @Test
+    public void fullQueueDropsNewInputInsteadOfOverwriting() throws Exception {
+        for (int i = 0; i < queue.getCapacity(); ++i) {
+            assertTrue(queue.publishKey(0, i, true));
+        }
+        assertFalse(queue.publishKey(0, 100, true));
+
+        assertEquals(queue.getCapacity(), queue.getDepth());
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(queue.getCapacity(), queue.drain(states));
+        assertTrue(states[0].getButton(0));
+        assertFalse(states[0].getButton(100));
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void everyButtonArrivesInOrderAcrossThreads() throws Exception {
+        final int count = 200000;
+        final int[] received = new int[1];
+        final boolean[] outOfOrder = new boolean[1];
+        ControllerState[] checking = new ControllerState[]{new ControllerState() {
+            @Override
+            void setButton(int keyCode, boolean down) {
+                if (keyCode != received[0] % 256 || down != (received[0] % 2 == 0)) {
+                    outOfOrder[0] = true;
+                }
+                ++received[0];
+            }
+        }};
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; ++i) {
+                    while (!queue.publishKey(0, i % 256, i % 2 == 0)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+
+        producer.start();
+        while (received[0] < count) {
+            queue.drain(checking);
+        }
+        producer.join();
+
+        assertFalse(outOfOrder[0]);
+        assertEquals(count, received[0]);
+    }
+
+    @Test
+    public void motionIsCoalescedToTheLatestEvent() throws Exception {
+        for (int i = 1; i <= 5; ++i) {
+            assertTrue(queue.publishAxes(1, new float[]{i, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f}));
+        }
+        queue.publishAxes(3, new float[]{0.5f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f});
+        queue.publishKey(1, OuyaController.BUTTON_O, true);
+
+        // Motion never takes space in the ring, so it can't crowd out buttons
+        assertEquals(1, queue.getDepth());
+        assertEquals(7, queue.drain(states));
+        assertEquals(6, queue.getMotionEventsLastTick());
+        assertEquals(5.0f, states[1].getAxisValue(OuyaController.AXIS_LS_X));
+        assertEquals(0.5f, states[3].getAxisValue(OuyaController.AXIS_LS_X));
+        assertTrue(states[1].getButton(OuyaController.BUTTON_O));
+
+        assertEquals(0, queue.drain(states));
+        assertEquals(0, queue.getMotionEventsLastTick());
+        assertEquals(5.0f, states[1].getAxisValue(OuyaController.AXIS_LS_X));
+
+        assertFalse(queue.publishAxes(OuyaController.MAX_CONTROLLERS, new float[InputQueue.AXES.length]));
+        assertFalse(queue.publishAxes(-1, new float[InputQueue.AXES.length]));
+    }
+
+    @Test
+    public void coalescedMotionIsNeverTornAcrossThreads() throws Exception {
+        final int count = 200000;
+        final float[] last = {-1.0f};
+        final boolean[] bad = new boolean[1];
+        ControllerState[] checking = new ControllerState[]{new ControllerState() {
+            @Override
+            void setAxes(float[] values) {
+                for (int i = 1; i < values.length; ++i) {
+                    if (values[i] != values[0]) {
+                        bad[0] = true;
+                    }
+                }
+                if (values[0] <= last[0]) {
+                    bad[0] = true;
+                }
+                last[0] = values[0];
+            }
+        }};
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                float[] values = new float[InputQueue.AXES.length];
+                for (int i = 0; i < count; ++i) {
+                    Arrays.fill(values, i);
+                    queue.publishAxes(0, values);
+                }
+            }
+        };
+
+        producer.start();
+        long folded = 0;
+        while (last[0] < count - 1) {
+            queue.drain(checking);
+            folded += queue.getMotionEventsLastTick();
+        }
+        producer.join();
+
+        assertFalse(bad[0]);
+        assertEquals(count, folded);
+    }
+
+    /**
+     * Not a pass/fail test: four controllers polling at 1 kHz against a 60 Hz
+     * simulation, so each tick folds in about 67 motion events.
+     */
+    @Test
+    public void benchmarkHighRateMotion() throws Exception {
+        float[] values = new float[InputQueue.AXES.length];
+        final int ticks = 20000;
+        final int eventsPerTick = 1000 * OuyaController.MAX_CONTROLLERS / SimulationClock.TICKS_PER_SECOND;
+        for (int pass = 0; pass < 2; ++pass) {
+            long start = System.nanoTime();
+            for (int t = 0; t < ticks; ++t) {
+                for (int e = 0; e < eventsPerTick; ++e) {
+                    values[0] = e;
+                    queue.publishAxes(e % OuyaController.MAX_CONTROLLERS, values);
+                }
+                queue.drain(states);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (pass == 1) {
+                System.out.println(String.format("InputQueue: %d motion events/tick  %.1f ns/event  %.1f us/tick",
+                        eventsPerTick, (double) elapsed / ticks / eventsPerTick, elapsed / 1000.0 / ticks));
+            }
+        }
+    }
+
+    @Test
+    public void reportsLatencyAndDepth() throws Exception {
+        queue.drain(states);
+        queue.publishKey(0, OuyaController.BUTTON_O, true);
+        queue.publishKey(0, OuyaController.BUTTON_U, true);
+        queue.publishKey(0, OuyaController.BUTTON_Y, true);
+        Thread.sleep(1100);
+        queue.drain(states);
+
+        assertEquals(3, queue.getMaxDepth());
+        assertTrue(queue.getAverageLatencyMillis() >= 1000.0f);
+        assertTrue(queue.getMaxLatencyMillis() >= queue.getAverageLatencyMillis());
+    }
+
+    @Test
+    public void playersJoinAndMoveFromQueuedInput() throws Exception {
+        GameRenderer renderer = new GameRenderer();
+        Player player = new Player(null, 0);
+        player.requestJoin();
+        renderer.tick();
+        assertTrue(player.isValid());
+
+        float startX = player.getX();
+        float startY = player.getY();
+        renderer.getInputQueue().publishAxes(0, new float[]{1.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f});
+        renderer.tick();
+
+        assertTrue(player.getX() != startX || player.getY() != startY);
+    }
+}
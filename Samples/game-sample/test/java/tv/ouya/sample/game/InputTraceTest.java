@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import android.view.InputDevice;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tv.ouya.console.api.OuyaController;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class InputTraceTest {
+    static private final float EPSILON = 0.0001f;
+
+    @Test
+    public void roundTripsEvents() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputTrace.Writer writer = new InputTrace.Writer(bytes);
+        writer.writeKey(InputTrace.KEY_DOWN, 1000, 7, OuyaController.BUTTON_O);
+        writer.writeMotion(1016, -1, InputDevice.SOURCE_JOYSTICK,
+                new float[]{0.5f, -0.25f, 0.0f, 0.0f, 1.0f, 0.0f, -1.0f, 0.0f, 0.0f, 0.0f});
+        writer.writeKey(InputTrace.KEY_UP, 1010, 7, OuyaController.BUTTON_O);
+        writer.close();
+        assertEquals(3, writer.getCount());
+
+        InputTrace.Reader reader = new InputTrace.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        InputTrace.Event event = new InputTrace.Event();
+
+        assertTrue(reader.next(event));
+        assertEquals(InputTrace.KEY_DOWN, event.getType());
+        assertEquals(1000, event.getTime());
+        assertEquals(7, event.getDeviceId());
+        assertEquals(OuyaController.BUTTON_O, event.getKeyCode());
+
+        assertTrue(reader.next(event));
+        assertEquals(InputTrace.MOTION, event.getType());
+        assertEquals(1016, event.getTime());
+        assertEquals(-1, event.getDeviceId());
+        assertEquals(InputDevice.SOURCE_JOYSTICK, event.getSource());
+        assertEquals(0.5f, event.getAxisValue(OuyaController.AXIS_LS_X), EPSILON);
+        assertEquals(-0.25f, event.getAxisValue(OuyaController.AXIS_LS_Y), EPSILON);
+        assertEquals(1.0f, event.getAxisValue(OuyaController.AXIS_L2), EPSILON);
+        assertEquals(-1.0f, event.getAxisValue(MotionEvent.AXIS_HAT_X), EPSILON);
+        assertEquals(0.0f, event.getAxisValue(OuyaController.AXIS_RS_X), EPSILON);
+
+        // Out of order events keep their order but never step back in time
+        assertTrue(reader.next(event));
+        assertEquals(InputTrace.KEY_UP, event.getType());
+        assertEquals(1016, event.getTime());
+
+        assertFalse(reader.next(event));
+    }
+
+    @Test
+    public void motionEventsAreCompact() throws Exception {
+        byte[] trace = gameplay(4, 10);
+        int events = count(trace);
+        System.out.println(String.format("InputTrace: %d events in %d bytes, %.1f bytes/event",
+                events, trace.length, (double) trace.length / events));
+        assertTrue(trace.length < events * 16);
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws Exception {
+        try {
+            new InputTrace.Reader(new ByteArrayInputStream("cpu 1 2 3".getBytes("US-ASCII")));
+            fail("Read text as an input trace");
+        } catch (IOException e) {
+            // expected
+        }
+
+        byte[] trace = gameplay(1, 1);
+        byte[] truncated = new byte[trace.length - 2];
+        System.arraycopy(trace, 0, truncated, 0, truncated.length);
+        try {
+            count(truncated);
+            fail("Read a truncated trace");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void replaysAtTheRecordedPace() throws Exception {
+        // 250 ms of input
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputTrace.Writer writer = new InputTrace.Writer(bytes);
+        for (int i = 0; i <= 25; ++i) {
+            writer.writeKey(i % 2 == 0 ? InputTrace.KEY_DOWN : InputTrace.KEY_UP, 5000 + i * 10, 1, OuyaController.BUTTON_U);
+        }
+        writer.close();
+
+        long original = timeReplay(bytes.toByteArray(), 1.0f);
+        long accelerated = timeReplay(bytes.toByteArray(), 5.0f);
+        long unpaced = timeReplay(bytes.toByteArray(), 0.0f);
+
+        assertTrue("original " + original, original >= 250 * 1000000L);
+        assertTrue("accelerated " + accelerated, accelerated >= 50 * 1000000L && accelerated < 250 * 1000000L);
+        assertTrue("unpaced " + unpaced, unpaced < 50 * 1000000L);
+    }
+
+    @Test
+    public void dispatcherSendsKeysToTheTarget() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputTrace.Writer writer = new InputTrace.Writer(bytes);
+        writer.writeKey(InputTrace.KEY_DOWN, 0, 3, OuyaController.BUTTON_Y);
+        writer.writeKey(InputTrace.KEY_UP, 5, 3, OuyaController.BUTTON_Y);
+        writer.close();
+
+        final List<String> calls = new ArrayList<String>();
+        InputReplayer.Target target = new InputReplayer.Target() {
+            @Override
+            public boolean onKeyDown(int keyCode, KeyEvent event) {
+                calls.add("down " + keyCode);
+                return true;
+            }
+
+            @Override
+            public boolean onKeyUp(int keyCode, KeyEvent event) {
+                calls.add("up " + keyCode);
+                return true;
+            }
+
+            @Override
+            public boolean onGenericMotionEvent(MotionEvent event) {
+                calls.add("motion");
+                return true;
+            }
+        };
+
+        InputTrace.Reader reader = new InputTrace.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(2, new InputReplayer(0.0f).replay(reader, new InputReplayer.Dispatcher(target, null)));
+        assertEquals(2, calls.size());
+        assertEquals("down " + OuyaController.BUTTON_Y, calls.get(0));
+        assertEquals("up " + OuyaController.BUTTON_Y, calls.get(1));
+    }
+
+    /**
+     * Not a pass/fail test: replays four players' worth of input through the
+     * input queue into the simulation, one tick per 1/60 s of trace time, and
+     * prints the cost of each tick.
+     */
+    @Test
+    public void benchmarkGameLoopReplay() throws Exception {
+        byte[] trace = gameplay(4, 30);
+
+        for (int pass = 0; pass < 2; ++pass) {
+            final GameRenderer renderer = new GameRenderer();
+            for (int i = 0; i < 4; ++i) {
+                new Player(null, i).requestJoin();
+            }
+            final long[] ticks = {0};
+            final long tickMillis = 1000 / SimulationClock.TICKS_PER_SECOND;
+
+            InputReplayer.Listener listener = new InputReplayer.Listener() {
+                private long nextTick = -1;
+
+                private void tickUpTo(long time) {
+                    if (nextTick < 0) {
+                        nextTick = time;
+                    }
+                    while (time >= nextTick) {
+                        renderer.tick();
+                        ++ticks[0];
+                        nextTick += tickMillis;
+                    }
+                }
+
+                @Override
+                public void onKey(InputTrace.Event event) {
+                    tickUpTo(event.getTime());
+                    renderer.getInputQueue().publishKey(event.getDeviceId(), event.getKeyCode(),
+                            event.getType() == InputTrace.KEY_DOWN);
+                }
+
+                @Override
+                public void onMotion(InputTrace.Event event) {
+                    tickUpTo(event.getTime());
+                    renderer.getInputQueue().publishAxes(event.getDeviceId(), event.getAxes());
+                }
+            };
+
+            InputTrace.Reader reader = new InputTrace.Reader(new ByteArrayInputStream(trace));
+            long start = System.nanoTime();
+            int events = new InputReplayer(0.0f).replay(reader, listener);
+            long elapsed = System.nanoTime() - start;
+
+            if (pass == 1) {
+                System.out.println(String.format("InputReplayer: %d events, %d ticks  %.1f us/tick",
+                        events, ticks[0], elapsed / 1000.0 / ticks[0]));
+            }
+        }
+    }
+
+    private static long timeReplay(byte[] trace, float speed) throws IOException {
+        InputTrace.Reader reader = new InputTrace.Reader(new ByteArrayInputStream(trace));
+        long start = System.nanoTime();
+        new InputReplayer(speed).replay(reader, new InputReplayer.Listener() {
+            @Override
+            public void onKey(InputTrace.Event event) {
+            }
+
+            @Override
+            public void onMotion(InputTrace.Event event) {
+            }
+        });
+        return System.nanoTime() - start;
+    }
+
+    private static int count(byte[] trace) throws IOException {
+        InputTrace.Reader reader = new InputTrace.Reader(new ByteArrayInputStream(trace));
+        InputTrace.Event event = new InputTrace.Event();
+        int count = 0;
+        while (reader.next(event)) {
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * A trace shaped like a real session: each player's controller reports its
+     * sticks every 8 ms while they steer and shoot, and taps O now and then.
+     * Device ids are the player numbers.
+     */
+    private static byte[] gameplay(int players, int seconds) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputTrace.Writer writer = new InputTrace.Writer(bytes);
+        float[] axes = new float[InputTrace.AXES.length];
+        for (long time = 0; time < seconds * 1000L; time += 8) {
+            for (int p = 0; p < players; ++p) {
+                double t = time / 1000.0 + p;
+                axes[0] = (float) Math.cos(t);
+                axes[1] = (float) Math.sin(t);
+                axes[2] = time % 2000 < 1000 ? (float) Math.sin(t * 3.0) : 0.0f;
+                axes[3] = time % 2000 < 1000 ? (float) Math.cos(t * 3.0) : 0.0f;
+                writer.writeMotion(time, p, InputDevice.SOURCE_JOYSTICK, axes);
+                if (time % 400 == p * 8) {
+                    writer.writeKey(InputTrace.KEY_DOWN, time, p, OuyaController.BUTTON_O);
+                } else if (time % 400 == 200 + p * 8) {
+                    writer.writeKey(InputTrace.KEY_UP, time, p, OuyaController.BUTTON_O);
+                }
+            }
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+}
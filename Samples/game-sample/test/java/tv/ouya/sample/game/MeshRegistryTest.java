@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class MeshRegistryTest {
+
+    @Before
+    public void setUp() throws Exception {
+        new GameRenderer();
+    }
+
+    @Test
+    public void spawningEntitiesAllocatesNoDirectBuffers() throws Exception {
+        // The first of each kind builds the shared meshes
+        new Player(Robolectric.application, 0);
+        new BulletPool(1);
+
+        int before = MeshRegistry.getDirectAllocationCount();
+        long bytesBefore = MeshRegistry.getDirectBytes();
+        for (int i = 0; i < 1000; ++i) {
+            new Player(Robolectric.application, i % 4);
+        }
+        new BulletPool(1000);
+
+        assertEquals(0, MeshRegistry.getDirectAllocationCount() - before);
+        assertEquals(0, MeshRegistry.getDirectBytes() - bytesBefore);
+    }
+
+    @Test
+    public void identicalObjectsShareOneMesh() throws Exception {
+        Player p1 = new Player(Robolectric.application, 0);
+        Player p2 = new Player(Robolectric.application, 1);
+        Wall w1 = new Wall(1.0f, 2.0f, 3.0f, 4.0f);
+        Wall w2 = new Wall(5.0f, 6.0f, 7.0f, 8.0f);
+
+        assertSame(p1.mesh, p2.mesh);
+        assertNotSame(w1.mesh, w2.mesh);
+    }
+
+    @Test
+    public void meshesAreReadOnly() throws Exception {
+        Mesh mesh = new Player(Robolectric.application, 0).mesh;
+
+        assertTrue(mesh.getVertices().isReadOnly());
+        assertTrue(mesh.getIndices().isReadOnly());
+        assertEquals(4, mesh.getVertexCount());
+    }
+
+    @Test
+    public void meshIsDroppedWhenTheLastUserReleasesIt() throws Exception {
+        int count = MeshRegistry.getMeshCount();
+        Wall w1 = new Wall(11.0f, 12.0f, 13.0f, 14.0f);
+        Wall w2 = new Wall(11.0f, 12.0f, 13.0f, 14.0f);
+        assertEquals(count + 1, MeshRegistry.getMeshCount());
+
+        w1.releaseModel();
+        assertEquals(count + 1, MeshRegistry.getMeshCount());
+        w2.releaseModel();
+        assertEquals(count, MeshRegistry.getMeshCount());
+        assertNull(w2.mesh);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Counts the GL work the render loop asks for instead of doing it.
+ */
+public class RecordingRenderBackend implements RenderBackend {
+    private final boolean bufferObjects;
+
+    public int drawCalls = 0;
+    public int bufferDrawCalls = 0;
+    public int uploads = 0;
+    public int matrixPushes = 0;
+    public int colorChanges = 0;
+    public int verticesDrawn = 0;
+
+    // Copies of what the last drawElements was given
+    public int lastMode;
+    public float[] lastVertices;
+    public short[] lastIndices;
+    private int nextBufferName = 1;
+
+    public RecordingRenderBackend(boolean bufferObjects) {
+        this.bufferObjects = bufferObjects;
+    }
+
+    public void reset() {
+        drawCalls = bufferDrawCalls = uploads = matrixPushes = colorChanges = verticesDrawn = 0;
+    }
+
+    @Override
+    public void pushMatrix() {
+        ++matrixPushes;
+    }
+
+    @Override
+    public void popMatrix() {
+    }
+
+    @Override
+    public void translate(float x, float y, float z) {
+    }
+
+    @Override
+    public void rotate(float degrees) {
+    }
+
+    @Override
+    public void setColor(float red, float green, float blue, float alpha) {
+        ++colorChanges;
+    }
+
+    @Override
+    public void setLineWidth(float width) {
+    }
+
+    @Override
+    public boolean useBufferObjects() {
+        return bufferObjects;
+    }
+
+    @Override
+    public int uploadVertices(FloatBuffer vertices) {
+        ++uploads;
+        return nextBufferName++;
+    }
+
+    @Override
+    public int uploadIndices(ShortBuffer indices) {
+        ++uploads;
+        return nextBufferName++;
+    }
+
+    @Override
+    public void drawArrays(int mode, FloatBuffer vertices, int count) {
+        ++drawCalls;
+        verticesDrawn += count;
+    }
+
+    @Override
+    public void drawElements(int mode, FloatBuffer vertices, ShortBuffer indices, int count) {
+        ++drawCalls;
+        verticesDrawn += count;
+
+        lastMode = mode;
+        lastVertices = new float[vertices.remaining()];
+        vertices.duplicate().get(lastVertices);
+        lastIndices = new short[count];
+        indices.duplicate().get(lastIndices);
+    }
+
+    @Override
+    public void drawBuffers(int mode, int vertexBuffer, int indexBuffer, int count) {
+        if (vertexBuffer == 0) {
+            throw new IllegalStateException("Drawing from a mesh that was never uploaded");
+        }
+        ++drawCalls;
+        ++bufferDrawCalls;
+        verticesDrawn += count;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class RenderBackendTest {
+    private GameRenderer renderer;
+
+    @Before
+    public void setUp() throws Exception {
+        renderer = new GameRenderer();
+        new Wall(1.0f, 1.0f, 10.0f, 1.0f);
+        for (int i = 0; i < 50; ++i) {
+            renderer.getBulletPool().acquire(null, 20.0f, 20.0f, i * 7.0f);
+        }
+        renderer.applyPendingChanges();
+        renderer.publishSnapshot();
+    }
+
+    @Test
+    public void clientArraysDrawEveryObjectWithoutUploading() throws Exception {
+        RecordingRenderBackend backend = new RecordingRenderBackend(false);
+        MeshRegistry.onContextCreated(backend);
+
+        renderer.drawObjects(backend);
+        renderer.drawObjects(backend);
+
+        assertEquals(2 * 51, backend.drawCalls);
+        assertEquals(0, backend.bufferDrawCalls);
+        assertEquals(0, backend.uploads);
+    }
+
+    @Test
+    public void bufferObjectsAreUploadedOncePerContext() throws Exception {
+        RecordingRenderBackend backend = new RecordingRenderBackend(true);
+        MeshRegistry.onContextCreated(backend);
+        int uploadsAtSurfaceCreation = backend.uploads;
+
+        for (int frame = 0; frame < 10; ++frame) {
+            renderer.drawObjects(backend);
+        }
+
+        assertEquals(10 * 51, backend.bufferDrawCalls);
+        assertEquals(uploadsAtSurfaceCreation, backend.uploads);
+    }
+
+    @Test
+    public void meshesBuiltAfterSurfaceCreationAreUploadedOnFirstDraw() throws Exception {
+        RecordingRenderBackend backend = new RecordingRenderBackend(true);
+        MeshRegistry.onContextCreated(backend);
+        backend.reset();
+
+        // A wall with a mesh of its own: one vertex buffer, no indices
+        new Wall(3.0f, 30.0f, 30.0f, 30.0f);
+        renderer.applyPendingChanges();
+        renderer.publishSnapshot();
+        renderer.drawObjects(backend);
+        renderer.drawObjects(backend);
+
+        assertEquals(1, backend.uploads);
+    }
+
+    @Test
+    public void contextLossReuploadsEveryMesh() throws Exception {
+        RecordingRenderBackend first = new RecordingRenderBackend(true);
+        MeshRegistry.onContextCreated(first);
+        renderer.drawObjects(first);
+
+        RecordingRenderBackend second = new RecordingRenderBackend(true);
+        MeshRegistry.onContextCreated(second);
+        renderer.drawObjects(second);
+
+        assertEquals(first.uploads, second.uploads);
+        assertEquals(51, second.bufferDrawCalls);
+    }
+}
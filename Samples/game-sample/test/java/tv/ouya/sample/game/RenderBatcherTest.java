@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import android.graphics.Color;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class RenderBatcherTest {
+    static private final float EPSILON = 0.0001f;
+
+    private GameRenderer renderer;
+    private RecordingRenderBackend backend;
+
+    @Before
+    public void setUp() throws Exception {
+        renderer = new GameRenderer();
+        renderer.setRenderMode(Options.RenderMode.BATCHED);
+        backend = new RecordingRenderBackend(false);
+        new Wall(1.0f, 1.0f, 10.0f, 1.0f);
+        new Wall(10.0f, 1.0f, 10.0f, 10.0f);
+        renderer.applyPendingChanges();
+        renderer.publishSnapshot();
+    }
+
+    private void addBullets(int count) {
+        for (int i = 0; i < count; ++i) {
+            // Straight from the constructor so the test isn't capped by the pool's capacity
+            Bullet b = new Bullet();
+            b.fire(null, (i % 40) + 0.5f, (i / 40 % 40) + 0.5f, i * 7.0f);
+            renderer.addRenderObject(b);
+        }
+        renderer.applyPendingChanges();
+        renderer.publishSnapshot();
+    }
+
+    @Test
+    public void drawCallsDoNotGrowWithTheBulletCount() throws Exception {
+        addBullets(50);
+        renderer.drawObjects(backend);
+        int callsFor50 = backend.drawCalls;
+
+        addBullets(450);
+        backend.reset();
+        renderer.drawObjects(backend);
+
+        // One call for the walls, one for the bullets
+        assertEquals(2, callsFor50);
+        assertEquals(2, backend.drawCalls);
+        assertEquals(0, backend.matrixPushes);
+        assertEquals(500 * 3 + 2 * 2, backend.verticesDrawn);
+    }
+
+    @Test
+    public void unbatchedDrawsOneCallPerObject() throws Exception {
+        addBullets(500);
+        renderer.setRenderMode(Options.RenderMode.CLIENT_ARRAYS);
+        renderer.drawObjects(backend);
+
+        assertEquals(502, backend.drawCalls);
+    }
+
+    @Test
+    public void batchesSplitAtTheShortIndexLimit() throws Exception {
+        // 30000 bullets * 3 vertices is more than one unsigned short index can address
+        addBullets(30000);
+        renderer.drawObjects(backend);
+
+        assertEquals(3, backend.drawCalls);
+    }
+
+    @Test
+    public void eachColourGetsItsOwnBatch() throws Exception {
+        Mesh mesh = MeshRegistry.acquire("bullet", GL10.GL_TRIANGLES, new float[9], new short[]{0, 1, 2});
+        RenderBatcher batcher = new RenderBatcher();
+
+        batcher.begin();
+        for (int i = 0; i < 100; ++i) {
+            batcher.add(backend, mesh, (i % 2 == 0) ? Color.RED : Color.BLUE, 1.0f, 0.0f, 0.0f, 0.0f);
+        }
+        batcher.flush(backend);
+        MeshRegistry.release(mesh);
+
+        assertEquals(2, batcher.getDrawCallCount());
+        assertEquals(2, backend.drawCalls);
+        assertEquals(2, backend.colorChanges);
+    }
+
+    @Test
+    public void verticesAreRotatedThenTranslated() throws Exception {
+        float[] coords = {
+                1.0f, 0.0f, 0.0f,
+                0.0f, 1.0f, 0.0f,
+                0.0f, 0.0f, 0.0f,
+        };
+        Mesh mesh = MeshRegistry.acquire("test:triangle", GL10.GL_TRIANGLES, coords, new short[]{0, 1, 2});
+        RenderBatcher batcher = new RenderBatcher();
+
+        batcher.begin();
+        batcher.add(backend, mesh, Color.WHITE, 1.0f, 3.0f, 4.0f, 90.0f);
+        batcher.flush(backend);
+        MeshRegistry.release(mesh);
+
+        // Same as glTranslatef(3, 4, 5) followed by glRotatef(90, 0, 0, 1)
+        float[] v = backend.lastVertices;
+        assertEquals(3.0f, v[0], EPSILON);
+        assertEquals(5.0f, v[1], EPSILON);
+        assertEquals(5.0f, v[2], EPSILON);
+        assertEquals(2.0f, v[3], EPSILON);
+        assertEquals(4.0f, v[4], EPSILON);
+        assertEquals(3.0f, v[6], EPSILON);
+        assertEquals(4.0f, v[7], EPSILON);
+    }
+
+    @Test
+    public void lineStripsBecomeLineSegments() throws Exception {
+        renderer.drawObjects(backend);
+
+        assertEquals(1, backend.drawCalls);
+        assertEquals(GL10.GL_LINES, backend.lastMode);
+        assertEquals(4, backend.lastIndices.length);
+        assertEquals(0, backend.lastIndices[0]);
+        assertEquals(1, backend.lastIndices[1]);
+        assertEquals(2, backend.lastIndices[2]);
+        assertEquals(3, backend.lastIndices[3]);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SimulationClockTest {
+    static private final long SECOND = 1000000000L;
+    static private final float EPSILON = 0.001f;
+
+    private SimulationClock clock;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new SimulationClock();
+    }
+
+    /**
+     * Feed the clock frames at the given rate and return the ticks it asked for.
+     */
+    private int runFrames(long start, int framesPerSecond, int frames) {
+        int ticks = 0;
+        for (int i = 0; i <= frames; ++i) {
+            int due = clock.beginFrame(start + i * SECOND / framesPerSecond);
+            for (int t = 0; t < due; ++t) {
+                clock.recordTick(0);
+            }
+            ticks += due;
+        }
+        return ticks;
+    }
+
+    @Test
+    public void tickRateDoesNotDependOnFrameRate() throws Exception {
+        assertEquals(60, runFrames(0, 30, 30));
+
+        clock = new SimulationClock();
+        assertEquals(60, runFrames(0, 60, 60), 1);
+
+        clock = new SimulationClock();
+        assertEquals(60, runFrames(0, 144, 144), 1);
+    }
+
+    @Test
+    public void leftoverTimeBecomesTheInterpolationFactor() throws Exception {
+        clock.beginFrame(0);
+        assertEquals(1, clock.beginFrame(SimulationClock.NANOS_PER_TICK * 3 / 2));
+        assertEquals(0.5f, clock.getAlpha(), EPSILON);
+        assertEquals(0, clock.beginFrame(SimulationClock.NANOS_PER_TICK * 7 / 4));
+        assertEquals(0.75f, clock.getAlpha(), EPSILON);
+    }
+
+    @Test
+    public void stallsDropTheBacklog() throws Exception {
+        clock.beginFrame(0);
+        int ticks = clock.beginFrame(5 * SECOND);
+
+        assertTrue(ticks < 10);
+        assertEquals(5 * 60 - ticks, clock.getDroppedTicks());
+        assertEquals(0.0f, clock.getAlpha(), EPSILON);
+    }
+
+    @Test
+    public void reportsRatesOverTheLastSecond() throws Exception {
+        runFrames(0, 30, 31);
+
+        assertEquals(30.0f, clock.getFrameRate(), 1.0f);
+        assertEquals(60.0f, clock.getTickRate(), 2.0f);
+    }
+
+    @Test
+    public void gameSpeedDoesNotDependOnFrameRate() throws Exception {
+        float slow = bulletTravelAfterHalfASecond(20);
+        float fast = bulletTravelAfterHalfASecond(144);
+
+        assertEquals(slow, fast, EPSILON);
+        // Each tick moves a bullet once, not twice
+        assertEquals(30 * 0.2f, slow, EPSILON);
+    }
+
+    private float bulletTravelAfterHalfASecond(int framesPerSecond) {
+        GameRenderer renderer = new GameRenderer();
+        Bullet bullet = renderer.getBulletPool().acquire(null, 2.0f, 2.0f, -90.0f);
+
+        for (int i = 0; i <= framesPerSecond / 2; ++i) {
+            renderer.simulate(i * SECOND / framesPerSecond);
+        }
+
+        assertEquals(30, renderer.getClock().getTickCount());
+        return bullet.getX() - 2.0f;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SimulationThreadTest {
+    static private final int MOVERS = 100;
+    static private final int TICKS = 5000;
+
+    private GameRenderer renderer;
+
+    @Before
+    public void setUp() throws Exception {
+        renderer = new GameRenderer();
+        renderer.setRenderMode(Options.RenderMode.CLIENT_ARRAYS);
+        for (int i = 0; i < MOVERS; ++i) {
+            new Mover();
+        }
+    }
+
+    @Test
+    public void rendererNeverSeesAHalfWrittenSnapshot() throws Exception {
+        Thread simulation = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < TICKS; ++i) {
+                    renderer.tick();
+                }
+            }
+        };
+
+        // Every mover moves in lockstep, so within one consistent snapshot they're all in the same place
+        final float[] firstX = new float[1];
+        final int[] drawn = new int[1];
+        final boolean[] torn = new boolean[1];
+        RecordingRenderBackend backend = new RecordingRenderBackend(false) {
+            @Override
+            public void translate(float x, float y, float z) {
+                if (drawn[0]++ == 0) {
+                    firstX[0] = x;
+                } else if (x != firstX[0]) {
+                    torn[0] = true;
+                }
+            }
+        };
+
+        simulation.start();
+        int frames = 0;
+        while (simulation.isAlive()) {
+            drawn[0] = 0;
+            renderer.drawObjects(backend);
+            assertTrue(drawn[0] == 0 || drawn[0] == MOVERS);
+            ++frames;
+        }
+        simulation.join();
+
+        assertFalse(torn[0]);
+        assertTrue(frames > 0);
+
+        drawn[0] = 0;
+        renderer.drawObjects(backend, Long.MAX_VALUE);
+        assertEquals(MOVERS, drawn[0]);
+        assertEquals((TICKS * Mover.SPEED) % GameRenderer.BOARD_WIDTH, firstX[0], 0.5f);
+    }
+
+    @Test
+    public void snapshotExchangeOnlyMovesForward() throws Exception {
+        final SnapshotExchange exchange = new SnapshotExchange(MOVERS);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (int tick = 0; tick < TICKS * 10; ++tick) {
+                    SceneSnapshot s = exchange.getBack();
+                    s.count = MOVERS;
+                    for (int i = 0; i < MOVERS; ++i) {
+                        s.x[i] = tick;
+                    }
+                    s.tick = tick;
+                    exchange.publish();
+                }
+            }
+        };
+
+        writer.start();
+        long lastTick = -1;
+        while (writer.isAlive() || lastTick < TICKS * 10 - 1) {
+            SceneSnapshot s = exchange.acquireLatest();
+            assertTrue(s.tick >= lastTick);
+            for (int i = 0; i < s.count; ++i) {
+                assertEquals((float) s.tick, s.x[i]);
+            }
+            lastTick = s.tick;
+        }
+        writer.join();
+    }
+
+    @Test
+    public void simulationThreadTicksInRealTime() throws Exception {
+        SimulationThread simulation = new SimulationThread(renderer);
+        simulation.start();
+        Thread.sleep(500);
+        simulation.shutdown();
+
+        long ticks = renderer.getClock().getTickCount();
+        assertFalse(simulation.isAlive());
+        assertTrue("ran " + ticks + " ticks", ticks >= 15 && ticks <= 45);
+    }
+
+    @Test
+    public void threadStatsCoverTheLastSecond() throws Exception {
+        ThreadStats stats = new ThreadStats("test");
+        final long millis = 1000000L;
+        // 100 passes of 2ms, 10ms apart
+        for (int i = 0; i <= 100; ++i) {
+            stats.record(i * 10 * millis, i * 10 * millis + 2 * millis);
+        }
+
+        assertEquals(100.0f, stats.getRate(), 2.0f);
+        assertEquals(2.0f, stats.getAverageMillis(), 0.01f);
+        assertEquals(0.2f, stats.getBusyFraction(), 0.01f);
+    }
+
+    /**
+     * Slides along the X axis by the same amount every tick.
+     */
+    private static class Mover extends RenderObject {
+        static final float SPEED = 0.1f;
+
+        Mover() {
+            super(0.1f);
+        }
+
+        @Override
+        protected void initModel() {
+            mesh = MeshRegistry.acquire("mover", GL10.GL_TRIANGLES, new float[9], new short[]{0, 1, 2});
+        }
+
+        @Override
+        protected void update() {
+            setTranslation((getX() + SPEED) % GameRenderer.BOARD_WIDTH, getY());
+        }
+    }
+}
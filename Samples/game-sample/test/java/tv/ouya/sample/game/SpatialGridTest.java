@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class SpatialGridTest {
+    private SpatialGrid grid;
+    private List<RenderObject> objects;
+    private Random random;
+
+    @Before
+    public void setUp() throws Exception {
+        new GameRenderer();
+        grid = new SpatialGrid(GameRenderer.s_instance.getEntities(), GameRenderer.BOARD_WIDTH, GameRenderer.BOARD_HEIGHT);
+        objects = new ArrayList<RenderObject>();
+        random = new Random(42);
+    }
+
+    @Test
+    public void wallsTakePriorityOverOtherObjects() throws Exception {
+        RenderObject mover = add(new Dot(0.5f, 10.0f, 10.05f));
+        RenderObject dot = add(new Dot(0.5f, 10.2f, 10.0f));
+        Wall wall = (Wall) add(new Wall(5.0f, 10.0f, 15.0f, 10.0f));
+
+        assertSame(wall, grid.getCollidingObject(mover));
+        assertSame(wall, grid.getCollidingObject(dot));
+    }
+
+    @Test
+    public void earlierObjectsWinTies() throws Exception {
+        RenderObject mover = add(new Dot(0.5f, 21.0f, 21.0f));
+        RenderObject first = add(new Dot(0.5f, 21.5f, 21.0f));
+        add(new Dot(0.5f, 20.5f, 21.0f));
+
+        assertSame(first, grid.getCollidingObject(mover));
+    }
+
+    @Test
+    public void findsWallsThatSpanManyCells() throws Exception {
+        Wall diagonal = (Wall) add(new Wall(1.0f, 1.0f, 39.0f, 33.0f));
+        RenderObject mover = add(new Dot(0.25f, 20.0f, 17.1f));
+
+        assertSame(diagonal, grid.getCollidingObject(mover));
+    }
+
+    @Test
+    public void tracksObjectsAsTheyMove() throws Exception {
+        RenderObject mover = add(new Dot(0.5f, 5.0f, 5.0f));
+        RenderObject target = add(new Dot(0.5f, 30.0f, 30.0f));
+        assertNull(grid.getCollidingObject(mover));
+
+        mover.setTranslation(29.5f, 30.0f);
+        grid.update(mover);
+        assertSame(target, grid.getCollidingObject(mover));
+
+        grid.remove(target);
+        assertNull(grid.getCollidingObject(mover));
+    }
+
+    @Test
+    public void matchesFlatListScan() throws Exception {
+        populate(2000);
+        for (RenderObject o : objects) {
+            assertSame(scanList(o), grid.getCollidingObject(o));
+        }
+    }
+
+    /**
+     * Not a pass/fail test: prints the per-query cost of the grid against the old
+     * list scan as the number of objects grows.
+     */
+    @Test
+    public void benchmarkQueryCost() throws Exception {
+        for (int count : new int[] {10, 100, 1000, 10000}) {
+            setUp();
+            populate(count);
+
+            int queries = Math.max(count, 1000);
+            long listNanos = timeQueries(queries, false);
+            long gridNanos = timeQueries(queries, true);
+
+            System.out.println(String.format("SpatialGrid: %6d objects  list %9.1f ns/query  grid %7.1f ns/query",
+                    count, (double) listNanos / queries, (double) gridNanos / queries));
+        }
+    }
+
+    private long timeQueries(int queries, boolean useGrid) {
+        // warm up, then measure
+        for (int pass = 0; pass < 2; ++pass) {
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; ++i) {
+                RenderObject o = objects.get(i % objects.size());
+                if (useGrid) {
+                    grid.getCollidingObject(o);
+                } else {
+                    scanList(o);
+                }
+            }
+            if (pass == 1) {
+                return System.nanoTime() - start;
+            }
+        }
+        return 0;
+    }
+
+    private void populate(int count) {
+        add(new Wall(10.0f, 10.0f, 30.0f, 10.0f));
+        add(new Wall(10.0f, 30.0f, 30.0f, 30.0f));
+        add(new Wall(20.0f, 12.0f, 20.0f, 28.0f));
+        add(new Wall(2.0f, 38.0f, 38.0f, 2.0f));
+        for (int i = 0; i < count; ++i) {
+            float radius = random.nextBoolean() ? 0.25f : 0.5f;
+            add(new Dot(radius,
+                    random.nextFloat() * GameRenderer.BOARD_WIDTH,
+                    random.nextFloat() * GameRenderer.BOARD_HEIGHT));
+        }
+    }
+
+    private RenderObject add(RenderObject o) {
+        objects.add(o);
+        grid.add(o);
+        return o;
+    }
+
+    /**
+     * The query GameRenderer used before the grid existed.
+     */
+    private RenderObject scanList(RenderObject obj) {
+        for (RenderObject o : objects) {
+            if (o != obj && o instanceof Wall) {
+                if (o.doesCollide(obj)) {
+                    return o;
+                }
+            }
+        }
+        for (RenderObject o : objects) {
+            if (o != obj && !(o instanceof Wall)) {
+                if (o.doesCollide(obj)) {
+                    return o;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static class Dot extends RenderObject {
+        Dot(float radius, float x, float y) {
+            super(radius);
+            setTranslation(x, y);
+        }
+
+        @Override
+        protected void initModel() {
+        }
+    }
+}
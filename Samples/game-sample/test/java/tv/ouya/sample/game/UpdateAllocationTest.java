@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.game;
+
+import android.graphics.PointF;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.management.ManagementFactory;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class UpdateAllocationTest {
+    static private final int WANDERERS = 1000;
+    static private final float EPSILON = 0.0001f;
+
+    private GameRenderer renderer;
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() throws Exception {
+        renderer = new GameRenderer();
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        new Wall(10.0f, 10.0f, 30.0f, 10.0f);
+        new Wall(10.0f, 20.0f, 30.0f, 20.0f);
+        new Wall(10.0f, 30.0f, 30.0f, 30.0f);
+        for (int i = 0; i < WANDERERS; ++i) {
+            new Wanderer(i);
+        }
+
+        // Every player running around and firing
+        for (int i = 0; i < 4; ++i) {
+            Player p = new Player(null, i);
+            p.requestJoin();
+            renderer.getInputQueue().publishAxes(i, new float[]{0.7f, -0.7f, 1.0f, 0.0f, 0.0f, 0.0f});
+        }
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void updatingTheSceneAllocatesNothing() throws Exception {
+        // Let lists, snapshots and the bullet pool reach their working size
+        for (int i = 0; i < 300; ++i) {
+            renderer.tick();
+        }
+
+        long overhead = allocatedBytes();
+        overhead = allocatedBytes() - overhead;
+
+        // The JIT can allocate a few bytes on this thread when it recompiles a method,
+        // so take the best of several runs rather than the first
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; ++run) {
+            long before = allocatedBytes();
+            for (int i = 0; i < 100; ++i) {
+                renderer.tick();
+            }
+            best = Math.min(best, allocatedBytes() - before - overhead);
+        }
+
+        assertEquals(0, best);
+    }
+
+    @Test
+    public void forwardVectorFollowsRotation() throws Exception {
+        Wanderer w = new Wanderer(0);
+        PointF forward = new PointF();
+
+        w.setRotate(0.0f);
+        w.getForwardVector(forward);
+        assertEquals(0.0f, forward.x, EPSILON);
+        assertEquals(1.0f, forward.y, EPSILON);
+
+        w.setRotate(90.0f);
+        w.getForwardVector(forward);
+        assertEquals(-1.0f, forward.x, EPSILON);
+        assertEquals(0.0f, forward.y, EPSILON);
+    }
+
+    @Test
+    public void projectionClampsToTheSegment() throws Exception {
+        PointF out = new PointF();
+
+        VectorMath.projectOntoLine(5.0f, 3.0f, 0.0f, 0.0f, 10.0f, 0.0f, true, out);
+        assertEquals(5.0f, out.x, EPSILON);
+        assertEquals(0.0f, out.y, EPSILON);
+
+        VectorMath.projectOntoLine(15.0f, 3.0f, 0.0f, 0.0f, 10.0f, 0.0f, true, out);
+        assertEquals(10.0f, out.x, EPSILON);
+
+        VectorMath.projectOntoLine(15.0f, 3.0f, 0.0f, 0.0f, 10.0f, 0.0f, false, out);
+        assertEquals(15.0f, out.x, EPSILON);
+    }
+
+    @Test
+    public void slidingKeepsTheMoverOnItsSideOfTheWall() throws Exception {
+        Wall wall = new Wall(0.0f, 10.0f, 20.0f, 10.0f);
+        PointF prev = new PointF(5.0f, 9.0f);
+        PointF next = new PointF(6.0f, 10.0f);
+
+        wall.slideAgainst(prev, next, 0.5f, next);
+
+        assertEquals(6.0f, next.x, EPSILON);
+        assertEquals(10.0f - 1.0f, next.y, EPSILON);
+    }
+
+    /**
+     * Turns a little and moves forward every tick, sliding along any wall it hits.
+     */
+    private static class Wanderer extends RenderObject {
+        private final PointF slid = new PointF();
+
+        Wanderer(int seed) {
+            super(0.3f);
+            setTranslation(seed * 7 % 40 + 0.5f, seed * 13 % 40 + 0.5f);
+            setRotate(seed * 37 % 360);
+
+            setCollisionListener(new CollisionListener() {
+                @Override
+                public void onCollide(PointF prev, RenderObject me, RenderObject other) {
+                    if (other instanceof Wall) {
+                        getTranslation(slid);
+                        ((Wall) other).slideAgainst(prev, slid, getRadius(), slid);
+                        setTranslation(slid.x, slid.y);
+                    }
+                }
+            });
+        }
+
+        @Override
+        protected void initModel() {
+        }
+
+        @Override
+        protected void update() {
+            rotate(3.0f);
+            goForward(0.1f);
+        }
+    }
+}
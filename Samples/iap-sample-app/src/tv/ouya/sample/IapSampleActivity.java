@@ -22,7 +22,6 @@ import android.app.AlertDialog;
 import android.content.*;
 import android.os.Bundle;
 import android.os.Parcelable;
-import android.util.Base64;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -35,19 +34,13 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import tv.ouya.console.api.*;
 
-import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
-import java.security.KeyFactory;
 import java.security.PublicKey;
-import java.security.SecureRandom;
-import java.security.spec.X509EncodedKeySpec;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.Executor;
 
 import static tv.ouya.console.api.OuyaController.BUTTON_O;
 
@@ -148,6 +141,12 @@ public class IapSampleActivity extends Activity {
     private List<Product> mProductList;
     private List<Receipt> mReceiptList;
 
+    /**
+     * Set once the server's receipts are on their way, so the cache can't replace them
+     */
+
+    private boolean mReceiptResponseArrived;
+
     /**
      * The outstanding purchase request UUIDs.
      */
@@ -171,6 +170,40 @@ public class IapSampleActivity extends Activity {
 
     private PublicKey mPublicKey;
 
+    /**
+     * Seals purchase requests with mPublicKey
+     */
+
+    private PurchaseEncryptor mPurchaseEncryptor;
+
+    /**
+     * Decrypts and sorts receipt responses off the UI thread, and keeps them on disk between runs
+     */
+
+    private ReceiptPipeline mReceiptPipeline;
+
+    /**
+     * Shows the receipts the pipeline delivers
+     */
+
+    private final ReceiptPipeline.Listener mReceiptResultListener = new ReceiptPipeline.Listener() {
+        @Override
+        public void onReceipts(ReceiptPipeline.Result result) {
+            Log.d(LOG_TAG, "Processed " + result);
+            // The cached receipts are already on screen if the server had nothing new
+            if (result.isChanged() || mReceiptList == null) {
+                mReceiptList = result.getReceipts();
+                addReceipts();
+            }
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            Log.e(LOG_TAG, "Unable to decrypt receipts", e);
+            showError("Could not decrypt receipts");
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -232,13 +265,21 @@ public class IapSampleActivity extends Activity {
         }
 
         // Create a PublicKey object from the key data downloaded from the developer portal.
+        // It is only parsed once per process, so recreating the Activity doesn't pay for it again.
         try {
-            X509EncodedKeySpec keySpec = new X509EncodedKeySpec(APPLICATION_KEY);
-            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-            mPublicKey = keyFactory.generatePublic(keySpec);
+            ApplicationKey applicationKey = ApplicationKey.get(ApplicationKey.fromBytes(APPLICATION_KEY));
+            mPublicKey = applicationKey.getPublicKey();
+            mPurchaseEncryptor = applicationKey.getPurchaseEncryptor();
         } catch (Exception e) {
             Log.e(LOG_TAG, "Unable to create encryption key", e);
         }
+
+        mReceiptPipeline = new ReceiptPipeline(mPublicKey, ReceiptCache.forContext(this), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                runOnUiThread(command);
+            }
+        });
     }
 
     /**
@@ -249,6 +290,12 @@ public class IapSampleActivity extends Activity {
     public void onStart() {
         super.onStart();
 
+        // Show the receipts from the last run while the server is asked for an up to date list.
+        mReceiptResponseArrived = false;
+        if(mReceiptList == null) {
+            loadCachedReceipts();
+        }
+
         // Request an up to date list of receipts for the user.
         requestReceipts();
 
@@ -261,11 +308,13 @@ public class IapSampleActivity extends Activity {
     }
 
     /**
-     * Unregister the account change listener when the application is stopped.
+     * Unregister the account change listener when the application is stopped, and drop any receipts
+     * still being decrypted; onStart asks for them again.
      */
     @Override
     public void onStop() {
         unregisterReceiver(mAuthChangeReceiver);
+        mReceiptPipeline.cancel();
         super.onStop();
     }
 
@@ -332,6 +381,7 @@ public class IapSampleActivity extends Activity {
     @Override
     protected void onDestroy() {
         ouyaFacade.shutdown();
+        mReceiptPipeline.shutdown();
         super.onDestroy();
     }
 
@@ -356,6 +406,28 @@ public class IapSampleActivity extends Activity {
         });
     }
 
+    /**
+     * The cache keeps every gamer who has used this console, so only the signed-in gamer's
+     * receipts are shown, and none until we know who that is.
+     */
+    private void loadCachedReceipts() {
+        ouyaFacade.requestGamerInfo(new CancelIgnoringOuyaResponseListener<GamerInfo>() {
+            @Override
+            public void onSuccess(GamerInfo result) {
+                // Loading now would cancel the server's receipts
+                if (!mReceiptResponseArrived && mReceiptList == null) {
+                    mReceiptPipeline.loadCached(result.getUuid(), mReceiptResultListener);
+                }
+            }
+
+            @Override
+            public void onFailure(int errorCode, String errorMessage, Bundle optionalData) {
+                // Not worth bothering the user; the server's receipts follow anyway
+                Log.w(LOG_TAG, "Unable to identify the gamer, so cached receipts aren't shown (code " + errorCode + ": " + errorMessage + ")");
+            }
+        });
+    }
+
     private void fetchGamerInfo() {
         ouyaFacade.requestGamerInfo(new CancelIgnoringOuyaResponseListener<GamerInfo>() {
             @Override
@@ -464,42 +536,13 @@ public class IapSampleActivity extends Activity {
      */
     public void requestPurchase(final Product product)
         throws GeneralSecurityException, UnsupportedEncodingException, JSONException {
-        SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
-
         // This is an ID that allows you to associate a successful purchase with
         // it's original request. The server does nothing with this string except
         // pass it back to you, so it only needs to be unique within this instance
         // of your app to allow you to pair responses with requests.
-        String uniqueId = Long.toHexString(sr.nextLong());
-
-        JSONObject purchaseRequest = new JSONObject();
-        purchaseRequest.put("uuid", uniqueId);
-        purchaseRequest.put("identifier", product.getIdentifier());
-        purchaseRequest.put("testing", "true"); // This value is only needed for testing, not setting it results in a live purchase
-        String purchaseRequestJson = purchaseRequest.toString();
-
-        byte[] keyBytes = new byte[16];
-        sr.nextBytes(keyBytes);
-        SecretKey key = new SecretKeySpec(keyBytes, "AES");
-
-        byte[] ivBytes = new byte[16];
-        sr.nextBytes(ivBytes);
-        IvParameterSpec iv = new IvParameterSpec(ivBytes);
+        String uniqueId = mPurchaseEncryptor.newUniqueId();
 
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding", "BC");
-        cipher.init(Cipher.ENCRYPT_MODE, key, iv);
-        byte[] payload = cipher.doFinal(purchaseRequestJson.getBytes("UTF-8"));
-
-        cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding", "BC");
-        cipher.init(Cipher.ENCRYPT_MODE, mPublicKey);
-        byte[] encryptedKey = cipher.doFinal(keyBytes);
-
-        Purchasable purchasable =
-                new Purchasable(
-                        product.getIdentifier(),
-                        Base64.encodeToString(encryptedKey, Base64.NO_WRAP),
-                        Base64.encodeToString(ivBytes, Base64.NO_WRAP),
-                        Base64.encodeToString(payload, Base64.NO_WRAP) );
+        Purchasable purchasable = mPurchaseEncryptor.encryptPurchase(product.getIdentifier(), uniqueId);
 
         synchronized (mOutstandingPurchaseRequests) {
             mOutstandingPurchaseRequests.put(uniqueId, product);
@@ -553,34 +596,9 @@ public class IapSampleActivity extends Activity {
          */
         @Override
         public void onSuccess(String receiptResponse) {
-            OuyaEncryptionHelper helper = new OuyaEncryptionHelper();
-            List<Receipt> receipts;
-            try {
-                JSONObject response = new JSONObject(receiptResponse);
-                receipts = helper.decryptReceiptResponse(response, mPublicKey);
-            } catch (ParseException e) {
-                throw new RuntimeException(e);
-            } catch (JSONException e) {
-                throw new RuntimeException(e);
-            } catch (GeneralSecurityException e) {
-                throw new RuntimeException(e);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-            Collections.sort(receipts, new Comparator<Receipt>() {
-                @Override
-                public int compare(Receipt lhs, Receipt rhs) {
-                    return rhs.getPurchaseDate().compareTo(lhs.getPurchaseDate());
-                }
-            });
-
-            mReceiptList = receipts;
-            IapSampleActivity.this.runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    addReceipts();
-                }
-            });
+            // Decrypting and sorting hundreds of receipts is too slow for the thread the response arrives on.
+            mReceiptResponseArrived = true;
+            mReceiptPipeline.submit(receiptResponse, mReceiptResultListener);
         }
 
         /**
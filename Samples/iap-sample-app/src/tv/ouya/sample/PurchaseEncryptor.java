@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample;
+
+import android.util.Base64;
+import org.json.JSONException;
+import org.json.JSONObject;
+import tv.ouya.console.api.Purchasable;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+
+/**
+ * Builds the encrypted envelope the OUYA server expects with a purchase request.
+ * <p/>
+ * Looking up the ciphers and setting up RSA is far more expensive than encrypting
+ * a few hundred bytes, so each thread keeps its own SecureRandom and Cipher pair
+ * and only re-initialises them per purchase. The RSA cipher is initialised with the
+ * public key once per thread; only the AES cipher needs a fresh key and IV each
+ * time. Safe to share between threads.
+ */
+public class PurchaseEncryptor {
+    private static final String AES_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final String RSA_TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+    private static final String PROVIDER = "BC";
+    private static final int AES_KEY_BYTES = 16;
+
+    private final PublicKey mPublicKey;
+    private final String mProvider;
+
+    private final ThreadLocal<Ciphers> mCiphers = new ThreadLocal<Ciphers>() {
+        @Override
+        protected Ciphers initialValue() {
+            try {
+                return new Ciphers();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Unable to create the purchase ciphers", e);
+            }
+        }
+    };
+
+    public PurchaseEncryptor(PublicKey publicKey) {
+        this(publicKey, PROVIDER);
+    }
+
+    /**
+     * @param provider The JCE provider to take the ciphers from, or null for the
+     *                 platform default. Desktop JVMs don't ship Bouncy Castle.
+     */
+    PurchaseEncryptor(PublicKey publicKey, String provider) {
+        mPublicKey = publicKey;
+        mProvider = provider;
+    }
+
+    /**
+     * A random ID to pair the server's purchase response with its request.
+     */
+    public String newUniqueId() {
+        return Long.toHexString(ciphers().random.nextLong());
+    }
+
+    public Purchasable encryptPurchase(String productId, String uuid)
+        throws GeneralSecurityException, UnsupportedEncodingException, JSONException {
+        JSONObject purchaseRequest = new JSONObject();
+        purchaseRequest.put("uuid", uuid);
+        purchaseRequest.put("identifier", productId);
+        purchaseRequest.put("testing", "true"); // This value is only needed for testing, not setting it results in a live purchase
+
+        String[] envelope = encrypt(purchaseRequest.toString());
+        return new Purchasable(productId, envelope[0], envelope[1], envelope[2]);
+    }
+
+    /**
+     * @return The Base64 encrypted AES key, IV and payload, in the order Purchasable takes them.
+     */
+    String[] encrypt(String purchaseRequestJson)
+        throws GeneralSecurityException, UnsupportedEncodingException {
+        Ciphers ciphers = ciphers();
+        ciphers.random.nextBytes(ciphers.keyBytes);
+        ciphers.random.nextBytes(ciphers.ivBytes);
+
+        ciphers.aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(ciphers.keyBytes, "AES"),
+                new IvParameterSpec(ciphers.ivBytes));
+        byte[] payload = ciphers.aes.doFinal(purchaseRequestJson.getBytes("UTF-8"));
+        byte[] encryptedKey = ciphers.rsa.doFinal(ciphers.keyBytes);
+
+        return new String[] {
+                Base64.encodeToString(encryptedKey, Base64.NO_WRAP),
+                Base64.encodeToString(ciphers.ivBytes, Base64.NO_WRAP),
+                Base64.encodeToString(payload, Base64.NO_WRAP)
+        };
+    }
+
+    private Ciphers ciphers() {
+        return mCiphers.get();
+    }
+
+    private Cipher getCipher(String transformation) throws GeneralSecurityException {
+        return mProvider == null ? Cipher.getInstance(transformation) : Cipher.getInstance(transformation, mProvider);
+    }
+
+    /**
+     * Everything one thread needs to seal purchases, created on its first purchase.
+     */
+    private class Ciphers {
+        final SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+        final Cipher aes = getCipher(AES_TRANSFORMATION);
+        final Cipher rsa = getCipher(RSA_TRANSFORMATION);
+        final byte[] keyBytes = new byte[AES_KEY_BYTES];
+        final byte[] ivBytes = new byte[AES_KEY_BYTES];
+
+        Ciphers() throws GeneralSecurityException {
+            rsa.init(Cipher.ENCRYPT_MODE, mPublicKey, random);
+        }
+    }
+}
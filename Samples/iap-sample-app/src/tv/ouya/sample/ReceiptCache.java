@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample;
+
+import android.content.Context;
+import tv.ouya.console.api.Receipt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decrypted receipts kept on disk between runs, so the UI can show what the gamer
+ * owns before the server has answered.
+ * <p/>
+ * Each gamer gets a small binary file holding their receipts and the time they
+ * were last synced with the server, and a pointer file remembers whose receipts
+ * were synced last. The receipt response is always the complete list, so update()
+ * takes it as the truth: receipts already on disk are kept as they are, receipts
+ * the server no longer lists are dropped, and only the new ones are added.
+ * <p/>
+ * Files are replaced atomically, so a crash mid-write leaves the previous copy.
+ * A file that can't be read is treated as missing.
+ */
+public class ReceiptCache {
+    private static final int MAGIC = 0x4f555952; // "OUYR"
+    private static final int VERSION = 1;
+    private static final String DIRECTORY = "receipts";
+    private static final String LAST_GAMER_FILE = "last_gamer";
+    private static final String RECEIPTS_SUFFIX = ".bin";
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+    // An empty identifier, no dates and no strings still take this much
+    private static final int MIN_RECEIPT_BYTES = 2 + 4 + 8 + 8 + 1 + 8 + 1;
+
+    private static final Object sLock = new Object();
+    private static volatile ReceiptCache sShared;
+
+    /**
+     * A gamer's receipts as of a sync.
+     */
+    public static final class Snapshot {
+        private final String mGamerUuid;
+        private final List<Receipt> mReceipts;
+        private final long mLastSync;
+        private final int mAddedCount;
+        private final int mRemovedCount;
+        private final boolean mChanged;
+
+        Snapshot(String gamerUuid, List<Receipt> receipts, long lastSync, int addedCount, int removedCount,
+                 boolean changed) {
+            mGamerUuid = gamerUuid;
+            mReceipts = Collections.unmodifiableList(receipts);
+            mLastSync = lastSync;
+            mAddedCount = addedCount;
+            mRemovedCount = removedCount;
+            mChanged = changed;
+        }
+
+        /**
+         * @return Null when the server returned no receipts, so there was nobody to key them by.
+         */
+        public String getGamerUuid() {
+            return mGamerUuid;
+        }
+
+        /**
+         * @return An unmodifiable list, in the order the receipts were first seen.
+         */
+        public List<Receipt> getReceipts() {
+            return mReceipts;
+        }
+
+        /**
+         * @return When these receipts last came from the server, in System.currentTimeMillis() time.
+         */
+        public long getLastSync() {
+            return mLastSync;
+        }
+
+        /**
+         * @return How many receipts the last update() added. Zero for a snapshot loaded from disk.
+         */
+        public int getAddedCount() {
+            return mAddedCount;
+        }
+
+        public int getRemovedCount() {
+            return mRemovedCount;
+        }
+
+        /**
+         * @return False if load() would have returned the same receipts before the update that
+         *         made this snapshot.
+         */
+        public boolean isChanged() {
+            return mChanged;
+        }
+    }
+
+    private final File mDirectory;
+
+    public ReceiptCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * @return The one cache for this process. Every Activity gets the same instance, so
+     *         writers from, say, both sides of a rotation are serialised on its lock.
+     */
+    public static ReceiptCache forContext(Context context) {
+        ReceiptCache cache = sShared;
+        if (cache == null) {
+            synchronized (sLock) {
+                cache = sShared;
+                if (cache == null) {
+                    cache = new ReceiptCache(new File(context.getApplicationContext().getFilesDir(), DIRECTORY));
+                    sShared = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return The receipts of whoever was synced last, or null if there are none on disk.
+     */
+    public synchronized Snapshot load() {
+        String gamerUuid = readLastGamer();
+        return gamerUuid == null ? null : load(gamerUuid);
+    }
+
+    /**
+     * @return The gamer's receipts, or null if there are none on disk.
+     */
+    public synchronized Snapshot load(String gamerUuid) {
+        File file = receiptsFile(gamerUuid);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long lastSync = in.readLong();
+            int count = in.readInt();
+            if (count < 0 || count > (file.length() - HEADER_BYTES) / MIN_RECEIPT_BYTES) {
+                // Corrupt; more receipts than the file could hold
+                return null;
+            }
+            List<Receipt> receipts = new ArrayList<Receipt>(count);
+            for (int i = 0; i < count; ++i) {
+                receipts.add(readReceipt(in, gamerUuid));
+            }
+            return new Snapshot(gamerUuid, receipts, lastSync, 0, 0, false);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            // Truncated or otherwise unreadable; the next sync rewrites it
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Merge a complete receipt response into the cache.
+     *
+     * @param receipts Everything the server returned for the current gamer.
+     * @param syncTime When the response arrived, in System.currentTimeMillis() time.
+     */
+    public synchronized Snapshot update(List<Receipt> receipts, long syncTime) throws IOException {
+        String lastGamerUuid = readLastGamer();
+        if (receipts.isEmpty()) {
+            // Nothing to tell whose account this is, so don't show anyone's receipts next time
+            new File(mDirectory, LAST_GAMER_FILE).delete();
+            return new Snapshot(null, new ArrayList<Receipt>(), syncTime, 0, 0, lastGamerUuid != null);
+        }
+        String gamerUuid = receipts.get(0).getUuid();
+        boolean switchedGamer = !gamerUuid.equals(lastGamerUuid);
+
+        Map<String, Receipt> fresh = new HashMap<String, Receipt>(receipts.size() * 2);
+        for (Receipt receipt : receipts) {
+            fresh.put(key(receipt), receipt);
+        }
+
+        List<Receipt> merged = new ArrayList<Receipt>(receipts.size());
+        int removed = 0;
+        Snapshot cached = load(gamerUuid);
+        if (cached != null) {
+            for (Receipt receipt : cached.getReceipts()) {
+                if (fresh.remove(key(receipt)) != null) {
+                    merged.add(receipt);
+                } else {
+                    ++removed;
+                }
+            }
+        }
+        // Whatever is left wasn't on disk
+        int added = 0;
+        for (Receipt receipt : receipts) {
+            if (fresh.remove(key(receipt)) != null) {
+                merged.add(receipt);
+                ++added;
+            }
+        }
+
+        write(gamerUuid, merged, syncTime);
+        if (switchedGamer) {
+            writeLastGamer(gamerUuid);
+        }
+        return new Snapshot(gamerUuid, merged, syncTime, added, removed, switchedGamer || added != 0 || removed != 0);
+    }
+
+    /**
+     * Forget every gamer's receipts.
+     */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Receipts don't carry an ID of their own; a gamer can only buy a product once
+     * at any given moment, so the product and purchase time identify one.
+     */
+    private static String key(Receipt receipt) {
+        return receipt.getIdentifier() + '@' + receipt.getPurchaseDate().getTime();
+    }
+
+    private void write(String gamerUuid, List<Receipt> receipts, long syncTime) throws IOException {
+        File file = receiptsFile(gamerUuid);
+        File temp = new File(mDirectory, file.getName() + ".tmp");
+        ensureDirectory();
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(syncTime);
+            out.writeInt(receipts.size());
+            for (Receipt receipt : receipts) {
+                writeReceipt(out, receipt);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * The gamer's UUID is the file name, so it isn't repeated per receipt.
+     */
+    private static void writeReceipt(DataOutputStream out, Receipt receipt) throws IOException {
+        out.writeUTF(receipt.getIdentifier());
+        out.writeInt(receipt.getPriceInCents());
+        out.writeLong(receipt.getPurchaseDate().getTime());
+        writeDate(out, receipt.getGeneratedDate());
+        writeString(out, receipt.getGamer());
+        out.writeDouble(receipt.getLocalPrice());
+        writeString(out, receipt.getCurrency());
+    }
+
+    private static Receipt readReceipt(DataInputStream in, String gamerUuid) throws IOException {
+        String identifier = in.readUTF();
+        int priceInCents = in.readInt();
+        Date purchaseDate = new Date(in.readLong());
+        Date generatedDate = readDate(in);
+        String gamer = readString(in);
+        double localPrice = in.readDouble();
+        String currency = readString(in);
+        return new Receipt(identifier, priceInCents, purchaseDate, generatedDate, gamer, gamerUuid, localPrice, currency);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDate(DataOutputStream out, Date value) throws IOException {
+        out.writeLong(value != null ? value.getTime() : NO_DATE);
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        long time = in.readLong();
+        return time != NO_DATE ? new Date(time) : null;
+    }
+
+    private String readLastGamer() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(new File(mDirectory, LAST_GAMER_FILE)));
+            return in.readUTF();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    private void writeLastGamer(String gamerUuid) throws IOException {
+        ensureDirectory();
+        File file = new File(mDirectory, LAST_GAMER_FILE);
+        File temp = new File(mDirectory, LAST_GAMER_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            out.writeUTF(gamerUuid);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    private File receiptsFile(String gamerUuid) {
+        // UUIDs are already safe file names; anything else is made safe
+        return new File(mDirectory, gamerUuid.replaceAll("[^A-Za-z0-9-]", "_") + RECEIPTS_SUFFIX);
+    }
+
+    private void ensureDirectory() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+    }
+
+    private static void close(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing more to read anyway
+            }
+        }
+    }
+}
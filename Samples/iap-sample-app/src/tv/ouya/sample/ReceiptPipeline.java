@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample;
+
+import android.util.Log;
+import tv.ouya.console.api.Receipt;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns a receipt response into a sorted list of receipts on a background thread.
+ * <p/>
+ * Decrypting the response and sorting the receipts can take a
+ * noticeable time for gamers with hundreds of purchases, so none of it happens on
+ * the thread that hands the response over. A single worker does the work and
+ * only the newest response is kept: submitting one cancels whatever came before,
+ * so a burst of refreshes can't pile up work. Results and failures are handed to
+ * the Listener through the delivery Executor, normally the UI thread, and never
+ * after cancel().
+ * <p/>
+ * Given a ReceiptCache, every response is merged into it before sorting, and
+ * loadCached() delivers a gamer's cached receipts so there is something to show
+ * while the server is asked.
+ */
+public class ReceiptPipeline {
+    public interface Listener {
+        void onReceipts(Result result);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * The receipts, newest first, and what each stage of getting them cost.
+     */
+    public static final class Result {
+        private final List<Receipt> mReceipts;
+        private final boolean mFromCache;
+        private final boolean mChanged;
+        private final long mDecryptNanos;
+        private final long mCacheNanos;
+        private final long mSortNanos;
+
+        Result(List<Receipt> receipts, boolean fromCache, boolean changed,
+               long decryptNanos, long cacheNanos, long sortNanos) {
+            mReceipts = Collections.unmodifiableList(receipts);
+            mFromCache = fromCache;
+            mChanged = changed;
+            mDecryptNanos = decryptNanos;
+            mCacheNanos = cacheNanos;
+            mSortNanos = sortNanos;
+        }
+
+        /**
+         * @return An unmodifiable list.
+         */
+        public List<Receipt> getReceipts() {
+            return mReceipts;
+        }
+
+        /**
+         * @return True if these came from loadCached() rather than the server.
+         */
+        public boolean isFromCache() {
+            return mFromCache;
+        }
+
+        /**
+         * @return False if the server returned exactly what the cache already held. Always
+         *         true without a cache.
+         */
+        public boolean isChanged() {
+            return mChanged;
+        }
+
+        /**
+         * @return Time spent reading and decrypting the response into receipts.
+         */
+        public long getDecryptNanos() {
+            return mDecryptNanos;
+        }
+
+        /**
+         * @return Time spent reading or updating the ReceiptCache.
+         */
+        public long getCacheNanos() {
+            return mCacheNanos;
+        }
+
+        public long getSortNanos() {
+            return mSortNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d %sreceipts: decrypt %.1f ms, cache %.1f ms, sort %.1f ms",
+                    mReceipts.size(), mFromCache ? "cached " : "", mDecryptNanos / 1e6,
+                    mCacheNanos / 1e6, mSortNanos / 1e6);
+        }
+    }
+
+    private static final Comparator<Receipt> NEWEST_FIRST = new Comparator<Receipt>() {
+        @Override
+        public int compare(Receipt lhs, Receipt rhs) {
+            return rhs.getPurchaseDate().compareTo(lhs.getPurchaseDate());
+        }
+    };
+
+    private static final String LOG_TAG = "ReceiptPipeline";
+
+    private final ReceiptStreamReader mReader;
+    private final ReceiptCache mCache;
+    private final Executor mDeliveryExecutor;
+    private final ThreadPoolExecutor mExecutor;
+
+    private Job mCurrentJob;
+    private Future<?> mCurrentFuture;
+
+    /**
+     * @param deliveryExecutor Where the Listener is called, normally the UI thread.
+     */
+    public ReceiptPipeline(PublicKey publicKey, Executor deliveryExecutor) {
+        this(publicKey, null, deliveryExecutor);
+    }
+
+    /**
+     * @param cache Where receipts are kept between runs, or null to keep nothing.
+     * @param deliveryExecutor Where the Listener is called, normally the UI thread.
+     */
+    public ReceiptPipeline(PublicKey publicKey, ReceiptCache cache, Executor deliveryExecutor) {
+        mReader = new ReceiptStreamReader(publicKey);
+        mCache = cache;
+        mDeliveryExecutor = deliveryExecutor;
+        // One worker and room for one waiting response; anything older is dropped
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(1),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ReceiptPipeline");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    /**
+     * Start processing a receipt response, abandoning any earlier one still in progress.
+     */
+    public synchronized void submit(String receiptResponse, Listener listener) {
+        start(new Job(receiptResponse, null, listener));
+    }
+
+    /**
+     * Deliver the gamer's cached receipts, if there are any. The cache holds every
+     * gamer who has synced on this console, so pass the one signed in now. Like
+     * submit(), this abandons any response in progress, and is abandoned in turn
+     * by the next one.
+     *
+     * @param gamerUuid The signed-in gamer, or null if not known yet, which delivers nothing.
+     */
+    public synchronized void loadCached(String gamerUuid, Listener listener) {
+        if (mCache != null && gamerUuid != null) {
+            start(new Job(null, gamerUuid, listener));
+        }
+    }
+
+    private void start(Job job) {
+        cancel();
+        mCurrentJob = job;
+        mCurrentFuture = mExecutor.submit(job);
+    }
+
+    /**
+     * Abandon the response in progress. Its Listener won't be called, even if the
+     * result is already on its way to the delivery Executor.
+     */
+    public synchronized void cancel() {
+        if (mCurrentJob != null) {
+            mCurrentJob.mCancelled = true;
+            mCurrentFuture.cancel(true);
+            mCurrentJob = null;
+            mCurrentFuture = null;
+        }
+    }
+
+    /**
+     * Cancel and stop the worker thread. The pipeline can't be used afterwards.
+     */
+    public synchronized void shutdown() {
+        cancel();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * The decrypt stage. Streams the response into receipts without building a DOM
+     * or a decrypted copy of it. Only runs on the worker thread.
+     * <p/>
+     * Peak memory still grows with the number of receipts: the facade hands over the
+     * whole response as a String, and every receipt is kept for the cache and the sort.
+     * Streaming only removes the two DOMs and the decrypted text on top of those.
+     */
+    List<Receipt> decrypt(String receiptResponse) throws Exception {
+        final List<Receipt> receipts = new ArrayList<Receipt>();
+        mReader.read(new StringReader(receiptResponse), new ReceiptStreamReader.Consumer() {
+            @Override
+            public void onReceipt(Receipt receipt) {
+                receipts.add(receipt);
+            }
+        });
+        return receipts;
+    }
+
+    /**
+     * Processes a receipt response, or loads the gamer's cache if there is no response.
+     */
+    private class Job implements Runnable {
+        private final String mReceiptResponse;
+        private final String mGamerUuid;
+        private final Listener mListener;
+        private volatile boolean mCancelled = false;
+
+        Job(String receiptResponse, String gamerUuid, Listener listener) {
+            mReceiptResponse = receiptResponse;
+            mGamerUuid = gamerUuid;
+            mListener = listener;
+        }
+
+        @Override
+        public void run() {
+            final Result result;
+            try {
+                result = mReceiptResponse != null ? process() : loadCache();
+            } catch (final Exception e) {
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onFailure(e);
+                    }
+                });
+                return;
+            }
+
+            if (result != null) {
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onReceipts(result);
+                    }
+                });
+            }
+        }
+
+        /**
+         * @return Null if cancelled.
+         */
+        private Result process() throws Exception {
+            long start = System.nanoTime();
+            List<Receipt> receipts = new ArrayList<Receipt>(decrypt(mReceiptResponse));
+            long decrypted = System.nanoTime();
+            if (mCancelled) {
+                return null;
+            }
+
+            boolean changed = true;
+            if (mCache != null) {
+                try {
+                    ReceiptCache.Snapshot snapshot = mCache.update(receipts, System.currentTimeMillis());
+                    receipts = new ArrayList<Receipt>(snapshot.getReceipts());
+                    changed = snapshot.isChanged();
+                } catch (IOException e) {
+                    // Still worth showing; the cache catches up on the next sync
+                    Log.w(LOG_TAG, "Unable to update the receipt cache", e);
+                }
+            }
+            long cached = System.nanoTime();
+
+            Collections.sort(receipts, NEWEST_FIRST);
+            long sorted = System.nanoTime();
+
+            return new Result(receipts, false, changed, decrypted - start, cached - decrypted, sorted - cached);
+        }
+
+        /**
+         * @return Null if there is nothing cached.
+         */
+        private Result loadCache() {
+            long start = System.nanoTime();
+            ReceiptCache.Snapshot snapshot = mCache.load(mGamerUuid);
+            if (snapshot == null) {
+                return null;
+            }
+            List<Receipt> receipts = new ArrayList<Receipt>(snapshot.getReceipts());
+            long loaded = System.nanoTime();
+
+            Collections.sort(receipts, NEWEST_FIRST);
+            long sorted = System.nanoTime();
+
+            return new Result(receipts, true, true, 0, loaded - start, sorted - loaded);
+        }
+
+        private void deliver(final Runnable callback) {
+            if (mCancelled) {
+                return;
+            }
+            mDeliveryExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Check again; the Activity may have stopped while this was queued
+                    if (!mCancelled) {
+                        callback.run();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample;
+
+import android.util.Base64;
+import tv.ouya.console.api.Receipt;
+import tv.ouya.sample.util.JsonPullParser;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Decrypts a receipt response and hands over the receipts one at a time.
+ * <p/>
+ * OuyaEncryptionHelper needs the whole response as a String and a JSONObject, then
+ * decrypts the blob into a second String and a second DOM before any receipt comes
+ * out. For a gamer with thousands of purchases all of those are in memory at once.
+ * This reads the response with a pull parser instead, and feeds the blob through
+ * Base64 and AES as it goes, so neither DOM nor the decrypted copy is ever built.
+ * That saves the copies, not the O(n): the reader's own working set is one
+ * receipt, but a response passed in as a String is already whole in memory, and
+ * so is anything the Consumer keeps. Only read(InputStream) on a file or socket,
+ * with a Consumer that doesn't collect, stays flat as the receipts grow.
+ * <p/>
+ * The response is the object OuyaEncryptionHelper.decryptReceiptResponse() takes:
+ * "key" is the RSA encrypted AES key, "iv" its IV and "blob" the encrypted
+ * receipts, all Base64. Like decryptReceiptResponse(), it also takes a plain
+ * response with no key: the receipts array alone, or an object holding it under
+ * "receipts", as the test facade sends. Not thread safe; use one reader per thread.
+ */
+public class ReceiptStreamReader {
+    public interface Consumer {
+        void onReceipt(Receipt receipt);
+    }
+
+    private static final String AES_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final String RSA_TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+    private static final String PROVIDER = "BC";
+    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+
+    private final PublicKey mPublicKey;
+    private final String mProvider;
+    private final SimpleDateFormat mDateFormat;
+
+    public ReceiptStreamReader(PublicKey publicKey) {
+        this(publicKey, PROVIDER);
+    }
+
+    /**
+     * @param provider The JCE provider to take the ciphers from, or null for the
+     *                 platform default. Desktop JVMs don't ship Bouncy Castle.
+     */
+    ReceiptStreamReader(PublicKey publicKey, String provider) {
+        mPublicKey = publicKey;
+        mProvider = provider;
+        mDateFormat = new SimpleDateFormat(DATE_FORMAT);
+        mDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * @param response A UTF-8 receipt response. Closed when done.
+     * @return The number of receipts delivered.
+     */
+    public int read(InputStream response, Consumer consumer)
+        throws IOException, GeneralSecurityException, ParseException {
+        return read(new InputStreamReader(response, "UTF-8"), consumer);
+    }
+
+    /**
+     * Decrypt the response, calling consumer with each receipt in the order the
+     * server sent them. Stops with an InterruptedIOException if the thread is
+     * interrupted, so a cancelled task doesn't decrypt the rest.
+     *
+     * @param response Closed when done.
+     * @return The number of receipts delivered.
+     */
+    public int read(Reader response, Consumer consumer)
+        throws IOException, GeneralSecurityException, ParseException {
+        JsonPullParser parser = new JsonPullParser(response);
+        try {
+            if (parser.peek() == JsonPullParser.Token.BEGIN_ARRAY) {
+                // Not encrypted
+                return readReceiptArray(parser, consumer);
+            }
+
+            byte[] key = null;
+            byte[] iv = null;
+            String earlyBlob = null;
+            int count = -1;
+            int plainCount = -1;
+
+            parser.beginObject();
+            while (parser.hasNext()) {
+                String name = parser.nextName();
+                if (name.equals("receipts") && key == null) {
+                    // Not encrypted; servers send the key first when it is
+                    plainCount = Math.max(plainCount, 0) + readReceiptArray(parser, consumer);
+                } else if (name.equals("key")) {
+                    key = decryptKey(Base64.decode(parser.nextString(), Base64.DEFAULT));
+                } else if (name.equals("iv")) {
+                    iv = Base64.decode(parser.nextString(), Base64.DEFAULT);
+                } else if (name.equals("blob")) {
+                    if (key != null && iv != null) {
+                        count = readBlob(parser.nextStringReader(), key, iv, consumer);
+                    } else {
+                        // Can't decrypt until the key arrives; servers send it first
+                        earlyBlob = parser.nextString();
+                    }
+                } else {
+                    parser.skipValue();
+                }
+            }
+            parser.endObject();
+
+            if (count < 0 && plainCount >= 0 && key == null) {
+                return plainCount;
+            }
+            if (count < 0) {
+                if (key == null || iv == null || earlyBlob == null) {
+                    throw new IOException("Receipt response is missing its key, iv or blob");
+                }
+                count = readBlob(new StringReader(earlyBlob), key, iv, consumer);
+            }
+            return count;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Read already decrypted receipts: an object with a "receipts" array, or the
+     * array alone.
+     *
+     * @return The number of receipts delivered.
+     */
+    int readReceipts(Reader receiptsJson, Consumer consumer) throws IOException, ParseException {
+        JsonPullParser parser = new JsonPullParser(receiptsJson);
+        int count = 0;
+        if (parser.peek() == JsonPullParser.Token.BEGIN_ARRAY) {
+            count = readReceiptArray(parser, consumer);
+        } else {
+            parser.beginObject();
+            while (parser.hasNext()) {
+                if (parser.nextName().equals("receipts")) {
+                    count += readReceiptArray(parser, consumer);
+                } else {
+                    parser.skipValue();
+                }
+            }
+            parser.endObject();
+        }
+        return count;
+    }
+
+    private byte[] decryptKey(byte[] encryptedKey) throws GeneralSecurityException {
+        Cipher rsa = cipher(RSA_TRANSFORMATION);
+        rsa.init(Cipher.DECRYPT_MODE, mPublicKey);
+        return rsa.doFinal(encryptedKey);
+    }
+
+    private int readBlob(Reader blob, byte[] key, byte[] iv, Consumer consumer)
+        throws IOException, GeneralSecurityException, ParseException {
+        Cipher aes = cipher(AES_TRANSFORMATION);
+        aes.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        Reader receipts = new InputStreamReader(new CipherInputStream(new Base64Stream(blob), aes), "UTF-8");
+        try {
+            return readReceipts(receipts, consumer);
+        } finally {
+            receipts.close();
+        }
+    }
+
+    private int readReceiptArray(JsonPullParser parser, Consumer consumer) throws IOException, ParseException {
+        int count = 0;
+        parser.beginArray();
+        while (parser.hasNext()) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Interrupted after " + count + " receipts");
+            }
+            consumer.onReceipt(readReceipt(parser));
+            ++count;
+        }
+        parser.endArray();
+        return count;
+    }
+
+    private Receipt readReceipt(JsonPullParser parser) throws IOException, ParseException {
+        String identifier = null;
+        int priceInCents = 0;
+        Date purchaseDate = null;
+        Date generatedDate = null;
+        String gamer = null;
+        String uuid = null;
+        double localPrice = Double.NaN;
+        String currency = null;
+
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (parser.peek() == JsonPullParser.Token.NULL) {
+                parser.nextNull();
+            } else if (name.equals("identifier")) {
+                identifier = parser.nextString();
+            } else if (name.equals("priceInCents")) {
+                priceInCents = parser.nextInt();
+            } else if (name.equals("purchaseDate")) {
+                purchaseDate = readDate(parser);
+            } else if (name.equals("generatedDate")) {
+                generatedDate = readDate(parser);
+            } else if (name.equals("gamer")) {
+                gamer = parser.nextString();
+            } else if (name.equals("uuid")) {
+                uuid = parser.nextString();
+            } else if (name.equals("localPrice")) {
+                localPrice = parser.nextDouble();
+            } else if (name.equals("currency")) {
+                currency = parser.nextString();
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+
+        if (identifier == null || purchaseDate == null) {
+            throw new IOException("Receipt without an identifier or purchaseDate");
+        }
+        if (Double.isNaN(localPrice)) {
+            // Receipts from before local pricing were all charged in US cents
+            localPrice = priceInCents / 100.0;
+            currency = "USD";
+        }
+        return new Receipt(identifier, priceInCents, purchaseDate, generatedDate, gamer, uuid, localPrice, currency);
+    }
+
+    private Date readDate(JsonPullParser parser) throws IOException, ParseException {
+        if (parser.peek() == JsonPullParser.Token.NUMBER) {
+            return new Date(parser.nextLong());
+        }
+        return mDateFormat.parse(parser.nextString());
+    }
+
+    private Cipher cipher(String transformation) throws GeneralSecurityException {
+        return mProvider != null ? Cipher.getInstance(transformation, mProvider) : Cipher.getInstance(transformation);
+    }
+
+    /**
+     * Decodes Base64 text as it is read, skipping whitespace and stopping at padding.
+     */
+    static class Base64Stream extends InputStream {
+        private static final int[] DECODE = new int[128];
+
+        static {
+            Arrays.fill(DECODE, -1);
+            String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+            for (int i = 0; i < alphabet.length(); ++i) {
+                DECODE[alphabet.charAt(i)] = i;
+            }
+            // The URL safe alphabet
+            DECODE['-'] = 62;
+            DECODE['_'] = 63;
+        }
+
+        private final Reader mIn;
+        private final char[] mChars = new char[4096];
+        private int mCharPos = 0;
+        private int mCharLimit = 0;
+        private boolean mEnded = false;
+
+        private int mBits = 0;
+        private int mBitCount = 0;
+
+        Base64Stream(Reader in) {
+            mIn = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] out, int offset, int length) throws IOException {
+            int count = 0;
+            while (count < length) {
+                if (mBitCount >= 8) {
+                    mBitCount -= 8;
+                    out[offset + count++] = (byte) (mBits >> mBitCount);
+                    continue;
+                }
+                int c = nextChar();
+                if (c == -1) {
+                    break;
+                }
+                if (c == '=') {
+                    // Padding ends the data; anything left over is partial bits
+                    mEnded = true;
+                    break;
+                }
+                int value = c < 128 ? DECODE[c] : -1;
+                if (value < 0) {
+                    if (Character.isWhitespace(c)) {
+                        continue;
+                    }
+                    throw new IOException("Bad Base64 character " + (char) c);
+                }
+                mBits = (mBits << 6) | value;
+                mBitCount += 6;
+            }
+            return count == 0 && length > 0 ? -1 : count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+
+        private int nextChar() throws IOException {
+            if (mEnded) {
+                return -1;
+            }
+            if (mCharPos == mCharLimit) {
+                mCharPos = 0;
+                mCharLimit = mIn.read(mChars, 0, mChars.length);
+                if (mCharLimit <= 0) {
+                    mCharLimit = 0;
+                    mEnded = true;
+                    return -1;
+                }
+            }
+            return mChars[mCharPos++];
+        }
+    }
+}
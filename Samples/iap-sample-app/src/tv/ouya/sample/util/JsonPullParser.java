@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads JSON one token at a time, with the same calls as android.util.JsonReader,
+ * so a large document never has to be held in memory as a String or a DOM.
+ * <p/>
+ * Unlike JsonReader, a string value can also be read as a stream with
+ * nextStringReader(), which is how an encrypted blob inside a response gets
+ * decoded without being copied out first. This also runs under the unit tests,
+ * where the android.jar classes are only stubs.
+ */
+public class JsonPullParser implements Closeable {
+    public enum Token {
+        BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader mIn;
+    private final char[] mBuffer = new char[8192];
+    private int mPos = 0;
+    private int mLimit = 0;
+    private long mConsumed = 0;
+
+    private int[] mStack = new int[32];
+    private int mStackSize = 1;
+
+    private Token mPeeked;
+    /**
+     * The text of a NUMBER or BOOLEAN token that has been peeked.
+     */
+    private final StringBuilder mLiteral = new StringBuilder();
+    private StringValueReader mOpenString;
+
+    public JsonPullParser(Reader in) {
+        mIn = in;
+        mStack[0] = EMPTY_DOCUMENT;
+    }
+
+    public Token peek() throws IOException {
+        if (mPeeked != null) {
+            return mPeeked;
+        }
+        if (mOpenString != null) {
+            // The caller stopped reading a streamed string early
+            mOpenString.close();
+        }
+
+        int c;
+        switch (mStack[mStackSize - 1]) {
+            case EMPTY_DOCUMENT:
+                mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+                return mPeeked = readValue(nextNonWhitespace());
+
+            case NONEMPTY_DOCUMENT:
+                c = nextNonWhitespace();
+                if (c != -1) {
+                    throw syntaxError("Expected the end of the document");
+                }
+                return mPeeked = Token.END_DOCUMENT;
+
+            case EMPTY_ARRAY:
+                mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                return mPeeked = c == ']' ? Token.END_ARRAY : readValue(c);
+
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return mPeeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                return mPeeked = readValue(nextNonWhitespace());
+
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return mPeeked = Token.END_OBJECT;
+                }
+                if (mStack[mStackSize - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                mStack[mStackSize - 1] = DANGLING_NAME;
+                return mPeeked = Token.NAME;
+
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+                return mPeeked = readValue(nextNonWhitespace());
+        }
+        throw new IllegalStateException();
+    }
+
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        --mStackSize;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        --mStackSize;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    /**
+     * @return A string value, or the text of a number.
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.NUMBER) {
+            mPeeked = null;
+            return mLiteral.toString();
+        }
+        expect(Token.STRING);
+        return readString();
+    }
+
+    /**
+     * Stream a string value instead of building it. Read the result to the end or
+     * close it; either way the parser carries on after the string.
+     */
+    public Reader nextStringReader() throws IOException {
+        expect(Token.STRING);
+        mOpenString = new StringValueReader();
+        return mOpenString;
+    }
+
+    public long nextLong() throws IOException {
+        String text = nextString();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            double value = parseDouble(text);
+            if (value != (long) value) {
+                throw syntaxError("Expected a long but was " + text);
+            }
+            return (long) value;
+        }
+    }
+
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw syntaxError("Expected an int but was " + value);
+        }
+        return (int) value;
+    }
+
+    public double nextDouble() throws IOException {
+        return parseDouble(nextString());
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return mLiteral.charAt(0) == 't';
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Skip the next value, and everything inside it if it's an array or object.
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    ++depth;
+                    break;
+                case BEGIN_OBJECT:
+                    beginObject();
+                    ++depth;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    --depth;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    --depth;
+                    break;
+                case NAME:
+                case STRING:
+                    mPeeked = null;
+                    while (readStringChar() != -1) {
+                        // skip
+                    }
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    mPeeked = null;
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mPeeked = null;
+        mStack[0] = NONEMPTY_DOCUMENT;
+        mStackSize = 1;
+        mIn.close();
+    }
+
+    private Token readValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case -1:
+                throw syntaxError("Unexpected end of document");
+        }
+
+        // A bare literal: true, false, null or a number
+        mLiteral.setLength(0);
+        mLiteral.append((char) c);
+        while (true) {
+            int next = peekChar();
+            if (next == -1 || ",:]} \t\r\n".indexOf(next) >= 0) {
+                break;
+            }
+            mLiteral.append((char) next);
+            ++mPos;
+        }
+
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            return Token.NUMBER;
+        }
+        String literal = mLiteral.toString();
+        if (literal.equals("true") || literal.equals("false")) {
+            return Token.BOOLEAN;
+        }
+        if (literal.equals("null")) {
+            return Token.NULL;
+        }
+        throw syntaxError("Unexpected value " + literal);
+    }
+
+    private String readString() throws IOException {
+        StringBuilder out = new StringBuilder();
+        int c;
+        while ((c = readStringChar()) != -1) {
+            out.append((char) c);
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return The next character of the string being read, unescaped, or -1 at its closing quote.
+     */
+    private int readStringChar() throws IOException {
+        int c = nextChar();
+        if (c == '"') {
+            return -1;
+        }
+        if (c == -1) {
+            throw syntaxError("Unterminated string");
+        }
+        if (c != '\\') {
+            return c;
+        }
+        c = nextChar();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; ++i) {
+                    int digit = Character.digit(nextChar(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Bad \\u escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return value;
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+        }
+        throw syntaxError("Bad escape");
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        mPeeked = null;
+    }
+
+    private void push(int scope) {
+        if (mStackSize == mStack.length) {
+            int[] stack = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, stack, 0, mStackSize);
+            mStack = stack;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = nextChar();
+        } while (c == ' ' || c == '\t' || c == '\r' || c == '\n');
+        return c;
+    }
+
+    private int nextChar() throws IOException {
+        int c = peekChar();
+        if (c != -1) {
+            ++mPos;
+        }
+        return c;
+    }
+
+    private int peekChar() throws IOException {
+        if (mPos == mLimit) {
+            mConsumed += mLimit;
+            mPos = 0;
+            mLimit = 0;
+            int read;
+            do {
+                read = mIn.read(mBuffer, 0, mBuffer.length);
+            } while (read == 0);
+            if (read == -1) {
+                return -1;
+            }
+            mLimit = read;
+        }
+        return mBuffer[mPos];
+    }
+
+    private double parseDouble(String text) throws IOException {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number but was " + text);
+        }
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at character " + (mConsumed + mPos));
+    }
+
+    /**
+     * The string value the parser is positioned in, read straight from its buffer.
+     */
+    private class StringValueReader extends Reader {
+        private boolean mDone = false;
+
+        @Override
+        public int read(char[] out, int offset, int length) throws IOException {
+            if (mDone) {
+                return -1;
+            }
+            int count = 0;
+            while (count < length) {
+                int c = readStringChar();
+                if (c == -1) {
+                    finish();
+                    break;
+                }
+                out[offset + count++] = (char) c;
+            }
+            return count == 0 && mDone ? -1 : count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            while (!mDone) {
+                if (readStringChar() == -1) {
+                    finish();
+                }
+            }
+        }
+
+        private void finish() {
+            mDone = true;
+            if (mOpenString == this) {
+                mOpenString = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ApplicationKeyTest {
+    private static PublicKey publicKey;
+    private CountingSource source;
+
+    @Before
+    public void setUp() throws Exception {
+        if (publicKey == null) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            publicKey = generator.generateKeyPair().getPublic();
+        }
+        source = new CountingSource(publicKey.getEncoded());
+        ApplicationKey.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ApplicationKey.clear();
+    }
+
+    @Test
+    public void parsesTheKey() throws Exception {
+        assertEquals(publicKey, ApplicationKey.get(source).getPublicKey());
+    }
+
+    @Test
+    public void readsAndParsesOncePerProcess() throws Exception {
+        ApplicationKey first = ApplicationKey.get(source);
+        ApplicationKey second = ApplicationKey.get(source);
+
+        assertSame(first, second);
+        assertSame(first.getPurchaseEncryptor(), second.getPurchaseEncryptor());
+        assertEquals(1, source.reads);
+    }
+
+    @Test
+    public void readFullyDoesNotTrustAvailable() throws Exception {
+        byte[] key = publicKey.getEncoded();
+        byte[] read = ApplicationKey.readFully(new ByteArrayInputStream(key) {
+            @Override
+            public synchronized int available() {
+                return 0;
+            }
+
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                // Hand the data over in dribs and drabs, like a compressed asset can
+                return super.read(buffer, offset, Math.min(length, 7));
+            }
+        });
+
+        assertTrue(Arrays.equals(key, read));
+    }
+
+    /**
+     * Not a pass/fail test: prints what key setup costs an Activity's onCreate
+     * when every creation parses the key, against the process-wide cache.
+     */
+    @Test
+    public void benchmarkActivityStartup() throws Exception {
+        final int creations = 500;
+        for (int pass = 0; pass < 2; ++pass) {
+            long start = System.nanoTime();
+            for (int i = 0; i < creations; ++i) {
+                ApplicationKey.load(source).getPublicKey();
+            }
+            long uncachedNanos = System.nanoTime() - start;
+
+            ApplicationKey.clear();
+            start = System.nanoTime();
+            for (int i = 0; i < creations; ++i) {
+                ApplicationKey.get(source).getPublicKey();
+            }
+            long cachedNanos = System.nanoTime() - start;
+
+            // The first pass only warms up
+            if (pass == 1) {
+                System.out.println(String.format("ApplicationKey: uncached %8.1f us/onCreate  cached %8.1f us/onCreate",
+                        uncachedNanos / 1e3 / creations, cachedNanos / 1e3 / creations));
+            }
+        }
+    }
+
+    private static class CountingSource implements ApplicationKey.Source {
+        private final byte[] key;
+        int reads = 0;
+
+        CountingSource(byte[] key) {
+            this.key = key;
+        }
+
+        @Override
+        public byte[] read() throws IOException {
+            ++reads;
+            return key;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample;
+
+import android.util.Base64;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PurchaseEncryptorTest {
+    private static final String REQUEST = "{\"uuid\":\"1234abcd\",\"identifier\":\"long_sword\",\"testing\":\"true\"}";
+
+    private static KeyPair keyPair;
+    private PurchaseEncryptor encryptor;
+
+    @Before
+    public void setUp() throws Exception {
+        if (keyPair == null) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            keyPair = generator.generateKeyPair();
+        }
+        // Bouncy Castle is only there on the device; the default provider speaks the same formats
+        encryptor = new PurchaseEncryptor(keyPair.getPublic(), null);
+    }
+
+    @Test
+    public void envelopeDecryptsWithThePrivateKey() throws Exception {
+        assertEquals(REQUEST, decrypt(encryptor.encrypt(REQUEST)));
+    }
+
+    @Test
+    public void everyPurchaseGetsAFreshKeyAndIv() throws Exception {
+        String[] first = encryptor.encrypt(REQUEST);
+        String[] second = encryptor.encrypt(REQUEST);
+
+        assertFalse(first[0].equals(second[0]));
+        assertFalse(first[1].equals(second[1]));
+        assertFalse(first[2].equals(second[2]));
+        assertEquals(REQUEST, decrypt(first));
+        assertEquals(REQUEST, decrypt(second));
+    }
+
+    @Test
+    public void encryptPurchaseBuildsAPurchasable() throws Exception {
+        assertNotNull(encryptor.encryptPurchase("long_sword", encryptor.newUniqueId()));
+    }
+
+    @Test
+    public void uniqueIdsDoNotRepeat() throws Exception {
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(ids.add(encryptor.newUniqueId()));
+        }
+    }
+
+    @Test
+    public void canBeSharedBetweenThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String[]>> envelopes = new ArrayList<Future<String[]>>();
+            for (int i = 0; i < 64; ++i) {
+                final String request = REQUEST.replace("1234abcd", Integer.toHexString(i));
+                envelopes.add(executor.submit(new Callable<String[]>() {
+                    @Override
+                    public String[] call() throws Exception {
+                        return encryptor.encrypt(request);
+                    }
+                }));
+            }
+            for (int i = 0; i < envelopes.size(); ++i) {
+                assertEquals(REQUEST.replace("1234abcd", Integer.toHexString(i)), decrypt(envelopes.get(i).get()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Not a pass/fail test: prints purchase envelopes per second for the per-call
+     * cipher setup the activities used before, against the cached ciphers.
+     */
+    @Test
+    public void benchmarkEnvelopeThroughput() throws Exception {
+        final int purchases = 2000;
+        for (int pass = 0; pass < 2; ++pass) {
+            long start = System.nanoTime();
+            for (int i = 0; i < purchases; ++i) {
+                encryptPerCall(keyPair.getPublic(), REQUEST);
+            }
+            long perCallNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < purchases; ++i) {
+                encryptor.encrypt(REQUEST);
+            }
+            long cachedNanos = System.nanoTime() - start;
+
+            // The first pass only warms up
+            if (pass == 1) {
+                System.out.println(String.format("PurchaseEncryptor: per-call %8.0f envelopes/s  cached %8.0f envelopes/s",
+                        purchases * 1e9 / perCallNanos, purchases * 1e9 / cachedNanos));
+            }
+        }
+    }
+
+    /**
+     * What requestPurchase did before PurchaseEncryptor, minus the JSON and the provider name.
+     */
+    private static String[] encryptPerCall(PublicKey publicKey, String purchaseRequestJson) throws Exception {
+        SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
+
+        byte[] keyBytes = new byte[16];
+        sr.nextBytes(keyBytes);
+        SecretKey key = new SecretKeySpec(keyBytes, "AES");
+
+        byte[] ivBytes = new byte[16];
+        sr.nextBytes(ivBytes);
+        IvParameterSpec iv = new IvParameterSpec(ivBytes);
+
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+        byte[] payload = cipher.doFinal(purchaseRequestJson.getBytes("UTF-8"));
+
+        cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+        byte[] encryptedKey = cipher.doFinal(keyBytes);
+
+        return new String[] {
+                Base64.encodeToString(encryptedKey, Base64.NO_WRAP),
+                Base64.encodeToString(ivBytes, Base64.NO_WRAP),
+                Base64.encodeToString(payload, Base64.NO_WRAP)
+        };
+    }
+
+    /**
+     * The server's half of the exchange.
+     */
+    private static String decrypt(String[] envelope) throws Exception {
+        Cipher rsa = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        rsa.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+        byte[] keyBytes = rsa.doFinal(Base64.decode(envelope[0], Base64.NO_WRAP));
+
+        Cipher aes = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        aes.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyBytes, "AES"),
+                new IvParameterSpec(Base64.decode(envelope[1], Base64.NO_WRAP)));
+        return new String(aes.doFinal(Base64.decode(envelope[2], Base64.NO_WRAP)), "UTF-8");
+    }
+}
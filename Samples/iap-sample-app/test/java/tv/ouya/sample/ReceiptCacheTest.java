@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample;
+
+import android.os.Bundle;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tv.ouya.console.api.CancelIgnoringOuyaResponseListener;
+import tv.ouya.console.api.OuyaEncryptionHelper;
+import tv.ouya.console.api.Receipt;
+import tv.ouya.console.api.TestOuyaFacade;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static tv.ouya.sample.IapSampleActivityTest.newReceipt;
+
+@RunWith(RobolectricTestRunner.class)
+public class ReceiptCacheTest {
+    private TestOuyaFacade ouyaFacade;
+    private File directory;
+    private ReceiptCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        ouyaFacade = new TestOuyaFacade();
+        directory = File.createTempFile("receipts", "");
+        directory.delete();
+        cache = new ReceiptCache(directory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.clear();
+        directory.delete();
+    }
+
+    @Test
+    public void loadsNothingBeforeTheFirstSync() throws Exception {
+        assertNull(cache.load());
+        assertNull(cache.load("uuid"));
+    }
+
+    @Test
+    public void keepsEveryFieldAcrossRuns() throws Exception {
+        Receipt original = newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD");
+        ouyaFacade.addReceipts(receipts(original));
+        cache.update(fetchFromServer(), 1000L);
+
+        ReceiptCache.Snapshot snapshot = new ReceiptCache(directory).load();
+        assertNotNull(snapshot);
+        assertEquals("uuid", snapshot.getGamerUuid());
+        assertEquals(1000L, snapshot.getLastSync());
+        assertEquals(1, snapshot.getReceipts().size());
+
+        Receipt cached = snapshot.getReceipts().get(0);
+        assertEquals(original.getIdentifier(), cached.getIdentifier());
+        assertEquals(original.getPriceInCents(), cached.getPriceInCents());
+        assertEquals(original.getPurchaseDate(), cached.getPurchaseDate());
+        assertEquals(original.getGeneratedDate(), cached.getGeneratedDate());
+        assertEquals(original.getGamer(), cached.getGamer());
+        assertEquals(original.getUuid(), cached.getUuid());
+        assertEquals(original.getLocalPrice(), cached.getLocalPrice(), 0.0);
+        assertEquals(original.getCurrency(), cached.getCurrency());
+    }
+
+    @Test
+    public void mergesOnlyTheNewReceipts() throws Exception {
+        ouyaFacade.addReceipts(receipts(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD"),
+                newReceipt("sku2", 874, "1987-12-31T16:00:00Z", "gamer", "uuid", 8.74, "USD")));
+        ReceiptCache.Snapshot first = cache.update(fetchFromServer(), 1000L);
+        assertEquals(2, first.getAddedCount());
+        assertTrue(first.isChanged());
+
+        ouyaFacade.addReceipts(receipts(
+                newReceipt("sku3", 500, "2001-12-31T16:00:00Z", "gamer", "uuid", 5.00, "USD")));
+        ReceiptCache.Snapshot second = cache.update(fetchFromServer(), 2000L);
+
+        assertEquals(1, second.getAddedCount());
+        assertEquals(0, second.getRemovedCount());
+        assertTrue(second.isChanged());
+        assertEquals(Arrays.asList("sku1", "sku2", "sku3"), identifiers(second.getReceipts()));
+        assertEquals(Arrays.asList("sku1", "sku2", "sku3"), identifiers(cache.load().getReceipts()));
+        assertEquals(2000L, cache.load().getLastSync());
+    }
+
+    @Test
+    public void anUnchangedResponseOnlyMovesTheSyncMarker() throws Exception {
+        ouyaFacade.addReceipts(receipts(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD")));
+        cache.update(fetchFromServer(), 1000L);
+
+        ReceiptCache.Snapshot again = cache.update(fetchFromServer(), 2000L);
+
+        assertFalse(again.isChanged());
+        assertEquals(0, again.getAddedCount());
+        assertEquals(1, again.getReceipts().size());
+        assertEquals(2000L, cache.load().getLastSync());
+    }
+
+    @Test
+    public void dropsReceiptsTheServerNoLongerLists() throws Exception {
+        Receipt kept = newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD");
+        cache.update(Arrays.asList(kept,
+                newReceipt("sku2", 874, "1987-12-31T16:00:00Z", "gamer", "uuid", 8.74, "USD")), 1000L);
+
+        ReceiptCache.Snapshot snapshot = cache.update(Arrays.asList(kept), 2000L);
+
+        assertEquals(1, snapshot.getRemovedCount());
+        assertEquals(Arrays.asList("sku1"), identifiers(cache.load().getReceipts()));
+    }
+
+    @Test
+    public void keepsEachGamersReceiptsApart() throws Exception {
+        ouyaFacade.addReceipts(receipts(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "alice", "uuid-a", 1.23, "USD")));
+        cache.update(fetchFromServer(), 1000L);
+
+        TestOuyaFacade otherAccount = new TestOuyaFacade();
+        otherAccount.addReceipts(receipts(
+                newReceipt("sku2", 874, "1987-12-31T16:00:00Z", "bob", "uuid-b", 8.74, "USD")));
+        ouyaFacade = otherAccount;
+        ReceiptCache.Snapshot bob = cache.update(fetchFromServer(), 2000L);
+
+        // Bob's receipts replace Alice's on screen even though neither list changed on disk
+        assertTrue(bob.isChanged());
+        assertEquals("uuid-b", cache.load().getGamerUuid());
+        assertEquals(Arrays.asList("sku2"), identifiers(cache.load().getReceipts()));
+        assertEquals(Arrays.asList("sku1"), identifiers(cache.load("uuid-a").getReceipts()));
+    }
+
+    @Test
+    public void anEmptyResponseForgetsWhoWasSyncedLast() throws Exception {
+        ouyaFacade.addReceipts(receipts(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD")));
+        cache.update(fetchFromServer(), 1000L);
+
+        ReceiptCache.Snapshot snapshot = cache.update(new ArrayList<Receipt>(), 2000L);
+
+        assertTrue(snapshot.isChanged());
+        assertNull(snapshot.getGamerUuid());
+        assertNull(cache.load());
+        assertNotNull(cache.load("uuid"));
+    }
+
+    @Test
+    public void ignoresAnUnreadableFile() throws Exception {
+        ouyaFacade.addReceipts(receipts(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD")));
+        cache.update(fetchFromServer(), 1000L);
+
+        // Keep the header but cut the receipts short
+        File file = new File(directory, "uuid.bin");
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.getChannel().truncate(file.length() - 4);
+        out.close();
+        assertNull(cache.load());
+
+        ReceiptCache.Snapshot snapshot = cache.update(fetchFromServer(), 2000L);
+        assertEquals(1, snapshot.getAddedCount());
+        assertEquals(1, cache.load().getReceipts().size());
+    }
+
+    @Test
+    public void ignoresACorruptReceiptCount() throws Exception {
+        ouyaFacade.addReceipts(receipts(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD")));
+        cache.update(fetchFromServer(), 1000L);
+
+        // The count follows the magic, version and sync time
+        File file = new File(directory, "uuid.bin");
+        for (int count : new int[] {-1, Integer.MAX_VALUE}) {
+            RandomAccessFile out = new RandomAccessFile(file, "rw");
+            out.seek(16);
+            out.writeInt(count);
+            out.close();
+            assertNull(cache.load());
+        }
+    }
+
+    /**
+     * About 55 bytes each with these fields, a fraction of their JSON.
+     */
+    @Test
+    public void keepsReceiptsCompact() throws Exception {
+        List<Receipt> receipts = new ArrayList<Receipt>();
+        for (int i = 0; i < 500; ++i) {
+            receipts.add(newReceipt("product_" + i, 99 + i, "2013-01-01T00:00:00Z", "gamer", "uuid", 0.99, "USD"));
+        }
+        cache.update(receipts, 1000L);
+
+        long bytesPerReceipt = new File(directory, "uuid.bin").length() / receipts.size();
+        assertTrue("Took " + bytesPerReceipt + " bytes per receipt", bytesPerReceipt <= 64);
+    }
+
+    /**
+     * What the app does with a receipt response, minus the decryption the test server doesn't do.
+     */
+    private List<Receipt> fetchFromServer() {
+        final List<Receipt> received = new ArrayList<Receipt>();
+        ouyaFacade.requestReceipts(new CancelIgnoringOuyaResponseListener<String>() {
+            @Override
+            public void onSuccess(String response) {
+                try {
+                    received.addAll(new OuyaEncryptionHelper().parseJSONReceiptResponse(response));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void onFailure(int errorCode, String errorMessage, Bundle optionalData) {
+                fail(errorMessage);
+            }
+        });
+        ouyaFacade.simulateReceiptListSuccess();
+        return received;
+    }
+
+    private static ArrayList<Receipt> receipts(Receipt... receipts) {
+        return new ArrayList<Receipt>(Arrays.asList(receipts));
+    }
+
+    private static List<String> identifiers(List<Receipt> receipts) {
+        List<String> identifiers = new ArrayList<String>();
+        for (Receipt receipt : receipts) {
+            identifiers.add(receipt.getIdentifier());
+        }
+        return identifiers;
+    }
+}
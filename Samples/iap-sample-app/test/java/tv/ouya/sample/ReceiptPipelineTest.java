@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tv.ouya.console.api.Receipt;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static tv.ouya.sample.IapSampleActivityTest.newReceipt;
+
+@RunWith(RobolectricTestRunner.class)
+public class ReceiptPipelineTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private BlockingQueue<Runnable> uiThread;
+    private Executor uiExecutor;
+    private StubPipeline pipeline;
+    private RecordingListener listener;
+    private File cacheDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        uiThread = new LinkedBlockingQueue<Runnable>();
+        uiExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                uiThread.add(command);
+            }
+        };
+        pipeline = new StubPipeline(null, uiExecutor);
+        listener = new RecordingListener();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pipeline.shutdown();
+        if (cacheDirectory != null) {
+            new ReceiptCache(cacheDirectory).clear();
+            cacheDirectory.delete();
+        }
+    }
+
+    @Test
+    public void deliversReceiptsNewestFirst() throws Exception {
+        pipeline.receipts.put("first", Arrays.asList(
+                newReceipt("sku2", 874, "1987-12-31T16:00:00Z", "gamer", "uuid", 8.74, "USD"),
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD"),
+                newReceipt("sku3", 500, "1995-06-30T12:00:00Z", "gamer", "uuid", 5.00, "USD")));
+
+        pipeline.submit(response("first"), listener);
+        runNextOnUiThread();
+
+        List<Receipt> receipts = listener.result.getReceipts();
+        assertEquals(3, receipts.size());
+        assertEquals("sku1", receipts.get(0).getIdentifier());
+        assertEquals("sku3", receipts.get(1).getIdentifier());
+        assertEquals("sku2", receipts.get(2).getIdentifier());
+    }
+
+    @Test
+    public void resultCannotBeChanged() throws Exception {
+        pipeline.receipts.put("first", new ArrayList<Receipt>(Arrays.asList(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD"))));
+
+        pipeline.submit(response("first"), listener);
+        runNextOnUiThread();
+
+        try {
+            listener.result.getReceipts().clear();
+            fail("Receipts should be unmodifiable");
+        } catch (UnsupportedOperationException expected) {
+        }
+        // And the pipeline kept nothing that aliases the decrypted list
+        pipeline.receipts.get("first").clear();
+        assertEquals(1, listener.result.getReceipts().size());
+    }
+
+    @Test
+    public void worksOffTheSubmittingThread() throws Exception {
+        pipeline.receipts.put("first", new ArrayList<Receipt>());
+
+        pipeline.submit(response("first"), listener);
+        runNextOnUiThread();
+
+        assertNotNull(pipeline.decryptThread);
+        assertFalse(Thread.currentThread() == pipeline.decryptThread);
+        assertSame(Thread.currentThread(), listener.deliveryThread);
+    }
+
+    @Test
+    public void reportsTimingForEachStage() throws Exception {
+        pipeline.receipts.put("first", new ArrayList<Receipt>());
+        pipeline.decryptDelayMillis = 20;
+
+        pipeline.submit(response("first"), listener);
+        runNextOnUiThread();
+
+        ReceiptPipeline.Result result = listener.result;
+        assertTrue(result.getDecryptNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(result.getSortNanos() >= 0);
+        assertTrue(result.toString().contains("decrypt"));
+    }
+
+    @Test
+    public void failuresAreDeliveredToo() throws Exception {
+        pipeline.submit(response("unknown"), listener);
+        runNextOnUiThread();
+
+        assertNull(listener.result);
+        assertTrue(listener.failure instanceof GeneralSecurityException);
+    }
+
+    @Test
+    public void cancelStopsDeliveryOfWorkInProgress() throws Exception {
+        pipeline.receipts.put("first", new ArrayList<Receipt>());
+        CountDownLatch release = new CountDownLatch(1);
+        pipeline.block = release;
+
+        pipeline.submit(response("first"), listener);
+        assertTrue(pipeline.decrypting.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        pipeline.cancel();
+        release.countDown();
+
+        assertNull(uiThread.poll(200, TimeUnit.MILLISECONDS));
+        assertNull(listener.result);
+    }
+
+    @Test
+    public void cancelStopsDeliveryAlreadyQueuedForTheUiThread() throws Exception {
+        pipeline.receipts.put("first", new ArrayList<Receipt>());
+
+        pipeline.submit(response("first"), listener);
+        Runnable delivery = uiThread.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        pipeline.cancel();
+        delivery.run();
+
+        assertNull(listener.result);
+    }
+
+    @Test
+    public void newerResponsesReplaceOlderOnes() throws Exception {
+        pipeline.receipts.put("old", new ArrayList<Receipt>());
+        pipeline.receipts.put("new", Arrays.asList(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD")));
+        CountDownLatch release = new CountDownLatch(1);
+        pipeline.block = release;
+
+        RecordingListener oldListener = new RecordingListener();
+        pipeline.submit(response("old"), oldListener);
+        assertTrue(pipeline.decrypting.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        pipeline.submit(response("new"), listener);
+        release.countDown();
+        runNextOnUiThread();
+
+        assertNull(oldListener.result);
+        assertEquals(1, listener.result.getReceipts().size());
+        assertNull(uiThread.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void loadCachedDeliversTheGamersSyncedReceipts() throws Exception {
+        useCache();
+        pipeline.receipts.put("first", Arrays.asList(
+                newReceipt("sku2", 874, "1987-12-31T16:00:00Z", "gamer", "uuid", 8.74, "USD"),
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD")));
+        pipeline.submit(response("first"), listener);
+        runNextOnUiThread();
+        assertFalse(listener.result.isFromCache());
+        assertTrue(listener.result.isChanged());
+
+        RecordingListener cachedListener = new RecordingListener();
+        pipeline.loadCached("uuid", cachedListener);
+        runNextOnUiThread();
+
+        assertTrue(cachedListener.result.isFromCache());
+        assertEquals(2, cachedListener.result.getReceipts().size());
+        assertEquals("sku1", cachedListener.result.getReceipts().get(0).getIdentifier());
+    }
+
+    @Test
+    public void loadCachedDeliversNothingWithoutACache() throws Exception {
+        useCache();
+        pipeline.loadCached("uuid", listener);
+
+        assertNull(uiThread.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void loadCachedOnlyDeliversTheSignedInGamersReceipts() throws Exception {
+        useCache();
+        pipeline.receipts.put("first", Arrays.asList(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD")));
+        pipeline.receipts.put("second", Arrays.asList(
+                newReceipt("sku2", 874, "1987-12-31T16:00:00Z", "other gamer", "uuid2", 8.74, "USD"),
+                newReceipt("sku3", 99, "2013-04-05T18:43:12Z", "other gamer", "uuid2", 0.99, "USD")));
+        pipeline.submit(response("first"), listener);
+        runNextOnUiThread();
+        pipeline.submit(response("second"), listener);
+        runNextOnUiThread();
+
+        // The second gamer synced last, but the first is signed in again
+        RecordingListener cachedListener = new RecordingListener();
+        pipeline.loadCached("uuid", cachedListener);
+        runNextOnUiThread();
+        assertEquals(1, cachedListener.result.getReceipts().size());
+        assertEquals("sku1", cachedListener.result.getReceipts().get(0).getIdentifier());
+
+        RecordingListener unknownListener = new RecordingListener();
+        pipeline.loadCached(null, unknownListener);
+        assertNull(uiThread.poll(200, TimeUnit.MILLISECONDS));
+        assertNull(unknownListener.result);
+    }
+
+    @Test
+    public void aRepeatedResponseIsNotAChange() throws Exception {
+        useCache();
+        pipeline.receipts.put("first", Arrays.asList(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD")));
+        pipeline.submit(response("first"), listener);
+        runNextOnUiThread();
+
+        RecordingListener again = new RecordingListener();
+        pipeline.submit(response("first"), again);
+        runNextOnUiThread();
+
+        assertFalse(again.result.isChanged());
+        assertEquals(1, again.result.getReceipts().size());
+    }
+
+    private void useCache() throws IOException {
+        cacheDirectory = File.createTempFile("receipts", "");
+        cacheDirectory.delete();
+        pipeline.shutdown();
+        pipeline = new StubPipeline(new ReceiptCache(cacheDirectory), uiExecutor);
+    }
+
+    private static String response(String id) {
+        return "{\"id\":\"" + id + "\"}";
+    }
+
+    private void runNextOnUiThread() throws InterruptedException {
+        Runnable delivery = uiThread.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("Nothing was delivered", delivery);
+        delivery.run();
+    }
+
+    /**
+     * Stands in for the ReceiptStreamReader, which needs a real server response, by
+     * handing back canned receipts for the id in each response.
+     */
+    private static class StubPipeline extends ReceiptPipeline {
+        final Map<String, List<Receipt>> receipts = new HashMap<String, List<Receipt>>();
+        final CountDownLatch decrypting = new CountDownLatch(1);
+        volatile CountDownLatch block;
+        volatile long decryptDelayMillis;
+        volatile Thread decryptThread;
+
+        StubPipeline(ReceiptCache cache, Executor deliveryExecutor) {
+            super(null, cache, deliveryExecutor);
+        }
+
+        @Override
+        List<Receipt> decrypt(String response) throws Exception {
+            decryptThread = Thread.currentThread();
+            CountDownLatch latch = block;
+            if (latch != null) {
+                block = null;
+                decrypting.countDown();
+                latch.await();
+            }
+            if (decryptDelayMillis > 0) {
+                Thread.sleep(decryptDelayMillis);
+            }
+            List<Receipt> found = receipts.get(new JSONObject(response).getString("id"));
+            if (found == null) {
+                throw new GeneralSecurityException("Unknown response");
+            }
+            return found;
+        }
+    }
+
+    private static class RecordingListener implements ReceiptPipeline.Listener {
+        ReceiptPipeline.Result result;
+        Exception failure;
+        Thread deliveryThread;
+
+        @Override
+        public void onReceipts(ReceiptPipeline.Result result) {
+            this.result = result;
+            deliveryThread = Thread.currentThread();
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            failure = e;
+            deliveryThread = Thread.currentThread();
+        }
+    }
+}
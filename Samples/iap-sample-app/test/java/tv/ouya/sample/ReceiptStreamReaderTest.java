@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample;
+
+import android.util.Base64;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tv.ouya.console.api.Receipt;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static tv.ouya.sample.IapSampleActivityTest.newReceipt;
+
+@RunWith(RobolectricTestRunner.class)
+public class ReceiptStreamReaderTest {
+    private static KeyPair keyPair;
+    private ReceiptStreamReader reader;
+    private List<Receipt> received;
+    private ReceiptStreamReader.Consumer collector;
+    private File responseFile;
+
+    @Before
+    public void setUp() throws Exception {
+        if (keyPair == null) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            keyPair = generator.generateKeyPair();
+        }
+        reader = new ReceiptStreamReader(keyPair.getPublic(), null);
+        received = new ArrayList<Receipt>();
+        collector = new ReceiptStreamReader.Consumer() {
+            @Override
+            public void onReceipt(Receipt receipt) {
+                received.add(receipt);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (responseFile != null) {
+            responseFile.delete();
+        }
+    }
+
+    @Test
+    public void decryptsEveryReceiptInOrder() throws Exception {
+        List<Receipt> receipts = Arrays.asList(
+                newReceipt("sku \"one\" \u00e9", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.5, "EUR"),
+                newReceipt("sku2", 874, "1987-12-31T16:00:00Z", "gamer", "uuid", 8.74, "USD"),
+                newReceipt("sku3", 99, "2013-04-05T18:43:12Z", "other gamer", "uuid2", 0.99, "USD"));
+
+        int count = reader.read(new StringReader(encrypt(receiptsJson(receipts), false)), collector);
+
+        assertEquals(3, count);
+        assertEquals(3, received.size());
+        for (int i = 0; i < receipts.size(); ++i) {
+            assertSameReceipt(receipts.get(i), received.get(i));
+        }
+    }
+
+    @Test
+    public void waitsForTheKeyIfTheBlobComesFirst() throws Exception {
+        List<Receipt> receipts = Arrays.asList(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD"));
+
+        reader.read(new StringReader(encrypt(receiptsJson(receipts), true)), collector);
+
+        assertEquals(1, received.size());
+        assertSameReceipt(receipts.get(0), received.get(0));
+    }
+
+    @Test
+    public void readsBareArraysWithEpochDatesAndOldPrices() throws Exception {
+        reader.readReceipts(new StringReader("[{\"identifier\":\"sku1\",\"priceInCents\":250,\"purchaseDate\":946656000000,"
+                + "\"extra\":{\"nested\":[1,2,{}]},\"generatedDate\":null,\"gamer\":\"gamer\",\"uuid\":\"uuid\"}]"), collector);
+
+        assertEquals(1, received.size());
+        Receipt receipt = received.get(0);
+        assertEquals("sku1", receipt.getIdentifier());
+        assertEquals(new Date(946656000000L), receipt.getPurchaseDate());
+        assertEquals(null, receipt.getGeneratedDate());
+        assertEquals(2.5, receipt.getLocalPrice());
+        assertEquals("USD", receipt.getCurrency());
+    }
+
+    @Test
+    public void rejectsIncompleteResponses() throws Exception {
+        String response = encrypt(receiptsJson(Arrays.asList(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD"))), false);
+        for (String broken : new String[] {response.substring(0, response.length() / 2), "{\"iv\":\"AAAA\"}"}) {
+            try {
+                reader.read(new StringReader(broken), collector);
+                fail("Should have rejected " + broken);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void acceptsPlainResponses() throws Exception {
+        // What the test facade sends: a bare array with epoch dates
+        String receipt = "{\"identifier\":\"sku1\",\"priceInCents\":123,\"purchaseDate\":946656000000,"
+                + "\"generatedDate\":null,\"gamer\":\"gamer\",\"uuid\":\"uuid\",\"localPrice\":1.23,\"currency\":\"USD\"}";
+        String[] responses = {"[]", "[" + receipt + "]", "{\"receipts\":[" + receipt + "," + receipt + "]}"};
+        int[] expected = {0, 1, 2};
+        for (int i = 0; i < responses.length; ++i) {
+            received.clear();
+            assertEquals(expected[i], reader.read(new StringReader(responses[i]), collector));
+            assertEquals(expected[i], received.size());
+        }
+        assertEquals("sku1", received.get(0).getIdentifier());
+        assertEquals(new Date(946656000000L), received.get(0).getPurchaseDate());
+    }
+
+    @Test
+    public void stopsWhenTheThreadIsInterrupted() throws Exception {
+        String response = encrypt(receiptsJson(Arrays.asList(
+                newReceipt("sku1", 123, "1999-12-31T16:00:00Z", "gamer", "uuid", 1.23, "USD"))), false);
+        Thread.currentThread().interrupt();
+        try {
+            reader.read(new StringReader(response), collector);
+            fail("Should have stopped");
+        } catch (InterruptedIOException expected) {
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(received.isEmpty());
+    }
+
+    /**
+     * Not a pass/fail test: prints time and live heap for the old String and DOM
+     * path against streaming the same response, from a String as the pipeline
+     * does and from a file. Live heap is measured after a collection halfway
+     * through the receipts, so it is what each path holds on to, not its garbage.
+     * The stream(String) figure leaves out the response String itself, and the
+     * counting Consumer keeps nothing, so neither is what the pipeline peaks at.
+     * <p/>
+     * The 100000 receipt run needs well over 100 MB for the DOM, so it only runs
+     * with -Dreceipts.benchmark.large=true.
+     */
+    @Test
+    public void benchmarkLargeResponses() throws Exception {
+        int[] counts = Boolean.getBoolean("receipts.benchmark.large")
+                ? new int[] {10, 1000, 10000, 100000} : new int[] {10, 1000, 10000};
+        for (int count : counts) {
+            responseFile = writeSyntheticResponse(count);
+            for (int pass = 0; pass < 2; ++pass) {
+                long[] dom = measure(DOM, count);
+                long[] fromString = measure(STREAM_STRING, count);
+                long[] fromFile = measure(STREAM_FILE, count);
+
+                // The first pass only warms up
+                if (pass == 1) {
+                    System.out.println(String.format("ReceiptStreamReader: %6d receipts  dom %7.1f ms %6.1f MB"
+                            + "  stream(String, excl. String) %7.1f ms %6.1f MB  stream(file) %7.1f ms %6.1f MB",
+                            count, dom[0] / 1e6, dom[1] / 1e6, fromString[0] / 1e6, fromString[1] / 1e6,
+                            fromFile[0] / 1e6, fromFile[1] / 1e6));
+                }
+            }
+            responseFile.delete();
+        }
+    }
+
+    private static final int DOM = 0;
+    private static final int STREAM_STRING = 1;
+    private static final int STREAM_FILE = 2;
+
+    /**
+     * @return The time taken, and the live heap halfway through above what was in use beforehand.
+     */
+    private long[] measure(int path, int count) throws Exception {
+        long nanos = run(path, count, false)[0];
+        long live = run(path, count, true)[1];
+        return new long[] {nanos, live};
+    }
+
+    private long[] run(int path, final int count, final boolean probe) throws Exception {
+        // The String a facade callback gets; not counted against the streaming reader
+        String response = path == STREAM_STRING ? readFile(responseFile) : null;
+        final long baseline = probe ? liveHeap() : 0;
+        final long[] result = new long[2];
+        final int[] seen = new int[1];
+        ReceiptStreamReader.Consumer counter = new ReceiptStreamReader.Consumer() {
+            @Override
+            public void onReceipt(Receipt receipt) {
+                if (probe && ++seen[0] == count / 2 + 1) {
+                    result[1] = Math.max(0, liveHeap() - baseline);
+                }
+            }
+        };
+
+        long start = System.nanoTime();
+        switch (path) {
+            case DOM:
+                readWithDom(readFile(responseFile), counter);
+                break;
+            case STREAM_STRING:
+                reader.read(new StringReader(response), counter);
+                break;
+            default:
+                reader.read(new FileInputStream(responseFile), counter);
+                break;
+        }
+        result[0] = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * The old path: the whole response as a String and a DOM, then the decrypted
+     * blob as bytes, a String and a second DOM.
+     */
+    private List<Receipt> readWithDom(String text, ReceiptStreamReader.Consumer consumer) throws Exception {
+        JSONObject response = new JSONObject(text);
+        Cipher rsa = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        rsa.init(Cipher.DECRYPT_MODE, keyPair.getPublic());
+        byte[] key = rsa.doFinal(Base64.decode(response.getString("key"), Base64.DEFAULT));
+        Cipher aes = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        aes.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"),
+                new IvParameterSpec(Base64.decode(response.getString("iv"), Base64.DEFAULT)));
+        String decrypted = new String(aes.doFinal(Base64.decode(response.getString("blob"), Base64.DEFAULT)), "UTF-8");
+
+        JSONArray array = new JSONObject(decrypted).getJSONArray("receipts");
+        SimpleDateFormat dateFormat = utcDateFormat();
+        List<Receipt> receipts = new ArrayList<Receipt>(array.length());
+        for (int i = 0; i < array.length(); ++i) {
+            JSONObject receipt = array.getJSONObject(i);
+            receipts.add(new Receipt(receipt.getString("identifier"), receipt.getInt("priceInCents"),
+                    dateFormat.parse(receipt.getString("purchaseDate")),
+                    dateFormat.parse(receipt.getString("generatedDate")),
+                    receipt.getString("gamer"), receipt.getString("uuid"),
+                    receipt.getDouble("localPrice"), receipt.getString("currency")));
+            consumer.onReceipt(receipts.get(i));
+        }
+        return receipts;
+    }
+
+    private File writeSyntheticResponse(int count) throws Exception {
+        StringBuilder json = new StringBuilder("{\"receipts\":[");
+        SimpleDateFormat dateFormat = utcDateFormat();
+        for (int i = 0; i < count; ++i) {
+            if (i > 0) {
+                json.append(',');
+            }
+            String date = dateFormat.format(new Date(1356998400000L + i * 60000L));
+            appendReceipt(json, new Receipt("product_" + i, 99 + i % 500, dateFormat.parse(date), dateFormat.parse(date),
+                    "gamer_" + (i % 7), "0bd4e8f7-3c1a-4a6e-9f2b-" + String.format("%012d", i), (99 + i % 500) / 100.0, "USD"));
+        }
+        json.append("]}");
+
+        File file = File.createTempFile("receipts", ".json");
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(encrypt(json.toString(), false));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Encrypt receipts the way the server does: AES for the receipts, and the
+     * AES key under the developer's private key.
+     */
+    private static String encrypt(String receiptsJson, boolean blobFirst) throws Exception {
+        SecureRandom random = new SecureRandom();
+        byte[] key = new byte[16];
+        byte[] iv = new byte[16];
+        random.nextBytes(key);
+        random.nextBytes(iv);
+
+        Cipher aes = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        String blob = "\"blob\":\"" + Base64.encodeToString(aes.doFinal(receiptsJson.getBytes("UTF-8")), Base64.NO_WRAP) + "\"";
+        Cipher rsa = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        rsa.init(Cipher.ENCRYPT_MODE, keyPair.getPrivate());
+        String keys = "\"key\":\"" + Base64.encodeToString(rsa.doFinal(key), Base64.NO_WRAP) + "\","
+                + "\"iv\":\"" + Base64.encodeToString(iv, Base64.NO_WRAP) + "\"";
+
+        return blobFirst ? "{" + blob + "," + keys + "}" : "{" + keys + "," + blob + "}";
+    }
+
+    private static String receiptsJson(List<Receipt> receipts) {
+        StringBuilder json = new StringBuilder("{\"receipts\":[");
+        for (int i = 0; i < receipts.size(); ++i) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendReceipt(json, receipts.get(i));
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendReceipt(StringBuilder json, Receipt receipt) {
+        SimpleDateFormat dateFormat = utcDateFormat();
+        json.append("{\"identifier\":\"").append(receipt.getIdentifier().replace("\\", "\\\\").replace("\"", "\\\""))
+            .append("\",\"priceInCents\":").append(receipt.getPriceInCents())
+            .append(",\"purchaseDate\":\"").append(dateFormat.format(receipt.getPurchaseDate()))
+            .append("\",\"generatedDate\":\"").append(dateFormat.format(receipt.getGeneratedDate()))
+            .append("\",\"gamer\":\"").append(receipt.getGamer())
+            .append("\",\"uuid\":\"").append(receipt.getUuid())
+            .append("\",\"localPrice\":").append(receipt.getLocalPrice())
+            .append(",\"currency\":\"").append(receipt.getCurrency())
+            .append("\"}");
+    }
+
+    private static SimpleDateFormat utcDateFormat() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat;
+    }
+
+    private static void assertSameReceipt(Receipt expected, Receipt actual) {
+        assertEquals(expected.getIdentifier(), actual.getIdentifier());
+        assertEquals(expected.getPriceInCents(), actual.getPriceInCents());
+        assertEquals(expected.getPurchaseDate(), actual.getPurchaseDate());
+        assertEquals(expected.getGeneratedDate(), actual.getGeneratedDate());
+        assertEquals(expected.getGamer(), actual.getGamer());
+        assertEquals(expected.getUuid(), actual.getUuid());
+        assertEquals(expected.getLocalPrice(), actual.getLocalPrice());
+        assertEquals(expected.getCurrency(), actual.getCurrency());
+    }
+
+    private static String readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return new String(ApplicationKey.readFully(in), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long liveHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.sample.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class JsonPullParserTest {
+
+    @Test
+    public void readsEveryKindOfValue() throws Exception {
+        JsonPullParser parser = parser("{\"s\":\"a\\\"b\\u00e9\\n\", \"n\": -12.5e1, \"l\":9007199254740993,"
+                + " \"t\":true, \"f\":false, \"z\":null, \"a\":[1, 2], \"o\":{}}");
+        parser.beginObject();
+        assertEquals("s", parser.nextName());
+        assertEquals("a\"b\u00e9\n", parser.nextString());
+        assertEquals("n", parser.nextName());
+        assertEquals(-125.0, parser.nextDouble());
+        assertEquals("l", parser.nextName());
+        assertEquals(9007199254740993L, parser.nextLong());
+        assertEquals("t", parser.nextName());
+        assertTrue(parser.nextBoolean());
+        assertEquals("f", parser.nextName());
+        assertFalse(parser.nextBoolean());
+        assertEquals("z", parser.nextName());
+        parser.nextNull();
+        assertEquals("a", parser.nextName());
+        parser.beginArray();
+        assertEquals(1, parser.nextInt());
+        assertEquals(2, parser.nextInt());
+        assertFalse(parser.hasNext());
+        parser.endArray();
+        assertEquals("o", parser.nextName());
+        parser.beginObject();
+        assertFalse(parser.hasNext());
+        parser.endObject();
+        parser.endObject();
+        assertEquals(JsonPullParser.Token.END_DOCUMENT, parser.peek());
+    }
+
+    @Test
+    public void skipsNestedValues() throws Exception {
+        JsonPullParser parser = parser("[{\"a\":[1,{\"b\":\"]}\"}],\"c\":null}, 7]");
+        parser.beginArray();
+        parser.skipValue();
+        assertEquals(7, parser.nextInt());
+        parser.endArray();
+    }
+
+    @Test
+    public void streamsStringsAndCarriesOnAfterThem() throws Exception {
+        JsonPullParser parser = parser("[\"0123456789\\\\abcdef\", \"partly read\", \"next\"]");
+        parser.beginArray();
+
+        Reader reader = parser.nextStringReader();
+        StringBuilder out = new StringBuilder();
+        char[] buffer = new char[3];
+        int read;
+        while ((read = reader.read(buffer, 0, buffer.length)) != -1) {
+            out.append(buffer, 0, read);
+        }
+        assertEquals("0123456789\\abcdef", out.toString());
+
+        reader = parser.nextStringReader();
+        assertEquals('p', reader.read());
+        // Leaving the rest unread is fine
+        assertEquals("next", parser.nextString());
+        parser.endArray();
+    }
+
+    @Test
+    public void rejectsMalformedDocuments() throws Exception {
+        for (String json : new String[] {"{\"a\" 1}", "[1 2]", "{\"a\":\"unterminated", "[1,]", "{} {}", "[nope]"}) {
+            try {
+                JsonPullParser parser = parser(json);
+                parser.skipValue();
+                parser.peek();
+                fail("Should have rejected " + json);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    private static JsonPullParser parser(String json) {
+        return new JsonPullParser(new StringReader(json));
+    }
+}
@@ -17,15 +17,44 @@
 package tv.ouya.controllertest;
 
 import android.app.Activity;
+import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.*;
 import android.widget.TextView;
 import tv.ouya.console.api.OuyaController;
 
-public class ControllerTestActivity extends Activity {
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class ControllerTestActivity extends Activity implements InputReplayer.Target {
+
+    /**
+     * Intent extras that stream metrics for soak runs, e.g.
+     * "adb shell am start -n ... --es metricsLog /sdcard/metrics.bin" or, after
+     * "adb reverse tcp:9000 tcp:9000", "--ei metricsPort 9000". Read the result with
+     * MetricsLogReader.
+     */
+    public static final String EXTRA_METRICS_LOG = "metricsLog";
+    public static final String EXTRA_METRICS_PORT = "metricsPort";
+
+    /**
+     * Intent extras to record the controller input to a trace file, or to play one
+     * back (optionally faster) instead of using a controller.
+     */
+    public static final String EXTRA_RECORD_INPUT = "recordInput";
+    public static final String EXTRA_REPLAY_INPUT = "replayInput";
+    public static final String EXTRA_REPLAY_SPEED = "replaySpeed";
+
+    private static final String LOG_TAG = "ControllerTestActivity";
 	
 	private OuyaPlotFPS m_plot = null;
+    private InputTrace.Writer mInputRecorder = null;
+    private InputReplayer mInputReplayer = null;
 
     /**
      * Array holding all the controller views for easy lookup.
@@ -41,6 +70,7 @@ public class ControllerTestActivity extends Activity {
         
         m_plot = (OuyaPlotFPS) findViewById(R.id.ouyaPlotFPS1);
         m_plot.m_fpsText = (TextView) findViewById(R.id.fpsText);
+        m_plot.m_cpuAllText = (TextView) findViewById(R.id.cpuAllText);
         m_plot.m_cpu1Text = (TextView) findViewById(R.id.cpu1Text);
         m_plot.m_cpu2Text = (TextView) findViewById(R.id.cpu2Text);
         m_plot.m_cpu3Text = (TextView) findViewById(R.id.cpu3Text);
@@ -48,12 +78,71 @@ public class ControllerTestActivity extends Activity {
         m_plot.m_keyDownText = (TextView) findViewById(R.id.keyDownTime);
         m_plot.m_keyUpText = (TextView) findViewById(R.id.keyUpTime);
         m_plot.m_genericMotionText = (TextView) findViewById(R.id.genericMotionTime);
+        m_plot.m_threadsText = (TextView) findViewById(R.id.threadsText);
+        m_plot.setExporter(createExporter(getIntent()));
 
         mControllerViews = new View[4];
         mControllerViews[0] = findViewById(R.id.controllerView1);
         mControllerViews[1] = findViewById(R.id.controllerView2);
         mControllerViews[2] = findViewById(R.id.controllerView3);
         mControllerViews[3] = findViewById(R.id.controllerView4);
+
+        startInputTrace(getIntent());
+    }
+
+    private void startInputTrace(Intent intent) {
+        String recordPath = intent.getStringExtra(EXTRA_RECORD_INPUT);
+        if (recordPath != null) {
+            try {
+                mInputRecorder = new InputTrace.Writer(new FileOutputStream(recordPath));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Can't record input to " + recordPath, e);
+            }
+        }
+
+        final String replayPath = intent.getStringExtra(EXTRA_REPLAY_INPUT);
+        if (replayPath != null) {
+            final InputReplayer replayer = new InputReplayer(intent.getFloatExtra(EXTRA_REPLAY_SPEED, 1.0f));
+            final InputReplayer.Dispatcher dispatcher = new InputReplayer.Dispatcher(this, new Handler());
+            mInputReplayer = replayer;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        InputTrace.Reader reader = new InputTrace.Reader(new FileInputStream(replayPath));
+                        try {
+                            Log.i(LOG_TAG, "Replayed " + replayer.replay(reader, dispatcher) + " input events");
+                        } finally {
+                            reader.close();
+                        }
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Can't replay input from " + replayPath, e);
+                    }
+                }
+            }, "InputReplayer").start();
+        }
+    }
+
+    private void recordInput(KeyEvent event) {
+        if (mInputRecorder != null) {
+            try {
+                mInputRecorder.record(event);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Stopped recording input", e);
+                mInputRecorder = null;
+            }
+        }
+    }
+
+    private void recordInput(MotionEvent event) {
+        if (mInputRecorder != null) {
+            try {
+                mInputRecorder.record(event);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Stopped recording input", e);
+                mInputRecorder = null;
+            }
+        }
     }
     
     @Override
@@ -63,11 +152,28 @@ public class ControllerTestActivity extends Activity {
 
 		OuyaPlotFPS plot = (OuyaPlotFPS) findViewById(R.id.ouyaPlotFPS1);
 		plot.Quit();
+
+        if (mInputReplayer != null) {
+            mInputReplayer.cancel();
+        }
+        if (mInputRecorder != null) {
+            try {
+                mInputRecorder.close();
+                Log.i(LOG_TAG, "Recorded " + mInputRecorder.getCount() + " input events");
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem closing input trace", e);
+            }
+        }
     }
 
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
-    	m_plot.m_keyDownTime = System.nanoTime() / 1000000000.0 - event.getEventTime() / 1000.0;
+        recordInput(event);
+    	m_plot.m_keyDownLatency.record(latencyMicros(event.getEventTime()));
+        if (keyCode == OuyaController.BUTTON_MENU) {
+            m_plot.setBenchmarkMode(!m_plot.isBenchmarkMode());
+            return true;
+        }
         View controllerView = getControllerView(event);
         controllerView.setVisibility(View.VISIBLE);
         return controllerView.onKeyDown(keyCode,  event);
@@ -75,7 +181,8 @@ public class ControllerTestActivity extends Activity {
 
     @Override
     public boolean onKeyUp(int keyCode, KeyEvent event) {
-    	m_plot.m_keyUpTime = System.nanoTime() / 1000000000.0 - event.getEventTime() / 1000.0;
+        recordInput(event);
+    	m_plot.m_keyUpLatency.record(latencyMicros(event.getEventTime()));
         View controllerView = getControllerView(event);
         controllerView.setVisibility(View.VISIBLE);
         return controllerView.onKeyUp(keyCode,  event);
@@ -83,8 +190,9 @@ public class ControllerTestActivity extends Activity {
 
     @Override
     public boolean onGenericMotionEvent(MotionEvent event) {
+        recordInput(event);
     	
-    	m_plot.m_genericMotionTime = System.nanoTime() / 1000000000.0 - event.getEventTime() / 1000.0;
+    	m_plot.m_genericMotionLatency.record(latencyMicros(event.getEventTime()));
     	
         if((event.getSource() & InputDevice.SOURCE_CLASS_JOYSTICK) == 0){
             //Not a joystick movement, so ignore it.
@@ -95,6 +203,28 @@ public class ControllerTestActivity extends Activity {
         return controllerView.onGenericMotionEvent(event);
     }
 
+    private static MetricsExporter createExporter(Intent intent) {
+        String log = intent.getStringExtra(EXTRA_METRICS_LOG);
+        if (log != null) {
+            Log.i(LOG_TAG, "Exporting metrics to " + log);
+            return MetricsExporter.toFile(new File(log));
+        }
+        int port = intent.getIntExtra(EXTRA_METRICS_PORT, -1);
+        if (port > 0) {
+            Log.i(LOG_TAG, "Exporting metrics to localhost:" + port);
+            return MetricsExporter.toSocket("127.0.0.1", port);
+        }
+        return null;
+    }
+
+    /**
+     * Event times are in the SystemClock.uptimeMillis() time base, so measure
+     * against that rather than System.nanoTime().
+     */
+    private static long latencyMicros(long eventTime) {
+        return (SystemClock.uptimeMillis() - eventTime) * 1000;
+    }
+
     private View getControllerView(InputEvent event) {
         int playerNum = OuyaController.getPlayerNumByDeviceId(event.getDeviceId());
         if(playerNum >=0 && playerNum < mControllerViews.length) {
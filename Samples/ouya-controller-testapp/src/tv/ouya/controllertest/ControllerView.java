@@ -26,29 +26,42 @@ import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import tv.ouya.console.api.OuyaController;
 
-import java.util.HashMap;
-
 public class ControllerView extends RelativeLayout {
 
-    private static HashMap<Integer, Integer> buttons;
+    /**
+     * Each button's key code and the drawable shown while it is held.
+     */
+    private static final int[][] buttons = {
+        {OuyaController.BUTTON_O, R.drawable.o},
+        {OuyaController.BUTTON_U, R.drawable.u},
+        {OuyaController.BUTTON_Y, R.drawable.y},
+        {OuyaController.BUTTON_A, R.drawable.a},
+
+        {OuyaController.BUTTON_DPAD_DOWN, R.drawable.dpad_down},
+        {OuyaController.BUTTON_DPAD_LEFT, R.drawable.dpad_left},
+        {OuyaController.BUTTON_DPAD_UP, R.drawable.dpad_up},
+        {OuyaController.BUTTON_DPAD_RIGHT, R.drawable.dpad_right},
+
+        {OuyaController.BUTTON_R1, R.drawable.rb},
+        {OuyaController.BUTTON_L1, R.drawable.lb},
+        {OuyaController.BUTTON_R2, R.drawable.rt},
+        {OuyaController.BUTTON_L2, R.drawable.lt},
+    };
+
+    private static final int MAX_BUTTON_KEY_CODE;
     static {
-        buttons = new HashMap<Integer, Integer>();
-        buttons.put(OuyaController.BUTTON_O, R.drawable.o);
-        buttons.put(OuyaController.BUTTON_U, R.drawable.u);
-        buttons.put(OuyaController.BUTTON_Y, R.drawable.y);
-        buttons.put(OuyaController.BUTTON_A, R.drawable.a);
-
-        buttons.put(OuyaController.BUTTON_DPAD_DOWN, R.drawable.dpad_down);
-        buttons.put(OuyaController.BUTTON_DPAD_LEFT, R.drawable.dpad_left);
-        buttons.put(OuyaController.BUTTON_DPAD_UP, R.drawable.dpad_up);
-        buttons.put(OuyaController.BUTTON_DPAD_RIGHT, R.drawable.dpad_right);
-
-        buttons.put(OuyaController.BUTTON_R1, R.drawable.rb);
-        buttons.put(OuyaController.BUTTON_L1, R.drawable.lb);
-        buttons.put(OuyaController.BUTTON_R2, R.drawable.rt);
-        buttons.put(OuyaController.BUTTON_L2, R.drawable.lt);
+        int max = 0;
+        for (int[] button : buttons) {
+            max = Math.max(max, button[0]);
+        }
+        MAX_BUTTON_KEY_CODE = max;
     }
 
+    // Sticks are rotated by 135 degrees to match the image orientation
+    private static final float STICK_COS = (float) Math.cos(Math.toRadians(135.0));
+    private static final float STICK_SIN = (float) Math.sin(Math.toRadians(135.0));
+    private static final float STICK_TRAVEL = 5f;
+
     private Drawable rstick;
     private Drawable lstick;
     private Drawable thumbr;
@@ -56,6 +69,13 @@ public class ControllerView extends RelativeLayout {
     private ImageView rstickView = new ImageView(getContext());
     private ImageView lstickView = new ImageView(getContext());
 
+    /**
+     * Button views indexed by key code, so lookups don't walk the view tree or box.
+     */
+    private final View[] buttonViews = new View[MAX_BUTTON_KEY_CODE + 1];
+    private View l2View;
+    private View r2View;
+
     public ControllerView(Context context, AttributeSet attrs) {
         super(context, attrs);
         init();
@@ -88,19 +108,43 @@ public class ControllerView extends RelativeLayout {
 
         OuyaController.init(getContext());
 
-        for(Integer button : buttons.keySet()) {
-            Integer resId = buttons.get(button);
+        for(int[] button : buttons) {
+            int keyCode = button[0];
             ImageView buttonView = new ImageView(getContext());
 
-            buttonView.setImageDrawable(getContext().getResources().getDrawable(resId));
-            buttonView.setId(button);
-            if(button != OuyaController.BUTTON_L2 && button != OuyaController.BUTTON_R2)
+            buttonView.setImageDrawable(getContext().getResources().getDrawable(button[1]));
+            buttonView.setId(keyCode);
+            if(keyCode != OuyaController.BUTTON_L2 && keyCode != OuyaController.BUTTON_R2)
                 buttonView.setVisibility(View.INVISIBLE);
             else
                 buttonView.setAlpha(0f);
 
             addView(buttonView);
+            buttonViews[keyCode] = buttonView;
         }
+        l2View = buttonViews[OuyaController.BUTTON_L2];
+        r2View = buttonViews[OuyaController.BUTTON_R2];
+    }
+
+    /**
+     * @return The view shown while the button is held, or null if there isn't one
+     */
+    View getButtonView(int keyCode) {
+        return keyCode >= 0 && keyCode < buttonViews.length ? buttonViews[keyCode] : null;
+    }
+
+    /**
+     * Show or hide a button; triggers are drawn from their axes instead.
+     *
+     * @return false if the key has no view of its own
+     */
+    private boolean showButton(int keyCode, boolean pressed) {
+        View v = getButtonView(keyCode);
+        if (v == null || v == l2View || v == r2View) {
+            return false;
+        }
+        v.setVisibility(pressed ? View.VISIBLE : View.INVISIBLE);
+        return true;
     }
 
     @Override
@@ -111,9 +155,7 @@ public class ControllerView extends RelativeLayout {
         } else if (keyCode == OuyaController.BUTTON_R3) {
             rstickView.setImageDrawable(thumbr);
             return true;
-        } else if (findViewById(keyCode) != null && keyCode != OuyaController.BUTTON_L2 && keyCode != OuyaController.BUTTON_R2) {
-            View v = findViewById(keyCode);
-            v.setVisibility(View.VISIBLE);
+        } else if (showButton(keyCode, true)) {
             return true;
         } else {
             return super.onKeyDown(keyCode, event);
@@ -128,9 +170,7 @@ public class ControllerView extends RelativeLayout {
         } else if (keyCode == OuyaController.BUTTON_R3) {
             rstickView.setImageDrawable(rstick);
             return true;
-        } else if (findViewById(keyCode) != null && keyCode != OuyaController.BUTTON_L2 && keyCode != OuyaController.BUTTON_R2) {
-            View v = findViewById(keyCode);
-            v.setVisibility(View.INVISIBLE);
+        } else if (showButton(keyCode, false)) {
             return true;
         } else {
             return super.onKeyUp(keyCode, event);
@@ -140,64 +180,68 @@ public class ControllerView extends RelativeLayout {
     boolean rIgnore = false;
     boolean lIgnore = false;
 
+    // The last hat position, so only real transitions touch the d-pad views
+    private int hatX = 0;
+    private int hatY = 0;
+
     @Override
     public boolean onGenericMotionEvent(MotionEvent event) {
+        onAxes(event.getAxisValue(OuyaController.AXIS_LS_X), event.getAxisValue(OuyaController.AXIS_LS_Y),
+               event.getAxisValue(OuyaController.AXIS_RS_X), event.getAxisValue(OuyaController.AXIS_RS_Y),
+               event.getAxisValue(OuyaController.AXIS_L2), event.getAxisValue(OuyaController.AXIS_R2),
+               event.getAxisValue(MotionEvent.AXIS_HAT_X), event.getAxisValue(MotionEvent.AXIS_HAT_Y));
+        return true;
+    }
 
-    	//rotate Left Stick input by N degrees to match image orientation
-    	float degrees = 135f;
-    	float radians = degrees / 180f * 3.14f;
-    	float cs = (float)Math.cos(radians);
-    	float sn = (float)Math.sin(radians);
-
-    	float x = event.getAxisValue(OuyaController.AXIS_LS_X);
-    	float y = event.getAxisValue(OuyaController.AXIS_LS_Y);
-
-    	lstickView.setTranslationX((x * cs - y * sn) * 5f);
-    	lstickView.setTranslationY((x * sn + y * cs) * 5f);
-
-    	//rotate Right Stick by same degrees to match image orientation
-    	x = event.getAxisValue(OuyaController.AXIS_RS_X);
-    	y = event.getAxisValue(OuyaController.AXIS_RS_Y);
+    /**
+     * Update the view from one motion event's axis values. Allocates nothing.
+     */
+    void onAxes(float lsX, float lsY, float rsX, float rsY, float ltrigger, float rtrigger, float hatXAxis, float hatYAxis) {
+        lstickView.setTranslationX((lsX * STICK_COS - lsY * STICK_SIN) * STICK_TRAVEL);
+        lstickView.setTranslationY((lsX * STICK_SIN + lsY * STICK_COS) * STICK_TRAVEL);
 
-    	rstickView.setTranslationX((x * cs - y * sn) * 5f);
-    	rstickView.setTranslationY((x * sn + y * cs) * 5f);
+        rstickView.setTranslationX((rsX * STICK_COS - rsY * STICK_SIN) * STICK_TRAVEL);
+        rstickView.setTranslationY((rsX * STICK_SIN + rsY * STICK_COS) * STICK_TRAVEL);
 
-        float ltrigger = event.getAxisValue(OuyaController.AXIS_L2);
         if(ltrigger != 0.0f) {
-            findViewById(OuyaController.BUTTON_L2).setAlpha(ltrigger);
+            l2View.setAlpha(ltrigger);
             lIgnore = false;
         } else if(!lIgnore){
             lIgnore = true;
-            findViewById(OuyaController.BUTTON_L2).setAlpha(0f);
+            l2View.setAlpha(0f);
         }
 
-        float rtrigger = event.getAxisValue(OuyaController.AXIS_R2);
         if(rtrigger != 0.0f) {
-            findViewById(OuyaController.BUTTON_R2).setAlpha(rtrigger);
+            r2View.setAlpha(rtrigger);
             rIgnore = false;
         } else if(!rIgnore){
             rIgnore = true;
-            findViewById(OuyaController.BUTTON_R2).setAlpha(0f);
+            r2View.setAlpha(0f);
         }
 
-        onKeyUp(OuyaController.BUTTON_DPAD_LEFT, new KeyEvent(OuyaController.BUTTON_DPAD_LEFT, KeyEvent.ACTION_UP));
-        onKeyUp(OuyaController.BUTTON_DPAD_RIGHT, new KeyEvent(OuyaController.BUTTON_DPAD_RIGHT, KeyEvent.ACTION_UP));
-        if(event.getAxisValue(MotionEvent.AXIS_HAT_X) == -1) {
-            onKeyDown(OuyaController.BUTTON_DPAD_LEFT, new KeyEvent(OuyaController.BUTTON_DPAD_LEFT, KeyEvent.ACTION_DOWN));
-        }
-        if(event.getAxisValue(MotionEvent.AXIS_HAT_X) == 1) {
-            onKeyDown(OuyaController.BUTTON_DPAD_RIGHT, new KeyEvent(OuyaController.BUTTON_DPAD_RIGHT, KeyEvent.ACTION_DOWN));
+        int x = hatDirection(hatXAxis);
+        if (x != hatX) {
+            showButton(hatButton(hatX, OuyaController.BUTTON_DPAD_LEFT, OuyaController.BUTTON_DPAD_RIGHT), false);
+            showButton(hatButton(x, OuyaController.BUTTON_DPAD_LEFT, OuyaController.BUTTON_DPAD_RIGHT), true);
+            hatX = x;
         }
 
-        onKeyUp(OuyaController.BUTTON_DPAD_DOWN, new KeyEvent(OuyaController.BUTTON_DPAD_DOWN, KeyEvent.ACTION_UP));
-        onKeyUp(OuyaController.BUTTON_DPAD_UP, new KeyEvent(OuyaController.BUTTON_DPAD_UP, KeyEvent.ACTION_UP));
-        if(event.getAxisValue(MotionEvent.AXIS_HAT_Y) == -1) {
-            onKeyDown(OuyaController.BUTTON_DPAD_UP, new KeyEvent(OuyaController.BUTTON_DPAD_UP, KeyEvent.ACTION_DOWN));
-        }
-        if(event.getAxisValue(MotionEvent.AXIS_HAT_Y) == 1) {
-            onKeyDown(OuyaController.BUTTON_DPAD_DOWN, new KeyEvent(OuyaController.BUTTON_DPAD_DOWN, KeyEvent.ACTION_DOWN));
+        int y = hatDirection(hatYAxis);
+        if (y != hatY) {
+            showButton(hatButton(hatY, OuyaController.BUTTON_DPAD_UP, OuyaController.BUTTON_DPAD_DOWN), false);
+            showButton(hatButton(y, OuyaController.BUTTON_DPAD_UP, OuyaController.BUTTON_DPAD_DOWN), true);
+            hatY = y;
         }
+    }
 
-        return true;
+    private static int hatDirection(float axis) {
+        return axis == -1 ? -1 : (axis == 1 ? 1 : 0);
+    }
+
+    /**
+     * @return The d-pad key for a hat direction, or -1 (which has no view) when centred
+     */
+    private static int hatButton(int direction, int negative, int positive) {
+        return direction < 0 ? negative : (direction > 0 ? positive : -1);
     }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+/**
+ * How each core, and the machine as a whole, spent its time between two
+ * MetricsCPU samples. Filled in place by MetricsCPU.sample() so the same snapshot
+ * can be reused every second.
+ */
+public class CpuSnapshot
+{
+    public static final int USER = 0;
+    public static final int NICE = 1;
+    public static final int SYSTEM = 2;
+    public static final int IDLE = 3;
+    public static final int IOWAIT = 4;
+    public static final int IRQ = 5;
+    public static final int SOFTIRQ = 6;
+    public static final int STEAL = 7;
+    public static final int STATES = 8;
+
+    /**
+     * Pass as the core to ask about the whole machine.
+     */
+    public static final int ALL_CORES = -1;
+
+    int mCores;
+
+    /**
+     * Jiffies spent in each state, STATES per row. Row 0 is the whole machine and
+     * row N + 1 is core N.
+     */
+    long[] mDeltas;
+
+    public CpuSnapshot()
+    {
+        mDeltas = new long[STATES];
+    }
+
+    public int getCoreCount()
+    {
+        return mCores;
+    }
+
+    /**
+     * @param core a core number, or ALL_CORES
+     * @return Jiffies the core spent in the state since the previous sample
+     */
+    public long getDelta(int core, int state)
+    {
+        return mDeltas[(core + 1) * STATES + state];
+    }
+
+    /**
+     * @return Jiffies the core spent in any state since the previous sample
+     */
+    public long getTotal(int core)
+    {
+        long total = 0;
+        for (int state = 0; state < STATES; state++) {
+            total += getDelta(core, state);
+        }
+        return total;
+    }
+
+    /**
+     * @return Percentage of the time the core spent in the state
+     */
+    public double getPercent(int core, int state)
+    {
+        long total = getTotal(core);
+        return total == 0 ? 0.0 : getDelta(core, state) * 100.0 / total;
+    }
+
+    /**
+     * @return Percentage of the time the core was doing anything other than idling
+     *         or waiting for I/O
+     */
+    public double getBusyPercent(int core)
+    {
+        long total = getTotal(core);
+        if (total == 0) {
+            return 0.0;
+        }
+        long busy = total - getDelta(core, IDLE) - getDelta(core, IOWAIT);
+        return busy * 100.0 / total;
+    }
+
+    void setCoreCount(int cores)
+    {
+        mCores = cores;
+        if (mDeltas.length < (cores + 1) * STATES) {
+            mDeltas = new long[(cores + 1) * STATES];
+        }
+    }
+}
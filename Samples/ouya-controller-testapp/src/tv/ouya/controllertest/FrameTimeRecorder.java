@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import java.util.Arrays;
+
+/**
+ * Records frame-to-frame intervals into a ring of primitive longs.
+ * <p/>
+ * One thread (the one drawing) writes; any number of threads may read at the same
+ * time without locking. Readers copy the recent intervals and check afterwards that
+ * the writer didn't lap them while they were copying, retrying if it did.
+ */
+public class FrameTimeRecorder
+{
+    public static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * One frame at 60Hz.
+     */
+    public static final long DEFAULT_TARGET_FRAME_NANOS = NANOS_PER_SECOND / 60;
+
+    private final long[] mIntervals;
+    private final int mMask;
+    private final long mTargetFrameNanos;
+
+    /**
+     * Total intervals ever recorded; the next one goes at mCount & mMask.
+     */
+    private volatile long mCount = 0;
+
+    // Writer only
+    private long mLastFrameTime = -1;
+
+    /**
+     * @param capacity how many intervals to keep at least
+     */
+    public FrameTimeRecorder(int capacity)
+    {
+        this(capacity, DEFAULT_TARGET_FRAME_NANOS);
+    }
+
+    /**
+     * @param targetFrameNanos frames that take more than one and a half times this
+     *                         long count as jank
+     */
+    public FrameTimeRecorder(int capacity, long targetFrameNanos)
+    {
+        // A power of two, with a spare slot for a write that's in progress while
+        // a reader copies
+        int size = Integer.highestOneBit(Math.max(1, capacity)) << 1;
+        mIntervals = new long[size];
+        mMask = size - 1;
+        mTargetFrameNanos = targetFrameNanos;
+    }
+
+    public int getCapacity()
+    {
+        return mIntervals.length - 1;
+    }
+
+    public long getTargetFrameNanos()
+    {
+        return mTargetFrameNanos;
+    }
+
+    /**
+     * @return How many intervals have been recorded in total
+     */
+    public long getCount()
+    {
+        return mCount;
+    }
+
+    /**
+     * Call once per frame with a monotonic time, e.g. System.nanoTime(). Writer only.
+     */
+    public void onFrame(long nowNanos)
+    {
+        if (mLastFrameTime >= 0) {
+            record(nowNanos - mLastFrameTime);
+        }
+        mLastFrameTime = nowNanos;
+    }
+
+    /**
+     * Forget the previous frame time, e.g. after the view was hidden, so the gap isn't
+     * recorded as one long frame. Writer only.
+     */
+    public void reset()
+    {
+        mLastFrameTime = -1;
+    }
+
+    /**
+     * Writer only.
+     */
+    public void record(long intervalNanos)
+    {
+        final long count = mCount;
+        mIntervals[(int) (count & mMask)] = intervalNanos;
+        // The volatile write publishes the interval to readers
+        mCount = count + 1;
+    }
+
+    /**
+     * Copy the most recent intervals, oldest first. Safe from any thread.
+     *
+     * @param out receives up to out.length intervals
+     * @return How many were copied
+     */
+    public int copyRecent(long[] out)
+    {
+        while (true) {
+            final long end = mCount;
+            final int n = (int) Math.min(Math.min(out.length, getCapacity()), end);
+            final long start = end - n;
+            for (int i = 0; i < n; i++) {
+                out[i] = mIntervals[(int) ((start + i) & mMask)];
+            }
+            // If the writer has since reached start's slot (including a write it has
+            // made but not yet published), some of the copy is newer than it claims
+            // to be; try again
+            if (mCount - mIntervals.length < start) {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Work out percentiles over the most recent intervals. Safe from any thread.
+     *
+     * @param scratch holds the copy of the intervals while they are sorted; its
+     *                length is the number of frames to look at
+     */
+    public void computeStats(FrameStats out, long[] scratch)
+    {
+        final int n = copyRecent(scratch);
+        out.mCount = n;
+        if (n == 0) {
+            out.mMean = out.mP50 = out.mP95 = out.mP99 = out.mMax = 0;
+            out.mJank = 0;
+            return;
+        }
+
+        long sum = 0;
+        int jank = 0;
+        final long jankThreshold = mTargetFrameNanos + mTargetFrameNanos / 2;
+        for (int i = 0; i < n; i++) {
+            sum += scratch[i];
+            if (scratch[i] > jankThreshold) {
+                jank++;
+            }
+        }
+        Arrays.sort(scratch, 0, n);
+
+        out.mMean = sum / n;
+        out.mP50 = percentile(scratch, n, 50);
+        out.mP95 = percentile(scratch, n, 95);
+        out.mP99 = percentile(scratch, n, 99);
+        out.mMax = scratch[n - 1];
+        out.mJank = jank;
+    }
+
+    /**
+     * Nearest-rank percentile of the first n sorted values.
+     */
+    private static long percentile(long[] sorted, int n, int percent)
+    {
+        int rank = (percent * n + 99) / 100;
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Frame time statistics, filled in place by computeStats(). All times are in
+     * nanoseconds.
+     */
+    public static class FrameStats
+    {
+        int mCount;
+        long mMean;
+        long mP50;
+        long mP95;
+        long mP99;
+        long mMax;
+        int mJank;
+
+        /**
+         * @return How many frames the statistics cover
+         */
+        public int getCount()
+        {
+            return mCount;
+        }
+
+        public long getMean()
+        {
+            return mMean;
+        }
+
+        public long getP50()
+        {
+            return mP50;
+        }
+
+        public long getP95()
+        {
+            return mP95;
+        }
+
+        public long getP99()
+        {
+            return mP99;
+        }
+
+        public long getMax()
+        {
+            return mMax;
+        }
+
+        /**
+         * @return How many frames took more than one and a half target frames
+         */
+        public int getJankCount()
+        {
+            return mJank;
+        }
+
+        /**
+         * @return Frames per second going by the mean interval
+         */
+        public double getFps()
+        {
+            return mMean == 0 ? 0.0 : (double) NANOS_PER_SECOND / mMean;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import tv.ouya.console.api.OuyaController;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compact binary recording of controller input, so a session can be replayed
+ * without anyone holding a controller. See InputReplayer.
+ * <p/>
+ * A trace is a header followed by one record per event:
+ * <pre>
+ *   header: int MAGIC, byte VERSION
+ *   record: byte type, varint milliseconds since the previous event, zigzag varint device id, then
+ *           KEY_DOWN / KEY_UP: varint key code
+ *           MOTION:            varint source, varint mask of non-zero AXES, a short for each set bit
+ * </pre>
+ * The first record's time is absolute. Axis values are stored as fixed point in
+ * units of 1/AXIS_SCALE, which is finer than any controller reports. Centred
+ * sticks and released triggers cost nothing, so a typical motion event takes a
+ * dozen bytes.
+ * <p/>
+ * The game sample has an identical copy, so a trace recorded in either app
+ * replays in both.
+ */
+public class InputTrace {
+    static public final int MAGIC = 0x4f555949;     // "OUYI"
+    static public final int VERSION = 1;
+
+    static public final int KEY_DOWN = 0;
+    static public final int KEY_UP = 1;
+    static public final int MOTION = 2;
+
+    static public final float AXIS_SCALE = Short.MAX_VALUE;
+
+    /**
+     * The axes recorded from each motion event.
+     */
+    static public final int[] AXES = {
+            OuyaController.AXIS_LS_X,
+            OuyaController.AXIS_LS_Y,
+            OuyaController.AXIS_RS_X,
+            OuyaController.AXIS_RS_Y,
+            OuyaController.AXIS_L2,
+            OuyaController.AXIS_R2,
+            MotionEvent.AXIS_HAT_X,
+            MotionEvent.AXIS_HAT_Y,
+            MotionEvent.AXIS_X,
+            MotionEvent.AXIS_Y,
+    };
+
+    /**
+     * One decoded record. Readers reuse a single instance.
+     */
+    static public class Event {
+        int type;
+        long time;
+        int deviceId;
+        int source;
+        int keyCode;
+        final float[] axes = new float[AXES.length];
+
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * @return The event time in milliseconds, in the time base of the recording
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public int getDeviceId() {
+            return deviceId;
+        }
+
+        public int getSource() {
+            return source;
+        }
+
+        public int getKeyCode() {
+            return keyCode;
+        }
+
+        /**
+         * @return The value of axis, or 0 if it isn't one of AXES
+         */
+        public float getAxisValue(int axis) {
+            for (int i = 0; i < AXES.length; ++i) {
+                if (AXES[i] == axis) {
+                    return axes[i];
+                }
+            }
+            return 0.0f;
+        }
+
+        /**
+         * @return The recorded axes in AXES order. Don't hold on to it; it is overwritten by the next record.
+         */
+        public float[] getAxes() {
+            return axes;
+        }
+    }
+
+    /**
+     * Appends events to a trace. Buffered, so close() it to be sure everything is
+     * written. Not thread-safe; record from the UI thread that receives the events.
+     */
+    static public class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final float[] axes = new float[AXES.length];
+        private final int[] fixed = new int[AXES.length];
+        private long lastTime = 0;
+        private int count = 0;
+
+        public Writer(OutputStream stream) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void record(KeyEvent event) throws IOException {
+            writeKey(event.getAction() == KeyEvent.ACTION_UP ? KEY_UP : KEY_DOWN,
+                    event.getEventTime(), event.getDeviceId(), event.getKeyCode());
+        }
+
+        public void record(MotionEvent event) throws IOException {
+            for (int i = 0; i < AXES.length; ++i) {
+                axes[i] = event.getAxisValue(AXES[i]);
+            }
+            writeMotion(event.getEventTime(), event.getDeviceId(), event.getSource(), axes);
+        }
+
+        public void writeKey(int type, long time, int deviceId, int keyCode) throws IOException {
+            writeHeader(type, time, deviceId);
+            writeVarint(keyCode);
+        }
+
+        /**
+         * @param axes values in AXES order
+         */
+        public void writeMotion(long time, int deviceId, int source, float[] axes) throws IOException {
+            writeHeader(MOTION, time, deviceId);
+            writeVarint(source);
+            int mask = 0;
+            for (int i = 0; i < AXES.length; ++i) {
+                fixed[i] = Math.round(Math.max(-1.0f, Math.min(1.0f, axes[i])) * AXIS_SCALE);
+                if (fixed[i] != 0) {
+                    mask |= 1 << i;
+                }
+            }
+            writeVarint(mask);
+            for (int i = 0; i < AXES.length; ++i) {
+                if ((mask & (1 << i)) != 0) {
+                    out.writeShort(fixed[i]);
+                }
+            }
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void writeHeader(int type, long time, int deviceId) throws IOException {
+            // Events can arrive slightly out of order across devices; clamp rather than go negative
+            long delta = Math.max(0, time - lastTime);
+            lastTime += delta;
+
+            out.writeByte(type);
+            writeVarint(delta);
+            writeVarint((deviceId << 1) ^ (deviceId >> 31));
+            ++count;
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                out.writeByte((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+    }
+
+    /**
+     * Reads a trace one record at a time into a reused Event.
+     */
+    static public class Reader implements Closeable {
+        private final DataInputStream in;
+        private long time = 0;
+
+        public Reader(InputStream stream) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an input trace");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported input trace version " + version);
+            }
+        }
+
+        /**
+         * @return false at the end of the trace
+         */
+        public boolean next(Event event) throws IOException {
+            int type = in.read();
+            if (type < 0) {
+                return false;
+            }
+            try {
+                time += readVarint();
+                int zigzag = (int) readVarint();
+
+                event.type = type;
+                event.time = time;
+                event.deviceId = (zigzag >>> 1) ^ -(zigzag & 1);
+                switch (type) {
+                    case KEY_DOWN:
+                    case KEY_UP:
+                        event.keyCode = (int) readVarint();
+                        event.source = 0;
+                        break;
+                    case MOTION:
+                        event.keyCode = 0;
+                        event.source = (int) readVarint();
+                        int mask = (int) readVarint();
+                        for (int i = 0; i < AXES.length; ++i) {
+                            event.axes[i] = (mask & (1 << i)) != 0 ? in.readShort() / AXIS_SCALE : 0.0f;
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown input trace record " + type);
+                }
+            } catch (EOFException e) {
+                throw new IOException("Input trace ends mid-record");
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in input trace");
+        }
+    }
+}
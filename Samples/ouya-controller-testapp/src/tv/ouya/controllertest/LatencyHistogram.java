@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size histogram of latencies with log-linear buckets, in the manner of
+ * HdrHistogram: values below 2^precisionBits are counted exactly, and above that
+ * each power of two is split into 2^(precisionBits - 1) equal buckets, so every
+ * value is reported to within 1 part in 2^(precisionBits - 1).
+ * <p/>
+ * Recording is a shift and an array increment, with no allocation. Written by one
+ * thread; other threads may read it, but may see a recording half done.
+ */
+public class LatencyHistogram
+{
+    public static final int DEFAULT_PRECISION_BITS = 7;
+
+    private final int mPrecisionBits;
+    private final int mSubBuckets;          // 2^precisionBits
+    private final int mHalf;                // mSubBuckets / 2
+    private final long mHighestTrackable;
+    private final long[] mCounts;
+
+    private long mTotalCount;
+    private long mTotal;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax = 0;
+    private long mClampedCount;
+
+    /**
+     * @param highestTrackable larger values are recorded as this
+     */
+    public LatencyHistogram(long highestTrackable)
+    {
+        this(highestTrackable, DEFAULT_PRECISION_BITS);
+    }
+
+    public LatencyHistogram(long highestTrackable, int precisionBits)
+    {
+        if (precisionBits < 1 || precisionBits > 20) {
+            throw new IllegalArgumentException("precisionBits must be between 1 and 20");
+        }
+        mPrecisionBits = precisionBits;
+        mSubBuckets = 1 << precisionBits;
+        mHalf = mSubBuckets / 2;
+        mHighestTrackable = Math.max(highestTrackable, 1);
+        mCounts = new long[indexOf(mHighestTrackable) + 1];
+    }
+
+    /**
+     * Count one value. Negative values, e.g. from a clock stepping backwards, are
+     * counted as 0.
+     */
+    public void record(long value)
+    {
+        if (value < 0) {
+            value = 0;
+        } else if (value > mHighestTrackable) {
+            value = mHighestTrackable;
+            mClampedCount++;
+        }
+        mCounts[indexOf(value)]++;
+        mTotalCount++;
+        mTotal += value;
+        if (value < mMin) {
+            mMin = value;
+        }
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    public void reset()
+    {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mTotal = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+        mClampedCount = 0;
+    }
+
+    public long getTotalCount()
+    {
+        return mTotalCount;
+    }
+
+    /**
+     * @return How many values were bigger than the histogram can hold
+     */
+    public long getClampedCount()
+    {
+        return mClampedCount;
+    }
+
+    public long getMin()
+    {
+        return mTotalCount == 0 ? 0 : mMin;
+    }
+
+    public long getMax()
+    {
+        return mMax;
+    }
+
+    public double getMean()
+    {
+        return mTotalCount == 0 ? 0.0 : (double) mTotal / mTotalCount;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return The largest value that falls in the same bucket as the value at the
+     *         given percentile, but never more than the largest value recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * mTotalCount);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * @return How many buckets the histogram uses, which fixes its memory
+     */
+    public int getBucketCount()
+    {
+        return mCounts.length;
+    }
+
+    int indexOf(long value)
+    {
+        if (value < mSubBuckets) {
+            return (int) value;
+        }
+        final int msb = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = msb - (mPrecisionBits - 1);
+        final int top = (int) (value >>> shift);  // between mHalf and mSubBuckets - 1
+        return mSubBuckets + (shift - 1) * mHalf + (top - mHalf);
+    }
+
+    long lowestEquivalentValue(int index)
+    {
+        if (index < mSubBuckets) {
+            return index;
+        }
+        final int k = index - mSubBuckets;
+        final int shift = k / mHalf + 1;
+        final long top = k % mHalf + mHalf;
+        return top << shift;
+    }
+
+    long highestEquivalentValue(int index)
+    {
+        if (index < mSubBuckets) {
+            return index;
+        }
+        final int shift = (index - mSubBuckets) / mHalf + 1;
+        return lowestEquivalentValue(index) + (1L << shift) - 1;
+    }
+}
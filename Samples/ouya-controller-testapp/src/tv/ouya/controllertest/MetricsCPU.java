@@ -2,65 +2,121 @@ package tv.ouya.controllertest;
 
 import android.util.Log;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
+/**
+ * Samples /proc/stat to work out how each core spent its time since the last sample.
+ * <p/>
+ * The number of cores is found when the object is created, from the kernel's list of
+ * possible CPUs rather than /proc/stat: on Tegra 3 the cores that are hot-plugged
+ * offline have no line there. Offline cores report zero until they come back.
+ */
 public class MetricsCPU
 {
     /**
-     * The line starts to look for
+     * The reader for CPU stats
      */
+    private ProcStatReader mReader = null;
+
+    private static final String POSSIBLE_CPUS = "/sys/devices/system/cpu/possible";
+    private static final String PRESENT_CPUS = "/sys/devices/system/cpu/present";
 
-    private static final char[] INDEX_IDS = { '0', '1', '2', '3' };
+    private final int mCores;
 
     /**
-     * The reader for CPU stats
+     * Fields of the "cpu" line and each core's line, reused between reads
+     */
+    private final long[] mTotalFields;
+    private final long[][] mCoreFields;
+
+    /**
+     * The counters at the previous sample, laid out like CpuSnapshot.mDeltas
+     */
+    private final long[] mPrevious;
+
+    /**
+     * Whether each core had a line in /proc/stat at the previous sample
      */
-    private RandomAccessFile mReader = null;
+    private final boolean[] mOnline;
 
-	private long[] mUser;
-    private long[] mSystem;
-    private long[] mTotal;
-	
-	public MetricsCPU()
+    public MetricsCPU()
         throws IOException
-	{
-		mUser = new long[] {0, 0, 0, 0};
-		mSystem = new long[] {0, 0, 0, 0};
-		mTotal = new long[] {0, 0, 0, 0};
+    {
+        this("/proc/stat", countCores(POSSIBLE_CPUS, PRESENT_CPUS));
+    }
 
-        String fileName = "/proc/stat";
+    MetricsCPU(String fileName)
+        throws IOException
+    {
+        this(fileName, 0);
+    }
+
+    /**
+     * @param cores The number of cores to track, or fewer to go by how many fileName shows
+     */
+    MetricsCPU(String fileName, int cores)
+        throws IOException
+    {
         File f = new File(fileName);
         if (!f.exists()) {
-            throw new RuntimeException("/proc/stat unavailable");
+            throw new RuntimeException(fileName + " unavailable");
         }
 
-        mReader = new RandomAccessFile(fileName, "r");
-	}
-	
-    public synchronized void readUsage(double[] mCpuStats)
+        mReader = new ProcStatReader(fileName);
+        mTotalFields = new long[ProcStatReader.MAX_FIELDS];
+
+        // The first read only counts the cores that are online
+        mCores = Math.max(cores, mReader.read(mTotalFields, new long[0][]));
+        mCoreFields = new long[mCores][ProcStatReader.MAX_FIELDS];
+        mPrevious = new long[(mCores + 1) * CpuSnapshot.STATES];
+        mOnline = new boolean[mCores];
+
+        // Take the baseline, so the first sample covers the time since now rather
+        // than since boot
+        readCores();
+        store(mTotalFields, 0, null);
+        for (int i = 0; i < mCores; i++) {
+            mOnline[i] = isOnline(i);
+            if (mOnline[i]) {
+                store(mCoreFields[i], i + 1, null);
+            }
+        }
+    }
+
+    public int getCoreCount()
+    {
+        return mCores;
+    }
+
+    /**
+     * Fill snapshot with what each core did since the previous sample.
+     */
+    public synchronized void sample(CpuSnapshot snapshot)
     {
         try {
-            mReader.seek(0L);
-
-            int filled = 0;
-            String line;
-            while ((line = mReader.readLine()) != null && filled < 4)
-            {
-                if (line.startsWith("cpu"))
-                {
-                    for(int i = 0 ; i < INDEX_IDS.length ; i++) {
-                        if(line.charAt(3) == INDEX_IDS[i]) {
-                            mCpuStats[i] = updateStats(line.trim().split("[ ]+"), i);
-                            filled++;
-                            break;
-                        }
-                    }
-                }
-            }
+            readCores();
         } catch (IOException ex) {
             Log.i("MetricsCPU", "Problem reading metrics", ex);
+            return;
+        }
+
+        snapshot.setCoreCount(mCores);
+        store(mTotalFields, 0, snapshot.mDeltas);
+        for (int i = 0; i < mCores; i++) {
+            boolean online = isOnline(i);
+            if (online && mOnline[i]) {
+                store(mCoreFields[i], i + 1, snapshot.mDeltas);
+            } else {
+                // Offline, or just back online: this sample becomes its baseline
+                if (online) {
+                    store(mCoreFields[i], i + 1, null);
+                }
+                clear(i + 1, snapshot.mDeltas);
+            }
+            mOnline[i] = online;
         }
     }
 
@@ -70,27 +126,89 @@ public class MetricsCPU
             mReader.close();
         }
     }
-    
-    private double updateStats(String[] segs, int index)
+
+    /**
+     * @return One more than the highest CPU number in the first of the kernel's CPU
+     *         lists that can be read, or 0 if none can
+     */
+    static int countCores(String... cpuListFiles)
+    {
+        for (String fileName : cpuListFiles) {
+            try {
+                BufferedReader reader = new BufferedReader(new FileReader(fileName));
+                try {
+                    String line = reader.readLine();
+                    if (line != null) {
+                        return parseCpuList(line);
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException ex) {
+                Log.i("MetricsCPU", "Unable to read " + fileName, ex);
+            } catch (NumberFormatException ex) {
+                Log.i("MetricsCPU", "Unexpected contents in " + fileName, ex);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param cpuList A kernel CPU list such as "0-3" or "0,2-5"
+     * @return One more than the highest CPU number in it
+     */
+    static int parseCpuList(String cpuList)
     {
-        // user = user + nice
-        long user = Long.parseLong(segs[1]) + Long.parseLong(segs[2]);
-        // system = system + intr + soft_irq
-        long system = Long.parseLong(segs[3]) + Long.parseLong(segs[6]) + Long.parseLong(segs[7]);
-        // total = user + system + idle + io_wait
-        long total = user + system + Long.parseLong(segs[4]) + Long.parseLong(segs[5]);
-
-        if (mTotal[index] != 0 || total >= mTotal[index])
-        {
-                long duser = user - mUser[index];
-                long dsystem = system - mSystem[index];
-                long dtotal = total - mTotal[index];
-                return (double)(duser+dsystem)*100.0/dtotal;                
+        int cores = 0;
+        for (String range : cpuList.trim().split(",")) {
+            if (range.length() == 0) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            String last = dash < 0 ? range : range.substring(dash + 1);
+            cores = Math.max(cores, Integer.parseInt(last.trim()) + 1);
+        }
+        return cores;
+    }
+
+    /**
+     * Read the file, marking the cores it has no line for with a negative first field.
+     */
+    private void readCores()
+        throws IOException
+    {
+        for (int i = 0; i < mCores; i++) {
+            mCoreFields[i][0] = -1;
+        }
+        mReader.read(mTotalFields, mCoreFields);
+    }
+
+    private boolean isOnline(int core)
+    {
+        return mCoreFields[core][0] >= 0;
+    }
+
+    private void clear(int row, long[] deltas)
+    {
+        final int offset = row * CpuSnapshot.STATES;
+        for (int state = 0; state < CpuSnapshot.STATES; state++) {
+            deltas[offset + state] = 0;
+        }
+    }
+
+    /**
+     * Remember one line's counters, writing how far each moved into deltas.
+     */
+    private void store(long[] fields, int row, long[] deltas)
+    {
+        final int offset = row * CpuSnapshot.STATES;
+        for (int state = 0; state < CpuSnapshot.STATES; state++) {
+            long delta = fields[state] - mPrevious[offset + state];
+            // Counters can go backwards when a core comes back online
+            if (deltas != null) {
+                deltas[offset + state] = delta < 0 ? 0 : delta;
+            }
+            mPrevious[offset + state] = fields[state];
         }
-        mUser[index] = user;
-        mSystem[index] = system;
-        mTotal[index] = total;
-        
-        return 0.0;
     }
-}
\ No newline at end of file
+}
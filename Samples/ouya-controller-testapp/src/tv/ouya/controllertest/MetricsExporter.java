@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams metrics samples to a log file or a localhost socket so they can be
+ * collected over long soak runs; MetricsLogReader summarises the result.
+ * <p/>
+ * Samples go into a preallocated single-producer, single-consumer ring and a
+ * background thread batches them into a buffer and writes them out. offer() never
+ * blocks and never allocates: if the writer falls behind, the ring fills and new
+ * samples are dropped and counted.
+ * <p/>
+ * The log is MAGIC followed by fixed-size big-endian records of RECORD_LONGS longs:
+ * type, time in System.nanoTime() nanoseconds, then VALUES values whose meaning
+ * depends on the type.
+ */
+public class MetricsExporter
+{
+    public static final long MAGIC = 0x4f5559414d455431L;    // "OUYAMET1"
+
+    public static final int VALUES = 6;
+    public static final int RECORD_LONGS = 2 + VALUES;
+    public static final int RECORD_BYTES = RECORD_LONGS * 8;
+
+    /**
+     * fps * 100, p50, p95, p99 and max frame time in nanoseconds, jank count
+     */
+    public static final int TYPE_FRAMES = 1;
+
+    /**
+     * core (-1 for the whole machine), busy and iowait percent * 100
+     */
+    public static final int TYPE_CPU = 2;
+
+    /**
+     * event kind (one of the LATENCY_ constants), count, p50, p99 and max microseconds
+     */
+    public static final int TYPE_LATENCY = 3;
+
+    public static final int LATENCY_KEY_DOWN = 0;
+    public static final int LATENCY_KEY_UP = 1;
+    public static final int LATENCY_MOTION = 2;
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final long IDLE_NANOS = 20 * 1000 * 1000;
+    private static final long CLOSE_TIMEOUT_MILLIS = 500;
+    private static final int BATCH_RECORDS = 64;
+    private static final String LOG_TAG = "MetricsExporter";
+
+    /**
+     * Opens the channel on the exporter's thread, so a socket isn't connected on
+     * the UI thread.
+     */
+    public interface Target
+    {
+        WritableByteChannel open() throws IOException;
+    }
+
+    private final Target mTarget;
+    private final long[] mRing;
+    private final int mMask;
+    private final Thread mThread;
+
+    private volatile long mHead = 0;        // next record to write; written by the exporter thread
+    private volatile long mTail = 0;        // next record to offer; written by the producer
+    private volatile long mDroppedCount = 0;
+    private volatile long mWrittenCount = 0;
+    private volatile boolean mClosing = false;
+    private volatile IOException mError = null;
+    private volatile WritableByteChannel mChannel = null;
+
+    public static MetricsExporter toFile(final File file)
+    {
+        return new MetricsExporter(new Target() {
+            @Override
+            public WritableByteChannel open() throws IOException {
+                return new FileOutputStream(file).getChannel();
+            }
+        }, DEFAULT_CAPACITY);
+    }
+
+    public static MetricsExporter toSocket(final String host, final int port)
+    {
+        return new MetricsExporter(new Target() {
+            @Override
+            public WritableByteChannel open() throws IOException {
+                return SocketChannel.open(new InetSocketAddress(host, port));
+            }
+        }, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity records the ring holds; rounded up to a power of two
+     */
+    public MetricsExporter(Target target, int capacity)
+    {
+        int records = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mTarget = target;
+        mRing = new long[records * RECORD_LONGS];
+        mMask = records - 1;
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, LOG_TAG);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Queue one record. Only one thread may offer.
+     *
+     * @return false if the ring was full and the record was dropped
+     */
+    public boolean offer(int type, long time, long v0, long v1, long v2, long v3, long v4, long v5)
+    {
+        final long tail = mTail;
+        if (mClosing || tail - mHead > mMask) {
+            mDroppedCount++;
+            return false;
+        }
+        int i = (int) (tail & mMask) * RECORD_LONGS;
+        mRing[i] = type;
+        mRing[i + 1] = time;
+        mRing[i + 2] = v0;
+        mRing[i + 3] = v1;
+        mRing[i + 4] = v2;
+        mRing[i + 5] = v3;
+        mRing[i + 6] = v4;
+        mRing[i + 7] = v5;
+        // The volatile write publishes the record to the exporter thread
+        mTail = tail + 1;
+        return true;
+    }
+
+    public boolean offerFrames(long time, FrameTimeRecorder.FrameStats stats)
+    {
+        return offer(TYPE_FRAMES, time, Math.round(stats.getFps() * 100.0),
+                stats.getP50(), stats.getP95(), stats.getP99(), stats.getMax(), stats.getJankCount());
+    }
+
+    /**
+     * One record for the whole machine and one for each core.
+     *
+     * @return false if any of them was dropped
+     */
+    public boolean offerCpu(long time, CpuSnapshot snapshot)
+    {
+        boolean offered = true;
+        for (int core = CpuSnapshot.ALL_CORES; core < snapshot.getCoreCount(); core++) {
+            offered &= offer(TYPE_CPU, time, core, Math.round(snapshot.getBusyPercent(core) * 100.0),
+                    Math.round(snapshot.getPercent(core, CpuSnapshot.IOWAIT) * 100.0), 0, 0, 0);
+        }
+        return offered;
+    }
+
+    public boolean offerLatency(long time, int kind, LatencyHistogram latency)
+    {
+        return offer(TYPE_LATENCY, time, kind, latency.getTotalCount(),
+                latency.getValueAtPercentile(50.0), latency.getValueAtPercentile(99.0), latency.getMax(), 0);
+    }
+
+    /**
+     * @return Records dropped because the ring was full or the exporter was closed
+     */
+    public long getDroppedCount()
+    {
+        return mDroppedCount;
+    }
+
+    public long getWrittenCount()
+    {
+        return mWrittenCount;
+    }
+
+    /**
+     * @return What stopped the exporter writing, if anything
+     */
+    public IOException getError()
+    {
+        return mError;
+    }
+
+    /**
+     * Write out whatever is queued, then close the channel. Waits up to half a
+     * second for the exporter thread; if the other end has stopped reading, the
+     * channel is closed under it and whatever is still queued is dropped, so this
+     * is safe to call from the UI thread.
+     */
+    public void close()
+    {
+        close(CLOSE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @return false if the exporter thread had to be stopped
+     */
+    boolean close(long timeoutMillis)
+    {
+        mClosing = true;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!mThread.isAlive()) {
+            return true;
+        }
+
+        Log.w(LOG_TAG, "Metrics writer stalled; closing its channel");
+        // Interrupting also closes an interruptible channel the thread is blocked in
+        mThread.interrupt();
+        WritableByteChannel channel = mChannel;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem closing metrics channel", e);
+            }
+        }
+        return false;
+    }
+
+    private void writeLoop()
+    {
+        WritableByteChannel channel = null;
+        try {
+            channel = mTarget.open();
+            mChannel = channel;
+            ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_RECORDS * RECORD_BYTES);
+            batch.putLong(MAGIC);
+            write(channel, batch);
+
+            while (true) {
+                // Read the flag first, so nothing offered before close() is missed
+                final boolean closing = mClosing;
+                long head = mHead;
+                final long tail = mTail;
+                while (head < tail) {
+                    int i = (int) (head & mMask) * RECORD_LONGS;
+                    for (int j = 0; j < RECORD_LONGS; j++) {
+                        batch.putLong(mRing[i + j]);
+                    }
+                    head++;
+                    if (!batch.hasRemaining()) {
+                        mHead = head;
+                        write(channel, batch);
+                    }
+                }
+                mHead = head;
+                write(channel, batch);
+                mWrittenCount = head;
+
+                if (closing) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Stopped exporting metrics", e);
+            mError = e;
+            mClosing = true;
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Problem closing metrics channel", e);
+                }
+            }
+        }
+    }
+
+    private static void write(WritableByteChannel channel, ByteBuffer batch)
+        throws IOException
+    {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        batch.clear();
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * Summarises a log written by MetricsExporter. Runs on a desktop JVM:
+ * <pre>
+ *   java -cp bin/classes tv.ouya.controllertest.MetricsLogReader metrics.bin
+ *   java -cp bin/classes tv.ouya.controllertest.MetricsLogReader --listen 9000
+ * </pre>
+ * The second form waits for the exporter to connect (e.g. through
+ * "adb reverse tcp:9000 tcp:9000") and summarises once it disconnects.
+ */
+public class MetricsLogReader
+{
+    /**
+     * Guards against a corrupt core number growing the per-core totals without bound
+     */
+    static final int MAX_CORES = 64;
+
+    /**
+     * Running totals over a whole log.
+     */
+    public static class Summary
+    {
+        long mRecords;
+        long mFirstTime = -1;
+        long mLastTime;
+
+        long mFrameSamples;
+        double mFpsTotal;
+        long mWorstP99;
+        long mWorstFrame;
+        long mJank;
+
+        long mCpuSamples;
+        long mBusyTotal;                // percent * 100, whole machine
+        long mIowaitTotal;
+        long mPeakBusy;
+        long[] mCoreBusyTotal = new long[0];
+        long[] mCoreSamples = new long[0];
+
+        final long[] mLatencyCount = new long[3];
+        final long[] mLatencyP99 = new long[3];
+        final long[] mLatencyMax = new long[3];
+
+        public long getRecordCount()
+        {
+            return mRecords;
+        }
+
+        public double getDurationSeconds()
+        {
+            return mFirstTime < 0 ? 0.0 : (mLastTime - mFirstTime) / 1000000000.0;
+        }
+
+        public long getFrameSampleCount()
+        {
+            return mFrameSamples;
+        }
+
+        public double getMeanFps()
+        {
+            return mFrameSamples == 0 ? 0.0 : mFpsTotal / mFrameSamples;
+        }
+
+        /**
+         * @return The worst p99 frame time of any sample, in nanoseconds
+         */
+        public long getWorstP99()
+        {
+            return mWorstP99;
+        }
+
+        public long getWorstFrame()
+        {
+            return mWorstFrame;
+        }
+
+        public long getJankCount()
+        {
+            return mJank;
+        }
+
+        public double getMeanBusyPercent()
+        {
+            return mCpuSamples == 0 ? 0.0 : mBusyTotal / 100.0 / mCpuSamples;
+        }
+
+        public double getMeanIowaitPercent()
+        {
+            return mCpuSamples == 0 ? 0.0 : mIowaitTotal / 100.0 / mCpuSamples;
+        }
+
+        public double getPeakBusyPercent()
+        {
+            return mPeakBusy / 100.0;
+        }
+
+        public int getCoreCount()
+        {
+            return mCoreSamples.length;
+        }
+
+        public double getMeanBusyPercent(int core)
+        {
+            return mCoreSamples[core] == 0 ? 0.0 : mCoreBusyTotal[core] / 100.0 / mCoreSamples[core];
+        }
+
+        /**
+         * @param kind one of the MetricsExporter.LATENCY_ constants
+         * @return The event count from the latest sample, which is cumulative
+         */
+        public long getLatencyCount(int kind)
+        {
+            return mLatencyCount[kind];
+        }
+
+        /**
+         * @return The p99 latency from the latest sample, in microseconds
+         */
+        public long getLatencyP99(int kind)
+        {
+            return mLatencyP99[kind];
+        }
+
+        public long getLatencyMax(int kind)
+        {
+            return mLatencyMax[kind];
+        }
+
+        void add(long[] record)
+        {
+            final long time = record[1];
+            if (mFirstTime < 0) {
+                mFirstTime = time;
+            }
+            mLastTime = time;
+            mRecords++;
+
+            switch ((int) record[0]) {
+                case MetricsExporter.TYPE_FRAMES:
+                    mFrameSamples++;
+                    mFpsTotal += record[2] / 100.0;
+                    mWorstP99 = Math.max(mWorstP99, record[5]);
+                    mWorstFrame = Math.max(mWorstFrame, record[6]);
+                    mJank += record[7];
+                    break;
+                case MetricsExporter.TYPE_CPU:
+                    if (record[2] == CpuSnapshot.ALL_CORES) {
+                        mCpuSamples++;
+                        mBusyTotal += record[3];
+                        mIowaitTotal += record[4];
+                        mPeakBusy = Math.max(mPeakBusy, record[3]);
+                    } else if (record[2] >= 0 && record[2] < MAX_CORES) {
+                        int core = (int) record[2];
+                        if (core >= mCoreSamples.length) {
+                            mCoreSamples = Arrays.copyOf(mCoreSamples, core + 1);
+                            mCoreBusyTotal = Arrays.copyOf(mCoreBusyTotal, core + 1);
+                        }
+                        mCoreSamples[core]++;
+                        mCoreBusyTotal[core] += record[3];
+                    }
+                    break;
+                case MetricsExporter.TYPE_LATENCY:
+                    int kind = (int) record[2];
+                    if (kind >= 0 && kind < mLatencyCount.length) {
+                        mLatencyCount[kind] = record[3];
+                        mLatencyP99[kind] = record[5];
+                        mLatencyMax[kind] = record[6];
+                    }
+                    break;
+                default:
+                    // Newer record types are skipped
+                    break;
+            }
+        }
+
+        public void print(PrintStream out)
+        {
+            out.println(String.format("%d records over %.1f s", mRecords, getDurationSeconds()));
+            out.println(String.format("frames:  mean %.2f fps, worst p99 %.2f ms, worst frame %.2f ms, %d janky",
+                    getMeanFps(), mWorstP99 / 1000000.0, mWorstFrame / 1000000.0, mJank));
+            out.println(String.format("cpu:     mean busy %.2f%%, peak %.2f%%, mean iowait %.2f%%",
+                    getMeanBusyPercent(), getPeakBusyPercent(), getMeanIowaitPercent()));
+            for (int core = 0; core < mCoreSamples.length; core++) {
+                out.println(String.format("  cpu%d:  mean busy %.2f%%", core, getMeanBusyPercent(core)));
+            }
+            String[] names = {"key down", "key up", "motion"};
+            for (int kind = 0; kind < names.length; kind++) {
+                out.println(String.format("%-8s %d events, p99 %.1f ms, max %.1f ms", names[kind] + ":",
+                        mLatencyCount[kind], mLatencyP99[kind] / 1000.0, mLatencyMax[kind] / 1000.0));
+            }
+        }
+    }
+
+    /**
+     * Read a log to the end.
+     */
+    public static Summary summarise(ReadableByteChannel channel)
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(256 * MetricsExporter.RECORD_BYTES);
+        Summary summary = new Summary();
+        long[] record = new long[MetricsExporter.RECORD_LONGS];
+
+        boolean sawMagic = false;
+        boolean eof = false;
+        while (!eof) {
+            eof = channel.read(buffer) < 0;
+            buffer.flip();
+            if (!sawMagic) {
+                if (buffer.remaining() < 8) {
+                    if (eof) {
+                        throw new IOException("Not a metrics log: too short");
+                    }
+                    buffer.compact();
+                    continue;
+                }
+                if (buffer.getLong() != MetricsExporter.MAGIC) {
+                    throw new IOException("Not a metrics log");
+                }
+                sawMagic = true;
+            }
+            while (buffer.remaining() >= MetricsExporter.RECORD_BYTES) {
+                for (int i = 0; i < record.length; i++) {
+                    record[i] = buffer.getLong();
+                }
+                summary.add(record);
+            }
+            // Keep any partial record for the next read
+            buffer.compact();
+        }
+        return summary;
+    }
+
+    public static void main(String[] args)
+        throws IOException
+    {
+        if (args.length == 2 && args[0].equals("--listen")) {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.socket().bind(new InetSocketAddress("127.0.0.1", Integer.parseInt(args[1])));
+            SocketChannel client = server.accept();
+            try {
+                summarise(client).print(System.out);
+            } finally {
+                client.close();
+                server.close();
+            }
+        } else if (args.length == 1) {
+            FileInputStream in = new FileInputStream(args[0]);
+            try {
+                summarise(in.getChannel()).print(System.out);
+            } finally {
+                in.close();
+            }
+        } else {
+            System.err.println("usage: MetricsLogReader <log file> | --listen <port>");
+            System.exit(1);
+        }
+    }
+}
@@ -18,6 +18,7 @@ public class OuyaPlotFPS extends View {
 
 	private int m_plotSize = 128;
 	public TextView m_fpsText = null;
+	public TextView m_cpuAllText = null;
 	public TextView m_cpu1Text = null;
 	public TextView m_cpu2Text = null;
 	public TextView m_cpu3Text = null;
@@ -25,33 +26,46 @@ public class OuyaPlotFPS extends View {
 	public TextView m_keyDownText = null;
 	public TextView m_keyUpText = null;
 	public TextView m_genericMotionText = null;
-	private double[] mCpuStats = new double[4];
+	public TextView m_threadsText = null;
+	private CpuSnapshot mCpuSnapshot = new CpuSnapshot();
+	private int[] mHottestThreads = new int[3];
 
-	public double m_keyDownTime = 0.0;
-	public double m_keyUpTime = 0.0;
-	public double m_genericMotionTime = 0.0;
+	/**
+	 * Microseconds from each input event happening to its handler running
+	 */
+	public static final long MAX_LATENCY_MICROS = 10 * 1000 * 1000;
+	public final LatencyHistogram m_keyDownLatency = new LatencyHistogram(MAX_LATENCY_MICROS);
+	public final LatencyHistogram m_keyUpLatency = new LatencyHistogram(MAX_LATENCY_MICROS);
+	public final LatencyHistogram m_genericMotionLatency = new LatencyHistogram(MAX_LATENCY_MICROS);
 	
 	private MetricsCPU m_metricsCPU = null;
+	private ThreadCpuSampler m_threadSampler = null;
+	private MetricsExporter m_exporter = null;
 
 	private void Init()
         throws IOException
 	{
 		m_metricsCPU = new MetricsCPU();
+		m_threadSampler = new ThreadCpuSampler();
 
-		m_counts = new Double[m_plotSize];
-		for (int index = 0; index < m_plotSize; ++index)
-		{
-			m_counts[index] = 0.0;
-		}
+		m_frames = new FrameTimeRecorder(m_plotSize);
+		m_recentFrames = new long[m_plotSize];
 	}
 	
 	public void Quit()
 	{
-        try {
-            m_metricsCPU.close();
-        } catch (IOException e) {
-            Log.e("OUYAPlotFPS", "Error closing metrics stream", e);
-        }
+		try {
+			m_metricsCPU.close();
+		} catch (IOException e) {
+			Log.e("OUYAPlotFPS", "Error closing metrics stream", e);
+		}
+		m_threadSampler.close();
+		removeCallbacks(m_refresh);
+		if (null != m_exporter)
+		{
+			m_exporter.close();
+			m_exporter = null;
+		}
 		Log.i("OuyaPlotFPS", "Quitting...", null);
 	}
 	
@@ -72,68 +86,230 @@ public class OuyaPlotFPS extends View {
         super(context);
         Init();
     }
-    
-    private long m_timer = -1;
-    private Double[] m_counts = null;
-    private int m_time = 0;
-    
+	
+	private static final long REFRESH_NANOS = 1000000000;
+
+	private long m_timer = -1;
+	private boolean m_benchmarkMode = false;
+	private FrameTimeRecorder m_frames = null;
+	private FrameTimeRecorder.FrameStats m_frameStats = new FrameTimeRecorder.FrameStats();
+	private long[] m_recentFrames = null;
+
+	// The text for each view, reused every refresh
+	private final OverlayText m_fpsLine = new OverlayText(64);
+	private final OverlayText m_cpuAllLine = new OverlayText(96);
+	private final OverlayText[] m_cpuLines = {
+		new OverlayText(32), new OverlayText(32), new OverlayText(32), new OverlayText(32)
+	};
+	private final OverlayText m_threadsLine = new OverlayText(128);
+	private final OverlayText m_keyDownLine = new OverlayText(64);
+	private final OverlayText m_keyUpLine = new OverlayText(64);
+	private final OverlayText m_genericMotionLine = new OverlayText(64);
+
+	private final Runnable m_refresh = new Runnable() {
+		@Override
+		public void run() {
+			invalidate();
+		}
+	};
+
+	/**
+	 * @return The frame intervals this view has drawn at; safe to read from any thread.
+	 */
+	public FrameTimeRecorder getFrameTimes()
+	{
+		return m_frames;
+	}
+
+	/**
+	 * In benchmark mode the view redraws continuously and records every frame
+	 * interval. Otherwise it only redraws to refresh the overlay once a second, so
+	 * it doesn't add its own load to what it is measuring.
+	 */
+	public void setBenchmarkMode(boolean benchmarkMode)
+	{
+		m_benchmarkMode = benchmarkMode;
+		m_frames.reset();
+		invalidate();
+	}
+
+	public boolean isBenchmarkMode()
+	{
+		return m_benchmarkMode;
+	}
+
+	/**
+	 * Also stream each refresh's frame, CPU and latency numbers to exporter, which
+	 * is closed when the view quits.
+	 */
+	public void setExporter(MetricsExporter exporter)
+	{
+		m_exporter = exporter;
+	}
+
+	/**
+	 * Take new CPU samples and update the overlay text.
+	 */
+	void refreshOverlay()
+	{
+		m_metricsCPU.sample(mCpuSnapshot);
+		m_threadSampler.sample();
+		updateText();
+
+		if (null != m_exporter)
+		{
+			long now = System.nanoTime();
+			m_exporter.offerFrames(now, m_frameStats);
+			m_exporter.offerCpu(now, mCpuSnapshot);
+			m_exporter.offerLatency(now, MetricsExporter.LATENCY_KEY_DOWN, m_keyDownLatency);
+			m_exporter.offerLatency(now, MetricsExporter.LATENCY_KEY_UP, m_keyUpLatency);
+			m_exporter.offerLatency(now, MetricsExporter.LATENCY_MOTION, m_genericMotionLatency);
+		}
+	}
+
+	/**
+	 * Format the latest numbers into the overlay, only touching views whose text
+	 * changed. Allocates nothing.
+	 */
+	void updateText()
+	{
+		m_frames.computeStats(m_frameStats, m_recentFrames);
+		// Only benchmark mode draws continuously, so only it has frame rates worth showing
+		m_fpsLine.clear().append("FPS: ");
+		if (m_benchmarkMode)
+		{
+			m_fpsLine.append(m_frameStats.getFps(), 2)
+					.append(" p50 ").append(m_frameStats.getP50() / 1000000.0, 1)
+					.append(" p99 ").append(m_frameStats.getP99() / 1000000.0, 1)
+					.append(" max ").append(m_frameStats.getMax() / 1000000.0, 1)
+					.append(" ms jank ").append(m_frameStats.getJankCount());
+		}
+		else
+		{
+			m_fpsLine.append("benchmark mode only (MENU)");
+		}
+		show(m_fpsLine, m_fpsText);
+
+		formatCpuAll(m_cpuAllLine);
+		show(m_cpuAllLine, m_cpuAllText);
+		formatCpu(m_cpuLines[0], 0);
+		show(m_cpuLines[0], m_cpu1Text);
+		formatCpu(m_cpuLines[1], 1);
+		show(m_cpuLines[1], m_cpu2Text);
+		formatCpu(m_cpuLines[2], 2);
+		show(m_cpuLines[2], m_cpu3Text);
+		formatCpu(m_cpuLines[3], 3);
+		show(m_cpuLines[3], m_cpu4Text);
+
+		formatThreads(m_threadsLine);
+		show(m_threadsLine, m_threadsText);
+
+		formatLatency(m_keyDownLine, "KeyDown", m_keyDownLatency);
+		show(m_keyDownLine, m_keyDownText);
+		formatLatency(m_keyUpLine, "KeyUp", m_keyUpLatency);
+		show(m_keyUpLine, m_keyUpText);
+		formatLatency(m_genericMotionLine, "Trackpad", m_genericMotionLatency);
+		show(m_genericMotionLine, m_genericMotionText);
+	}
+
+	private static void show(OverlayText line, TextView view)
+	{
+		if (null != view)
+		{
+			line.showIn(view);
+		}
+	}
+
+	/**
+	 * How busy the core was, and how much of its time went waiting on I/O.
+	 */
+	private void formatCpu(OverlayText line, int core)
+	{
+		line.clear().append("CPU").append(core + 1).append(": ");
+		if (core >= mCpuSnapshot.getCoreCount())
+		{
+			line.append("offline");
+			return;
+		}
+		line.append(mCpuSnapshot.getBusyPercent(core), 2)
+				.append(" io ").append(mCpuSnapshot.getPercent(core, CpuSnapshot.IOWAIT), 2);
+	}
+
+	/**
+	 * The whole machine, then a summary of the cores without a line of their own,
+	 * so hosts with more than four cores are covered too.
+	 */
+	private void formatCpuAll(OverlayText line)
+	{
+		line.clear().append("CPU: ").append(mCpuSnapshot.getBusyPercent(CpuSnapshot.ALL_CORES), 2)
+				.append(" io ").append(mCpuSnapshot.getPercent(CpuSnapshot.ALL_CORES, CpuSnapshot.IOWAIT), 2);
+
+		int first = m_cpuLines.length;
+		int cores = mCpuSnapshot.getCoreCount();
+		if (cores <= first)
+		{
+			return;
+		}
+		double total = 0.0;
+		double max = 0.0;
+		for (int core = first; core < cores; core++)
+		{
+			double busy = mCpuSnapshot.getBusyPercent(core);
+			total += busy;
+			max = Math.max(max, busy);
+		}
+		line.append("\nCPU").append(first + 1).append('-').append(cores)
+				.append(": avg ").append(total / (cores - first), 2)
+				.append(" max ").append(max, 2);
+	}
+
+	/**
+	 * The threads of ours that used the most CPU in the last second.
+	 */
+	private void formatThreads(OverlayText line)
+	{
+		int count = m_threadSampler.getHottest(mHottestThreads);
+		line.clear().append("Threads:");
+		for (int i = 0; i < count; i++)
+		{
+			int slot = mHottestThreads[i];
+			line.append('\n').append(m_threadSampler.getName(slot))
+					.append(" (").append(m_threadSampler.getTid(slot)).append("): ")
+					.append(m_threadSampler.getPercent(slot), 1);
+		}
+	}
+
+	private static void formatLatency(OverlayText line, String label, LatencyHistogram latency)
+	{
+		line.clear().append(label)
+				.append(": p50 ").append(latency.getValueAtPercentile(50.0) / 1000.0, 1)
+				.append(" p99 ").append(latency.getValueAtPercentile(99.0) / 1000.0, 1)
+				.append(" max ").append(latency.getMax() / 1000.0, 1)
+				.append(" ms");
+	}
+
 	@Override
 	protected void onDraw(Canvas canvas) {
-		// TODO Auto-generated method stub
 		super.onDraw(canvas);
 		
-		if (null == m_counts)
+		if (null == m_frames)
 		{
 			return;
 		}
-		
-		//timer to update fps label
-		if (m_timer < System.nanoTime())
-		{
-			m_timer = System.nanoTime() + 1000000000;
-			if (null != m_fpsText)
-			{
-				m_fpsText.setText(String.format("FPS: %.2f", 1.0 / (System.nanoTime() / 1000000000.0 - getDrawingTime() / 1000.0)));
-			}
 
-            m_metricsCPU.readUsage(mCpuStats);
-			if (null != m_cpu1Text)
-			{
-				m_cpu1Text.setText(String.format("CPU1: %.2f", mCpuStats[0]));
-			}
-			if (null != m_cpu2Text)
-			{
-				m_cpu2Text.setText(String.format("CPU2: %.2f", mCpuStats[1]));
-			}
-			if (null != m_cpu3Text)
-			{
-				m_cpu3Text.setText(String.format("CPU3: %.2f", mCpuStats[2]));
-			}
-			if (null != m_cpu4Text)
-			{
-				m_cpu4Text.setText(String.format("CPU4: %.2f", mCpuStats[3]));
-			}
-			if (null != m_keyDownText)
-			{
-				m_keyDownText.setText(String.format("KeyDown: %.2f ms", 1000.0 * m_keyDownTime));
-			}
-			if (null != m_keyUpText)
-			{
-				m_keyUpText.setText(String.format("KeyUp: %.2f ms", 1000.0 * m_keyUpTime));
-			}
-			if (null != m_genericMotionText)
-			{
-				m_genericMotionText.setText(String.format("Trackpad: %.2f ms", 1000.0 * m_genericMotionTime));
-			}
+		final long now = System.nanoTime();
+		if (m_benchmarkMode)
+		{
+			m_frames.onFrame(now);
 		}
-			
-		m_counts[m_time] = 1.0 / (System.nanoTime() / 1000000000.0 - getDrawingTime() / 1000.0);
-		++m_time;
-		if (m_time >= m_plotSize)
+
+		//timer to update the labels
+		if (m_timer < now)
 		{
-			m_time = 0;
+			m_timer = now + REFRESH_NANOS;
+			refreshOverlay();
 		}
-		
+
 		/*
 		drawBackground(canvas);
 		
@@ -144,10 +320,11 @@ public class OuyaPlotFPS extends View {
 		paint2.setShader(new LinearGradient(0, 0, 4, canvas.getHeight() / 2, Color.BLACK, Color.argb(255, 128, 255, 255), TileMode.MIRROR));
 		
 		Rect ourRect = new Rect();
-		for (int index = 0; index < m_plotSize; ++index)
+		int frames = m_frames.copyRecent(m_recentFrames);
+		for (int index = 0; index < frames; ++index)
 		{
-			int readIndex = (index + m_time) % m_plotSize;
-			Double size = m_counts[readIndex] / 4;
+			int readIndex = index;
+			double size = (double) FrameTimeRecorder.NANOS_PER_SECOND / m_recentFrames[index] / 4;
 			ourRect.set(index*8, (int)(canvas.getHeight()), (index+1)*8, (int)(canvas.getHeight() - size));
 			
 			if ((readIndex/8 % 2) == 0)
@@ -160,8 +337,16 @@ public class OuyaPlotFPS extends View {
 			}
 		}
 		*/
-		
-		invalidate();		
-		
+
+		if (m_benchmarkMode)
+		{
+			invalidate();
+		}
+		else
+		{
+			// Just the next refresh; replaces any already scheduled
+			removeCallbacks(m_refresh);
+			postDelayed(m_refresh, Math.max(1, (m_timer - now) / 1000000));
+		}
 	}
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import android.widget.TextView;
+
+/**
+ * One TextView's worth of overlay text, formatted into reused char arrays rather
+ * than with String.format(), and only handed to the view when it changes.
+ * <p/>
+ * TextView.setText(char[], int, int) keeps a reference to the array it is given,
+ * so the text is built in a second array and the two swap each time the view is
+ * updated. Text beyond the capacity is dropped.
+ */
+public class OverlayText
+{
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    private char[] mNext;
+    private int mNextLength = 0;
+
+    private char[] mShown;
+    private int mShownLength = -1;      // nothing shown yet
+
+    public OverlayText(int capacity)
+    {
+        mNext = new char[capacity];
+        mShown = new char[capacity];
+    }
+
+    /**
+     * Start building the next text.
+     */
+    public OverlayText clear()
+    {
+        mNextLength = 0;
+        return this;
+    }
+
+    public OverlayText append(char c)
+    {
+        if (mNextLength < mNext.length) {
+            mNext[mNextLength++] = c;
+        }
+        return this;
+    }
+
+    public OverlayText append(String s)
+    {
+        int length = Math.min(s.length(), mNext.length - mNextLength);
+        s.getChars(0, length, mNext, mNextLength);
+        mNextLength += length;
+        return this;
+    }
+
+    public OverlayText append(long value)
+    {
+        if (value < 0) {
+            append('-');
+            if (value == Long.MIN_VALUE) {
+                // Can't be negated; no latency or count we show gets here
+                return append("9223372036854775808");
+            }
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        int end = Math.min(mNextLength + digits, mNext.length);
+        // Fill from the least significant digit, dropping those that don't fit
+        for (int i = mNextLength + digits - 1; i >= mNextLength; i--) {
+            if (i < end) {
+                mNext[i] = (char) ('0' + value % 10);
+            }
+            value /= 10;
+        }
+        mNextLength = end;
+        return this;
+    }
+
+    /**
+     * Append value rounded to the given number of decimal places, 0 to 9.
+     */
+    public OverlayText append(double value, int decimals)
+    {
+        if (Double.isNaN(value)) {
+            return append("NaN");
+        }
+        if (value < 0.0) {
+            append('-');
+            value = -value;
+        }
+        final long scale = POWERS_OF_TEN[decimals];
+        if (value >= (double) (Long.MAX_VALUE / scale)) {
+            return append("inf");
+        }
+
+        final long scaled = Math.round(value * scale);
+        append(scaled / scale);
+        if (decimals > 0) {
+            append('.');
+            long fraction = scaled % scale;
+            // leading zeros of the fraction
+            for (long p = scale / 10; p > fraction && p > 1; p /= 10) {
+                append('0');
+            }
+            append(fraction);
+        }
+        return this;
+    }
+
+    /**
+     * @return true if the text built since clear() differs from what the view shows
+     */
+    public boolean isChanged()
+    {
+        if (mNextLength != mShownLength) {
+            return true;
+        }
+        for (int i = 0; i < mNextLength; i++) {
+            if (mNext[i] != mShown[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hand the text to the view, if it has changed.
+     *
+     * @return true if the view was touched
+     */
+    public boolean showIn(TextView view)
+    {
+        if (!isChanged()) {
+            return false;
+        }
+        view.setText(mNext, 0, mNextLength);
+
+        char[] shown = mShown;
+        mShown = mNext;
+        mShownLength = mNextLength;
+        mNext = shown;
+        return true;
+    }
+
+    public int length()
+    {
+        return mNextLength;
+    }
+
+    /**
+     * Allocates; for tests and logging.
+     */
+    @Override
+    public String toString()
+    {
+        return new String(mNext, 0, mNextLength);
+    }
+}
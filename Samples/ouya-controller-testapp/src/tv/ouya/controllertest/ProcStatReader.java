@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the cpu lines of /proc/stat without creating any garbage.
+ * <p/>
+ * The whole file is read with one positional read (a pread) into a ByteBuffer that
+ * is kept between calls, and the numbers are parsed straight out of its bytes, so
+ * sampling the CPU doesn't show up in the numbers it is sampling.
+ */
+public class ProcStatReader
+{
+    /**
+     * user, nice, system, idle, iowait, irq, softirq, steal, guest, guest_nice
+     */
+    public static final int MAX_FIELDS = 10;
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final FileInputStream mStream;
+    private final FileChannel mChannel;
+    private ByteBuffer mBuffer;
+
+    public ProcStatReader(String fileName)
+        throws IOException
+    {
+        mStream = new FileInputStream(fileName);
+        mChannel = mStream.getChannel();
+        mBuffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Read the file afresh and parse the "cpuN" lines.
+     *
+     * @param cpuFields receives the fields of core N in cpuFields[N]; fields the kernel
+     *                  doesn't report are set to 0, and cores beyond the array are skipped
+     * @return One more than the highest core number found
+     */
+    public int read(long[][] cpuFields)
+        throws IOException
+    {
+        return read(null, cpuFields);
+    }
+
+    /**
+     * Read the file afresh and parse the "cpu" line for the whole machine as well as
+     * the "cpuN" lines.
+     *
+     * @param totalFields receives the fields of the "cpu" line; may be null
+     * @param cpuFields   as for read(long[][])
+     * @return One more than the highest core number found
+     */
+    public synchronized int read(long[] totalFields, long[][] cpuFields)
+        throws IOException
+    {
+        final int length = fill();
+        final byte[] bytes = mBuffer.array();
+
+        int cores = 0;
+        int pos = 0;
+        while (pos < length) {
+            if (pos + 3 < length && bytes[pos] == 'c' && bytes[pos + 1] == 'p' && bytes[pos + 2] == 'u') {
+                pos += 3;
+                if (bytes[pos] == ' ') {
+                    // "cpu " is the whole machine
+                    if (totalFields != null) {
+                        pos = parseFields(bytes, pos, length, totalFields);
+                    }
+                } else if (isDigit(bytes[pos])) {
+                    int cpu = 0;
+                    while (pos < length && isDigit(bytes[pos])) {
+                        cpu = cpu * 10 + (bytes[pos++] - '0');
+                    }
+                    cores = Math.max(cores, cpu + 1);
+                    if (cpu < cpuFields.length) {
+                        pos = parseFields(bytes, pos, length, cpuFields[cpu]);
+                    }
+                }
+            }
+
+            // on to the next line
+            while (pos < length && bytes[pos] != '\n') {
+                ++pos;
+            }
+            ++pos;
+        }
+        return cores;
+    }
+
+    public synchronized void close()
+        throws IOException
+    {
+        mStream.close();
+    }
+
+    /**
+     * Read the whole file into mBuffer, growing it if the file doesn't fit.
+     *
+     * @return The number of bytes read
+     */
+    private int fill()
+        throws IOException
+    {
+        while (true) {
+            mBuffer.clear();
+            long position = 0;
+            int count;
+            while (mBuffer.hasRemaining() && (count = mChannel.read(mBuffer, position)) > 0) {
+                position += count;
+            }
+            if (mBuffer.hasRemaining()) {
+                return mBuffer.position();
+            }
+            mBuffer = ByteBuffer.allocate(mBuffer.capacity() * 2);
+        }
+    }
+
+    /**
+     * Parse the space separated numbers up to the end of the line.
+     *
+     * @return The position of the end of the line
+     */
+    private static int parseFields(byte[] bytes, int pos, int length, long[] fields)
+    {
+        int field = 0;
+        while (pos < length && bytes[pos] != '\n') {
+            if (!isDigit(bytes[pos])) {
+                ++pos;
+                continue;
+            }
+            long value = 0;
+            while (pos < length && isDigit(bytes[pos])) {
+                value = value * 10 + (bytes[pos++] - '0');
+            }
+            if (field < fields.length) {
+                fields[field] = value;
+            }
+            ++field;
+        }
+        for (int i = field; i < fields.length; ++i) {
+            fields[i] = 0;
+        }
+        return pos;
+    }
+
+    private static boolean isDigit(byte b)
+    {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Works out how much CPU each of our own threads used between samples, from
+ * /proc/self/task/[tid]/stat, so a dropped frame can be pinned on the GL thread,
+ * the UI thread or something else.
+ * <p/>
+ * Each thread's stat file is kept open and re-read with a positional read into one
+ * shared buffer, and parsed in place; the only garbage is the directory listing
+ * that spots new threads and a String when a thread is first seen or renamed.
+ */
+public class ThreadCpuSampler
+{
+    /**
+     * The kernel's USER_HZ: stat times are in 1/100ths of a second on every Android
+     * and desktop Linux ABI.
+     */
+    public static final int CLOCK_TICKS_PER_SECOND = 100;
+
+    /**
+     * The kernel truncates thread names to 15 characters.
+     */
+    private static final int MAX_NAME_LENGTH = 16;
+
+    // Fields after the ")" that ends the name, counting the state as 0
+    private static final int UTIME_FIELD = 11;
+    private static final int STIME_FIELD = 12;
+
+    private static final String LOG_TAG = "ThreadCpuSampler";
+
+    private final File mTaskDir;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(1024);
+
+    private int mCount = 0;
+    private long mLastSampleTime = 0;
+    private long mElapsedNanos = 0;
+
+    // Per thread, in no particular order; threads that exit are swapped out from the end
+    private int[] mTids;
+    private FileInputStream[] mStreams;
+    private String[] mNames;
+    private char[][] mNameChars;
+    private int[] mNameLengths;
+    private long[] mUser;
+    private long[] mSystem;
+    private long[] mUserDelta;
+    private long[] mSystemDelta;
+    private boolean[] mSeen;
+
+    public ThreadCpuSampler()
+    {
+        this("/proc/self/task");
+    }
+
+    /**
+     * @param taskDir a directory laid out like /proc/[pid]/task
+     */
+    ThreadCpuSampler(String taskDir)
+    {
+        mTaskDir = new File(taskDir);
+        allocate(16);
+    }
+
+    /**
+     * Read every thread's times. The deltas cover the time since the previous call;
+     * a thread's first sample only sets its baseline.
+     *
+     * @return The number of threads found
+     */
+    public synchronized int sample()
+    {
+        final long now = System.nanoTime();
+        mElapsedNanos = mLastSampleTime == 0 ? 0 : now - mLastSampleTime;
+        mLastSampleTime = now;
+
+        Arrays.fill(mSeen, 0, mCount, false);
+        String[] entries = mTaskDir.list();
+        if (entries != null) {
+            for (int i = 0; i < entries.length; i++) {
+                int tid = parseTid(entries[i]);
+                if (tid >= 0) {
+                    int slot = find(tid);
+                    if (slot < 0) {
+                        slot = open(tid, entries[i]);
+                    }
+                    if (slot >= 0) {
+                        mSeen[slot] = true;
+                    }
+                }
+            }
+        }
+
+        int slot = 0;
+        while (slot < mCount) {
+            if (mSeen[slot] && read(slot)) {
+                slot++;
+            } else {
+                // The thread has exited; don't step on, the last slot just moved here
+                remove(slot);
+            }
+        }
+        return mCount;
+    }
+
+    public synchronized int getThreadCount()
+    {
+        return mCount;
+    }
+
+    /**
+     * Find the threads that used the most CPU in the last sample.
+     *
+     * @param out receives the busiest threads' slots, busiest first; its length is N
+     * @return How many slots were filled in
+     */
+    public synchronized int getHottest(int[] out)
+    {
+        int filled = 0;
+        for (int slot = 0; slot < mCount; slot++) {
+            final long ticks = getTicks(slot);
+            if (filled == out.length) {
+                if (filled == 0 || getTicks(out[filled - 1]) >= ticks) {
+                    continue;
+                }
+            } else {
+                filled++;
+            }
+
+            // Insertion into the sorted top N, dropping the last if it was full
+            int pos = filled - 1;
+            while (pos > 0 && getTicks(out[pos - 1]) < ticks) {
+                out[pos] = out[pos - 1];
+                pos--;
+            }
+            out[pos] = slot;
+        }
+        return filled;
+    }
+
+    public synchronized int getTid(int slot)
+    {
+        return mTids[slot];
+    }
+
+    public synchronized String getName(int slot)
+    {
+        return mNames[slot];
+    }
+
+    /**
+     * @return Clock ticks the thread spent in user mode in the last sample
+     */
+    public synchronized long getUserTicks(int slot)
+    {
+        return mUserDelta[slot];
+    }
+
+    /**
+     * @return Clock ticks the thread spent in the kernel in the last sample
+     */
+    public synchronized long getSystemTicks(int slot)
+    {
+        return mSystemDelta[slot];
+    }
+
+    /**
+     * @return Percentage of one core the thread used in the last sample
+     */
+    public synchronized double getPercent(int slot)
+    {
+        if (mElapsedNanos == 0) {
+            return 0.0;
+        }
+        double seconds = mElapsedNanos / 1000000000.0;
+        return getTicks(slot) * 100.0 / (seconds * CLOCK_TICKS_PER_SECOND);
+    }
+
+    public synchronized void close()
+    {
+        while (mCount > 0) {
+            remove(mCount - 1);
+        }
+    }
+
+    private long getTicks(int slot)
+    {
+        return mUserDelta[slot] + mSystemDelta[slot];
+    }
+
+    private int find(int tid)
+    {
+        for (int slot = 0; slot < mCount; slot++) {
+            if (mTids[slot] == tid) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Start following a thread we haven't seen before.
+     *
+     * @return Its slot, or -1 if it has already gone
+     */
+    private int open(int tid, String entry)
+    {
+        FileInputStream stream;
+        try {
+            stream = new FileInputStream(new File(new File(mTaskDir, entry), "stat"));
+        } catch (IOException e) {
+            return -1;
+        }
+
+        if (mCount == mTids.length) {
+            allocate(mTids.length * 2);
+        }
+        final int slot = mCount++;
+        mTids[slot] = tid;
+        mStreams[slot] = stream;
+        mNames[slot] = null;
+        mNameLengths[slot] = 0;
+        mUser[slot] = -1;
+        mSystem[slot] = -1;
+        mUserDelta[slot] = 0;
+        mSystemDelta[slot] = 0;
+        return slot;
+    }
+
+    private void remove(int slot)
+    {
+        try {
+            mStreams[slot].close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem closing stat for thread " + mTids[slot], e);
+        }
+
+        final int last = --mCount;
+        mTids[slot] = mTids[last];
+        mStreams[slot] = mStreams[last];
+        mNames[slot] = mNames[last];
+        char[] chars = mNameChars[slot];
+        mNameChars[slot] = mNameChars[last];
+        mNameChars[last] = chars;
+        mNameLengths[slot] = mNameLengths[last];
+        mUser[slot] = mUser[last];
+        mSystem[slot] = mSystem[last];
+        mUserDelta[slot] = mUserDelta[last];
+        mSystemDelta[slot] = mSystemDelta[last];
+        mSeen[slot] = mSeen[last];
+        mStreams[last] = null;
+        mNames[last] = null;
+    }
+
+    /**
+     * Re-read one thread's stat file and update its deltas.
+     *
+     * @return false if the thread has gone
+     */
+    private boolean read(int slot)
+    {
+        final FileChannel channel = mStreams[slot].getChannel();
+        mBuffer.clear();
+        try {
+            // Normally one read; stat lines are well under the buffer size
+            while (mBuffer.hasRemaining() && channel.read(mBuffer, mBuffer.position()) > 0) {
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return parse(slot, mBuffer.array(), mBuffer.position());
+    }
+
+    /**
+     * Parse "tid (name) state ppid ... utime stime ...".
+     */
+    private boolean parse(int slot, byte[] bytes, int length)
+    {
+        int open = -1;
+        int close = -1;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == '(' && open < 0) {
+                open = i;
+            } else if (bytes[i] == ')') {
+                // The name may contain ")" itself, so it ends at the last one
+                close = i;
+            }
+        }
+        if (open < 0 || close < open) {
+            return false;
+        }
+        updateName(slot, bytes, open + 1, close);
+
+        long utime = -1;
+        long stime = -1;
+        int field = -1;
+        int pos = close + 1;
+        while (pos < length && field < STIME_FIELD) {
+            while (pos < length && bytes[pos] == ' ') {
+                pos++;
+            }
+            field++;
+            long value = 0;
+            while (pos < length && bytes[pos] != ' ' && bytes[pos] != '\n') {
+                value = value * 10 + (bytes[pos] - '0');
+                pos++;
+            }
+            if (field == UTIME_FIELD) {
+                utime = value;
+            } else if (field == STIME_FIELD) {
+                stime = value;
+            }
+        }
+        if (stime < 0) {
+            return false;
+        }
+
+        if (mUser[slot] >= 0) {
+            mUserDelta[slot] = Math.max(0, utime - mUser[slot]);
+            mSystemDelta[slot] = Math.max(0, stime - mSystem[slot]);
+        }
+        mUser[slot] = utime;
+        mSystem[slot] = stime;
+        return true;
+    }
+
+    /**
+     * Only builds a new String when the thread's name has changed.
+     */
+    private void updateName(int slot, byte[] bytes, int start, int end)
+    {
+        final char[] chars = mNameChars[slot];
+        final int length = Math.min(end - start, chars.length);
+        boolean same = mNames[slot] != null && length == mNameLengths[slot];
+        for (int i = 0; i < length; i++) {
+            char c = (char) (bytes[start + i] & 0xff);
+            if (chars[i] != c) {
+                chars[i] = c;
+                same = false;
+            }
+        }
+        if (!same) {
+            mNameLengths[slot] = length;
+            mNames[slot] = new String(chars, 0, length);
+        }
+    }
+
+    private static int parseTid(String entry)
+    {
+        int tid = 0;
+        for (int i = 0; i < entry.length(); i++) {
+            char c = entry.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            tid = tid * 10 + (c - '0');
+        }
+        return entry.length() == 0 ? -1 : tid;
+    }
+
+    private void allocate(int capacity)
+    {
+        final int oldCapacity = mTids == null ? 0 : mTids.length;
+        if (mTids == null) {
+            mTids = new int[capacity];
+            mStreams = new FileInputStream[capacity];
+            mNames = new String[capacity];
+            mNameChars = new char[capacity][];
+            mNameLengths = new int[capacity];
+            mUser = new long[capacity];
+            mSystem = new long[capacity];
+            mUserDelta = new long[capacity];
+            mSystemDelta = new long[capacity];
+            mSeen = new boolean[capacity];
+        } else {
+            mTids = Arrays.copyOf(mTids, capacity);
+            mStreams = Arrays.copyOf(mStreams, capacity);
+            mNames = Arrays.copyOf(mNames, capacity);
+            mNameChars = Arrays.copyOf(mNameChars, capacity);
+            mNameLengths = Arrays.copyOf(mNameLengths, capacity);
+            mUser = Arrays.copyOf(mUser, capacity);
+            mSystem = Arrays.copyOf(mSystem, capacity);
+            mUserDelta = Arrays.copyOf(mUserDelta, capacity);
+            mSystemDelta = Arrays.copyOf(mSystemDelta, capacity);
+            mSeen = Arrays.copyOf(mSeen, capacity);
+        }
+        for (int i = oldCapacity; i < capacity; i++) {
+            mNameChars[i] = new char[MAX_NAME_LENGTH];
+        }
+    }
+}
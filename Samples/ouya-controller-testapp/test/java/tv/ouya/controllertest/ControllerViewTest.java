@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import android.view.InputDevice;
+import android.view.View;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import tv.ouya.console.api.OuyaController;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class ControllerViewTest {
+    // lsX, lsY, rsX, rsY, l2, r2, hatX, hatY
+    private static final int AXES = 8;
+
+    private ControllerView view;
+
+    @Before
+    public void setUp() throws Exception {
+        view = new ControllerView(Robolectric.application);
+    }
+
+    @Test
+    public void buttonsShowWhileHeld() throws Exception {
+        View o = view.getButtonView(OuyaController.BUTTON_O);
+        assertEquals(View.INVISIBLE, o.getVisibility());
+
+        view.onKeyDown(OuyaController.BUTTON_O, null);
+        assertEquals(View.VISIBLE, o.getVisibility());
+        view.onKeyUp(OuyaController.BUTTON_O, null);
+        assertEquals(View.INVISIBLE, o.getVisibility());
+
+        assertNull(view.getButtonView(OuyaController.BUTTON_MENU));
+        assertNull(view.getButtonView(10000));
+    }
+
+    @Test
+    public void hatMovesTheDpad() throws Exception {
+        View left = view.getButtonView(OuyaController.BUTTON_DPAD_LEFT);
+        View right = view.getButtonView(OuyaController.BUTTON_DPAD_RIGHT);
+        View down = view.getButtonView(OuyaController.BUTTON_DPAD_DOWN);
+
+        view.onAxes(0, 0, 0, 0, 0, 0, -1, 1);
+        assertEquals(View.VISIBLE, left.getVisibility());
+        assertEquals(View.VISIBLE, down.getVisibility());
+
+        view.onAxes(0, 0, 0, 0, 0, 0, 1, 1);
+        assertEquals(View.INVISIBLE, left.getVisibility());
+        assertEquals(View.VISIBLE, right.getVisibility());
+        assertEquals(View.VISIBLE, down.getVisibility());
+
+        view.onAxes(0, 0, 0, 0, 0, 0, 0, 0);
+        assertEquals(View.INVISIBLE, right.getVisibility());
+        assertEquals(View.INVISIBLE, down.getVisibility());
+    }
+
+    @Test
+    public void stickMotionLeavesTheDpadAlone() throws Exception {
+        View up = view.getButtonView(OuyaController.BUTTON_DPAD_UP);
+        view.onKeyDown(OuyaController.BUTTON_DPAD_UP, null);
+
+        // The hat hasn't moved, so the pressed d-pad key stays lit
+        view.onAxes(0.5f, 0.5f, 0, 0, 0, 0, 0, 0);
+        assertEquals(View.VISIBLE, up.getVisibility());
+    }
+
+    @Test
+    public void triggersFadeIn() throws Exception {
+        View l2 = view.getButtonView(OuyaController.BUTTON_L2);
+        View r2 = view.getButtonView(OuyaController.BUTTON_R2);
+
+        view.onAxes(0, 0, 0, 0, 0.25f, 1.0f, 0, 0);
+        assertEquals(0.25f, l2.getAlpha());
+        assertEquals(1.0f, r2.getAlpha());
+
+        view.onAxes(0, 0, 0, 0, 0, 0, 0, 0);
+        assertEquals(0.0f, l2.getAlpha());
+        assertEquals(0.0f, r2.getAlpha());
+
+        // Trigger keys don't hide the trigger views
+        view.onKeyUp(OuyaController.BUTTON_L2, null);
+        assertEquals(View.VISIBLE, l2.getVisibility());
+    }
+
+    @Test
+    public void motionAllocatesNothing() throws Exception {
+        float[] events = recordedStream(1000);
+        replay(events);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        // The JIT can allocate a few bytes on this thread when it recompiles a method,
+        // so take the best of several runs rather than the first
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; ++run) {
+            long before = threads.getThreadAllocatedBytes(id);
+            replay(events);
+            best = Math.min(best, threads.getThreadAllocatedBytes(id) - before);
+        }
+        assertEquals(0, best);
+    }
+
+    /**
+     * Not a pass/fail test: records a stick-heavy motion stream to an input trace,
+     * then replays it into the view and prints the cost of each event.
+     */
+    @Test
+    public void benchmarkMotionReplay() throws Exception {
+        float[] events = recordedStream(100000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputTrace.Writer writer = new InputTrace.Writer(bytes);
+        float[] axes = new float[InputTrace.AXES.length];
+        for (int i = 0; i < events.length; i += AXES) {
+            System.arraycopy(events, i, axes, 0, AXES);
+            writer.writeMotion(i / AXES * 8, 1, InputDevice.SOURCE_JOYSTICK, axes);
+        }
+        writer.close();
+        byte[] trace = bytes.toByteArray();
+
+        InputReplayer.Listener listener = new InputReplayer.Listener() {
+            @Override
+            public void onKey(InputTrace.Event event) {
+                if (event.getType() == InputTrace.KEY_DOWN) {
+                    view.onKeyDown(event.getKeyCode(), null);
+                } else {
+                    view.onKeyUp(event.getKeyCode(), null);
+                }
+            }
+
+            @Override
+            public void onMotion(InputTrace.Event event) {
+                // Trace axes start in the same order onAxes() takes them
+                float[] a = event.getAxes();
+                view.onAxes(a[0], a[1], a[2], a[3], a[4], a[5], a[6], a[7]);
+            }
+        };
+
+        for (int pass = 0; pass < 3; ++pass) {
+            InputTrace.Reader reader = new InputTrace.Reader(new ByteArrayInputStream(trace));
+            long start = System.nanoTime();
+            int count = new InputReplayer(0.0f).replay(reader, listener);
+            long elapsed = System.nanoTime() - start;
+            if (pass == 2) {
+                System.out.println(String.format("ControllerView: %d replayed motion events  %.1f ns/event",
+                        count, (double) elapsed / count));
+            }
+        }
+    }
+
+    private void replay(float[] events) {
+        for (int i = 0; i < events.length; i += AXES) {
+            view.onAxes(events[i], events[i + 1], events[i + 2], events[i + 3],
+                    events[i + 4], events[i + 5], events[i + 6], events[i + 7]);
+        }
+    }
+
+    /**
+     * A motion stream shaped like a player's: both sticks circling at the rate a
+     * controller reports them, triggers squeezed now and then and the occasional
+     * d-pad tap.
+     */
+    private static float[] recordedStream(int count) {
+        float[] events = new float[count * AXES];
+        for (int e = 0; e < count; ++e) {
+            double t = e / 120.0;
+            int i = e * AXES;
+            events[i] = (float) Math.cos(t * 3.0);
+            events[i + 1] = (float) Math.sin(t * 3.0);
+            events[i + 2] = (float) Math.cos(t * 5.0) * 0.5f;
+            events[i + 3] = (float) Math.sin(t * 7.0) * 0.5f;
+            events[i + 4] = (e / 60) % 4 == 0 ? (e % 60) / 60.0f : 0.0f;
+            events[i + 5] = (e / 90) % 3 == 0 ? 1.0f : 0.0f;
+            events[i + 6] = (e / 30) % 8 == 1 ? -1.0f : ((e / 30) % 8 == 5 ? 1.0f : 0.0f);
+            events[i + 7] = (e / 45) % 6 == 2 ? 1.0f : 0.0f;
+        }
+        return events;
+    }
+}
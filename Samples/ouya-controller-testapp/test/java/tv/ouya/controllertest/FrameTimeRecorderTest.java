@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class FrameTimeRecorderTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void recordsTheIntervalBetweenFrames() throws Exception {
+        FrameTimeRecorder recorder = new FrameTimeRecorder(8);
+        recorder.onFrame(100 * MS);
+        recorder.onFrame(116 * MS);
+        recorder.onFrame(150 * MS);
+
+        long[] recent = new long[8];
+        assertEquals(2, recorder.copyRecent(recent));
+        assertEquals(16 * MS, recent[0]);
+        assertEquals(34 * MS, recent[1]);
+    }
+
+    @Test
+    public void resetSkipsTheGap() throws Exception {
+        FrameTimeRecorder recorder = new FrameTimeRecorder(8);
+        recorder.onFrame(100 * MS);
+        recorder.reset();
+        recorder.onFrame(5000 * MS);
+        recorder.onFrame(5016 * MS);
+
+        long[] recent = new long[8];
+        assertEquals(1, recorder.copyRecent(recent));
+        assertEquals(16 * MS, recent[0]);
+    }
+
+    @Test
+    public void keepsTheMostRecentIntervals() throws Exception {
+        FrameTimeRecorder recorder = new FrameTimeRecorder(4);
+        for (int i = 1; i <= 10; ++i) {
+            recorder.record(i);
+        }
+
+        long[] recent = new long[4];
+        assertEquals(4, recorder.copyRecent(recent));
+        assertEquals(7, recent[0]);
+        assertEquals(10, recent[3]);
+        assertEquals(10, recorder.getCount());
+    }
+
+    @Test
+    public void percentilesAndJank() throws Exception {
+        FrameTimeRecorder recorder = new FrameTimeRecorder(128);
+        // 96 good frames, 3 that missed one vsync and 1 that missed several
+        for (int i = 0; i < 96; ++i) {
+            recorder.record(16 * MS);
+        }
+        for (int i = 0; i < 3; ++i) {
+            recorder.record(33 * MS);
+        }
+        recorder.record(100 * MS);
+
+        FrameTimeRecorder.FrameStats stats = new FrameTimeRecorder.FrameStats();
+        recorder.computeStats(stats, new long[128]);
+
+        assertEquals(100, stats.getCount());
+        assertEquals(16 * MS, stats.getP50());
+        assertEquals(16 * MS, stats.getP95());
+        assertEquals(33 * MS, stats.getP99());
+        assertEquals(100 * MS, stats.getMax());
+        assertEquals(4, stats.getJankCount());
+        assertEquals((96 * 16 + 3 * 33 + 100) * MS / 100, stats.getMean());
+    }
+
+    @Test
+    public void emptyStatsAreZero() throws Exception {
+        FrameTimeRecorder.FrameStats stats = new FrameTimeRecorder.FrameStats();
+        new FrameTimeRecorder(8).computeStats(stats, new long[8]);
+
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getMax());
+        assertEquals(0.0, stats.getFps());
+    }
+
+    @Test
+    public void readersNeverSeeATornCopy() throws Exception {
+        final FrameTimeRecorder recorder = new FrameTimeRecorder(64);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final int writes = 2000000;
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long[] recent = new long[64];
+                while (recorder.getCount() < writes && failure.get() == null) {
+                    int n = recorder.copyRecent(recent);
+                    // The writer records 1, 2, 3...; a good copy is a consecutive run
+                    for (int i = 1; i < n; ++i) {
+                        if (recent[i] != recent[i - 1] + 1) {
+                            failure.set("copy jumped from " + recent[i - 1] + " to " + recent[i]);
+                            return;
+                        }
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (int i = 1; i <= writes; ++i) {
+            recorder.record(i);
+        }
+        reader.join();
+
+        assertNull(failure.get());
+    }
+}
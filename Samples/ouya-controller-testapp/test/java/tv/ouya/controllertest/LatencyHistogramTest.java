@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class LatencyHistogramTest {
+    private static final long MAX = 10 * 1000 * 1000;
+
+    @Test
+    public void smallValuesAreExact() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(MAX);
+        for (long v = 0; v < 128; ++v) {
+            int index = histogram.indexOf(v);
+            assertEquals(v, histogram.lowestEquivalentValue(index));
+            assertEquals(v, histogram.highestEquivalentValue(index));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguousAndWithinPrecision() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(MAX);
+        long expectedLow = 0;
+        for (int index = 0; index < histogram.getBucketCount(); ++index) {
+            long low = histogram.lowestEquivalentValue(index);
+            long high = histogram.highestEquivalentValue(index);
+            assertEquals(expectedLow, low);
+            assertEquals(index, histogram.indexOf(low));
+            assertEquals(index, histogram.indexOf(high));
+            // 7 bits of precision: every bucket is within 1/64 of its lowest value
+            assertTrue(high - low <= Math.max(0, low / 64));
+            expectedLow = high + 1;
+        }
+        assertTrue(expectedLow > MAX);
+    }
+
+    @Test
+    public void percentilesMatchASortedArrayWithinPrecision() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(MAX);
+        Random random = new Random(42);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; ++i) {
+            // Mostly a few ms, with a long tail
+            values[i] = (long) (Math.exp(random.nextGaussian() + 8.0));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[] {50.0, 90.0, 99.0, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100.0 * values.length) - 1];
+            long reported = histogram.getValueAtPercentile(percentile);
+            assertTrue(reported >= exact);
+            assertTrue("p" + percentile + " " + reported + " vs " + exact, reported - exact <= exact / 64);
+        }
+        assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100.0));
+        assertEquals(values[0], histogram.getMin());
+        assertEquals(values.length, histogram.getTotalCount());
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(1000);
+        histogram.record(-5);
+        histogram.record(5000);
+
+        assertEquals(0, histogram.getMin());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(1, histogram.getClampedCount());
+    }
+
+    @Test
+    public void resetForgetsEverything() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(MAX);
+        histogram.record(1234);
+        histogram.reset();
+
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getValueAtPercentile(99.0));
+        assertEquals(0, histogram.getMax());
+        assertEquals(0.0, histogram.getMean());
+    }
+
+    /**
+     * Not a pass/fail test: prints what recording a value costs.
+     */
+    @Test
+    public void benchmarkRecordCost() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(MAX);
+        Random random = new Random(42);
+        long[] values = new long[4096];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = (long) (Math.exp(random.nextGaussian() + 8.0));
+        }
+
+        final int records = 10000000;
+        long nanos = 0;
+        // warm up, then measure
+        for (int pass = 0; pass < 2; ++pass) {
+            long start = System.nanoTime();
+            for (int i = 0; i < records; ++i) {
+                histogram.record(values[i & (values.length - 1)]);
+            }
+            nanos = System.nanoTime() - start;
+        }
+
+        System.out.println(String.format("LatencyHistogram: %d buckets, %.1f ns/record",
+                histogram.getBucketCount(), (double) nanos / records));
+    }
+}
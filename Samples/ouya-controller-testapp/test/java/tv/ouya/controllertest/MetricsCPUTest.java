@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class MetricsCPUTest {
+    private static final double EPSILON = 0.0001;
+
+    private File file;
+    private MetricsCPU metrics;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("stat", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (metrics != null) {
+            metrics.close();
+        }
+        file.delete();
+    }
+
+    @Test
+    public void findsEveryCore() throws Exception {
+        write(stat(12, 0));
+        metrics = new MetricsCPU(file.getPath());
+
+        assertEquals(12, metrics.getCoreCount());
+    }
+
+    @Test
+    public void countsCoresThatAreOffline() throws Exception {
+        write(stat(4, 0).replaceAll("cpu[23] [^\n]*\n", ""));
+        metrics = new MetricsCPU(file.getPath(), 4);
+
+        assertEquals(4, metrics.getCoreCount());
+    }
+
+    @Test
+    public void readsKernelCpuLists() throws Exception {
+        assertEquals(4, MetricsCPU.parseCpuList("0-3\n"));
+        assertEquals(1, MetricsCPU.parseCpuList("0"));
+        assertEquals(6, MetricsCPU.parseCpuList("0,2-5"));
+
+        write("0-3\n");
+        assertEquals(4, MetricsCPU.countCores(file.getPath() + ".missing", file.getPath()));
+        assertEquals(0, MetricsCPU.countCores(file.getPath() + ".missing"));
+    }
+
+    @Test
+    public void offlineCoresReportZeroAndDontSpikeWhenTheyReturn() throws Exception {
+        write(stat(4, 0).replaceAll("cpu2 [^\n]*\n", ""));
+        metrics = new MetricsCPU(file.getPath(), 4);
+        CpuSnapshot snapshot = new CpuSnapshot();
+
+        write(stat(4, 10).replaceAll("cpu2 [^\n]*\n", ""));
+        metrics.sample(snapshot);
+        assertEquals(0, snapshot.getTotal(2));
+        assertEquals(10, snapshot.getDelta(3, CpuSnapshot.USER));
+
+        // Back online: its counters since boot aren't this sample's work
+        write(stat(4, 20));
+        metrics.sample(snapshot);
+        assertEquals(0, snapshot.getTotal(2));
+
+        write(stat(4, 30));
+        metrics.sample(snapshot);
+        assertEquals(10, snapshot.getDelta(2, CpuSnapshot.USER));
+    }
+
+    @Test
+    public void firstSampleStartsFromCreation() throws Exception {
+        write(stat(2, 0));
+        metrics = new MetricsCPU(file.getPath());
+        CpuSnapshot snapshot = new CpuSnapshot();
+
+        metrics.sample(snapshot);
+        assertEquals(0, snapshot.getTotal(CpuSnapshot.ALL_CORES));
+        assertEquals(0.0, snapshot.getBusyPercent(0), EPSILON);
+    }
+
+    @Test
+    public void tracksEachStatePerCore() throws Exception {
+        write(stat(11, 0));
+        metrics = new MetricsCPU(file.getPath());
+        CpuSnapshot snapshot = new CpuSnapshot();
+
+        write(stat(11, 10));
+        metrics.sample(snapshot);
+
+        assertEquals(11, snapshot.getCoreCount());
+        // Each state of core N moved by (state + 1) * 10, plus N for the idle state
+        assertEquals(10, snapshot.getDelta(10, CpuSnapshot.USER));
+        assertEquals(50, snapshot.getDelta(10, CpuSnapshot.IOWAIT));
+        assertEquals(80, snapshot.getDelta(10, CpuSnapshot.STEAL));
+        assertEquals(40 + 10, snapshot.getDelta(10, CpuSnapshot.IDLE));
+
+        long total = 360 + 10;
+        assertEquals(total, snapshot.getTotal(10));
+        assertEquals(50 * 100.0 / total, snapshot.getPercent(10, CpuSnapshot.IOWAIT), EPSILON);
+        assertEquals((total - 50 - 50) * 100.0 / total, snapshot.getBusyPercent(10), EPSILON);
+    }
+
+    @Test
+    public void tracksTheWholeMachine() throws Exception {
+        write(stat(4, 0));
+        metrics = new MetricsCPU(file.getPath());
+        CpuSnapshot snapshot = new CpuSnapshot();
+
+        write(stat(4, 10));
+        metrics.sample(snapshot);
+
+        assertEquals(4 * 10, snapshot.getDelta(CpuSnapshot.ALL_CORES, CpuSnapshot.USER));
+        assertEquals(4 * 40 + (0 + 1 + 2 + 3), snapshot.getDelta(CpuSnapshot.ALL_CORES, CpuSnapshot.IDLE));
+    }
+
+    @Test
+    public void eachSampleCoversTheTimeSinceTheLast() throws Exception {
+        write(stat(1, 0));
+        metrics = new MetricsCPU(file.getPath());
+        CpuSnapshot snapshot = new CpuSnapshot();
+
+        write(stat(1, 10));
+        metrics.sample(snapshot);
+        write(stat(1, 30));
+        metrics.sample(snapshot);
+
+        assertEquals(20, snapshot.getDelta(0, CpuSnapshot.USER));
+    }
+
+    /**
+     * A /proc/stat with the given number of cores, where every counter of every core
+     * has advanced by (state + 1) * step, plus an extra core-number * step / 10 idle.
+     */
+    private static String stat(int cores, int step) {
+        StringBuilder total = new StringBuilder("cpu ");
+        StringBuilder lines = new StringBuilder();
+        for (int cpu = 0; cpu < cores; ++cpu) {
+            lines.append("cpu").append(cpu);
+            for (int state = 0; state < ProcStatReader.MAX_FIELDS; ++state) {
+                long value = 1000 + (state + 1) * step;
+                if (state == CpuSnapshot.IDLE) {
+                    value += cpu * step / 10;
+                }
+                lines.append(' ').append(value);
+            }
+            lines.append('\n');
+        }
+        for (int state = 0; state < ProcStatReader.MAX_FIELDS; ++state) {
+            long value = cores * (1000L + (state + 1) * step);
+            if (state == CpuSnapshot.IDLE) {
+                value += (long) cores * (cores - 1) / 2 * step / 10;
+            }
+            total.append(' ').append(value);
+        }
+        return total.append('\n').append(lines).append("intr 1 2 3\nctxt 4\n").toString();
+    }
+
+    private void write(String contents) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class MetricsExporterTest {
+    private static final long MS = 1000000L;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("metrics", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void roundTripsThroughAFile() throws Exception {
+        MetricsExporter exporter = MetricsExporter.toFile(file);
+        offerSamples(exporter);
+        exporter.close();
+        assertEquals(7, exporter.getWrittenCount());
+        assertEquals(0, exporter.getDroppedCount());
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            checkSummary(MetricsLogReader.summarise(in.getChannel()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The reader listens on a local socket the way it does on the desktop end of
+     * "adb reverse".
+     */
+    @Test
+    public void streamsToALocalSocket() throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            MetricsExporter exporter = MetricsExporter.toSocket("127.0.0.1", server.socket().getLocalPort());
+
+            SocketChannel client = server.accept();
+            try {
+                offerSamples(exporter);
+                exporter.close();
+                checkSummary(MetricsLogReader.summarise(client));
+            } finally {
+                client.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void offerNeverWaitsForAStalledWriter() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        MetricsExporter exporter = new MetricsExporter(new MetricsExporter.Target() {
+            @Override
+            public WritableByteChannel open() throws IOException {
+                return new WritableByteChannel() {
+                    @Override
+                    public int write(ByteBuffer src) throws IOException {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e.toString());
+                        }
+                        int written = src.remaining();
+                        src.position(src.limit());
+                        return written;
+                    }
+
+                    @Override
+                    public boolean isOpen() {
+                        return true;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        }, 16);
+
+        long start = System.nanoTime();
+        int accepted = 0;
+        for (int i = 0; i < 1000; ++i) {
+            if (exporter.offer(MetricsExporter.TYPE_FRAMES, i, 6000, 16 * MS, 16 * MS, 16 * MS, 16 * MS, 0)) {
+                ++accepted;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(16, accepted);
+        assertEquals(1000 - 16, exporter.getDroppedCount());
+        assertTrue("offer blocked for " + elapsed + " ns", elapsed < TimeUnit.SECONDS.toNanos(1));
+
+        release.countDown();
+        exporter.close();
+        assertEquals(16, exporter.getWrittenCount());
+    }
+
+    @Test
+    public void closeGivesUpOnAStalledReader() throws Exception {
+        final CountDownLatch closed = new CountDownLatch(1);
+        MetricsExporter exporter = new MetricsExporter(new MetricsExporter.Target() {
+            @Override
+            public WritableByteChannel open() throws IOException {
+                return new WritableByteChannel() {
+                    @Override
+                    public int write(ByteBuffer src) throws IOException {
+                        // Like a socket whose reader has stopped, until it is closed
+                        try {
+                            closed.await();
+                        } catch (InterruptedException e) {
+                            // closing interrupts
+                        }
+                        throw new IOException("closed");
+                    }
+
+                    @Override
+                    public boolean isOpen() {
+                        return closed.getCount() > 0;
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.countDown();
+                    }
+                };
+            }
+        }, 16);
+        exporter.offer(MetricsExporter.TYPE_FRAMES, 0, 6000, 16 * MS, 16 * MS, 16 * MS, 16 * MS, 0);
+
+        long start = System.nanoTime();
+        assertFalse(exporter.close(100));
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue("close blocked for " + elapsed + " ns", elapsed < TimeUnit.SECONDS.toNanos(1));
+        assertTrue(closed.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void offerCpuReportsDrops() throws Exception {
+        MetricsExporter exporter = MetricsExporter.toFile(new File(file, "not-a-directory/metrics"));
+        CpuSnapshot snapshot = new CpuSnapshot();
+        snapshot.setCoreCount(2);
+        exporter.close();
+
+        assertFalse(exporter.offerCpu(0, snapshot));
+    }
+
+    @Test
+    public void reportsAFailedTarget() throws Exception {
+        MetricsExporter exporter = MetricsExporter.toFile(new File(file, "not-a-directory/metrics"));
+        exporter.close();
+        assertNotNull(exporter.getError());
+        assertTrue(!exporter.offer(MetricsExporter.TYPE_FRAMES, 0, 0, 0, 0, 0, 0, 0));
+    }
+
+    @Test
+    public void readerRejectsOtherFiles() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("cpu  1 2 3 4 5 6 7 0 0 0\n".getBytes("US-ASCII"));
+        out.close();
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            MetricsLogReader.summarise(in.getChannel());
+            fail("Read a /proc/stat file as a metrics log");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            in.close();
+        }
+    }
+
+    private void offerSamples(MetricsExporter exporter) {
+        FrameTimeRecorder frames = new FrameTimeRecorder(64);
+        for (int i = 0; i < 58; ++i) {
+            frames.record(16 * MS);
+        }
+        frames.record(50 * MS);
+        FrameTimeRecorder.FrameStats stats = new FrameTimeRecorder.FrameStats();
+        frames.computeStats(stats, new long[64]);
+
+        LatencyHistogram keyDown = new LatencyHistogram(OuyaPlotFPS.MAX_LATENCY_MICROS);
+        for (int i = 0; i < 100; ++i) {
+            keyDown.record(2000);
+        }
+
+        assertTrue(exporter.offerFrames(1000 * MS, stats));
+        assertTrue(exporter.offerFrames(2000 * MS, stats));
+        assertTrue(exporter.offer(MetricsExporter.TYPE_CPU, 2000 * MS, CpuSnapshot.ALL_CORES, 5000, 100, 0, 0, 0));
+        assertTrue(exporter.offer(MetricsExporter.TYPE_CPU, 2000 * MS, 0, 8000, 200, 0, 0, 0));
+        assertTrue(exporter.offer(MetricsExporter.TYPE_CPU, 2000 * MS, 1, 2000, 0, 0, 0, 0));
+        assertTrue(exporter.offerLatency(2000 * MS, MetricsExporter.LATENCY_KEY_DOWN, keyDown));
+        assertTrue(exporter.offerLatency(3000 * MS, MetricsExporter.LATENCY_MOTION, keyDown));
+    }
+
+    private void checkSummary(MetricsLogReader.Summary summary) {
+        assertEquals(7, summary.getRecordCount());
+        assertEquals(2.0, summary.getDurationSeconds(), 1e-9);
+
+        assertEquals(2, summary.getFrameSampleCount());
+        assertEquals(50 * MS, summary.getWorstFrame());
+        assertEquals(2, summary.getJankCount());
+        assertTrue(summary.getMeanFps() > 50.0 && summary.getMeanFps() < 62.5);
+
+        assertEquals(50.0, summary.getMeanBusyPercent(), 1e-9);
+        assertEquals(1.0, summary.getMeanIowaitPercent(), 1e-9);
+        assertEquals(2, summary.getCoreCount());
+        assertEquals(80.0, summary.getMeanBusyPercent(0), 1e-9);
+        assertEquals(20.0, summary.getMeanBusyPercent(1), 1e-9);
+
+        assertEquals(100, summary.getLatencyCount(MetricsExporter.LATENCY_KEY_DOWN));
+        assertEquals(0, summary.getLatencyCount(MetricsExporter.LATENCY_KEY_UP));
+        assertEquals(100, summary.getLatencyCount(MetricsExporter.LATENCY_MOTION));
+        long p99 = summary.getLatencyP99(MetricsExporter.LATENCY_KEY_DOWN);
+        assertTrue("p99 " + p99, p99 >= 2000 && p99 < 2000 + 2000 / 64);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import android.widget.TextView;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class OverlayTextTest {
+    private OuyaPlotFPS plot;
+
+    @Before
+    public void setUp() throws Exception {
+        plot = new OuyaPlotFPS(Robolectric.application);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        plot.Quit();
+    }
+
+    @Test
+    public void formatsNumbersLikeStringFormat() throws Exception {
+        OverlayText text = new OverlayText(64);
+        for (double value : new double[] {0.0, 0.004, 0.005, 1.5, 12.345, 99.999, -3.25, 1234567.891}) {
+            for (int decimals = 0; decimals <= 3; ++decimals) {
+                text.clear().append(value, decimals);
+                assertEquals(String.format(Locale.US, "%." + decimals + "f", value), text.toString());
+            }
+        }
+        text.clear().append(-42L).append(' ').append(0L).append(' ').append(Long.MAX_VALUE);
+        assertEquals("-42 0 " + Long.MAX_VALUE, text.toString());
+    }
+
+    @Test
+    public void dropsWhatDoesNotFit() throws Exception {
+        OverlayText text = new OverlayText(8);
+        text.clear().append("CPU").append(123456L);
+        assertEquals("CPU12345", text.toString());
+        text.append('x').append("yz");
+        assertEquals("CPU12345", text.toString());
+    }
+
+    @Test
+    public void onlyTouchesTheViewWhenTheTextChanges() throws Exception {
+        CountingTextView view = new CountingTextView();
+        OverlayText text = new OverlayText(32);
+
+        assertTrue(text.clear().append("FPS: ").append(59.94, 2).showIn(view));
+        assertFalse(text.clear().append("FPS: ").append(59.94, 2).showIn(view));
+        assertTrue(text.clear().append("FPS: ").append(60.0, 2).showIn(view));
+
+        assertEquals(2, view.setTextCount);
+        assertEquals("FPS: 60.00", view.text);
+    }
+
+    @Test
+    public void refreshingTheOverlayAllocatesNothing() throws Exception {
+        CountingTextView fps = new CountingTextView();
+        plot.m_fpsText = fps;
+        plot.m_cpu1Text = new CountingTextView();
+        plot.m_cpu2Text = new CountingTextView();
+        plot.m_cpu3Text = new CountingTextView();
+        plot.m_cpu4Text = new CountingTextView();
+        plot.m_threadsText = new CountingTextView();
+        plot.m_keyDownText = new CountingTextView();
+        plot.m_keyUpText = new CountingTextView();
+        plot.m_genericMotionText = new CountingTextView();
+        plot.setBenchmarkMode(true);
+        for (int i = 0; i < 100; ++i) {
+            plot.getFrameTimes().record(16000000 + i * 1000);
+            plot.m_keyDownLatency.record(2000 + i);
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        for (int i = 0; i < 1000; ++i) {
+            plot.updateText();
+        }
+
+        // The JIT can allocate a few bytes on this thread when it recompiles a method,
+        // so take the best of several runs rather than the first
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; ++run) {
+            long before = threads.getThreadAllocatedBytes(id);
+            for (int i = 0; i < 100; ++i) {
+                plot.updateText();
+            }
+            best = Math.min(best, threads.getThreadAllocatedBytes(id) - before);
+        }
+
+        assertEquals(0, best);
+        // Nothing changed after the first refresh
+        assertEquals(1, fps.setTextCount);
+    }
+
+    private static class CountingTextView extends TextView {
+        int setTextCount = 0;
+        String text;
+
+        CountingTextView() {
+            super(Robolectric.application);
+        }
+
+        @Override
+        public void setText(char[] chars, int start, int length) {
+            ++setTextCount;
+            text = new String(chars, start, length);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class ProcStatReaderTest {
+    private static final String STAT =
+            "cpu  4705 356 584 3699176 23060 0 277 0 0 0\n" +
+            "cpu0 1393 280 138 921180 4903 0 219 0 0 0\n" +
+            "cpu1 1102 12 154 926150 6250 0 19 0 0 0\n" +
+            "cpu2 1108 21 146 926018 5881 0 20 0 0 0\n" +
+            "cpu3 1102 43 146 925828 6026 0 19 0 0 0\n" +
+            "intr 1462898 0 0 0 0 0 0 0 0 1 0 0 0 0 0 0 0 0 0 0\n" +
+            "ctxt 11558245\n" +
+            "btime 1356028430\n" +
+            "processes 23418\n" +
+            "procs_running 1\n" +
+            "procs_blocked 0\n" +
+            "softirq 1165217 0 412466 6 59618 0 0 157 307946 1223 383801\n";
+
+    private File file;
+    private ProcStatReader reader;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("stat", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (reader != null) {
+            reader.close();
+        }
+        file.delete();
+    }
+
+    @Test
+    public void parsesEachCoreAndSkipsTheTotal() throws Exception {
+        write(STAT);
+        long[][] fields = new long[4][ProcStatReader.MAX_FIELDS];
+
+        assertEquals(4, open().read(fields));
+        assertEquals(1393, fields[0][0]);
+        assertEquals(921180, fields[0][3]);
+        assertEquals(219, fields[0][6]);
+        assertEquals(1102, fields[3][0]);
+        assertEquals(6026, fields[3][4]);
+    }
+
+    @Test
+    public void parsesTheWholeMachineLine() throws Exception {
+        write(STAT);
+        long[] total = new long[ProcStatReader.MAX_FIELDS];
+        long[][] fields = new long[4][ProcStatReader.MAX_FIELDS];
+
+        assertEquals(4, open().read(total, fields));
+        assertEquals(4705, total[0]);
+        assertEquals(3699176, total[3]);
+        assertEquals(1393, fields[0][0]);
+    }
+
+    @Test
+    public void missingFieldsAreZero() throws Exception {
+        // Older kernels stop after softirq
+        write("cpu  10 20 30 40 50 60 70\ncpu0 1 2 3 4 5 6 7\n");
+        long[][] fields = new long[1][ProcStatReader.MAX_FIELDS];
+        fields[0][9] = 99;
+
+        assertEquals(1, open().read(fields));
+        assertEquals(7, fields[0][6]);
+        assertEquals(0, fields[0][7]);
+        assertEquals(0, fields[0][9]);
+    }
+
+    @Test
+    public void coresBeyondTheArrayAreCountedButSkipped() throws Exception {
+        write(STAT);
+        long[][] fields = new long[2][ProcStatReader.MAX_FIELDS];
+
+        assertEquals(4, open().read(fields));
+        assertEquals(1102, fields[1][0]);
+    }
+
+    @Test
+    public void filesBiggerThanTheBufferAreReadWhole() throws Exception {
+        StringBuilder stat = new StringBuilder("cpu  1 2 3 4 5 6 7 8 9 10\n");
+        for (int i = 0; i < 200; ++i) {
+            stat.append("cpu").append(i).append(" 11 22 33 44 55 66 77 88 99 ").append(i).append('\n');
+        }
+        write(stat.toString());
+        long[][] fields = new long[200][ProcStatReader.MAX_FIELDS];
+
+        assertEquals(200, open().read(fields));
+        assertEquals(199, fields[199][9]);
+    }
+
+    @Test
+    public void everyReadSeesTheCurrentContents() throws Exception {
+        write(STAT);
+        long[][] fields = new long[4][ProcStatReader.MAX_FIELDS];
+        open().read(fields);
+
+        write(STAT.replace("cpu0 1393", "cpu0 1500"));
+        reader.read(fields);
+        assertEquals(1500, fields[0][0]);
+    }
+
+    /**
+     * Not a pass/fail test: prints the cost of sampling the real /proc/stat with the
+     * reader against the readLine() and split() parsing MetricsCPU used to do.
+     */
+    @Test
+    public void benchmarkReadCost() throws Exception {
+        File stat = new File("/proc/stat");
+        if (!stat.exists()) {
+            System.out.println("ProcStatReader: no /proc/stat, skipping benchmark");
+            return;
+        }
+
+        final int reads = 2000;
+        long[][] fields = new long[4][ProcStatReader.MAX_FIELDS];
+        reader = new ProcStatReader(stat.getPath());
+        RandomAccessFile raf = new RandomAccessFile(stat, "r");
+        try {
+            long oldNanos = 0, newNanos = 0;
+            // warm up, then measure
+            for (int pass = 0; pass < 2; ++pass) {
+                long start = System.nanoTime();
+                for (int i = 0; i < reads; ++i) {
+                    readLines(raf, fields);
+                }
+                oldNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < reads; ++i) {
+                    reader.read(fields);
+                }
+                newNanos = System.nanoTime() - start;
+            }
+
+            System.out.println(String.format("ProcStatReader: readLine/split %8.1f us/read  pread %6.1f us/read",
+                    oldNanos / 1000.0 / reads, newNanos / 1000.0 / reads));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * How MetricsCPU read /proc/stat before ProcStatReader.
+     */
+    private static void readLines(RandomAccessFile raf, long[][] fields) throws IOException {
+        raf.seek(0L);
+        String line;
+        while ((line = raf.readLine()) != null) {
+            if (line.startsWith("cpu") && Character.isDigit(line.charAt(3))) {
+                String[] segs = line.trim().split("[ ]+");
+                int cpu = Integer.parseInt(segs[0].substring(3));
+                if (cpu < fields.length) {
+                    for (int i = 1; i < segs.length && i <= fields[cpu].length; ++i) {
+                        fields[cpu][i - 1] = Long.parseLong(segs[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    private ProcStatReader open() throws IOException {
+        reader = new ProcStatReader(file.getPath());
+        return reader;
+    }
+
+    private void write(String contents) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+}
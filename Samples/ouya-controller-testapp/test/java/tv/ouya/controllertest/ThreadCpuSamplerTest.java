@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012 OUYA, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.ouya.controllertest;
+
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ThreadCpuSamplerTest {
+    private File taskDir;
+    private ThreadCpuSampler sampler;
+
+    @Before
+    public void setUp() throws Exception {
+        taskDir = File.createTempFile("task", null);
+        taskDir.delete();
+        taskDir.mkdir();
+        sampler = new ThreadCpuSampler(taskDir.getPath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sampler.close();
+        delete(taskDir);
+    }
+
+    @Test
+    public void firstSampleOnlySetsTheBaseline() throws Exception {
+        writeStat(100, "main", 500, 200);
+
+        assertEquals(1, sampler.sample());
+        assertEquals("main", sampler.getName(0));
+        assertEquals(100, sampler.getTid(0));
+        assertEquals(0, sampler.getUserTicks(0));
+        assertEquals(0, sampler.getSystemTicks(0));
+    }
+
+    @Test
+    public void reportsUserAndSystemTimeSinceTheLastSample() throws Exception {
+        writeStat(100, "main", 500, 200);
+        sampler.sample();
+
+        writeStat(100, "main", 530, 210);
+        sampler.sample();
+        assertEquals(30, sampler.getUserTicks(0));
+        assertEquals(10, sampler.getSystemTicks(0));
+    }
+
+    @Test
+    public void hottestThreadsComeFirst() throws Exception {
+        writeStat(100, "main", 0, 0);
+        writeStat(101, "GLThread 12", 0, 0);
+        writeStat(102, "Binder_1", 0, 0);
+        writeStat(103, "AsyncTask #1", 0, 0);
+        sampler.sample();
+
+        writeStat(100, "main", 20, 5);
+        writeStat(101, "GLThread 12", 50, 10);
+        writeStat(102, "Binder_1", 1, 0);
+        writeStat(103, "AsyncTask #1", 30, 0);
+        sampler.sample();
+
+        int[] hottest = new int[3];
+        assertEquals(3, sampler.getHottest(hottest));
+        assertEquals("GLThread 12", sampler.getName(hottest[0]));
+        assertEquals("AsyncTask #1", sampler.getName(hottest[1]));
+        assertEquals("main", sampler.getName(hottest[2]));
+    }
+
+    @Test
+    public void fewerThreadsThanAskedFor() throws Exception {
+        writeStat(100, "main", 0, 0);
+        sampler.sample();
+
+        int[] hottest = new int[3];
+        assertEquals(1, sampler.getHottest(hottest));
+        assertEquals(0, hottest[0]);
+    }
+
+    @Test
+    public void namesMayContainParenthesesAndSpaces() throws Exception {
+        writeStat(100, "odd) (name", 10, 20);
+        sampler.sample();
+        writeStat(100, "odd) (name", 15, 22);
+        sampler.sample();
+
+        assertEquals("odd) (name", sampler.getName(0));
+        assertEquals(5, sampler.getUserTicks(0));
+        assertEquals(2, sampler.getSystemTicks(0));
+    }
+
+    @Test
+    public void followsRenames() throws Exception {
+        writeStat(100, "Thread-5", 0, 0);
+        sampler.sample();
+        writeStat(100, "Simulation", 0, 0);
+        sampler.sample();
+
+        assertEquals("Simulation", sampler.getName(0));
+    }
+
+    @Test
+    public void threadsComeAndGo() throws Exception {
+        writeStat(100, "main", 0, 0);
+        writeStat(101, "worker", 0, 0);
+        assertEquals(2, sampler.sample());
+
+        delete(new File(taskDir, "100"));
+        writeStat(102, "late", 0, 0);
+        assertEquals(2, sampler.sample());
+
+        int[] hottest = new int[2];
+        sampler.getHottest(hottest);
+        assertTrue(sampler.getTid(hottest[0]) != 100);
+        assertTrue(sampler.getTid(hottest[1]) != 100);
+    }
+
+    @Test
+    public void readsOurOwnThreads() throws Exception {
+        File self = new File("/proc/self/task");
+        if (!self.exists()) {
+            return;
+        }
+        ThreadCpuSampler real = new ThreadCpuSampler();
+        try {
+            assertTrue(real.sample() > 0);
+            assertTrue(real.getName(0).length() > 0);
+        } finally {
+            real.close();
+        }
+    }
+
+    /**
+     * Write task/[tid]/stat as the kernel lays it out.
+     */
+    private void writeStat(int tid, String name, long utime, long stime) throws IOException {
+        File dir = new File(taskDir, Integer.toString(tid));
+        dir.mkdir();
+        String stat = tid + " (" + name + ") S 1 1 0 0 -1 4194624 6893 0 0 0 "
+                + utime + " " + stime + " 0 0 20 0 12 0 3021 1050320896 14500 4294967295\n";
+        FileOutputStream out = new FileOutputStream(new File(dir, "stat"));
+        try {
+            out.write(stat.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}